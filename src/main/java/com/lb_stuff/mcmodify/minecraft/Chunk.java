@@ -1,8 +1,10 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -46,13 +48,13 @@ public class Chunk
 	private static class Section
 	{
 		/**
-		 * The blocks in this section.
+		 * The blocks in this section. These may be views of the decode buffer, which are copied when first changed.
 		 */
-		byte[] blocks, add, data;
+		Tag.ByteArray blocks, add, data;
 		/**
-		 * The light in this section.
+		 * The light in this section. These may be views of the decode buffer, which are copied when first changed.
 		 */
-		byte[] blocklight, skylight;
+		Tag.ByteArray blocklight, skylight;
 
 		/**
 		 * Constructs a Section from the given tag.
@@ -61,32 +63,29 @@ public class Chunk
 		 */
 		public Section(Tag.Compound section) throws FormatException
 		{
-			blocks = ((Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "Blocks")).v;
-			try
-			{
-				add = ((Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "Add")).v;
-			}
-			catch(FormatException e)
+			blocks = (Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "Blocks");
+			add = section.getByteArrayOrNull("Add");
+			if(add == null)
 			{
-				add = new byte[2048];
+				add = new Tag.ByteArray("Add", new byte[2048]);
 			}
-			data = ((Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "Data")).v;
-			blocklight = ((Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "BlockLight")).v;
-			skylight = ((Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "SkyLight")).v;
+			data = (Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "Data");
+			blocklight = (Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "BlockLight");
+			skylight = (Tag.ByteArray)section.find(Tag.Type.BYTEARRAY, "SkyLight");
 		}
 		/**
 		 * Constructs an empty Section.
 		 */
 		public Section()
 		{
-			blocks = new byte[4096];
-			add = new byte[2048];
-			data = new byte[2048];
-			blocklight = new byte[2048];
-			skylight = new byte[2048];
+			blocks = new Tag.ByteArray("Blocks", new byte[4096]);
+			add = new Tag.ByteArray("Add", new byte[2048]);
+			data = new Tag.ByteArray("Data", new byte[2048]);
+			blocklight = new Tag.ByteArray("BlockLight", new byte[2048]);
+			skylight = new Tag.ByteArray("SkyLight", new byte[2048]);
 			for(int i = 0; i < 2048; ++i)
 			{
-				skylight[i] = 15; //full exposure to sky
+				skylight.v[i] = 15; //full exposure to sky
 			}
 		}
 
@@ -96,21 +95,14 @@ public class Chunk
 		 */
 		public boolean Empty()
 		{
-			for(byte block : blocks)
+			for(int i = 0; i < blocks.length(); ++i)
 			{
-				if(block != 0)
+				if(blocks.get(i) != 0)
 				{
 					return false;
 				}
 			}
-			for(byte block : add)
-			{
-				if(block != 0)
-				{
-					return false;
-				}
-			}
-			return true;
+			return !HasAdd();
 		}
 
 		/**
@@ -120,17 +112,13 @@ public class Chunk
 		 */
 		public Tag.Compound ToNBT(String name)
 		{
-			Tag.Compound t = new Tag.Compound(name, new Tag.ByteArray("Blocks", blocks),
-													new Tag.ByteArray("Data", data),
-													new Tag.ByteArray("BlockLight", blocklight),
-													new Tag.ByteArray("SkyLight", skylight));
-			for(byte b : add)
+			Tag.Compound t = new Tag.Compound(name, new Tag.ByteArray("Blocks", blocks.array()),
+													new Tag.ByteArray("Data", data.array()),
+													new Tag.ByteArray("BlockLight", blocklight.array()),
+													new Tag.ByteArray("SkyLight", skylight.array()));
+			if(HasAdd())
 			{
-				if(b != 0)
-				{
-					t.add(new Tag.ByteArray("Add", add));
-					break;
-				}
+				t.add(new Tag.ByteArray("Add", add.array()));
 			}
 			return t;
 		}
@@ -143,19 +131,50 @@ public class Chunk
 		public Tag.Compound ToNBT(String name, byte y)
 		{
 			Tag.Compound t = new Tag.Compound(name, new Tag.Byte("Y", y),
-													new Tag.ByteArray("Blocks", blocks),
-													new Tag.ByteArray("Data", data),
-													new Tag.ByteArray("BlockLight", blocklight),
-													new Tag.ByteArray("SkyLight", skylight));
-			for(byte b : add)
+													new Tag.ByteArray("Blocks", blocks.array()),
+													new Tag.ByteArray("Data", data.array()),
+													new Tag.ByteArray("BlockLight", blocklight.array()),
+													new Tag.ByteArray("SkyLight", skylight.array()));
+			if(HasAdd())
+			{
+				t.add(new Tag.ByteArray("Add", add.array()));
+			}
+			return t;
+		}
+		/**
+		 * Writes this section as an unnamed compound tag, without copying the block arrays even if they are views.
+		 * @param w The writer to write to.
+		 * @param y The Y index this section should have.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		public void ToNBT(NbtWriter w, byte y) throws IOException
+		{
+			w.beginCompound();
+			w.name("Y").writeByte(y);
+			w.name("Blocks").writeTag(blocks);
+			w.name("Data").writeTag(data);
+			w.name("BlockLight").writeTag(blocklight);
+			w.name("SkyLight").writeTag(skylight);
+			if(HasAdd())
+			{
+				w.name("Add").writeTag(add);
+			}
+			w.endCompound();
+		}
+		/**
+		 * Returns whether any block in this section has a non-zero Add nibble.
+		 * @return Whether the Add array needs to be saved.
+		 */
+		private boolean HasAdd()
+		{
+			for(int i = 0; i < add.length(); ++i)
 			{
-				if(b != 0)
+				if(add.get(i) != 0)
 				{
-					t.add(new Tag.ByteArray("Add", add));
-					break;
+					return true;
 				}
 			}
-			return t;
+			return false;
 		}
 	}
 	/**
@@ -298,6 +317,22 @@ public class Chunk
 										  new Tag.Int("y", y),
 										  new Tag.Int("z", z));
 		}
+		/**
+		 * Writes this tile tick as a compound tag.
+		 * @param w The writer to write to.
+		 * @param name The name that the compound tag should have, or null if it is written into a list.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		public void ToNBT(NbtWriter w, String name) throws IOException
+		{
+			w.name(name).beginCompound();
+			w.name("i").writeInt(i);
+			w.name("t").writeInt(t);
+			w.name("x").writeInt(x);
+			w.name("y").writeInt(y);
+			w.name("z").writeInt(z);
+			w.endCompound();
+		}
 	}
 	/**
 	 * The Tile Ticks in this chunk.
@@ -311,27 +346,14 @@ public class Chunk
 		xpos = ((Tag.Int)chunk.find(Tag.Type.INT, "xPos")).v;
 		zpos = ((Tag.Int)chunk.find(Tag.Type.INT, "zPos")).v;
 		lastupdate = ((Tag.Long)chunk.find(Tag.Type.LONG, "LastUpdate")).v;
-		try
-		{
-			inhabitedtime = ((Tag.Long)chunk.find(Tag.Type.LONG, "InhabitedTime")).v;
-		}
-		catch(FormatException e)
-		{
-			inhabitedtime = 0;
-		}
-		try
-		{
-			terrainpopulated = ((Tag.Byte)chunk.find(Tag.Type.BYTE, "TerrainPopulated")).v != 0 ? true : false;
-		}
-		catch(FormatException e)
-		{
-			terrainpopulated = false;
-		}
-		try
+		inhabitedtime = chunk.getLongOr("InhabitedTime", 0);
+		terrainpopulated = chunk.getByteOr("TerrainPopulated", (byte)0) != 0 ? true : false;
+		Tag.ByteArray biomearray = chunk.getByteArrayOrNull("Biomes");
+		if(biomearray != null)
 		{
-			biomes = ((Tag.ByteArray)chunk.find(Tag.Type.BYTEARRAY, "Biomes")).v;
+			biomes = biomearray.array();
 		}
-		catch(FormatException e)
+		else
 		{
 			biomes = new byte[256];
 			for(int i = 0; i < 256; ++i)
@@ -343,7 +365,7 @@ public class Chunk
 		{
 			throw new FormatException("Invalid Biomes Array; size was "+biomes.length+" instead of 256", original);
 		}
-		heightmap = ((Tag.IntArray)chunk.find(Tag.Type.INTARRAY, "HeightMap")).v;
+		heightmap = ((Tag.IntArray)chunk.find(Tag.Type.INTARRAY, "HeightMap")).array();
 		if(heightmap.length != 256)
 		{
 			throw new FormatException("Invalid Height Map Array; size was "+heightmap.length+" instead of 256", original);
@@ -412,12 +434,8 @@ public class Chunk
 				throw new FormatException(e, original);
 			}
 		}
-		Tag.List tileticklist;
-		try
-		{
-			tileticklist = (Tag.List)chunk.find(Tag.Type.LIST, "TileTicks");
-		}
-		catch(FormatException e)
+		Tag.List tileticklist = chunk.getListOrNull("TileTicks");
+		if(tileticklist == null)
 		{
 			tileticklist = new Tag.List(null, Tag.Type.COMPOUND);
 		}
@@ -452,9 +470,9 @@ public class Chunk
 	 * @param index The index of the nibble to taste.
 	 * @return The specified nibble in the array.
 	 */
-	private static byte Nibble4(byte[] arr, int index)
+	private static byte Nibble4(Tag.ByteArray arr, int index)
 	{
-		return (byte)((index&1) == 0 ? arr[index/2]&0x0F : arr[index/2]>>4);
+		return (byte)((index&1) == 0 ? arr.get(index/2)&0x0F : arr.get(index/2)>>4);
 	}
 	/**
 	 * Utility function, sets the nibble at the given index in the given 4-bit value array.
@@ -489,7 +507,7 @@ public class Chunk
 		}
 		Section s = sections.get((byte)(y/16));
 		y %= 16;
-		return (short)(s.blocks[y*16*16 + z*16 + x] + (Nibble4(s.add, y*16*16 + z*16 + x)<<8));
+		return (short)(s.blocks.get(y*16*16 + z*16 + x) + (Nibble4(s.add, y*16*16 + z*16 + x)<<8));
 	}
 	/**
 	 * Sets the ID of the block at the given coordinates, or does nothing if the coordinates are invalid.
@@ -516,8 +534,8 @@ public class Chunk
 			s = sections.get((byte)(y/16));
 		}
 		y %= 16;
-		s.blocks[y*16*16 + z*16 + x] = (byte)ID;
-		Nibble4(s.add, y*16*16 + z*16 + x, (byte)(ID>>8));
+		s.blocks.set(y*16*16 + z*16 + x, (byte)ID);
+		Nibble4(s.add.array(), y*16*16 + z*16 + x, (byte)(ID>>8));
 	}
 
 	/**
@@ -568,7 +586,7 @@ public class Chunk
 			s = sections.get((byte)(y/16));
 		}
 		y %= 16;
-		Nibble4(s.data, y*16*16 + z*16 + x, nibble);
+		Nibble4(s.data.array(), y*16*16 + z*16 + x, nibble);
 	}
 
 	/**
@@ -619,7 +637,7 @@ public class Chunk
 			s = sections.get((byte)(y/16));
 		}
 		y %= 16;
-		Nibble4(s.blocklight, y*16*16 + z*16 + x, nibble);
+		Nibble4(s.blocklight.array(), y*16*16 + z*16 + x, nibble);
 	}
 
 	/**
@@ -670,7 +688,7 @@ public class Chunk
 			s = sections.get((byte)(y/16));
 		}
 		y %= 16;
-		Nibble4(s.skylight, y*16*16 + z*16 + x, nibble);
+		Nibble4(s.skylight.array(), y*16*16 + z*16 + x, nibble);
 	}
 
 	/**
@@ -938,7 +956,7 @@ public class Chunk
 			Section sec = s.getValue();
 			if(!sec.Empty())
 			{
-				sectionlist.add(sec.ToNBT(null, s.getKey()));
+				sectionlist.add(sec.ToNBT((String)null, s.getKey()));
 			}
 		}
 		for(Entity e : entities)
@@ -973,4 +991,67 @@ public class Chunk
 		}
 		return new Tag.Compound(name, t);
 	}
+	/**
+	 * Writes the tag for this chunk directly, without building the tag tree or wrapping the block arrays.
+	 * @param w The writer to write to.
+	 * @param name The name that the compound tag should have, or null if it is written into a list.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void ToNBT(NbtWriter w, String name) throws IOException
+	{
+		w.name(name).beginCompound();
+		w.name("Level").beginCompound();
+		w.name("xPos").writeInt(xpos);
+		w.name("zPos").writeInt(zpos);
+		w.name("LastUpdate").writeLong(lastupdate);
+		w.name("InhabitedTime").writeLong(inhabitedtime);
+		w.name("TerrainPopulated").writeByte((byte)(terrainpopulated?1:0));
+		w.name("HeightMap").writeIntArray(heightmap);
+		int nonempty = 0;
+		for(Section sec : sections.values())
+		{
+			if(!sec.Empty())
+			{
+				++nonempty;
+			}
+		}
+		w.name("Sections").beginList(Tag.Type.COMPOUND, nonempty);
+		for(Map.Entry<Byte, Section> s : sections.entrySet())
+		{
+			Section sec = s.getValue();
+			if(!sec.Empty())
+			{
+				sec.ToNBT(w, s.getKey());
+			}
+		}
+		w.endList();
+		w.name("Entities").beginList(Tag.Type.COMPOUND, entities.size());
+		for(Entity e : entities)
+		{
+			e.ToNBT(w, null);
+		}
+		w.endList();
+		w.name("TileEntities").beginList(Tag.Type.COMPOUND, tileentities.size());
+		for(TileEntity te : tileentities)
+		{
+			te.ToNBT(w, null);
+		}
+		w.endList();
+		w.name("TileTicks").beginList(Tag.Type.COMPOUND, tileticks.size());
+		for(TileTick tt : tileticks)
+		{
+			tt.ToNBT(w, null);
+		}
+		w.endList();
+		for(byte b : biomes)
+		{
+			if(b != -1)
+			{
+				w.name("Biomes").writeByteArray(biomes);
+				break;
+			}
+		}
+		w.endCompound();
+		w.endCompound();
+	}
 }
@@ -1,26 +1,244 @@
 package com.lb_stuff.mcmodify.minecraft;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
+/**
+ * The compression schemes of chunks in region files and of other NBT files.
+ * <p>
+ * The streams returned by <code>getInputStream</code> and <code>getOutputStream</code> take their
+ * <code>Inflater</code> or <code>Deflater</code> and their buffer from a small pool kept by each thread, and reset and
+ * return them when they are closed, instead of leaving a native codec behind for the garbage collector to free.
+ * <code>compress</code> and <code>decompress</code> also reuse a scratch buffer kept by each thread, so converting
+ * chunks in bulk allocates little more than the results.
+ * <p>
+ * How data is compressed can be chosen with <code>CompressionSettings</code>; without them the JDK defaults are used, and
+ * the output is identical to that of the JDK streams.
+ * <p>
+ * <code>Store</code> and <code>LZ4</code> are meant for scratch regions between passes of a pipeline, where decoding
+ * speed matters more than size. They use the ids that newer versions of Minecraft use for them, but older versions
+ * cannot read them, so convert such regions back with <code>MemoryRegion.convertForGame</code> before the game sees
+ * them.
+ */
 public enum CompressionScheme
 {
 	None,
 	GZip,
 	Zlib,
+	/**
+	 * Uncompressed chunks in a region file, which unlike <code>None</code> have an id.
+	 */
+	Store,
+	/**
+	 * LZ4 blocks, framed as by lz4-java. Compression settings do not apply to it.
+	 */
+	LZ4,
 	;
 
+	/**
+	 * The size of the buffers of the pooled streams.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * The most codecs of each kind and buffers kept by a thread for reuse.
+	 */
+	private static final int MAX_POOLED = 4;
+	/**
+	 * The size of the blocks that <code>compressParallel</code> deflates on separate threads, as pigz uses.
+	 */
+	private static final int PARALLEL_BLOCK = 128*1024;
+	/**
+	 * The size of the deflate window: each block of <code>compressParallel</code> is primed with this much of the data
+	 * before it, so it compresses almost as well as if it were not split off.
+	 */
+	private static final int WINDOW = 32*1024;
+	/**
+	 * The header written by the GZip output stream: the magic number, the deflate method, no flags, no modification
+	 * time, no extra flags and an unknown operating system.
+	 */
+	private static final byte[] GZIP_HEADER = {0x1F, (byte)0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xFF};
+	/**
+	 * The codecs and buffers kept by each thread.
+	 */
+	private static final ThreadLocal<Pool> POOL = new ThreadLocal<Pool>()
+	{
+		/**
+		 * Creates an empty pool for a thread.
+		 * @return The new pool.
+		 */
+		@Override protected Pool initialValue()
+		{
+			return new Pool();
+		}
+	};
+
+	/**
+	 * Codecs and buffers kept by a single thread for reuse.
+	 */
+	private static final class Pool
+	{
+		/**
+		 * Reset inflaters for raw deflate data, as framed by GZip.
+		 */
+		final ArrayDeque<Inflater> rawInflaters = new ArrayDeque<>();
+		/**
+		 * Reset inflaters for zlib data.
+		 */
+		final ArrayDeque<Inflater> zlibInflaters = new ArrayDeque<>();
+		/**
+		 * Reset deflaters for raw deflate data, as framed by GZip.
+		 */
+		final ArrayDeque<Deflater> rawDeflaters = new ArrayDeque<>();
+		/**
+		 * Reset deflaters for zlib data.
+		 */
+		final ArrayDeque<Deflater> zlibDeflaters = new ArrayDeque<>();
+		/**
+		 * Stream buffers of <code>BUFFER_SIZE</code> bytes.
+		 */
+		final ArrayDeque<byte[]> buffers = new ArrayDeque<>();
+		/**
+		 * The scratch buffer of <code>compress</code> and <code>decompress</code>, which only grows.
+		 */
+		byte[] scratch = new byte[64*1024];
+		/**
+		 * The match table of the LZ4 compressor, created when first needed.
+		 */
+		int[] lz4Table;
+
+		/**
+		 * Takes an inflater from the pool, creating one if there is none.
+		 * @param raw Whether the inflater is for raw deflate data rather than zlib data.
+		 * @return The inflater.
+		 */
+		Inflater inflater(boolean raw)
+		{
+			Inflater inf = (raw ? rawInflaters : zlibInflaters).poll();
+			return inf != null ? inf : new Inflater(raw);
+		}
+		/**
+		 * Takes a deflater from the pool, creating one if there is none, and applies the given settings to it.
+		 * @param raw Whether the deflater is for raw deflate data rather than zlib data.
+		 * @param settings The level and strategy to use.
+		 * @return The deflater.
+		 */
+		Deflater deflater(boolean raw, CompressionSettings settings)
+		{
+			Deflater def = (raw ? rawDeflaters : zlibDeflaters).poll();
+			return settings.apply(def != null ? def : new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+		}
+		/**
+		 * Takes a stream buffer from the pool, creating one if there is none or if another size is asked for.
+		 * @param size The size of the buffer.
+		 * @return The buffer.
+		 */
+		byte[] buffer(int size)
+		{
+			byte[] b = (size == BUFFER_SIZE ? buffers.poll() : null);
+			return b != null ? b : new byte[size];
+		}
+		/**
+		 * Resets an inflater and returns it to the pool, or frees it if the pool is full.
+		 * @param inf The inflater.
+		 * @param raw Whether the inflater is for raw deflate data rather than zlib data.
+		 */
+		void release(Inflater inf, boolean raw)
+		{
+			ArrayDeque<Inflater> pool = (raw ? rawInflaters : zlibInflaters);
+			if(pool.size() < MAX_POOLED)
+			{
+				inf.reset();
+				pool.push(inf);
+			}
+			else
+			{
+				inf.end();
+			}
+		}
+		/**
+		 * Resets a deflater and returns it to the pool, or frees it if the pool is full.
+		 * @param def The deflater.
+		 * @param raw Whether the deflater is for raw deflate data rather than zlib data.
+		 */
+		void release(Deflater def, boolean raw)
+		{
+			ArrayDeque<Deflater> pool = (raw ? rawDeflaters : zlibDeflaters);
+			if(pool.size() < MAX_POOLED)
+			{
+				def.reset();
+				pool.push(def);
+			}
+			else
+			{
+				def.end();
+			}
+		}
+		/**
+		 * Returns a stream buffer to the pool, unless the pool is full or the buffer is not of the pooled size.
+		 * @param b The buffer.
+		 */
+		void release(byte[] b)
+		{
+			if(b.length == BUFFER_SIZE && buffers.size() < MAX_POOLED)
+			{
+				buffers.push(b);
+			}
+		}
+		/**
+		 * Returns the match table of the LZ4 compressor.
+		 * @return The match table.
+		 */
+		int[] lz4Table()
+		{
+			if(lz4Table == null)
+			{
+				lz4Table = new int[1 << Lz4.HASH_LOG];
+			}
+			return lz4Table;
+		}
+		/**
+		 * Returns the scratch buffer, grown to at least the given size.
+		 * @param size The size needed, in bytes.
+		 * @return The scratch buffer.
+		 */
+		byte[] scratch(long size)
+		{
+			if(size > Integer.MAX_VALUE - 8)
+			{
+				throw new OutOfMemoryError("Data too large for a byte array: "+size);
+			}
+			if(scratch.length < size)
+			{
+				scratch = Arrays.copyOf(scratch, (int)Math.max(size, Math.min(2L*scratch.length, Integer.MAX_VALUE - 8)));
+			}
+			return scratch;
+		}
+	}
+
 	public static CompressionScheme fromId(byte id)
 	{
 		switch(id)
 		{
 			case 1: return GZip;
 			case 2: return Zlib;
+			case 3: return Store;
+			case 4: return LZ4;
 			default: return null;
 		}
 	}
@@ -31,6 +249,8 @@ public enum CompressionScheme
 			case None: throw new IllegalArgumentException("There is no Id for compression scheme " + this);
 			case GZip: return 1;
 			case Zlib: return 2;
+			case Store: return 3;
+			case LZ4: return 4;
 			default: throw new IllegalStateException();
 		}
 	}
@@ -40,19 +260,741 @@ public enum CompressionScheme
 		switch(this)
 		{
 			case None: return original;
-			case GZip: return new GZIPInputStream(original);
-			case Zlib: return new InflaterInputStream(original);
+			case GZip: return new PooledInputStream(original, true);
+			case Zlib: return new PooledInputStream(original, false);
+			case Store: return original;
+			case LZ4: return new Lz4.BlockInputStream(original);
 			default: throw new IllegalStateException();
 		}
 	}
 	public OutputStream getOutputStream(OutputStream original) throws IOException
+	{
+		return getOutputStream(original, CompressionSettings.DEFAULT);
+	}
+	/**
+	 * Returns a stream that compresses data with this scheme and the given settings.
+	 * @param original The stream to write the compressed data to.
+	 * @param settings How to compress the data.
+	 * @return The compressing stream, or <code>original</code> for <code>None</code>.
+	 * @throws IOException if the GZip header cannot be written.
+	 */
+	public OutputStream getOutputStream(OutputStream original, CompressionSettings settings) throws IOException
 	{
 		switch(this)
 		{
 			case None: return original;
-			case GZip: return new GZIPOutputStream(original);
-			case Zlib: return new DeflaterOutputStream(original);
+			case GZip: return new PooledOutputStream(original, true, settings);
+			case Zlib: return new PooledOutputStream(original, false, settings);
+			case Store: return original;
+			case LZ4: return new Lz4.BlockOutputStream(original);
 			default: throw new IllegalStateException();
 		}
 	}
+
+	/**
+	 * Decompresses data held in memory with a pooled codec, inflating into a scratch buffer kept by the calling thread.
+	 * LZ4 data is decoded straight into the result instead, since its block headers give its length.
+	 * @param b The array holding the compressed data.
+	 * @param off The index of the first byte of the compressed data.
+	 * @param len The length of the compressed data.
+	 * @return A new array holding exactly the decompressed data.
+	 * @throws IOException if the data is not valid for this scheme or ends early.
+	 */
+	public byte[] decompress(byte[] b, int off, int len) throws IOException
+	{
+		if(this == None || this == Store)
+		{
+			return Arrays.copyOfRange(b, off, off + len);
+		}
+		if(this == LZ4)
+		{
+			byte[] out = new byte[Lz4.decompressedLength(b, off, len)];
+			Lz4.decompress(b, off, len, out);
+			return out;
+		}
+		return readAll(getInputStream(new ByteArrayInputStream(b, off, len)), len);
+	}
+	/**
+	 * Decompresses the remaining data of a buffer, which may be direct or memory-mapped, without copying it to an
+	 * array first. The data is inflated straight from the buffer into a scratch buffer kept by the calling thread.
+	 * Afterward the buffer's position is at its limit.
+	 * @param src The buffer holding the compressed data from its position to its limit.
+	 * @return A new array holding exactly the decompressed data.
+	 * @throws IOException if the data is not valid for this scheme or ends early.
+	 */
+	public byte[] decompress(ByteBuffer src) throws IOException
+	{
+		if(src.hasArray())
+		{
+			final byte[] out = decompress(src.array(), src.arrayOffset() + src.position(), src.remaining());
+			src.position(src.limit());
+			return out;
+		}
+		if(this == None || this == Store)
+		{
+			final byte[] out = new byte[src.remaining()];
+			src.get(out);
+			return out;
+		}
+		return readAll(getInputStream(new BufferInputStream(src)), src.remaining());
+	}
+	/**
+	 * Reads a decompressing stream to its end into a scratch buffer kept by the calling thread, then closes it.
+	 * @param is The decompressing stream.
+	 * @param len The length of the compressed data, from which the first size of the scratch buffer is guessed.
+	 * @return A new array holding exactly the decompressed data.
+	 * @throws IOException if the data is not valid for this scheme or ends early.
+	 */
+	private static byte[] readAll(InputStream is, int len) throws IOException
+	{
+		final Pool pool = POOL.get();
+		byte[] out = pool.scratch(Math.max(len*4L, 1024));
+		int n = 0;
+		try(InputStream in = is)
+		{
+			for(int r; (r = in.read(out, n, out.length - n)) >= 0; )
+			{
+				n += r;
+				if(n == out.length)
+				{
+					out = pool.scratch(out.length + 1L);
+				}
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+	/**
+	 * Compresses data held in memory with a pooled codec, deflating into a scratch buffer kept by the calling thread.
+	 * @param b The array holding the data.
+	 * @param off The index of the first byte of the data.
+	 * @param len The length of the data.
+	 * @return A new array holding exactly the compressed data.
+	 * @throws IOException if the data cannot be compressed.
+	 */
+	public byte[] compress(byte[] b, int off, int len) throws IOException
+	{
+		return compress(b, off, len, CompressionSettings.DEFAULT);
+	}
+	/**
+	 * Compresses data held in memory with a pooled codec and the given settings, deflating into a scratch buffer kept
+	 * by the calling thread. The buffer size of the settings does not matter here.
+	 * @param b The array holding the data.
+	 * @param off The index of the first byte of the data.
+	 * @param len The length of the data.
+	 * @param settings How to compress the data.
+	 * @return A new array holding exactly the compressed data.
+	 * @throws IOException if the data cannot be compressed.
+	 */
+	public byte[] compress(byte[] b, int off, int len, CompressionSettings settings) throws IOException
+	{
+		if(this == None || this == Store)
+		{
+			return Arrays.copyOfRange(b, off, off + len);
+		}
+		final Pool pool = POOL.get();
+		if(this == LZ4)
+		{
+			byte[] out = pool.scratch(Lz4.maxFramedLength(len));
+			return Arrays.copyOf(out, Lz4.compress(b, off, len, out, pool.lz4Table()));
+		}
+		final boolean raw = (this == GZip);
+		final Deflater def = pool.deflater(raw, settings);
+		try
+		{
+			byte[] out = pool.scratch(len/2L + 64);
+			int n = 0;
+			if(raw)
+			{
+				System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+				n = GZIP_HEADER.length;
+			}
+			def.setInput(b, off, len);
+			def.finish();
+			while(!def.finished())
+			{
+				if(n == out.length)
+				{
+					out = pool.scratch(out.length + 1L);
+				}
+				n += def.deflate(out, n, out.length - n);
+			}
+			if(raw)
+			{
+				out = pool.scratch(n + 8L);
+				CRC32 crc = new CRC32();
+				crc.update(b, off, len);
+				putIntLE(out, n, (int)crc.getValue());
+				putIntLE(out, n + 4, len);
+				n += 8;
+			}
+			return Arrays.copyOf(out, n);
+		}
+		finally
+		{
+			pool.release(def, raw);
+		}
+	}
+	/**
+	 * Compresses data held in memory like <code>compress</code>, but pigz-style: the data is split into blocks of 128 KiB
+	 * that are deflated on the given pool, each primed with the 32 KiB before it as its dictionary and ended with a sync
+	 * flush, and then joined into a single GZip or zlib stream that any inflater can read. The checksum of the whole data
+	 * is computed on the calling thread while the blocks are deflated.
+	 * <p>
+	 * Data shorter than two blocks, schemes other than GZip and Zlib, and pools without parallelism are compressed with
+	 * <code>compress</code> instead, on the calling thread. The output is slightly larger than that of
+	 * <code>compress</code> and is not byte-identical to it.
+	 * @param b The array holding the data.
+	 * @param off The index of the first byte of the data.
+	 * @param len The length of the data.
+	 * @param settings How to compress the data.
+	 * @param pool The pool to deflate the blocks on.
+	 * @return A new array holding exactly the compressed data.
+	 * @throws IOException if the data cannot be compressed.
+	 */
+	public byte[] compressParallel(byte[] b, int off, int len, CompressionSettings settings, ForkJoinPool pool) throws IOException
+	{
+		if((this != GZip && this != Zlib) || len < 2*PARALLEL_BLOCK || pool.getParallelism() < 2)
+		{
+			return compress(b, off, len, settings);
+		}
+		final boolean gzip = (this == GZip);
+		final DeflateBlock[] blocks = new DeflateBlock[(len + PARALLEL_BLOCK - 1)/PARALLEL_BLOCK];
+		for(int i = 0; i < blocks.length; ++i)
+		{
+			final int start = off + i*PARALLEL_BLOCK;
+			blocks[i] = new DeflateBlock(b, Math.max(off, start - WINDOW), start, Math.min(PARALLEL_BLOCK, off + len - start), i == blocks.length - 1, settings);
+			pool.execute(blocks[i]);
+		}
+		final Checksum check = (gzip ? new CRC32() : new Adler32());
+		check.update(b, off, len);
+
+		int n = (gzip ? GZIP_HEADER.length : 2) + 4 + (gzip ? 4 : 0);
+		final byte[][] deflated = new byte[blocks.length][];
+		for(int i = 0; i < blocks.length; ++i)
+		{
+			deflated[i] = blocks[i].join();
+			n += deflated[i].length;
+		}
+		final byte[] out = new byte[n];
+		n = 0;
+		if(gzip)
+		{
+			System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+			n = GZIP_HEADER.length;
+		}
+		else
+		{
+			final int header = zlibHeader(settings);
+			out[n++] = (byte)(header >>> 8);
+			out[n++] = (byte)header;
+		}
+		for(byte[] d : deflated)
+		{
+			System.arraycopy(d, 0, out, n, d.length);
+			n += d.length;
+		}
+		final int value = (int)check.getValue();
+		if(gzip)
+		{
+			putIntLE(out, n, value);
+			putIntLE(out, n + 4, len);
+		}
+		else
+		{
+			out[n] = (byte)(value >>> 24);
+			out[n+1] = (byte)(value >>> 16);
+			out[n+2] = (byte)(value >>> 8);
+			out[n+3] = (byte)value;
+		}
+		return out;
+	}
+	/**
+	 * Returns the zlib header that zlib itself writes for the given settings: the deflate method and window size, and
+	 * the level flags, with the check bits that make it a multiple of 31.
+	 * @param settings The settings.
+	 * @return The header, in the low 16 bits.
+	 */
+	private static int zlibHeader(CompressionSettings settings)
+	{
+		final int level = (settings.getLevel() == Deflater.DEFAULT_COMPRESSION ? 6 : settings.getLevel());
+		final int flags;
+		if(settings.getStrategy() == Deflater.HUFFMAN_ONLY || level < 2)
+		{
+			flags = 0;
+		}
+		else if(level < 6)
+		{
+			flags = 1;
+		}
+		else if(level == 6)
+		{
+			flags = 2;
+		}
+		else
+		{
+			flags = 3;
+		}
+		final int header = 0x7800 | (flags << 6);
+		return header + 31 - header % 31;
+	}
+	/**
+	 * Deflates one block of <code>compressParallel</code> into raw deflate data with a pooled deflater of the thread
+	 * that runs it.
+	 */
+	private static final class DeflateBlock extends RecursiveTask<byte[]>
+	{
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The array holding the data.
+		 */
+		private final byte[] b;
+		/**
+		 * The index of the first byte of the dictionary, which is <code>start</code> for the first block.
+		 */
+		private final int dictionary;
+		/**
+		 * The index of the first byte of the block.
+		 */
+		private final int start;
+		/**
+		 * The length of the block.
+		 */
+		private final int len;
+		/**
+		 * Whether this is the last block, which finishes the deflate data instead of ending with a sync flush.
+		 */
+		private final boolean last;
+		/**
+		 * How to compress the block.
+		 */
+		private final CompressionSettings settings;
+
+		/**
+		 * Constructs the task.
+		 * @param b The array holding the data.
+		 * @param dictionary The index of the first byte of the dictionary, which is <code>start</code> for the first block.
+		 * @param start The index of the first byte of the block.
+		 * @param len The length of the block.
+		 * @param last Whether this is the last block.
+		 * @param settings How to compress the block.
+		 */
+		DeflateBlock(byte[] b, int dictionary, int start, int len, boolean last, CompressionSettings settings)
+		{
+			this.b = b;
+			this.dictionary = dictionary;
+			this.start = start;
+			this.len = len;
+			this.last = last;
+			this.settings = settings;
+		}
+
+		/**
+		 * Deflates the block.
+		 * @return The raw deflate data of the block, ending on a byte boundary.
+		 */
+		@Override protected byte[] compute()
+		{
+			final Pool pool = POOL.get();
+			final Deflater def = pool.deflater(true, settings);
+			try
+			{
+				//a level or strategy set on a pooled deflater takes a deflate call of its own to apply, which would stand in
+				//for the sync flush below, so make that call before there is any input
+				byte[] out = new byte[len/2 + 64];
+				int n = def.deflate(out);
+				if(dictionary < start)
+				{
+					def.setDictionary(b, dictionary, start - dictionary);
+				}
+				def.setInput(b, start, len);
+				if(last)
+				{
+					def.finish();
+				}
+				do
+				{
+					if(n == out.length)
+					{
+						out = Arrays.copyOf(out, out.length*2);
+					}
+					n += def.deflate(out, n, out.length - n, (last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH));
+				}
+				while(last ? !def.finished() : (n == out.length || !def.needsInput())); //a flush that filled the buffer may not be complete
+				return Arrays.copyOf(out, n);
+			}
+			finally
+			{
+				pool.release(def, true);
+			}
+		}
+	}
+
+	/**
+	 * Stores a little-endian int, as used by the GZip trailer.
+	 * @param b The array to store into.
+	 * @param i The index of the first byte.
+	 * @param v The int.
+	 */
+	private static void putIntLE(byte[] b, int i, int v)
+	{
+		b[i] = (byte)v;
+		b[i+1] = (byte)(v >>> 8);
+		b[i+2] = (byte)(v >>> 16);
+		b[i+3] = (byte)(v >>> 24);
+	}
+
+	/**
+	 * A stream over the remaining data of a buffer, which advances the buffer's position as it is read.
+	 */
+	private static final class BufferInputStream extends InputStream
+	{
+		/**
+		 * The buffer.
+		 */
+		private final ByteBuffer bb;
+
+		/**
+		 * Constructs the stream.
+		 * @param src The buffer, read from its position to its limit.
+		 */
+		BufferInputStream(ByteBuffer src)
+		{
+			bb = src;
+		}
+
+		/**
+		 * Reads a byte.
+		 * @return The byte, or -1 at the limit of the buffer.
+		 */
+		@Override public int read()
+		{
+			return bb.hasRemaining() ? bb.get() & 0xFF : -1;
+		}
+		/**
+		 * Reads bytes.
+		 * @param b The array to read into.
+		 * @param off The index in the array of the first byte to read.
+		 * @param len The maximum number of bytes to read.
+		 * @return The number of bytes read, or -1 at the limit of the buffer.
+		 */
+		@Override public int read(byte[] b, int off, int len)
+		{
+			if(len == 0)
+			{
+				return 0;
+			}
+			if(!bb.hasRemaining())
+			{
+				return -1;
+			}
+			len = Math.min(len, bb.remaining());
+			bb.get(b, off, len);
+			return len;
+		}
+		/**
+		 * Returns the number of bytes left in the buffer.
+		 * @return The number of bytes left in the buffer.
+		 */
+		@Override public int available()
+		{
+			return bb.remaining();
+		}
+	}
+
+	/**
+	 * An inflating stream over a pooled <code>Inflater</code> and buffer, which also reads the GZip framing when
+	 * asked to. Only a single GZip member is read; anything after its trailer is ignored.
+	 */
+	private static final class PooledInputStream extends InflaterInputStream
+	{
+		/**
+		 * Whether the data is framed by GZip.
+		 */
+		private final boolean gzip;
+		/**
+		 * The checksum of the inflated data, for GZip.
+		 */
+		private final CRC32 crc = new CRC32();
+		/**
+		 * Whether the GZip trailer has been checked.
+		 */
+		private boolean trailerRead = false;
+		/**
+		 * Whether the codec and buffer have been returned to the pool.
+		 */
+		private boolean released = false;
+
+		/**
+		 * Constructs the stream, reading the GZip header if there is one.
+		 * @param in The compressed stream.
+		 * @param gz Whether the data is framed by GZip rather than zlib.
+		 * @throws IOException if the GZip header is invalid or cannot be read.
+		 */
+		PooledInputStream(InputStream in, boolean gz) throws IOException
+		{
+			super(in, POOL.get().inflater(gz), 1);
+			gzip = gz;
+			buf = POOL.get().buffer(BUFFER_SIZE);
+			if(gzip)
+			{
+				try
+				{
+					readHeader();
+				}
+				catch(IOException e)
+				{
+					release();
+					throw e;
+				}
+			}
+		}
+		/**
+		 * Reads and checks a GZip member header.
+		 * @throws IOException if the header is invalid or cannot be read.
+		 */
+		private void readHeader() throws IOException
+		{
+			CRC32 hcrc = new CRC32();
+			if(readUByte(hcrc) != 0x1F || readUByte(hcrc) != 0x8B)
+			{
+				throw new ZipException("Not in GZIP format");
+			}
+			if(readUByte(hcrc) != Deflater.DEFLATED)
+			{
+				throw new ZipException("Unsupported compression method");
+			}
+			final int flags = readUByte(hcrc);
+			for(int i = 0; i < 6; ++i) //modification time, extra flags and operating system
+			{
+				readUByte(hcrc);
+			}
+			if((flags & 4) != 0) //FEXTRA
+			{
+				for(int n = readUByte(hcrc) | (readUByte(hcrc) << 8); n > 0; --n)
+				{
+					readUByte(hcrc);
+				}
+			}
+			if((flags & 8) != 0) //FNAME
+			{
+				while(readUByte(hcrc) != 0)
+				{
+				}
+			}
+			if((flags & 16) != 0) //FCOMMENT
+			{
+				while(readUByte(hcrc) != 0)
+				{
+				}
+			}
+			if((flags & 2) != 0) //FHCRC
+			{
+				final int expected = (int)hcrc.getValue() & 0xFFFF;
+				if((readUByte(null) | (readUByte(null) << 8)) != expected)
+				{
+					throw new ZipException("Corrupt GZIP header");
+				}
+			}
+		}
+		/**
+		 * Reads an unsigned byte directly from the compressed stream.
+		 * @param check The checksum to update, or null.
+		 * @return The byte.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws EOFException if the stream ends.
+		 */
+		private int readUByte(CRC32 check) throws IOException
+		{
+			final int b = in.read();
+			if(b < 0)
+			{
+				throw new EOFException();
+			}
+			if(check != null)
+			{
+				check.update(b);
+			}
+			return b;
+		}
+
+		/**
+		 * Reads inflated data, checking the GZip trailer once the deflate data ends.
+		 * @param b The array to read into.
+		 * @param off The index in the array of the first byte to read.
+		 * @param len The maximum number of bytes to read.
+		 * @return The number of bytes read, or -1 at the end of the data.
+		 * @throws IOException if the data is corrupt or the input operation generates an exception.
+		 */
+		@Override public int read(byte[] b, int off, int len) throws IOException
+		{
+			if(released)
+			{
+				throw new IOException("Stream closed");
+			}
+			final int n = super.read(b, off, len);
+			if(gzip)
+			{
+				if(n > 0)
+				{
+					crc.update(b, off, n);
+				}
+				else if(n < 0 && !trailerRead)
+				{
+					readTrailer();
+				}
+			}
+			return n;
+		}
+		/**
+		 * Reads and checks the GZip trailer, part of which may already be in the buffer.
+		 * @throws IOException if the trailer does not match the inflated data or cannot be read.
+		 */
+		private void readTrailer() throws IOException
+		{
+			trailerRead = true;
+			byte[] trailer = new byte[8];
+			final int buffered = Math.min(inf.getRemaining(), trailer.length);
+			System.arraycopy(buf, len - inf.getRemaining(), trailer, 0, buffered);
+			for(int i = buffered; i < trailer.length; ++i)
+			{
+				trailer[i] = (byte)readUByte(null);
+			}
+			final long crcValue = (trailer[0] & 0xFF) | ((trailer[1] & 0xFF) << 8) | ((trailer[2] & 0xFF) << 16) | ((trailer[3] & 0xFFL) << 24);
+			final long size = (trailer[4] & 0xFF) | ((trailer[5] & 0xFF) << 8) | ((trailer[6] & 0xFF) << 16) | ((trailer[7] & 0xFFL) << 24);
+			if(crcValue != crc.getValue() || size != (inf.getBytesWritten() & 0xFFFFFFFFL))
+			{
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+		}
+
+		/**
+		 * Closes the compressed stream and returns the codec and buffer to the pool of the calling thread.
+		 * @throws IOException if the compressed stream throws an exception when closed.
+		 */
+		@Override public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				release();
+			}
+		}
+		/**
+		 * Returns the codec and buffer to the pool of the calling thread, once.
+		 */
+		private void release()
+		{
+			if(!released)
+			{
+				released = true;
+				Pool pool = POOL.get();
+				pool.release(inf, gzip);
+				pool.release(buf);
+				buf = null;
+			}
+		}
+	}
+
+	/**
+	 * A deflating stream over a pooled <code>Deflater</code> and buffer, which also writes the GZip framing when
+	 * asked to.
+	 */
+	private static final class PooledOutputStream extends DeflaterOutputStream
+	{
+		/**
+		 * Whether the data is framed by GZip.
+		 */
+		private final boolean gzip;
+		/**
+		 * The checksum of the data, for GZip.
+		 */
+		private final CRC32 crc = new CRC32();
+		/**
+		 * Whether the codec and buffer have been returned to the pool.
+		 */
+		private boolean released = false;
+
+		/**
+		 * Constructs the stream, writing the GZip header if there is one.
+		 * @param out The stream to write the compressed data to.
+		 * @param gz Whether the data is framed by GZip rather than zlib.
+		 * @param settings How to compress the data.
+		 * @throws IOException if the GZip header cannot be written.
+		 */
+		PooledOutputStream(OutputStream out, boolean gz, CompressionSettings settings) throws IOException
+		{
+			super(out, POOL.get().deflater(gz, settings), 1);
+			gzip = gz;
+			buf = POOL.get().buffer(settings.getBufferSize());
+			if(gzip)
+			{
+				out.write(GZIP_HEADER);
+			}
+		}
+
+		/**
+		 * Compresses bytes.
+		 * @param b The array holding the bytes.
+		 * @param off The index of the first byte.
+		 * @param len The number of bytes.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override public void write(byte[] b, int off, int len) throws IOException
+		{
+			if(released)
+			{
+				throw new IOException("Stream closed");
+			}
+			super.write(b, off, len);
+			if(gzip)
+			{
+				crc.update(b, off, len);
+			}
+		}
+		/**
+		 * Finishes the compressed data, and writes the GZip trailer if there is one, without closing the stream.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override public void finish() throws IOException
+		{
+			if(released || def.finished())
+			{
+				return;
+			}
+			super.finish();
+			if(gzip)
+			{
+				byte[] trailer = new byte[8];
+				putIntLE(trailer, 0, (int)crc.getValue());
+				putIntLE(trailer, 4, (int)def.getBytesRead());
+				out.write(trailer);
+			}
+		}
+		/**
+		 * Finishes the compressed data, closes the underlying stream and returns the codec and buffer to the pool of the
+		 * calling thread.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				if(!released)
+				{
+					released = true;
+					Pool pool = POOL.get();
+					pool.release(def, gzip);
+					pool.release(buf);
+					buf = null;
+				}
+			}
+		}
+	}
 }
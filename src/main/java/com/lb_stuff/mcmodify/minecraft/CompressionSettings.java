@@ -0,0 +1,137 @@
+package com.lb_stuff.mcmodify.minecraft;
+
+import java.util.zip.Deflater;
+
+/**
+ * How a <code>CompressionScheme</code> compresses data: the deflate level and strategy and the buffer size of its
+ * output streams. Decompression does not depend on any of these, so data compressed with any settings can be read
+ * back as usual.
+ * @see CompressionScheme#getOutputStream(java.io.OutputStream, CompressionSettings)
+ * @see CompressionScheme#compress(byte[], int, int, CompressionSettings)
+ */
+public final class CompressionSettings
+{
+	/**
+	 * The settings used unless others are given: the default deflate level and strategy, as the JDK streams use.
+	 */
+	public static final CompressionSettings DEFAULT = new CompressionSettings(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 8192);
+	/**
+	 * The fastest settings that still compress, for edit loops that write the same chunks over and over.
+	 */
+	public static final CompressionSettings FASTEST = new CompressionSettings(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY, 8192);
+	/**
+	 * The settings that produce the smallest data, for archival exports.
+	 */
+	public static final CompressionSettings SMALLEST = new CompressionSettings(Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY, 8192);
+	/**
+	 * Settings that write stored deflate blocks, which cost almost nothing to write but do not compress at all.
+	 */
+	public static final CompressionSettings STORED = new CompressionSettings(Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY, 8192);
+
+	/**
+	 * The deflate level, from 0 to 9, or -1 for the default level.
+	 */
+	private final int level;
+	/**
+	 * The deflate strategy, one of the strategy constants of <code>Deflater</code>.
+	 */
+	private final int strategy;
+	/**
+	 * The size of the buffer of output streams, in bytes.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * Constructs settings.
+	 * @param level The deflate level, from <code>Deflater.NO_COMPRESSION</code> to <code>Deflater.BEST_COMPRESSION</code>, or <code>Deflater.DEFAULT_COMPRESSION</code>.
+	 * @param strategy The deflate strategy: <code>Deflater.DEFAULT_STRATEGY</code>, <code>Deflater.FILTERED</code> or <code>Deflater.HUFFMAN_ONLY</code>.
+	 * @param bufferSize The size of the buffer of output streams, in bytes.
+	 * @throws IllegalArgumentException if the level or strategy is not valid or the buffer size is not positive.
+	 */
+	public CompressionSettings(int level, int strategy, int bufferSize) throws IllegalArgumentException
+	{
+		if(level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+		{
+			throw new IllegalArgumentException("Invalid deflate level: "+level);
+		}
+		if(strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY)
+		{
+			throw new IllegalArgumentException("Invalid deflate strategy: "+strategy);
+		}
+		if(bufferSize < 1)
+		{
+			throw new IllegalArgumentException("Buffer size must be positive: "+bufferSize);
+		}
+		this.level = level;
+		this.strategy = strategy;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Returns the deflate level.
+	 * @return The deflate level, from 0 to 9, or -1 for the default level.
+	 */
+	public int getLevel()
+	{
+		return level;
+	}
+	/**
+	 * Returns the deflate strategy.
+	 * @return The deflate strategy, one of the strategy constants of <code>Deflater</code>.
+	 */
+	public int getStrategy()
+	{
+		return strategy;
+	}
+	/**
+	 * Returns the size of the buffer of output streams.
+	 * @return The size of the buffer of output streams, in bytes.
+	 */
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+
+	/**
+	 * Applies the level and strategy to a deflater that has not yet been given input.
+	 * @param def The deflater.
+	 * @return The deflater.
+	 */
+	/*default*/ Deflater apply(Deflater def)
+	{
+		def.setLevel(level);
+		def.setStrategy(strategy);
+		return def;
+	}
+
+	/**
+	 * Returns whether the given object is settings with the same level, strategy and buffer size.
+	 * @param obj The object to compare to.
+	 * @return Whether the given object is equal settings.
+	 */
+	@Override public boolean equals(Object obj)
+	{
+		if(obj instanceof CompressionSettings)
+		{
+			CompressionSettings o = (CompressionSettings)obj;
+			return level == o.level && strategy == o.strategy && bufferSize == o.bufferSize;
+		}
+		return false;
+	}
+	/**
+	 * Returns a hash code consistent with <code>equals</code>.
+	 * @return The hash code.
+	 */
+	@Override public int hashCode()
+	{
+		return (level*31 + strategy)*31 + bufferSize;
+	}
+	/**
+	 * Returns a description of these settings.
+	 * @return A description of these settings.
+	 */
+	@Override public String toString()
+	{
+		return "CompressionSettings(level "+level+", strategy "+strategy+", buffer "+bufferSize+")";
+	}
+}
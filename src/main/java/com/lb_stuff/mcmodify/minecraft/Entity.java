@@ -1,8 +1,10 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -73,19 +75,14 @@ public abstract class Entity
 	public static Class<? extends Entity> ClassFromID(Tag.Compound entity) throws FormatException
 	{
 		String ID = ((Tag.String)entity.find(Tag.Type.STRING, "id")).v;
-		try
-		{
-			return Mob.ClassFromID(ID);
-		}
-		catch(FormatException e)
-		{
-		}
-		try
+		Class<? extends Entity> c = Mob.ClassFromIDOrNull(ID);
+		if(c == null)
 		{
-			return Projectile.ClassFromID(ID);
+			c = Projectile.ClassFromIDOrNull(ID);
 		}
-		catch(FormatException e)
+		if(c != null)
 		{
+			return c;
 		}
 		switch(ID)
 		{
@@ -125,26 +122,26 @@ public abstract class Entity
 		{
 			throw new FormatException("Invalid Pos list");
 		}
-		posx = ((Tag.Double)pos.get(0)).v;
-		posy = ((Tag.Double)pos.get(1)).v;
-		posz = ((Tag.Double)pos.get(2)).v;
+		posx = pos.getDouble(0);
+		posy = pos.getDouble(1);
+		posz = pos.getDouble(2);
 
 		Tag.List motion = (Tag.List)entity.find(Tag.Type.LIST, "Motion");
 		if(motion.getSize() != 3 || motion.getContainedType() != Tag.Type.DOUBLE)
 		{
 			throw new FormatException("Invalid Motion list");
 		}
-		motionx = ((Tag.Double)motion.get(0)).v;
-		motiony = ((Tag.Double)motion.get(1)).v;
-		motionz = ((Tag.Double)motion.get(2)).v;
+		motionx = motion.getDouble(0);
+		motiony = motion.getDouble(1);
+		motionz = motion.getDouble(2);
 
 		Tag.List rotation = (Tag.List)entity.find(Tag.Type.LIST, "Rotation");
 		if(rotation.getSize() != 2 || rotation.getContainedType() != Tag.Type.FLOAT)
 		{
 			throw new FormatException("Invalid Rotation list");
 		}
-		rotationyaw = ((Tag.Float)rotation.get(0)).v;
-		rotationpitch = ((Tag.Float)rotation.get(1)).v;
+		rotationyaw = rotation.getFloat(0);
+		rotationpitch = rotation.getFloat(1);
 
 		falldistance = ((Tag.Float)entity.find(Tag.Type.FLOAT, "FallDistance")).v;
 
@@ -178,9 +175,7 @@ public abstract class Entity
 	 */
 	public Tag.List Pos()
 	{
-		return new Tag.List("Pos", Tag.Type.DOUBLE, new Tag.Double(null, posx),
-													new Tag.Double(null, posy),
-													new Tag.Double(null, posz));
+		return Tag.List.ofDoubles("Pos", posx, posy, posz);
 	}
 	/**
 	 * Returns the X position of this entity.
@@ -217,9 +212,9 @@ public abstract class Entity
 		{
 			throw new FormatException("Invalid Pos list");
 		}
-		posx = ((Tag.Double)pos.get(0)).v;
-		posy = ((Tag.Double)pos.get(1)).v;
-		posz = ((Tag.Double)pos.get(2)).v;
+		posx = pos.getDouble(0);
+		posy = pos.getDouble(1);
+		posz = pos.getDouble(2);
 	}
 	/**
 	 * Sets the X position of this entity.
@@ -252,9 +247,7 @@ public abstract class Entity
 	 */
 	public Tag.List Motion()
 	{
-		return new Tag.List("Motion", Tag.Type.DOUBLE, new Tag.Double(null, motionx),
-													   new Tag.Double(null, motiony),
-													   new Tag.Double(null, motionz));
+		return Tag.List.ofDoubles("Motion", motionx, motiony, motionz);
 	}
 	/**
 	 * Returns the X motion of this entity.
@@ -291,9 +284,9 @@ public abstract class Entity
 		{
 			throw new FormatException("Invalid Motion list");
 		}
-		motionx = ((Tag.Double)motion.get(0)).v;
-		motiony = ((Tag.Double)motion.get(1)).v;
-		motionz = ((Tag.Double)motion.get(2)).v;
+		motionx = motion.getDouble(0);
+		motiony = motion.getDouble(1);
+		motionz = motion.getDouble(2);
 	}
 	/**
 	 * Sets the X motion of this entity.
@@ -326,8 +319,7 @@ public abstract class Entity
 	 */
 	public Tag.List Rotation()
 	{
-		return new Tag.List("Rotation", Tag.Type.FLOAT, new Tag.Float(null, rotationyaw),
-														new Tag.Float(null, rotationpitch));
+		return Tag.List.ofFloats("Rotation", rotationyaw, rotationpitch);
 	}
 	/**
 	 * Returns the Yaw of this entity.
@@ -356,8 +348,8 @@ public abstract class Entity
 		{
 			throw new FormatException("Invalid Rotation list");
 		}
-		rotationyaw = ((Tag.Float)rotation.get(0)).v;
-		rotationpitch = ((Tag.Float)rotation.get(1)).v;
+		rotationyaw = rotation.getFloat(0);
+		rotationpitch = rotation.getFloat(1);
 	}
 	/**
 	 * Sets the yaw for this entity.
@@ -462,6 +454,49 @@ public abstract class Entity
 									  new Tag.Short("Air", air),
 									  new Tag.Byte("OnGround", (byte)(onground?1:0)));
 	}
+	/**
+	 * Writes the tag for this entity to the given writer, producing the same bytes as the tag from
+	 * <code>ToNBT(String)</code>.
+	 * @param w The writer to write to.
+	 * @param name The name for the compound tag, or null if it is written into a list.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void ToNBT(NbtWriter w, String name) throws IOException
+	{
+		w.name(name).beginCompound();
+		WriteNBTFields(w);
+		w.endCompound();
+	}
+	/**
+	 * Writes the fields of the tag for this entity, in the same order as <code>ToNBT(String)</code> adds them.
+	 * <p>
+	 * Classes that extend this class and override <code>ToNBT(String)</code> must override this too, calling it on
+	 * the superclass first, or their fields are missing from the tags written by <code>ToNBT(NbtWriter, String)</code>.
+	 * @param w The writer to write to, inside the compound tag for this entity.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	protected void WriteNBTFields(NbtWriter w) throws IOException
+	{
+		if(HasNBTID())
+		{
+			w.name("id").writeString(getClass().getSimpleName());
+		}
+		w.name("Pos").beginList(Tag.Type.DOUBLE, 3).writeDouble(posx).writeDouble(posy).writeDouble(posz).endList();
+		w.name("Motion").beginList(Tag.Type.DOUBLE, 3).writeDouble(motionx).writeDouble(motiony).writeDouble(motionz).endList();
+		w.name("Rotation").beginList(Tag.Type.FLOAT, 2).writeFloat(rotationyaw).writeFloat(rotationpitch).endList();
+		w.name("FallDistance").writeFloat(falldistance);
+		w.name("Fire").writeShort(fire);
+		w.name("Air").writeShort(air);
+		w.name("OnGround").writeByte((byte)(onground?1:0));
+	}
+	/**
+	 * Returns whether the tag for this entity has an <code>id</code>, which is only left out for players.
+	 * @return Whether the tag for this entity has an <code>id</code>.
+	 */
+	/*default*/ boolean HasNBTID()
+	{
+		return true;
+	}
 
 	/**
 	 * Boat entity
@@ -552,13 +587,31 @@ public abstract class Entity
 		@Override public Tag.Compound ToNBT(String name)
 		{
 			Tag.Compound t = super.ToNBT(name);
+			t.add(new Tag.Int("Type", Type()));
+			return t;
+		}
+		/**
+		 * Writes the fields of the tag for this Minecart entity.
+		 * @param w The writer to write to, inside the compound tag for this Minecart entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Type").writeInt(Type());
+		}
+		/**
+		 * Returns the type {0, 1, 2} of this Minecart.
+		 * @return The type of this Minecart.
+		 */
+		private int Type()
+		{
 			switch(getClass().getSimpleName())
 			{
-			case "Minecart":t.add(new Tag.Int("Type", 0));
-			case "Chest":	t.add(new Tag.Int("Type", 1));
-			case "Furnace":	t.add(new Tag.Int("Type", 2));
+			case "Chest":   return 1;
+			case "Furnace": return 2;
 			}
-			return t;
+			return 0;
 		}
 
 		/**
@@ -630,6 +683,16 @@ public abstract class Entity
 				t.add(items.ToNBT("Items"));
 				return t;
 			}
+			/**
+			 * Writes the fields of the tag for this Storage Minecart entity.
+			 * @param w The writer to write to, inside the compound tag for this Storage Minecart entity.
+			 * @throws IOException if the output operation generates an exception.
+			 */
+			@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+			{
+				super.WriteNBTFields(w);
+				items.ToNBT(w, "Items");
+			}
 		}
 		/**
 		 * Powered Minecart
@@ -745,6 +808,18 @@ public abstract class Entity
 					  new Tag.Short("Fuel", fuel));
 				return t;
 			}
+			/**
+			 * Writes the fields of the tag for this Powered Minecart entity.
+			 * @param w The writer to write to, inside the compound tag for this Powered Minecart entity.
+			 * @throws IOException if the output operation generates an exception.
+			 */
+			@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+			{
+				super.WriteNBTFields(w);
+				w.name("PushX").writeDouble(pushx);
+				w.name("PushZ").writeDouble(pushz);
+				w.name("Fuel").writeShort(fuel);
+			}
 		}
 	}
 	/**
@@ -808,6 +883,16 @@ public abstract class Entity
 			t.add(new Tag.Byte("Fuse", fuse));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this TNT dynamic tile entity.
+		 * @param w The writer to write to, inside the compound tag for this TNT dynamic tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Fuse").writeByte(fuse);
+		}
 	}
 	/**
 	 * Falling block dynamic tile entity.
@@ -870,6 +955,16 @@ public abstract class Entity
 			t.add(new Tag.Byte("Tile", tile));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Falling Block dynamic tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Falling Block dynamic tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Tile").writeByte(tile);
+		}
 	}
 	/**
 	 * Ender Crystal
@@ -1032,6 +1127,18 @@ public abstract class Entity
 				  item.ToNBT("Item"));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Dropped Item entity.
+		 * @param w The writer to write to, inside the compound tag for this Dropped Item entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Health").writeShort(health);
+			w.name("Age").writeShort(age);
+			item.ToNBT(w, "Item");
+		}
 	}
 	/**
 	 * Painting entity
@@ -1217,6 +1324,20 @@ public abstract class Entity
 				  new Tag.Int("TileZ", tilez));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Painting entity.
+		 * @param w The writer to write to, inside the compound tag for this Painting entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Dir").writeByte((byte)dir.ordinal());
+			w.name("Motive").writeString(motive);
+			w.name("TileX").writeInt(tilex);
+			w.name("TileY").writeInt(tiley);
+			w.name("TileZ").writeInt(tilez);
+		}
 	}
 	/**
 	 * XP Orb entity
@@ -1327,6 +1448,18 @@ public abstract class Entity
 				  new Tag.Short("Value", value));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this XP Orb entity.
+		 * @param w The writer to write to, inside the compound tag for this XP Orb entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Health").writeShort(health);
+			w.name("Age").writeShort(age);
+			w.name("Value").writeShort(value);
+		}
 	}
 	/**
 	 * Projectiles
@@ -1357,6 +1490,20 @@ public abstract class Entity
 		 * @throws FormatException if the entity ID is not recognized as a projectile.
 		 */
 		public static Class<? extends Projectile> ClassFromID(String ID) throws FormatException
+		{
+			Class<? extends Projectile> c = ClassFromIDOrNull(ID);
+			if(c == null)
+			{
+				throw new FormatException("Unknown Projectile ID: \""+ID+"\"");
+			}
+			return c;
+		}
+		/**
+		 * Returns the projectile class object given the entity ID, or null.
+		 * @param ID The ID of the projectile entity.
+		 * @return The projectile class for the given entity ID, or null if it is not a projectile.
+		 */
+		/*default*/ static Class<? extends Projectile> ClassFromIDOrNull(String ID)
 		{
 			switch(ID)
 			{
@@ -1367,7 +1514,7 @@ public abstract class Entity
 			case "SmallFireball":	return Projectile.SmallFireball.class;
 			case "ThrownEnderpearl":return Projectile.ThrownEnderpearl.class;
 			}
-			throw new FormatException("Unknown Projectile ID: \""+ID+"\"");
+			return null;
 		}
 
 		/**
@@ -1531,6 +1678,21 @@ public abstract class Entity
 				  new Tag.Byte("inGround", (byte)(inground?1:0)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Projectile entity.
+		 * @param w The writer to write to, inside the compound tag for this Projectile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("xTile").writeShort(xtile);
+			w.name("yTile").writeShort(ytile);
+			w.name("zTile").writeShort(ztile);
+			w.name("inTile").writeByte((byte)(intile?1:0));
+			w.name("shake").writeByte(shake);
+			w.name("inGround").writeByte((byte)(inground?1:0));
+		}
 
 		/**
 		 * Arrow projectiles
@@ -1561,14 +1723,7 @@ public abstract class Entity
 
 				indata = ((Tag.Byte)arrow.find(Tag.Type.BYTE, "inData")).v;
 				pickup = ((Tag.Byte)arrow.find(Tag.Type.BYTE, "pickup")).v;
-				try
-				{
-					damage = ((Tag.Double)arrow.find(Tag.Type.DOUBLE, "damage")).v;
-				}
-				catch(FormatException e)
-				{
-					damage = 1.0;
-				}
+				damage = arrow.getDoubleOr("damage", 1.0);
 			}
 			/**
 			 * Constructs an Arrow from a position.
@@ -1621,6 +1776,18 @@ public abstract class Entity
 					  new Tag.Double("damage", damage));
 				return t;
 			}
+			/**
+			 * Writes the fields of the tag for this Arrow projectile entity.
+			 * @param w The writer to write to, inside the compound tag for this Arrow projectile entity.
+			 * @throws IOException if the output operation generates an exception.
+			 */
+			@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+			{
+				super.WriteNBTFields(w);
+				w.name("inData").writeByte(indata);
+				w.name("pickup").writeByte(pickup);
+				w.name("damage").writeDouble(damage);
+			}
 		}
 		/**
 		 * Thrown Snowball projectiles
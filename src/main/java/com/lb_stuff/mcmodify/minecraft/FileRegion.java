@@ -1,129 +1,306 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.location.LocChunkInRegion;
+import com.lb_stuff.mcmodify.nbt.ContentHash;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Region file reader/writer
+ * <p>
+ * The Region File is kept open from construction until <code>close</code>, and its header (the locations and
+ * timestamps of the chunks) is read once and kept in memory, so reading a timestamp or finding a chunk costs no I/O
+ * and reading a chunk costs a single positional read. Changes made to the file by anything else while it is open are
+ * not seen.
  * @see <a href="http://minecraft.gamepedia.com/Region_file_format">Region file format</a> on the Minecraft Wiki
  */
-public class FileRegion extends Region
+public class FileRegion extends Region implements Closeable
 {
 	/**
 	 * The Region File.
 	 */
 	private final File rf;
+	/**
+	 * The open channel of the Region File, which is read-only if the file is.
+	 */
+	private final FileChannel channel;
+	/**
+	 * How chunks written to the Region File are compressed.
+	 */
+	private final CompressionSettings settings;
+	/**
+	 * The locations of the chunks, as they are stored in the header of the Region File.
+	 */
+	private final int[] locations = new int[MAX_CHUNKS];
+	/**
+	 * The timestamps of the chunks, as they are stored in the header of the Region File.
+	 */
+	private final int[] timestamps = new int[MAX_CHUNKS];
+	/**
+	 * The content hash of each chunk as this object last wrote it or found it unchanged. Reading chunks does not hash
+	 * them; a write compares with the stored chunk only when its hash is not known.
+	 */
+	private final long[] hashes = new long[MAX_CHUNKS];
+	/**
+	 * The offset each chunk had when its content hash was recorded, or 0 if the hash is not known.
+	 */
+	private final long[] hashedOffsets = new long[MAX_CHUNKS];
 
 	/**
-	 * Constructs this region from a Region File. If the file does not exist it is created with no chunks in it.
+	 * Constructs this region from a Region File, which is kept open until this region is closed. If the file does not
+	 * exist it is created with no chunks in it; if it cannot be written to, it is opened read-only.
 	 * @param mca The Region File.
 	 * @throws IOException if an error occurs while reading the region file.
 	 */
 	public FileRegion(File mca) throws IOException
 	{
+		this(mca, CompressionSettings.DEFAULT);
+	}
+	/**
+	 * Constructs this region from a Region File, compressing the chunks written to it with the given settings. The file
+	 * is kept open until this region is closed. If the file does not exist it is created with no chunks in it; if it
+	 * cannot be written to, it is opened read-only.
+	 * @param mca The Region File.
+	 * @param settings How to compress the chunks written to the Region File.
+	 * @throws IOException if an error occurs while reading the region file.
+	 */
+	public FileRegion(File mca, CompressionSettings settings) throws IOException
+	{
+		if(settings == null)
+		{
+			throw new IllegalArgumentException("Compression settings cannot be null");
+		}
 		rf = mca;
-		if(!rf.exists())
+		this.settings = settings;
+		if(rf.exists() && !rf.canWrite())
 		{
-			rf.createNewFile();
-			try(FileOutputStream region = new FileOutputStream(rf))
+			channel = FileChannel.open(rf.toPath(), StandardOpenOption.READ);
+		}
+		else
+		{
+			channel = FileChannel.open(rf.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		}
+		try
+		{
+			final ByteBuffer header = ByteBuffer.allocate((int)CHUNK_SECTORS_START);
+			if(channel.size() == 0)
 			{
-				region.write(new byte[(int)CHUNK_SECTORS_START]);
+				writeFully(header, 0); //new file, no chunks
 			}
+			else
+			{
+				readFully(header, 0);
+			}
+			header.flip();
+			header.asIntBuffer().get(locations).get(timestamps);
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
 		}
 	}
 
-	@Override
-	public Chunk getChunk(LocChunkInRegion pos) throws IOException
+	/**
+	 * Reads from the Region File until the buffer is full.
+	 * @param b The buffer to read into.
+	 * @param position The position in the Region File of the first byte to read.
+	 * @throws IOException if an error occurs while reading the region file.
+	 * @throws EOFException if the Region File ends first.
+	 */
+	private void readFully(ByteBuffer b, long position) throws IOException
 	{
-		try(RandomAccessFile region = new RandomAccessFile(rf, "r"))
+		while(b.hasRemaining())
 		{
-			region.seek(LOCATIONS_SECTOR_START + chunkIndex(pos)*4);
-			LocationPair loc = new LocationPair(region);
-			if(loc.offset > 0 && loc.size > 0)
+			final int r = channel.read(b, position);
+			if(r < 0)
 			{
-				region.seek(loc.offset);
-				int length = region.readInt();
-				CompressionScheme compressed = CompressionScheme.fromId(region.readByte());
-				byte[] chunk = new byte[length-1];
-				region.readFully(chunk);
-				try(InputStream is = compressed.getInputStream(new ByteArrayInputStream(chunk)))
-				{
-					return new Chunk((Tag.Compound)Tag.deserialize(is));
-				}
+				throw new EOFException("Region file ends early: "+rf);
 			}
+			position += r;
+		}
+	}
+	/**
+	 * Writes the whole buffer to the Region File.
+	 * @param b The buffer to write.
+	 * @param position The position in the Region File of the first byte to write.
+	 * @throws IOException if an error occurs while writing the region file or it was opened read-only.
+	 */
+	private void writeFully(ByteBuffer b, long position) throws IOException
+	{
+		try
+		{
+			while(b.hasRemaining())
+			{
+				position += channel.write(b, position);
+			}
+		}
+		catch(NonWritableChannelException e)
+		{
+			throw new IOException("Region file opened read-only: "+rf, e);
+		}
+	}
+	/**
+	 * Writes an int to the header of the Region File.
+	 * @param position The position of the int in the Region File.
+	 * @param v The int.
+	 * @throws IOException if an error occurs while writing the region file.
+	 */
+	private void writeHeaderInt(long position, int v) throws IOException
+	{
+		ByteBuffer b = ByteBuffer.allocate(4).putInt(0, v);
+		writeFully(b, position);
+	}
+
+	/**
+	 * Reads the sectors of a chunk with a positional read, stopping early only at the end of the file.
+	 * @param loc The location of the chunk.
+	 * @return The bytes read, flipped for reading.
+	 * @throws IOException if an error occurs while reading the region file.
+	 */
+	private ByteBuffer readSectors(LocationPair loc) throws IOException
+	{
+		ByteBuffer sectors = ByteBuffer.allocate((int)Math.max(0, Math.min(loc.size, channel.size() - loc.offset)));
+		while(sectors.hasRemaining() && channel.read(sectors, loc.offset + sectors.position()) >= 0)
+		{
+		}
+		sectors.flip();
+		return sectors;
+	}
+
+	/**
+	 * Reads and decompresses the NBT data of a stored chunk.
+	 * @param loc The location of the chunk, which must be present.
+	 * @return The uncompressed NBT data.
+	 * @throws IOException if an error occurs while reading the region file, or the chunk is corrupt or in an unknown scheme.
+	 */
+	private byte[] readNbt(LocationPair loc) throws IOException
+	{
+		ByteBuffer sectors = readSectors(loc);
+		if(sectors.remaining() < 5)
+		{
+			throw new EOFException();
+		}
+		int length = sectors.getInt();
+		final byte id = sectors.get();
+		CompressionScheme compressed = CompressionScheme.fromId(id);
+		if(compressed == null)
+		{
+			throw new IOException("Unsupported compression scheme id "+id+" in "+rf);
+		}
+		if(length-1 > sectors.remaining())
+		{
+			throw new EOFException();
+		}
+		return compressed.decompress(sectors.array(), sectors.position(), length-1);
+	}
+
+	@Override
+	public Chunk getChunk(LocChunkInRegion pos) throws IOException
+	{
+		if(!channel.isOpen())
+		{
+			throw new IOException("Region file closed: "+rf);
+		}
+		LocationPair loc = new LocationPair(locations[chunkIndex(pos)]);
+		if(loc.offset > 0 && loc.size > 0)
+		{
+			return new Chunk((Tag.Compound)Tag.deserialize(ByteBuffer.wrap(readNbt(loc))));
 		}
 		return null;
 	}
 	@Override
 	public int getTimestamp(LocChunkInRegion pos) throws IOException
 	{
-		try(RandomAccessFile region = new RandomAccessFile(rf, "r"))
+		if(!channel.isOpen())
 		{
-			region.seek(TIMESTAMPS_SECTOR_START + chunkIndex(pos)*4);
-			return region.readInt();
+			throw new IOException("Region file closed: "+rf);
 		}
+		return timestamps[chunkIndex(pos)];
 	}
 
 	@Override
 	public void setChunk(LocChunkInRegion pos, Chunk c) throws IOException
 	{
-		try(RandomAccessFile region = new RandomAccessFile(rf, "rw"))
+		final int index = chunkIndex(pos);
+		if(c == null)
 		{
-			final int index = chunkIndex(pos);
-			if(c == null)
-			{
-				region.seek(LOCATIONS_SECTOR_START + index*4);
-				new LocationPair(0, 0).serialize(region);
-				return;
-			}
-			final byte[] chunkdata;
-			try(ByteArrayOutputStream baos = new ByteArrayOutputStream())
+			writeHeaderInt(LOCATIONS_SECTOR_START + index*4, 0);
+			locations[index] = 0;
+			hashedOffsets[index] = 0;
+			return;
+		}
+		final byte[] nbt = serialize(c);
+		final long hash = ContentHash.of(ByteBuffer.wrap(nbt));
+		LocationPair loc = new LocationPair(locations[index]);
+		if(loc.offset > 0 && loc.size > 0)
+		{
+			if(loc.offset != hashedOffsets[index])
 			{
-				baos.write(CompressionScheme.GZip.getId());
-				try(OutputStream os = CompressionScheme.GZip.getOutputStream(baos))
+				hashedOffsets[index] = 0;
+				try
 				{
-					c.ToNBT("").serialize(os);
+					if(Arrays.equals(readNbt(loc), nbt))
+					{
+						hashes[index] = hash;
+						hashedOffsets[index] = loc.offset;
+					}
+				}
+				catch(IOException e)
+				{
+					//the stored chunk cannot be read, so it is overwritten
 				}
-				chunkdata = baos.toByteArray();
-			}
-			final long newsize = 4+chunkdata.length;
-
-			region.seek(LOCATIONS_SECTOR_START + index*4);
-			LocationPair loc = new LocationPair(region);
-			if((loc.offset == 0 && loc.size == 0) || loc.size < newsize)
-			{
-				final long offset = nextSector(region.length());
-				region.seek(offset);
-				region.writeInt(chunkdata.length);
-				region.write(chunkdata);
-				loc = new LocationPair(offset, region.getFilePointer()-offset);
-				region.seek(LOCATIONS_SECTOR_START + index*4);
-				loc.serialize(region);
 			}
-			else
+			if(loc.offset == hashedOffsets[index] && hash == hashes[index])
 			{
-				region.seek(loc.offset);
-				region.writeInt(chunkdata.length);
-				region.write(chunkdata);
+				return; //unchanged, skip rewriting it
 			}
 		}
+		final byte[] compressed = CompressionScheme.GZip.compressParallel(nbt, 0, nbt.length, settings, ForkJoinPool.commonPool());
+		final ByteBuffer chunkdata = ByteBuffer.allocate(5 + compressed.length).putInt(compressed.length+1).put(CompressionScheme.GZip.getId()).put(compressed);
+		chunkdata.flip();
+		final long newsize = chunkdata.remaining();
+
+		if((loc.offset == 0 && loc.size == 0) || loc.size < newsize)
+		{
+			final long offset = nextSector(channel.size());
+			writeFully(chunkdata, offset);
+			loc = new LocationPair(offset, newsize);
+			writeHeaderInt(LOCATIONS_SECTOR_START + index*4, loc.toInt());
+			locations[index] = loc.toInt();
+		}
+		else
+		{
+			writeFully(chunkdata, loc.offset);
+		}
+		hashes[index] = hash;
+		hashedOffsets[index] = loc.offset;
 	}
 	@Override
 	public void setTimestamp(LocChunkInRegion pos, int timestamp) throws IOException
 	{
-		try(RandomAccessFile region = new RandomAccessFile(rf, "rw"))
-		{
-			region.seek(TIMESTAMPS_SECTOR_START + chunkIndex(pos)*4);
-			region.writeInt(timestamp);
-		}
+		final int index = chunkIndex(pos);
+		writeHeaderInt(TIMESTAMPS_SECTOR_START + index*4, timestamp);
+		timestamps[index] = timestamp;
+	}
+
+	/**
+	 * Closes the Region File. Reading or writing chunks or timestamps afterward throws an <code>IOException</code>.
+	 * @throws IOException if an error occurs while closing the region file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
 	}
-}
\ No newline at end of file
+}
@@ -1,8 +1,10 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -133,24 +135,10 @@ public class Inventory
 			id = ((Tag.Short)item.find(Tag.Type.SHORT, "id")).v;
 			damage = ((Tag.Short)item.find(Tag.Type.SHORT, "Damage")).v;
 			count = ((Tag.Byte)item.find(Tag.Type.BYTE, "Count")).v;
-			Tag.Compound tag = null;
-			try
-			{
-				tag = (Tag.Compound)item.find(Tag.Type.COMPOUND, "tag");
-			}
-			catch(FormatException e)
-			{
-			}
+			Tag.Compound tag = item.getCompoundOrNull("tag");
 			if(tag != null)
 			{
-				Tag.List ench = null;
-				try
-				{
-					ench = (Tag.List)tag.find(Tag.Type.LIST, "ench");
-				}
-				catch(FormatException e)
-				{
-				}
+				Tag.List ench = tag.getListOrNull("ench");
 				if(ench != null)
 				{
 					if(ench.getContainedType() != Tag.Type.COMPOUND)
@@ -424,6 +412,74 @@ public class Inventory
 			t.remove("Slot");
 			return t;
 		}
+		/**
+		 * Writes the tag for this inventory Item directly to the given writer.
+		 * @param w The writer to write to.
+		 * @param name The name the compound tag should have, or null if it is written into a list.
+		 * @param slot The slot this item should be indicated to have.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		public void ToNBT(NbtWriter w, String name, byte slot) throws IOException
+		{
+			w.name(name).beginCompound();
+			w.name("Slot").writeByte(slot);
+			WriteNBTFields(w);
+			w.endCompound();
+		}
+		/**
+		 * Writes the tag for this inventory Item directly to the given writer, without the slot.
+		 * @param w The writer to write to.
+		 * @param name The name the compound tag should have, or null if it is written into a list.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		public void ToNBT(NbtWriter w, String name) throws IOException
+		{
+			w.name(name).beginCompound();
+			WriteNBTFields(w);
+			w.endCompound();
+		}
+		/**
+		 * Writes the fields of the tag for this inventory Item other than the slot.
+		 * @param w The writer to write to, inside the compound tag for this inventory Item.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		private void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			w.name("id").writeShort(id);
+			w.name("Damage").writeShort(damage);
+			w.name("Count").writeByte(count);
+			if(!enchantments.isEmpty() || pages != null)
+			{
+				w.name("tag").beginCompound();
+				if(!enchantments.isEmpty())
+				{
+					w.name("ench").beginList(Tag.Type.COMPOUND, enchantments.size());
+					for(Map.Entry<Enchantment, Short> enchant : enchantments.entrySet())
+					{
+						w.beginCompound();
+						w.name("id").writeShort(enchant.getKey().ID());
+						w.name("lvl").writeShort(enchant.getValue());
+						w.endCompound();
+					}
+					w.endList();
+				}
+				if(pages != null)
+				{
+					if(title != null && author != null)
+					{
+						w.name("title").writeString(title);
+						w.name("author").writeString(author);
+					}
+					w.name("pages").beginList(Tag.Type.STRING, pages.size());
+					for(String page : pages)
+					{
+						w.writeString(page);
+					}
+					w.endList();
+				}
+				w.endCompound();
+			}
+		}
 	}
 	/**
 	 * The map of items to their slots.
@@ -517,4 +573,19 @@ public class Inventory
 		}
 		return inventory;
 	}
+	/**
+	 * Writes the tag for this Inventory directly to the given writer.
+	 * @param w The writer to write to.
+	 * @param name The name the list tag should have, or null if it is written into a list.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void ToNBT(NbtWriter w, String name) throws IOException
+	{
+		w.name(name).beginList(Tag.Type.COMPOUND, items.size());
+		for(Map.Entry<Byte, Item> slot : items.entrySet())
+		{
+			slot.getValue().ToNBT(w, null, slot.getKey());
+		}
+		w.endList();
+	}
 }
\ No newline at end of file
@@ -1,8 +1,11 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
+import java.io.IOException;
+
 /**
  * Represents a level.dat file
  */
@@ -251,13 +254,16 @@ public class Level
 			foodticktimer = ((Tag.Int)player.find(Tag.Type.INT, "foodTickTimer")).v;
 			foodexhaustionlevel = ((Tag.Float)player.find(Tag.Type.FLOAT, "foodExhaustionLevel")).v;
 			foodsaturationlevel = ((Tag.Float)player.find(Tag.Type.FLOAT, "foodSaturationLevel")).v;
-			try
+			Tag sx = player.get(Tag.Type.INT, "SpawnX"),
+			    sy = player.get(Tag.Type.INT, "SpawnY"),
+			    sz = player.get(Tag.Type.INT, "SpawnZ");
+			if(sx != null && sy != null && sz != null)
 			{
-				spawnx = ((Tag.Int)player.find(Tag.Type.INT, "SpawnX")).v;
-				spawny = ((Tag.Int)player.find(Tag.Type.INT, "SpawnY")).v;
-				spawnz = ((Tag.Int)player.find(Tag.Type.INT, "SpawnZ")).v;
+				spawnx = ((Tag.Int)sx).v;
+				spawny = ((Tag.Int)sy).v;
+				spawnz = ((Tag.Int)sz).v;
 			}
-			catch(FormatException e)
+			else
 			{
 				spawnx = spawny = spawnz = null;
 			}
@@ -673,6 +679,51 @@ public class Level
 												new Tag.Float("walkSpeed", walkspeed)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Player.
+		 * @param w The writer to write to, inside the compound tag for this Player.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Sleeping").writeByte((byte)(sleeping?1:0));
+			w.name("SleepTimer").writeShort(sleeptimer);
+			w.name("Dimension").writeInt(dimension.getId());
+			w.name("playerGameType").writeInt(playergametype.ordinal());
+			w.name("foodLevel").writeInt(foodlevel);
+			w.name("foodTickTimer").writeInt(foodticktimer);
+			w.name("foodExhaustionLevel").writeFloat(foodexhaustionlevel);
+			w.name("foodSaturationLevel").writeFloat(foodsaturationlevel);
+			if(spawnx != null && spawny != null && spawnz != null)
+			{
+				w.name("SpawnX").writeInt(spawnx);
+				w.name("SpawnY").writeInt(spawny);
+				w.name("SpawnZ").writeInt(spawnz);
+			}
+			w.name("XpLevel").writeInt(xplevel);
+			w.name("XpTotal").writeInt(xptotal);
+			w.name("XpP").writeFloat(xpp);
+			inventory.ToNBT(w, "Inventory");
+			enderitems.ToNBT(w, "EnderItems");
+			w.name("abilities").beginCompound();
+			w.name("mayfly").writeByte((byte)(mayfly?1:0));
+			w.name("flySpeed").writeFloat(flyspeed);
+			w.name("flying").writeByte((byte)(flying?1:0));
+			w.name("mayBuild").writeByte((byte)(maybuild?1:0));
+			w.name("instabuild").writeByte((byte)(instabuild?1:0));
+			w.name("invulnerable").writeByte((byte)(invulnerable?1:0));
+			w.name("walkSpeed").writeFloat(walkspeed);
+			w.endCompound();
+		}
+		/**
+		 * Players have no <code>id</code> in their tag.
+		 * @return false.
+		 */
+		@Override /*default*/ boolean HasNBTID()
+		{
+			return false;
+		}
 	}
 	/**
 	 * The single player player for this level, if there is one.
@@ -710,14 +761,7 @@ public class Level
 		spawnz = ((Tag.Int)level.find(Tag.Type.INT, "SpawnZ")).v;
 		lastplayed = ((Tag.Long)level.find(Tag.Type.LONG, "LastPlayed")).v;
 		sizeondisk = ((Tag.Long)level.find(Tag.Type.LONG, "SizeOnDisk")).v;
-		Tag.Compound plr = null;
-		try
-		{
-			plr = (Tag.Compound)level.find(Tag.Type.COMPOUND, "Player");
-		}
-		catch(FormatException e)
-		{
-		}
+		Tag.Compound plr = level.getCompoundOrNull("Player");
 		if(plr != null)
 		{
 			player = new Player(plr);
@@ -1061,4 +1105,40 @@ public class Level
 		}
 		return t;
 	}
-}
\ No newline at end of file
+	/**
+	 * Writes the tag for this Level directly to the given writer.
+	 * @param w The writer to write to.
+	 * @param name The name the compound tag should have, or null if it is written into a list.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void ToNBT(NbtWriter w, String name) throws IOException
+	{
+		w.name(name).beginCompound();
+		w.name("Data").beginCompound();
+		w.name("version").writeInt(19133);
+		w.name("LevelName").writeString(levelname);
+		w.name("allowCommands").writeByte((byte)(allowcommands?1:0));
+		w.name("GameType").writeInt(gametype.ordinal());
+		w.name("hardcore").writeByte((byte)(hardcore?1:0));
+		w.name("MapFeatures").writeByte((byte)(mapfeatures?1:0));
+		w.name("Time").writeLong(time);
+		w.name("raining").writeByte((byte)(raining?1:0));
+		w.name("rainTime").writeInt(raintime);
+		w.name("thundering").writeByte((byte)(thundering?1:0));
+		w.name("thunderTime").writeInt(thundertime);
+		w.name("generatorName").writeString(""+generator);
+		w.name("generatorVersion").writeInt(generatorversion);
+		w.name("RandomSeed").writeLong(randomseed);
+		w.name("SpawnX").writeInt(spawnx);
+		w.name("SpawnY").writeInt(spawny);
+		w.name("SpawnZ").writeInt(spawnz);
+		w.name("LastPlayed").writeLong(lastplayed);
+		w.name("SizeOnDisk").writeLong(sizeondisk);
+		if(player != null)
+		{
+			player.ToNBT(w, "Player");
+		}
+		w.endCompound();
+		w.endCompound();
+	}
+}
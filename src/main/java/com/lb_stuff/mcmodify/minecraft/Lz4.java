@@ -0,0 +1,825 @@
+package com.lb_stuff.mcmodify.minecraft;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The LZ4 codec of <code>CompressionScheme.LZ4</code>: LZ4 blocks of up to 64 KiB, each framed with a header holding
+ * its lengths and an XXHash32 checksum and followed by an empty end block, as written by the
+ * <code>LZ4BlockOutputStream</code> of lz4-java with its default settings. Blocks that do not shrink are stored raw.
+ * <p>
+ * The compressor is a greedy single-probe matcher, which favors speed over ratio; the decompressor checks every
+ * length and offset against its buffers, so corrupt data fails with an <code>IOException</code>.
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 Block Format Description</a>
+ */
+/*default*/ final class Lz4
+{
+	private Lz4()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * The greatest number of bytes in a block.
+	 */
+	/*default*/ static final int BLOCK_SIZE = 64*1024;
+	/**
+	 * The number of bits of the hash of the compressor's match table.
+	 */
+	/*default*/ static final int HASH_LOG = 14;
+	/**
+	 * The magic number that starts every block header.
+	 */
+	private static final byte[] MAGIC = {'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k'};
+	/**
+	 * The length of a block header: the magic number, the token, both lengths and the checksum.
+	 */
+	private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 4 + 4;
+	/**
+	 * The token method of a block stored raw.
+	 */
+	private static final int METHOD_RAW = 0x10;
+	/**
+	 * The token method of an LZ4 block.
+	 */
+	private static final int METHOD_LZ4 = 0x20;
+	/**
+	 * The token level of <code>BLOCK_SIZE</code>, the base 2 logarithm of the block size less 10.
+	 */
+	private static final int LEVEL = 6;
+	/**
+	 * The seed of the XXHash32 block checksums.
+	 */
+	private static final int SEED = 0x9747B28C;
+	/**
+	 * The shortest match.
+	 */
+	private static final int MIN_MATCH = 4;
+	/**
+	 * The number of bytes at the end of a block that must be literals.
+	 */
+	private static final int LAST_LITERALS = 5;
+	/**
+	 * The number of bytes at the end of a block in which no match may start.
+	 */
+	private static final int MF_LIMIT = 12;
+	/**
+	 * The greatest distance back to a match.
+	 */
+	private static final int MAX_DISTANCE = 65535;
+
+	/**
+	 * Returns the greatest length of the framed data for the given length of data.
+	 * @param len The length of the data.
+	 * @return The greatest length of the framed data.
+	 */
+	/*default*/ static long maxFramedLength(int len)
+	{
+		final long blocks = (len + (long)BLOCK_SIZE - 1)/BLOCK_SIZE;
+		return blocks*HEADER_LENGTH + len + HEADER_LENGTH;
+	}
+
+	/**
+	 * Compresses data into framed blocks followed by the end block.
+	 * @param src The array holding the data.
+	 * @param off The index of the first byte of the data.
+	 * @param len The length of the data.
+	 * @param dst The array to write to, with room for <code>maxFramedLength(len)</code> bytes.
+	 * @param table The match table, of <code>1 &lt;&lt; HASH_LOG</code> entries.
+	 * @return The length of the framed data.
+	 */
+	/*default*/ static int compress(byte[] src, int off, int len, byte[] dst, int[] table)
+	{
+		int n = 0;
+		for(int done = 0; done < len; done += BLOCK_SIZE)
+		{
+			n += writeBlock(src, off + done, Math.min(BLOCK_SIZE, len - done), dst, n, table);
+		}
+		return n + writeHeader(dst, n, METHOD_RAW, 0, 0, 0);
+	}
+	/**
+	 * Writes one framed block, storing it raw if compressing it does not make it smaller.
+	 * @param src The array holding the data of the block.
+	 * @param off The index of the first byte of the block.
+	 * @param len The length of the block, at most <code>BLOCK_SIZE</code>.
+	 * @param dst The array to write to.
+	 * @param dOff The index in <code>dst</code> of the block header.
+	 * @param table The match table.
+	 * @return The length of the framed block.
+	 */
+	private static int writeBlock(byte[] src, int off, int len, byte[] dst, int dOff, int[] table)
+	{
+		final int check = xxHash32(src, off, len, SEED) & 0xFFFFFFF;
+		final int body = dOff + HEADER_LENGTH;
+		//a compressed block may grow past its raw length before the compressor notices, so it gets its own room
+		final int bound = len + len/255 + 16;
+		if(body + bound <= dst.length)
+		{
+			final int c = compressBlock(src, off, len, dst, body, table);
+			if(c < len)
+			{
+				return writeHeader(dst, dOff, METHOD_LZ4, c, len, check) + c;
+			}
+		}
+		else
+		{
+			final byte[] temp = new byte[bound];
+			final int c = compressBlock(src, off, len, temp, 0, table);
+			if(c < len)
+			{
+				System.arraycopy(temp, 0, dst, body, c);
+				return writeHeader(dst, dOff, METHOD_LZ4, c, len, check) + c;
+			}
+		}
+		System.arraycopy(src, off, dst, body, len);
+		return writeHeader(dst, dOff, METHOD_RAW, len, len, check) + len;
+	}
+	/**
+	 * Writes a block header.
+	 * @param dst The array to write to.
+	 * @param dOff The index of the header.
+	 * @param method The token method.
+	 * @param compressed The length of the block data.
+	 * @param original The length of the block once decompressed.
+	 * @param check The checksum of the decompressed block.
+	 * @return The length of the header.
+	 */
+	private static int writeHeader(byte[] dst, int dOff, int method, int compressed, int original, int check)
+	{
+		System.arraycopy(MAGIC, 0, dst, dOff, MAGIC.length);
+		dst[dOff + MAGIC.length] = (byte)(method | LEVEL);
+		putIntLE(dst, dOff + MAGIC.length + 1, compressed);
+		putIntLE(dst, dOff + MAGIC.length + 5, original);
+		putIntLE(dst, dOff + MAGIC.length + 9, check);
+		return HEADER_LENGTH;
+	}
+
+	/**
+	 * Returns the total decompressed length of framed data, checking the block headers on the way.
+	 * @param src The array holding the framed data.
+	 * @param off The index of the first byte of the framed data.
+	 * @param len The length of the framed data.
+	 * @return The decompressed length.
+	 * @throws IOException if a block header is not valid or the data ends before the end block.
+	 */
+	/*default*/ static int decompressedLength(byte[] src, int off, int len) throws IOException
+	{
+		final int end = off + len;
+		long total = 0;
+		for(int p = off; ; )
+		{
+			if(end - p < HEADER_LENGTH)
+			{
+				throw new EOFException("LZ4 data ends without an end block");
+			}
+			final int compressed = checkHeader(src, p);
+			final int original = getIntLE(src, p + MAGIC.length + 5);
+			if(original == 0)
+			{
+				break;
+			}
+			if(compressed > end - p - HEADER_LENGTH)
+			{
+				throw new EOFException("LZ4 block runs past the end of the data");
+			}
+			total += original;
+			if(total > Integer.MAX_VALUE - 8)
+			{
+				throw new IOException("LZ4 data too large for a byte array");
+			}
+			p += HEADER_LENGTH + compressed;
+		}
+		return (int)total;
+	}
+	/**
+	 * Decompresses framed data whose decompressed length is known.
+	 * @param src The array holding the framed data.
+	 * @param off The index of the first byte of the framed data.
+	 * @param len The length of the framed data.
+	 * @param dst The array to write to, which must be exactly the decompressed length.
+	 * @throws IOException if the data is corrupt.
+	 */
+	/*default*/ static void decompress(byte[] src, int off, int len, byte[] dst) throws IOException
+	{
+		int p = off;
+		int d = 0;
+		while(true)
+		{
+			final int compressed = checkHeader(src, p);
+			final int method = src[p + MAGIC.length] & 0xF0;
+			final int original = getIntLE(src, p + MAGIC.length + 5);
+			final int check = getIntLE(src, p + MAGIC.length + 9);
+			p += HEADER_LENGTH;
+			if(original == 0)
+			{
+				break;
+			}
+			if(method == METHOD_RAW)
+			{
+				System.arraycopy(src, p, dst, d, original);
+			}
+			else
+			{
+				decompressBlock(src, p, compressed, dst, d, original);
+			}
+			if((xxHash32(dst, d, original, SEED) & 0xFFFFFFF) != check)
+			{
+				throw new IOException("LZ4 block checksum mismatch");
+			}
+			p += compressed;
+			d += original;
+		}
+		if(d != dst.length)
+		{
+			throw new IOException("LZ4 data shorter than expected");
+		}
+	}
+	/**
+	 * Checks a block header.
+	 * @param src The array holding the header, with at least <code>HEADER_LENGTH</code> bytes from <code>p</code>.
+	 * @param p The index of the header.
+	 * @return The length of the block data.
+	 * @throws IOException if the header is not valid.
+	 */
+	private static int checkHeader(byte[] src, int p) throws IOException
+	{
+		for(int i = 0; i < MAGIC.length; ++i)
+		{
+			if(src[p + i] != MAGIC[i])
+			{
+				throw new IOException("Not in LZ4 block format");
+			}
+		}
+		final int token = src[p + MAGIC.length] & 0xFF;
+		final int method = token & 0xF0;
+		final int compressed = getIntLE(src, p + MAGIC.length + 1);
+		final int original = getIntLE(src, p + MAGIC.length + 5);
+		if((method != METHOD_RAW && method != METHOD_LZ4)
+		|| original < 0 || original > 1 << ((token & 0x0F) + 10) || compressed < 0
+		|| (method == METHOD_RAW ? compressed != original : compressed >= original)
+		|| (original == 0) != (compressed == 0)
+		|| (original == 0 && getIntLE(src, p + MAGIC.length + 9) != 0))
+		{
+			throw new IOException("Corrupt LZ4 block header");
+		}
+		return compressed;
+	}
+
+	/**
+	 * Compresses a single LZ4 block without framing.
+	 * @param src The array holding the data.
+	 * @param off The index of the first byte of the data.
+	 * @param len The length of the data.
+	 * @param dst The array to write to, with room for <code>len + len/255 + 16</code> bytes.
+	 * @param dOff The index in <code>dst</code> to write to.
+	 * @param table The match table, of <code>1 &lt;&lt; HASH_LOG</code> entries.
+	 * @return The length of the compressed block.
+	 */
+	private static int compressBlock(byte[] src, int off, int len, byte[] dst, int dOff, int[] table)
+	{
+		final int end = off + len;
+		int d = dOff;
+		int anchor = off;
+		if(len > MF_LIMIT)
+		{
+			Arrays.fill(table, -1);
+			final int limit = end - MF_LIMIT;
+			final int matchLimit = end - LAST_LITERALS;
+			int ip = off;
+			while(ip <= limit)
+			{
+				final int h = hash(getIntLE(src, ip));
+				int ref = table[h];
+				table[h] = ip;
+				if(ref < 0 || ip - ref > MAX_DISTANCE || getIntLE(src, ref) != getIntLE(src, ip))
+				{
+					ip += 1 + ((ip - anchor) >>> 6); //skip faster through data that does not match
+					continue;
+				}
+				while(ip > anchor && ref > off && src[ip - 1] == src[ref - 1])
+				{
+					--ip;
+					--ref;
+				}
+				int ml = MIN_MATCH;
+				while(ip + ml < matchLimit && src[ip + ml] == src[ref + ml])
+				{
+					++ml;
+				}
+				d = writeSequence(src, anchor, ip - anchor, dst, d, ip - ref, ml);
+				ip += ml;
+				anchor = ip;
+				if(ip <= limit)
+				{
+					table[hash(getIntLE(src, ip - 2))] = ip - 2;
+				}
+			}
+		}
+		return writeSequence(src, anchor, end - anchor, dst, d, 0, 0) - dOff;
+	}
+	/**
+	 * Writes a sequence: its token, its literals and, unless it is the last sequence, its match.
+	 * @param src The array holding the literals.
+	 * @param lit The index of the first literal.
+	 * @param litLen The number of literals.
+	 * @param dst The array to write to.
+	 * @param d The index in <code>dst</code> to write to.
+	 * @param offset The distance back to the match.
+	 * @param ml The length of the match, or 0 for the last sequence.
+	 * @return The index in <code>dst</code> after the sequence.
+	 */
+	private static int writeSequence(byte[] src, int lit, int litLen, byte[] dst, int d, int offset, int ml)
+	{
+		final int mlCode = (ml == 0 ? 0 : ml - MIN_MATCH);
+		dst[d++] = (byte)((Math.min(litLen, 15) << 4) | Math.min(mlCode, 15));
+		d = writeLength(dst, d, litLen);
+		System.arraycopy(src, lit, dst, d, litLen);
+		d += litLen;
+		if(ml != 0)
+		{
+			dst[d++] = (byte)offset;
+			dst[d++] = (byte)(offset >>> 8);
+			d = writeLength(dst, d, mlCode);
+		}
+		return d;
+	}
+	/**
+	 * Writes the bytes that extend a length of 15 or more in a token.
+	 * @param dst The array to write to.
+	 * @param d The index in <code>dst</code> to write to.
+	 * @param len The length.
+	 * @return The index in <code>dst</code> after the bytes.
+	 */
+	private static int writeLength(byte[] dst, int d, int len)
+	{
+		if(len >= 15)
+		{
+			for(len -= 15; len >= 255; len -= 255)
+			{
+				dst[d++] = (byte)255;
+			}
+			dst[d++] = (byte)len;
+		}
+		return d;
+	}
+	/**
+	 * Decompresses a single LZ4 block without framing.
+	 * @param src The array holding the block.
+	 * @param off The index of the first byte of the block.
+	 * @param len The length of the block.
+	 * @param dst The array to write to.
+	 * @param dOff The index in <code>dst</code> to write to.
+	 * @param dLen The length of the block once decompressed.
+	 * @throws IOException if the block is corrupt or does not decompress to exactly <code>dLen</code> bytes.
+	 */
+	private static void decompressBlock(byte[] src, int off, int len, byte[] dst, int dOff, int dLen) throws IOException
+	{
+		final int end = off + len;
+		final int dEnd = dOff + dLen;
+		int p = off;
+		int d = dOff;
+		while(true)
+		{
+			if(p >= end)
+			{
+				throw new IOException("Truncated LZ4 block");
+			}
+			final int token = src[p++] & 0xFF;
+			int litLen = token >>> 4;
+			if(litLen == 15)
+			{
+				for(int b = 255; b == 255; )
+				{
+					if(p >= end || litLen > dLen)
+					{
+						throw new IOException("Malformed LZ4 block");
+					}
+					b = src[p++] & 0xFF;
+					litLen += b;
+				}
+			}
+			if(litLen > end - p || litLen > dEnd - d)
+			{
+				throw new IOException("Malformed LZ4 block");
+			}
+			System.arraycopy(src, p, dst, d, litLen);
+			p += litLen;
+			d += litLen;
+			if(p == end)
+			{
+				break;
+			}
+			if(end - p < 2)
+			{
+				throw new IOException("Truncated LZ4 block");
+			}
+			final int offset = (src[p] & 0xFF) | ((src[p + 1] & 0xFF) << 8);
+			p += 2;
+			int ml = token & 0x0F;
+			if(ml == 15)
+			{
+				for(int b = 255; b == 255; )
+				{
+					if(p >= end || ml > dLen)
+					{
+						throw new IOException("Malformed LZ4 block");
+					}
+					b = src[p++] & 0xFF;
+					ml += b;
+				}
+			}
+			ml += MIN_MATCH;
+			if(offset == 0 || offset > d - dOff || ml > dEnd - d)
+			{
+				throw new IOException("Malformed LZ4 block");
+			}
+			//an overlapping match repeats the last offset bytes, so copy whole periods, doubling what is copied each time
+			for(int done = 0, n; done < ml; done += n)
+			{
+				n = Math.min(offset + done, ml - done);
+				System.arraycopy(dst, d - offset, dst, d + done, n);
+			}
+			d += ml;
+		}
+		if(d != dEnd)
+		{
+			throw new IOException("LZ4 block length mismatch");
+		}
+	}
+
+	/**
+	 * Returns the index of an int of data in the match table.
+	 * @param v The int.
+	 * @return The index in the match table.
+	 */
+	private static int hash(int v)
+	{
+		return (v * -1640531535) >>> (32 - HASH_LOG);
+	}
+	/**
+	 * Computes the XXHash32 of data.
+	 * @param b The array holding the data.
+	 * @param off The index of the first byte of the data.
+	 * @param len The length of the data.
+	 * @param seed The seed.
+	 * @return The hash.
+	 */
+	/*default*/ static int xxHash32(byte[] b, int off, int len, int seed)
+	{
+		final int p1 = 0x9E3779B1, p2 = 0x85EBCA77, p3 = 0xC2B2AE3D, p4 = 0x27D4EB2F, p5 = 0x165667B1;
+		final int end = off + len;
+		int p = off;
+		int h;
+		if(len >= 16)
+		{
+			int v1 = seed + p1 + p2, v2 = seed + p2, v3 = seed, v4 = seed - p1;
+			for(final int limit = end - 16; p <= limit; p += 16)
+			{
+				v1 = Integer.rotateLeft(v1 + getIntLE(b, p)*p2, 13)*p1;
+				v2 = Integer.rotateLeft(v2 + getIntLE(b, p + 4)*p2, 13)*p1;
+				v3 = Integer.rotateLeft(v3 + getIntLE(b, p + 8)*p2, 13)*p1;
+				v4 = Integer.rotateLeft(v4 + getIntLE(b, p + 12)*p2, 13)*p1;
+			}
+			h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+		}
+		else
+		{
+			h = seed + p5;
+		}
+		h += len;
+		for(; p + 4 <= end; p += 4)
+		{
+			h = Integer.rotateLeft(h + getIntLE(b, p)*p3, 17)*p4;
+		}
+		for(; p < end; ++p)
+		{
+			h = Integer.rotateLeft(h + (b[p] & 0xFF)*p5, 11)*p1;
+		}
+		h ^= h >>> 15;
+		h *= p2;
+		h ^= h >>> 13;
+		h *= p3;
+		h ^= h >>> 16;
+		return h;
+	}
+	/**
+	 * Loads a little-endian int.
+	 * @param b The array to load from.
+	 * @param i The index of the first byte.
+	 * @return The int.
+	 */
+	private static int getIntLE(byte[] b, int i)
+	{
+		return (b[i] & 0xFF) | ((b[i+1] & 0xFF) << 8) | ((b[i+2] & 0xFF) << 16) | (b[i+3] << 24);
+	}
+	/**
+	 * Stores a little-endian int.
+	 * @param b The array to store into.
+	 * @param i The index of the first byte.
+	 * @param v The int.
+	 */
+	private static void putIntLE(byte[] b, int i, int v)
+	{
+		b[i] = (byte)v;
+		b[i+1] = (byte)(v >>> 8);
+		b[i+2] = (byte)(v >>> 16);
+		b[i+3] = (byte)(v >>> 24);
+	}
+
+	/**
+	 * A stream that reads framed LZ4 data a block at a time, up to the end block.
+	 */
+	/*default*/ static final class BlockInputStream extends InputStream
+	{
+		/**
+		 * The framed stream.
+		 */
+		private final InputStream in;
+		/**
+		 * The framed block being read, header included.
+		 */
+		private final byte[] framed = new byte[HEADER_LENGTH + BLOCK_SIZE];
+		/**
+		 * The decompressed block being read.
+		 */
+		private final byte[] block = new byte[BLOCK_SIZE];
+		/**
+		 * The index of the next byte to read in <code>block</code>.
+		 */
+		private int pos = 0;
+		/**
+		 * The number of bytes in <code>block</code>.
+		 */
+		private int limit = 0;
+		/**
+		 * Whether the end block has been read.
+		 */
+		private boolean finished = false;
+
+		/**
+		 * Constructs the stream.
+		 * @param in The framed stream.
+		 */
+		BlockInputStream(InputStream in)
+		{
+			this.in = in;
+		}
+
+		/**
+		 * Reads a byte.
+		 * @return The byte, or -1 at the end of the data.
+		 * @throws IOException if the data is corrupt or the input operation generates an exception.
+		 */
+		@Override public int read() throws IOException
+		{
+			if(pos == limit && !refill())
+			{
+				return -1;
+			}
+			return block[pos++] & 0xFF;
+		}
+		/**
+		 * Reads bytes.
+		 * @param b The array to read into.
+		 * @param off The index in the array of the first byte to read.
+		 * @param len The maximum number of bytes to read.
+		 * @return The number of bytes read, or -1 at the end of the data.
+		 * @throws IOException if the data is corrupt or the input operation generates an exception.
+		 */
+		@Override public int read(byte[] b, int off, int len) throws IOException
+		{
+			if(len == 0)
+			{
+				return 0;
+			}
+			if(pos == limit && !refill())
+			{
+				return -1;
+			}
+			final int n = Math.min(len, limit - pos);
+			System.arraycopy(block, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+		/**
+		 * Returns the number of bytes left in the current block.
+		 * @return The number of bytes that can be read without blocking.
+		 */
+		@Override public int available()
+		{
+			return limit - pos;
+		}
+		/**
+		 * Reads the next block that holds data.
+		 * @return Whether a block was read, rather than the end block.
+		 * @throws IOException if the data is corrupt or the input operation generates an exception.
+		 */
+		private boolean refill() throws IOException
+		{
+			while(!finished)
+			{
+				readFully(0, HEADER_LENGTH);
+				final int compressed = checkHeader(framed, 0);
+				final int original = getIntLE(framed, MAGIC.length + 5);
+				if(original == 0)
+				{
+					finished = true;
+					break;
+				}
+				if(original > block.length)
+				{
+					throw new IOException("LZ4 block larger than "+block.length+" bytes");
+				}
+				readFully(HEADER_LENGTH, compressed);
+				decompressOne(original);
+				pos = 0;
+				limit = original;
+				return true;
+			}
+			return false;
+		}
+		/**
+		 * Decompresses the framed block in <code>framed</code> into <code>block</code> and checks its checksum.
+		 * @param original The length of the block once decompressed.
+		 * @throws IOException if the block is corrupt.
+		 */
+		private void decompressOne(int original) throws IOException
+		{
+			final int compressed = getIntLE(framed, MAGIC.length + 1);
+			if((framed[MAGIC.length] & 0xF0) == METHOD_RAW)
+			{
+				System.arraycopy(framed, HEADER_LENGTH, block, 0, original);
+			}
+			else
+			{
+				decompressBlock(framed, HEADER_LENGTH, compressed, block, 0, original);
+			}
+			if((xxHash32(block, 0, original, SEED) & 0xFFFFFFF) != getIntLE(framed, MAGIC.length + 9))
+			{
+				throw new IOException("LZ4 block checksum mismatch");
+			}
+		}
+		/**
+		 * Reads exactly the given number of bytes of the framed stream into <code>framed</code>.
+		 * @param off The index in <code>framed</code> to read into.
+		 * @param len The number of bytes.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws EOFException if the framed stream ends early.
+		 */
+		private void readFully(int off, int len) throws IOException
+		{
+			for(int r; len > 0; off += r, len -= r)
+			{
+				r = in.read(framed, off, len);
+				if(r < 0)
+				{
+					throw new EOFException("LZ4 data ends without an end block");
+				}
+			}
+		}
+		/**
+		 * Closes the framed stream.
+		 * @throws IOException if the framed stream throws an exception when closed.
+		 */
+		@Override public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * A stream that writes framed LZ4 data a block at a time, and the end block when it is finished.
+	 */
+	/*default*/ static final class BlockOutputStream extends FilterOutputStream
+	{
+		/**
+		 * The data of the block being written.
+		 */
+		private final byte[] block = new byte[BLOCK_SIZE];
+		/**
+		 * The number of bytes in <code>block</code>.
+		 */
+		private int count = 0;
+		/**
+		 * The framed block, header included.
+		 */
+		private final byte[] framed = new byte[HEADER_LENGTH + BLOCK_SIZE + BLOCK_SIZE/255 + 16];
+		/**
+		 * The match table of the compressor.
+		 */
+		private final int[] table = new int[1 << HASH_LOG];
+		/**
+		 * Whether the end block has been written.
+		 */
+		private boolean finished = false;
+
+		/**
+		 * Constructs the stream.
+		 * @param out The stream to write the framed data to.
+		 */
+		BlockOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		/**
+		 * Writes a byte.
+		 * @param b The byte.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override public void write(int b) throws IOException
+		{
+			if(finished)
+			{
+				throw new IOException("Stream finished");
+			}
+			if(count == BLOCK_SIZE)
+			{
+				writeBlock();
+			}
+			block[count++] = (byte)b;
+		}
+		/**
+		 * Writes bytes.
+		 * @param b The array holding the bytes.
+		 * @param off The index of the first byte.
+		 * @param len The number of bytes.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override public void write(byte[] b, int off, int len) throws IOException
+		{
+			if(finished)
+			{
+				throw new IOException("Stream finished");
+			}
+			while(len > 0)
+			{
+				if(count == BLOCK_SIZE)
+				{
+					writeBlock();
+				}
+				final int n = Math.min(len, BLOCK_SIZE - count);
+				System.arraycopy(b, off, block, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+		/**
+		 * Frames and writes the buffered block.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		private void writeBlock() throws IOException
+		{
+			out.write(framed, 0, Lz4.writeBlock(block, 0, count, framed, 0, table));
+			count = 0;
+		}
+		/**
+		 * Writes the buffered block, if any, and flushes the framed stream.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override public void flush() throws IOException
+		{
+			if(count > 0)
+			{
+				writeBlock();
+			}
+			out.flush();
+		}
+		/**
+		 * Writes the buffered block, if any, and the end block, without closing the framed stream.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		public void finish() throws IOException
+		{
+			if(!finished)
+			{
+				if(count > 0)
+				{
+					writeBlock();
+				}
+				out.write(framed, 0, writeHeader(framed, 0, METHOD_RAW, 0, 0, 0));
+				finished = true;
+			}
+		}
+		/**
+		 * Finishes the framed data and closes the framed stream.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override public void close() throws IOException
+		{
+			try
+			{
+				finish();
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+	}
+}
@@ -123,7 +123,7 @@ public class Map
 		xcenter = ((Tag.Int)map.find(Tag.Type.INT, "xCenter")).v;
 		zcenter = ((Tag.Int)map.find(Tag.Type.INT, "zCenter")).v;
 
-		byte[] data = ((Tag.ByteArray)map.find(Tag.Type.BYTEARRAY, "colors")).v;
+		byte[] data = ((Tag.ByteArray)map.find(Tag.Type.BYTEARRAY, "colors")).array();
 		colors = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, MapColorModel);
 		for(int i = 0; i < width; ++i)
 		{
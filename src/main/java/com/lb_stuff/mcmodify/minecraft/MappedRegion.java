@@ -0,0 +1,119 @@
+package com.lb_stuff.mcmodify.minecraft;
+
+import com.lb_stuff.mcmodify.location.LocChunkInRegion;
+import com.lb_stuff.mcmodify.nbt.Tag;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only region that memory-maps its whole Region File, for map renderers and scanners that read every chunk of a
+ * region once. Chunks are decoded straight from the mapping: compressed chunks are inflated from it without first
+ * being copied to an array, and <code>Store</code> chunks are deserialized from it directly. Reading a chunk or a
+ * timestamp makes no system calls beyond the page faults of the mapping.
+ * <p>
+ * Chunks may be read from several threads at once. The mapping is released when this object is garbage collected;
+ * until then, changes made to the file by anything else may or may not be seen, and some platforms do not allow the
+ * file to be deleted. Chunks stored in external files are not supported.
+ * @see <a href="http://minecraft.gamepedia.com/Region_file_format">Region file format</a> on the Minecraft Wiki
+ */
+public class MappedRegion extends Region
+{
+	/**
+	 * The Region File.
+	 */
+	private final File rf;
+	/**
+	 * The mapping of the whole Region File, which is only ever read with absolute gets or through duplicates.
+	 */
+	private final MappedByteBuffer map;
+
+	/**
+	 * Constructs this region by memory-mapping a Region File.
+	 * @param mca The Region File.
+	 * @throws IOException if the region file cannot be mapped, is too short for its header or is too large to map.
+	 */
+	public MappedRegion(File mca) throws IOException
+	{
+		rf = mca;
+		try(FileChannel channel = FileChannel.open(rf.toPath(), StandardOpenOption.READ))
+		{
+			final long size = channel.size();
+			if(size < CHUNK_SECTORS_START)
+			{
+				throw new EOFException("Region file too short for its header: "+rf);
+			}
+			if(size > Integer.MAX_VALUE)
+			{
+				throw new IOException("Region file too large to map: "+rf);
+			}
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	@Override
+	public Chunk getChunk(LocChunkInRegion pos) throws IOException
+	{
+		final int index = chunkIndex(pos);
+		final LocationPair loc = new LocationPair(map.getInt((int)LOCATIONS_SECTOR_START + index*4));
+		if(loc.offset == 0 || loc.size == 0)
+		{
+			return null;
+		}
+		if(loc.offset + 5 > map.limit())
+		{
+			throw new EOFException("Chunk "+index+" starts past the end of "+rf);
+		}
+		final int length = map.getInt((int)loc.offset);
+		final byte id = map.get((int)loc.offset + 4);
+		if(length < 1 || length - 1 > map.limit() - loc.offset - 5)
+		{
+			throw new EOFException("Chunk "+index+" runs past the end of "+rf);
+		}
+		final CompressionScheme compressed = CompressionScheme.fromId(id);
+		if(compressed == null)
+		{
+			throw new IOException("Chunk "+index+" has unsupported compression scheme id "+id+" in "+rf);
+		}
+		final ByteBuffer data = map.duplicate();
+		data.limit((int)loc.offset + 4 + length).position((int)loc.offset + 5);
+		if(compressed == CompressionScheme.Store)
+		{
+			return new Chunk((Tag.Compound)Tag.deserialize(data.slice()));
+		}
+		return new Chunk((Tag.Compound)Tag.deserialize(ByteBuffer.wrap(compressed.decompress(data))));
+	}
+	@Override
+	public int getTimestamp(LocChunkInRegion pos)
+	{
+		return map.getInt((int)TIMESTAMPS_SECTOR_START + chunkIndex(pos)*4);
+	}
+
+	/**
+	 * Mapped regions are read-only.
+	 * @param pos The location of the chunk.
+	 * @param c The chunk.
+	 * @throws UnsupportedOperationException always.
+	 */
+	@Override
+	public void setChunk(LocChunkInRegion pos, Chunk c) throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("Mapped regions are read-only: "+rf);
+	}
+	/**
+	 * Mapped regions are read-only.
+	 * @param pos The location of the chunk.
+	 * @param timestamp The timestamp.
+	 * @throws UnsupportedOperationException always.
+	 */
+	@Override
+	public void setTimestamp(LocChunkInRegion pos, int timestamp) throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("Mapped regions are read-only: "+rf);
+	}
+}
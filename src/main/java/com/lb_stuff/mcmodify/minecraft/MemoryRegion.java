@@ -1,17 +1,14 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.location.LocChunkInRegion;
+import com.lb_stuff.mcmodify.nbt.ContentHash;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
-import org.apache.commons.io.IOUtils;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Loads an entire region file into memory and allows you to save it later.
@@ -22,6 +19,14 @@ public class MemoryRegion extends Region
 	private final CompressionScheme compression;
 	private final int[] timestamps = new int[MAX_CHUNKS];
 	private final byte[][] chunks = new byte[MAX_CHUNKS][];
+	/**
+	 * The content hash of each chunk in <code>chunks</code>, valid where <code>hashed</code> is set.
+	 */
+	private final long[] hashes = new long[MAX_CHUNKS];
+	/**
+	 * Whether the content hash of each chunk is known.
+	 */
+	private final boolean[] hashed = new boolean[MAX_CHUNKS];
 	public MemoryRegion(File mca, CompressionScheme preferred) throws IOException
 	{
 		compression = preferred;
@@ -44,17 +49,8 @@ public class MemoryRegion extends Region
 					region.readFully(chunks[i]);
 					if(compressed != null && compressed != compression)
 					{
-						try(InputStream is = compressed.getInputStream(new ByteArrayInputStream(chunks[i])))
-						{
-							try(ByteArrayOutputStream baos = new ByteArrayOutputStream())
-							{
-								try(OutputStream os = compression.getOutputStream(baos))
-								{
-									os.write(IOUtils.toByteArray(is));
-								}
-								chunks[i] = baos.toByteArray();
-							}
-						}
+						final byte[] nbt = compressed.decompress(chunks[i], 0, chunks[i].length);
+						chunks[i] = compression.compressParallel(nbt, 0, nbt.length, CompressionSettings.DEFAULT, ForkJoinPool.commonPool());
 					}
 				}
 			}
@@ -62,10 +58,27 @@ public class MemoryRegion extends Region
 	}
 
 	public void saveToFile(File mca, CompressionScheme preferred) throws IOException
+	{
+		saveToFile(mca, preferred, CompressionSettings.DEFAULT);
+	}
+	/**
+	 * Saves this region to a Region File, compressing its chunks with the given scheme and settings. With the default
+	 * settings, chunks already compressed with the given scheme are written as they are; otherwise every chunk is
+	 * compressed again.
+	 * @param mca The Region File.
+	 * @param preferred The compression scheme of the chunks in the Region File.
+	 * @param settings How to compress the chunks.
+	 * @throws IOException if an error occurs while writing the Region File.
+	 */
+	public void saveToFile(File mca, CompressionScheme preferred, CompressionSettings settings) throws IOException
 	{
 		if(preferred == CompressionScheme.None)
 		{
-			throw new IllegalArgumentException("Minecraft does not support uncompressed region files");
+			throw new IllegalArgumentException("None has no id in region files, use Store for uncompressed chunks");
+		}
+		if(settings == null)
+		{
+			throw new IllegalArgumentException("Compression settings cannot be null");
 		}
 		try(RandomAccessFile region = new RandomAccessFile(mca, "rw"))
 		{
@@ -81,16 +94,14 @@ public class MemoryRegion extends Region
 				if(chunks[i] != null)
 				{
 					final byte[] chunk;
-					try(InputStream is = compression.getInputStream(new ByteArrayInputStream(chunks[i])))
+					if(preferred == compression && settings.equals(CompressionSettings.DEFAULT))
 					{
-						try(ByteArrayOutputStream baos = new ByteArrayOutputStream())
-						{
-							try(OutputStream os = preferred.getOutputStream(baos))
-							{
-								os.write(IOUtils.toByteArray(is));
-							}
-							chunk = baos.toByteArray();
-						}
+						chunk = chunks[i];
+					}
+					else
+					{
+						final byte[] nbt = compression.decompress(chunks[i], 0, chunks[i].length);
+						chunk = preferred.compressParallel(nbt, 0, nbt.length, settings, ForkJoinPool.commonPool());
 					}
 					region.seek(offset);
 					region.writeInt(chunk.length+1);
@@ -103,19 +114,47 @@ public class MemoryRegion extends Region
 					loc.serialize(region);
 				}
 			}
+			region.setLength(offset); //drop what is left of a longer file that was there before
 		}
 	}
 
+	/**
+	 * Rewrites a scratch region, whose chunks may be in schemes the game cannot read such as <code>Store</code> or
+	 * <code>LZ4</code>, with every chunk compressed with Zlib as the game writes them. Timestamps are kept.
+	 * @param scratch The scratch Region File.
+	 * @param mca The Region File to write, which may be the same as <code>scratch</code>.
+	 * @throws IOException if an error occurs while reading or writing the Region Files.
+	 * @see RegionTranscoder
+	 */
+	public static void convertForGame(File scratch, File mca) throws IOException
+	{
+		new RegionTranscoder(CompressionScheme.Zlib, CompressionSettings.DEFAULT, ForkJoinPool.commonPool()).transcode(scratch, mca);
+	}
+
 	@Override
 	public Chunk getChunk(LocChunkInRegion pos) throws IOException
 	{
 		final int index = chunkIndex(pos);
 		if(chunks[index] != null)
 		{
-			return new Chunk((Tag.Compound)Tag.deserialize(compression.getInputStream(new ByteArrayInputStream(chunks[index]))));
+			return new Chunk((Tag.Compound)Tag.deserialize(ByteBuffer.wrap(uncompressed(index))));
 		}
 		return null;
 	}
+	/**
+	 * Returns the uncompressed NBT data of the chunk at the given index.
+	 * @param index The index of the chunk, which must be present.
+	 * @return The uncompressed NBT data.
+	 * @throws IOException if the chunk cannot be decompressed.
+	 */
+	private byte[] uncompressed(int index) throws IOException
+	{
+		if(compression == CompressionScheme.None || compression == CompressionScheme.Store)
+		{
+			return chunks[index];
+		}
+		return compression.decompress(chunks[index], 0, chunks[index].length);
+	}
 	@Override
 	public int getTimestamp(LocChunkInRegion pos)
 	{
@@ -126,14 +165,20 @@ public class MemoryRegion extends Region
 	public void setChunk(LocChunkInRegion pos, Chunk c) throws IOException
 	{
 		final int index = chunkIndex(pos);
-		try(ByteArrayOutputStream baos = new ByteArrayOutputStream())
+		final byte[] nbt = serialize(c);
+		final long hash = ContentHash.of(ByteBuffer.wrap(nbt));
+		if(chunks[index] != null && !hashed[index])
 		{
-			try(OutputStream os = compression.getOutputStream(baos))
-			{
-				c.ToNBT("").serialize(os);
-			}
-			chunks[index] = baos.toByteArray();
+			hashes[index] = ContentHash.of(ByteBuffer.wrap(uncompressed(index)));
+			hashed[index] = true;
+		}
+		if(chunks[index] != null && hashes[index] == hash)
+		{
+			return; //unchanged, skip recompressing it
 		}
+		chunks[index] = compression.compressParallel(nbt, 0, nbt.length, CompressionSettings.DEFAULT, ForkJoinPool.commonPool());
+		hashes[index] = hash;
+		hashed[index] = true;
 	}
 	@Override
 	public void setTimestamp(LocChunkInRegion pos, int timestamp)
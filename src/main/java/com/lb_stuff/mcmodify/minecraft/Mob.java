@@ -1,8 +1,10 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -286,15 +288,12 @@ public abstract class Mob extends Entity
 		 */
 		public static Leash FromNBT(Tag.Compound t) throws FormatException
 		{
-			try
-			{
-				int x = ((Tag.Int)t.find(Tag.Type.INT, "X")).v,
-				    y = ((Tag.Int)t.find(Tag.Type.INT, "Y")).v,
-				    z = ((Tag.Int)t.find(Tag.Type.INT, "Z")).v;
-				return new Leash.Fence(x, y, z);
-			}
-			catch(FormatException e)
+			Tag x = t.get(Tag.Type.INT, "X"),
+			    y = t.get(Tag.Type.INT, "Y"),
+			    z = t.get(Tag.Type.INT, "Z");
+			if(x != null && y != null && z != null)
 			{
+				return new Leash.Fence(((Tag.Int)x).v, ((Tag.Int)y).v, ((Tag.Int)z).v);
 			}
 			long least = ((Tag.Long)t.find(Tag.Type.LONG, "UUIDLeast")).v,
 			     most  = ((Tag.Long)t.find(Tag.Type.LONG, "UUIDMost")).v;
@@ -306,6 +305,13 @@ public abstract class Mob extends Entity
 		 * @return The tag for this leash.
 		 */
 		public abstract Tag.Compound ToNBT(String name);
+		/**
+		 * Writes the tag for this leash directly to the given writer.
+		 * @param w The writer to write to.
+		 * @param name The name the compound tag should have, or null if it is written into a list.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		public abstract void ToNBT(NbtWriter w, String name) throws IOException;
 
 		/**
 		 * Represents a leash that attaches a mob to a fence post.
@@ -376,6 +382,20 @@ public abstract class Mob extends Entity
 				                              new Tag.Int("Y", y),
 				                              new Tag.Int("Z", z));
 			}
+			/**
+			 * Writes the tag for this fence leash directly to the given writer.
+			 * @param w The writer to write to.
+			 * @param name The name the compound tag should have, or null if it is written into a list.
+			 * @throws IOException if the output operation generates an exception.
+			 */
+			public void ToNBT(NbtWriter w, String name) throws IOException
+			{
+				w.name(name).beginCompound();
+				w.name("X").writeInt(x);
+				w.name("Y").writeInt(y);
+				w.name("Z").writeInt(z);
+				w.endCompound();
+			}
 		}
 		public static class UUID extends Leash
 		{
@@ -411,6 +431,19 @@ public abstract class Mob extends Entity
 				return new Tag.Compound(name, new Tag.Long("UUIDLeast", least),
 				                              new Tag.Long("UUIDMost", most));
 			}
+			/**
+			 * Writes the tag for this UUID leash directly to the given writer.
+			 * @param w The writer to write to.
+			 * @param name The name the compound tag should have, or null if it is written into a list.
+			 * @throws IOException if the output operation generates an exception.
+			 */
+			public void ToNBT(NbtWriter w, String name) throws IOException
+			{
+				w.name(name).beginCompound();
+				w.name("UUIDLeast").writeLong(least);
+				w.name("UUIDMost").writeLong(most);
+				w.endCompound();
+			}
 		}
 	}
 	/**
@@ -425,6 +458,20 @@ public abstract class Mob extends Entity
 	 * @throws FormatException if the given Tile Entity ID is unknown.
 	 */
 	public static Class<? extends Mob> ClassFromID(String ID) throws FormatException
+	{
+		Class<? extends Mob> c = ClassFromIDOrNull(ID);
+		if(c == null)
+		{
+			throw new FormatException("Unknown Mob Entity ID: \""+ID+"\"");
+		}
+		return c;
+	}
+	/**
+	 * Given an Entity ID, returns the Class object for the Mob class that represents that Entity ID, or null.
+	 * @param ID The Entity ID.
+	 * @return The Class object for the Mob class that represents the Entity ID, or null if it is not a Mob.
+	 */
+	/*default*/ static Class<? extends Mob> ClassFromIDOrNull(String ID)
 	{
 		switch(ID)
 		{
@@ -454,7 +501,7 @@ public abstract class Mob extends Entity
 		case "Wolf":          return Wolf.class;
 		case "Zombie":        return Zombie.class;
 		}
-		throw new FormatException("Unknown Mob Entity ID: \""+ID+"\"");
+		return null;
 	}
 
 	/**
@@ -470,14 +517,7 @@ public abstract class Mob extends Entity
 		attacktime = ((Tag.Short)mob.find(Tag.Type.SHORT, "AttackTime")).v;
 		hurttime = ((Tag.Short)mob.find(Tag.Type.SHORT, "HurtTime")).v;
 		deathtime = ((Tag.Short)mob.find(Tag.Type.SHORT, "DeathTime")).v;
-		Tag.List effects = null;
-		try
-		{
-			effects = (Tag.List)mob.find(Tag.Type.LIST, "ActiveEffects");
-		}
-		catch(FormatException e)
-		{
-		}
+		Tag.List effects = mob.getListOrNull("ActiveEffects");
 		if(effects != null)
 		{
 			if(effects.getContainedType() != Tag.Type.COMPOUND)
@@ -504,11 +544,11 @@ public abstract class Mob extends Entity
 			equipment.put(EquipmentSlot.Helmet,   new Inventory.Item((Tag.Compound)equip.get(EquipmentSlot.Helmet.  ID())));
 
 			Tag.List drops = (Tag.List)mob.find(Tag.Type.LIST, "DropChances");
-			dropchances.put(EquipmentSlot.Hand,     ((Tag.Float)equip.get(EquipmentSlot.Hand.    ID())).v);
-			dropchances.put(EquipmentSlot.Boots,    ((Tag.Float)equip.get(EquipmentSlot.Boots.   ID())).v);
-			dropchances.put(EquipmentSlot.Leggings, ((Tag.Float)equip.get(EquipmentSlot.Leggings.ID())).v);
-			dropchances.put(EquipmentSlot.Chest,    ((Tag.Float)equip.get(EquipmentSlot.Chest.   ID())).v);
-			dropchances.put(EquipmentSlot.Helmet,   ((Tag.Float)equip.get(EquipmentSlot.Helmet.  ID())).v);
+			dropchances.put(EquipmentSlot.Hand,     drops.getFloat(EquipmentSlot.Hand.    ID()));
+			dropchances.put(EquipmentSlot.Boots,    drops.getFloat(EquipmentSlot.Boots.   ID()));
+			dropchances.put(EquipmentSlot.Leggings, drops.getFloat(EquipmentSlot.Leggings.ID()));
+			dropchances.put(EquipmentSlot.Chest,    drops.getFloat(EquipmentSlot.Chest.   ID()));
+			dropchances.put(EquipmentSlot.Helmet,   drops.getFloat(EquipmentSlot.Helmet.  ID()));
 
 			canpickuploot = ((Tag.Byte)mob.find(Tag.Type.BYTE, "CanPickUpLoot")).v == 1 ? true : false;
 			persistencerequired = ((Tag.Byte)mob.find(Tag.Type.BYTE, "PersistenceRequired")).v == 1 ? true : false;
@@ -517,45 +557,21 @@ public abstract class Mob extends Entity
 		{
 		}
 
-		try
-		{
-			customname = ((Tag.String)mob.find(Tag.Type.STRING, "CustomName")).v;
-		}
-		catch(FormatException e)
+		customname = mob.getStringOr("CustomName", null);
+		customnamevisible = mob.getByteOr("CustomNameVisible", (byte)0) == 1 ? true : false;
+		healf = mob.getFloatOr("HealF", health);
+		leash = null;
+		Tag.Compound l = (mob.getByteOr("Leashed", (byte)0) == 1 ? mob.getCompoundOrNull("Leash") : null);
+		if(l != null)
 		{
-			customname = null;
-		}
-		try
-		{
-			customnamevisible = ((Tag.Byte)mob.find(Tag.Type.BYTE, "CustomNameVisible")).v == 1 ? true : false;
-		}
-		catch(FormatException e)
-		{
-			customnamevisible = false;
-		}
-		try
-		{
-			healf = ((Tag.Float)mob.find(Tag.Type.FLOAT, "HealF")).v;
-		}
-		catch(FormatException e)
-		{
-			healf = health;
-		}
-		try
-		{
-			if(((Tag.Byte)mob.find(Tag.Type.BYTE, "Leashed")).v == 1)
+			try
 			{
-				leash = Leash.FromNBT((Tag.Compound)mob.find(Tag.Type.COMPOUND, "Leash"));
+				leash = Leash.FromNBT(l);
 			}
-			else
+			catch(FormatException e)
 			{
-				leash = null;
 			}
 		}
-		catch(FormatException e)
-		{
-			leash = null;
-		}
 	}
 	/**
 	 * Constructs a Mob from a position.
@@ -814,14 +830,19 @@ public abstract class Mob extends Entity
 	{
 		Tag.Compound t = super.ToNBT(name);
 		Tag.List effects;
-		Tag.List equip, drops;
+		Tag.List equip;
+		float[] chances = new float[5];
+		for(Map.Entry<EquipmentSlot, Float> e : dropchances.entrySet())
+		{
+			chances[e.getKey().ID()] = e.getValue();
+		}
 		t.add(new Tag.Short("Health", health),
 		      new Tag.Short("AttackTime", attacktime),
 		      new Tag.Short("HurtTime", hurttime),
 		      new Tag.Short("DeathTime", deathtime),
 		      effects = new Tag.List("ActiveEffects", Tag.Type.COMPOUND),
 			  equip =   new Tag.List("Equipment", Tag.Type.COMPOUND),
-		      drops =   new Tag.List("DropChances", Tag.Type.FLOAT),
+		      Tag.List.ofFloats("DropChances", chances),
 		      new Tag.Byte("CanPickUpLoot", (byte)(canpickuploot ? 1 : 0)),
 		      new Tag.Byte("PersistenceRequired", (byte)(persistencerequired ? 1 : 0)),
 		      new Tag.Byte("CustomNameVisible", (byte)(customnamevisible ? 1 : 0)),
@@ -851,16 +872,73 @@ public abstract class Mob extends Entity
 		{
 			equip.set(e.getKey().ID(), e.getValue().ToNBT(null));
 		}
-		drops.add(new Tag.Float(null, 0.0f),
-				  new Tag.Float(null, 0.0f),
-				  new Tag.Float(null, 0.0f),
-				  new Tag.Float(null, 0.0f),
-				  new Tag.Float(null, 0.0f));
+		return t;
+	}
+	/**
+	 * Writes the fields of the tag for this mob entity.
+	 * @param w The writer to write to, inside the compound tag for this mob entity.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+	{
+		super.WriteNBTFields(w);
+		w.name("Health").writeShort(health);
+		w.name("AttackTime").writeShort(attacktime);
+		w.name("HurtTime").writeShort(hurttime);
+		w.name("DeathTime").writeShort(deathtime);
+		w.name("ActiveEffects").beginList(Tag.Type.COMPOUND, activeeffects.size());
+		for(Map.Entry<Effect, EffectInfo> effect : activeeffects.entrySet())
+		{
+			w.beginCompound();
+			w.name("Id").writeByte(effect.getKey().ID());
+			w.name("Amplifier").writeByte(effect.getValue().amplifier);
+			w.name("Duration").writeInt(effect.getValue().duration);
+			w.name("ambient").writeByte((byte)(effect.getValue().ambient ? 1 : 0));
+			w.endCompound();
+		}
+		w.endList();
+		Inventory.Item[] equip = new Inventory.Item[5];
+		for(Map.Entry<EquipmentSlot, Inventory.Item> e : equipment.entrySet())
+		{
+			equip[e.getKey().ID()] = e.getValue();
+		}
+		w.name("Equipment").beginList(Tag.Type.COMPOUND, equip.length);
+		for(Inventory.Item item : equip)
+		{
+			if(item != null)
+			{
+				item.ToNBT(w, null);
+			}
+			else
+			{
+				w.beginCompound().endCompound();
+			}
+		}
+		w.endList();
+		float[] chances = new float[5];
 		for(Map.Entry<EquipmentSlot, Float> e : dropchances.entrySet())
 		{
-			drops.set(e.getKey().ID(), new Tag.Float(null, e.getValue()));
+			chances[e.getKey().ID()] = e.getValue();
+		}
+		w.name("DropChances").beginList(Tag.Type.FLOAT, chances.length);
+		for(float chance : chances)
+		{
+			w.writeFloat(chance);
+		}
+		w.endList();
+		w.name("CanPickUpLoot").writeByte((byte)(canpickuploot ? 1 : 0));
+		w.name("PersistenceRequired").writeByte((byte)(persistencerequired ? 1 : 0));
+		w.name("CustomNameVisible").writeByte((byte)(customnamevisible ? 1 : 0));
+		w.name("Leashed").writeByte((byte)(leash != null ? 1 : 0));
+		w.name("HealF").writeFloat(healf);
+		if(customname != null)
+		{
+			w.name("CustomName").writeString(customname);
+		}
+		if(leash != null)
+		{
+			leash.ToNBT(w, "Leash");
 		}
-		return t;
 	}
 
 	/**
@@ -948,6 +1026,17 @@ public abstract class Mob extends Entity
 				  new Tag.Int("Age", age));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Breedable mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Breedable mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("InLove").writeInt(inlove);
+			w.name("Age").writeInt(age);
+		}
 	}
 	/**
 	 * This class is extended by mobs that can be tamed (Wolf, Ozelot).
@@ -1034,6 +1123,17 @@ public abstract class Mob extends Entity
 				  new Tag.Byte("Sitting", (byte)(sitting?1:0)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Tameable mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Tameable mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Owner").writeString(owner);
+			w.name("Sitting").writeByte((byte)(sitting?1:0));
+		}
 	}
 
 	/**
@@ -1155,14 +1255,7 @@ public abstract class Mob extends Entity
 		{
 			super(creeper);
 
-			try
-			{
-				powered = ((Tag.Byte)creeper.find(Tag.Type.BYTE, "powered")).v != 0 ? true : false;
-			}
-			catch(FormatException e)
-			{
-				powered = false;
-			}
+			powered = creeper.getByteOr("powered", (byte)0) != 0 ? true : false;
 		}
 		/**
 		 * Constructs a Creeper from a position.
@@ -1204,6 +1297,16 @@ public abstract class Mob extends Entity
 			t.add(new Tag.Byte("powered", (byte)(powered?1:0)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Creeper mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Creeper mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("powered").writeByte((byte)(powered?1:0));
+		}
 	}
 	/**
 	 * Ender Dragon mob entity
@@ -1315,6 +1418,17 @@ public abstract class Mob extends Entity
 				  new Tag.Short("carriedData", carrieddata));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Enderman mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Enderman mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("carried").writeShort(carried);
+			w.name("carriedData").writeShort(carrieddata);
+		}
 	}
 	/**
 	 * Ghast mob entity
@@ -1502,6 +1616,16 @@ public abstract class Mob extends Entity
 			t.add(new Tag.Byte("Saddle", (byte)(saddle?1:0)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Pig mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Pig mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Saddle").writeByte((byte)(saddle?1:0));
+		}
 	}
 	/**
 	 * Sheep mob entity
@@ -1632,6 +1756,17 @@ public abstract class Mob extends Entity
 				  new Tag.Byte("Color", (byte)color.ordinal()));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Sheep mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Sheep mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Sheared").writeByte((byte)(sheared?1:0));
+			w.name("Color").writeByte((byte)color.ordinal());
+		}
 	}
 	/**
 	 * Silverfish mob entity
@@ -1742,6 +1877,16 @@ public abstract class Mob extends Entity
 			t.add(new Tag.Int("Size", size));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Slime mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Slime mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Size").writeInt(size);
+		}
 	}
 	/**
 	 * Snow Golem mob entity
@@ -2019,16 +2164,36 @@ public abstract class Mob extends Entity
 			{
 				if(buyb != null)
 				{
-					return new Tag.Compound(name, buy.ToNBT("buy"),
+					return new Tag.Compound(name, new Tag.Int("uses", uses),
+												  buy.ToNBT("buy"),
 												  buyb.ToNBT("buyB"),
 												  sell.ToNBT("sell"));
 				}
 				else
 				{
-					return new Tag.Compound(name, buy.ToNBT("buy"),
+					return new Tag.Compound(name, new Tag.Int("uses", uses),
+												  buy.ToNBT("buy"),
 												  sell.ToNBT("sell"));
 				}
 			}
+			/**
+			 * Writes the tag for this Trade offer directly to the given writer.
+			 * @param w The writer to write to.
+			 * @param name The name the compound tag should have, or null if it is written into a list.
+			 * @throws IOException if the output operation generates an exception.
+			 */
+			public void ToNBT(NbtWriter w, String name) throws IOException
+			{
+				w.name(name).beginCompound();
+				w.name("uses").writeInt(uses);
+				buy.ToNBT(w, "buy");
+				if(buyb != null)
+				{
+					buyb.ToNBT(w, "buyB");
+				}
+				sell.ToNBT(w, "sell");
+				w.endCompound();
+			}
 		}
 		/**
 		 * The list of trades this villager offers.
@@ -2080,13 +2245,32 @@ public abstract class Mob extends Entity
 			Tag.List trades;
 			t.add(new Tag.Int("Profession", profession.ordinal()),
 				  new Tag.Int("Riches", riches),
-				  new Tag.Compound("Offers"), trades = new Tag.List("Recipes", Tag.Type.COMPOUND));
+				  new Tag.Compound("Offers", trades = new Tag.List("Recipes", Tag.Type.COMPOUND)));
 			for(Trade trade : offers)
 			{
 				trades.add(trade.ToNBT(null));
 			}
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Villager mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Villager mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Profession").writeInt(profession.ordinal());
+			w.name("Riches").writeInt(riches);
+			w.name("Offers").beginCompound();
+			w.name("Recipes").beginList(Tag.Type.COMPOUND, offers.size());
+			for(Trade trade : offers)
+			{
+				trade.ToNBT(w, null);
+			}
+			w.endList();
+			w.endCompound();
+		}
 	}
 
 	/**
@@ -2176,6 +2360,16 @@ public abstract class Mob extends Entity
 			t.add(new Tag.Byte("Angry", (byte)(angry?1:0)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Wolf mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Wolf mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Angry").writeByte((byte)(angry?1:0));
+		}
 	}
 	/**
 	 * Zombie mob entity
@@ -2246,5 +2440,15 @@ public abstract class Mob extends Entity
 			t.add(new Tag.Short("Anger", anger));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Zombie Pigman mob entity.
+		 * @param w The writer to write to, inside the compound tag for this Zombie Pigman mob entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Anger").writeShort(anger);
+		}
 	}
 }
\ No newline at end of file
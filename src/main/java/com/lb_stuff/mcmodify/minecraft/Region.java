@@ -1,13 +1,11 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.location.LocChunkInRegion;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
 
 /**
@@ -69,40 +67,32 @@ public abstract class Region
 		}
 		public LocationPair(DataInput in) throws IOException
 		{
-			final byte[] temp = new byte[4];
-			in.readFully(temp);
-			try(DataInputStream dis = new DataInputStream(new ByteArrayInputStream(new byte[]{0, temp[0], temp[1], temp[2]})))
-			{
-				offset = dis.readInt()*SECTOR_BYTES;
-			}
-			size = temp[3]*SECTOR_BYTES;
+			this(in.readInt());
+		}
+		/**
+		 * Constructs a location as it is stored in the locations sector.
+		 * @param stored Three bytes of sector offset, then one of sector count.
+		 * @see #toInt()
+		 */
+		public LocationPair(int stored)
+		{
+			offset = (stored >>> 8)*SECTOR_BYTES;
+			size = (stored & 0xFF)*SECTOR_BYTES;
 		}
 		public void serialize(DataOutput out) throws IOException
 		{
-			try(ByteArrayOutputStream baos = new ByteArrayOutputStream())
-			{
-				try(DataOutputStream dos = new DataOutputStream(baos))
-				{
-					if(offset % SECTOR_BYTES == 0)
-					{
-						dos.writeInt((int)(offset/SECTOR_BYTES));
-					}
-					else
-					{
-						dos.writeInt((int)((offset/SECTOR_BYTES) + 1));
-					}
-				}
-				final byte[] temp = baos.toByteArray();
-				if(size % SECTOR_BYTES == 0)
-				{
-					temp[3] = (byte)(size/SECTOR_BYTES);
-				}
-				else
-				{
-					temp[3] = (byte)((size/SECTOR_BYTES) + 1);
-				}
-				out.write(temp);
-			}
+			out.writeInt(toInt());
+		}
+		/**
+		 * Returns this location as it is stored in the locations sector: three bytes of sector offset, then one of
+		 * sector count, each rounded up to whole sectors.
+		 * @return The stored location.
+		 */
+		public int toInt()
+		{
+			final long sector = (offset + SECTOR_BYTES - 1)/SECTOR_BYTES;
+			final long count = (size + SECTOR_BYTES - 1)/SECTOR_BYTES;
+			return (int)((sector << 8) | count);
 		}
 	}
 
@@ -118,6 +108,21 @@ public abstract class Region
 		}
 		return ((offset/SECTOR_BYTES) + 1)*SECTOR_BYTES;
 	}
+	/**
+	 * Serializes the given chunk to uncompressed NBT, so that its content hash can be checked before it is compressed.
+	 * @param c The chunk to serialize.
+	 * @return The uncompressed NBT data of the chunk.
+	 * @throws IOException If there is a problem with serializing the chunk.
+	 * @see com.lb_stuff.mcmodify.nbt.ContentHash
+	 */
+	protected static byte[] serialize(Chunk c) throws IOException
+	{
+		try(ByteArrayOutputStream baos = new ByteArrayOutputStream())
+		{
+			c.ToNBT(new NbtWriter(baos), "");
+			return baos.toByteArray();
+		}
+	}
 
 	/**
 	 * Loads the requested chunk from the region.
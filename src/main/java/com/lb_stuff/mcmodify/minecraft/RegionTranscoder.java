@@ -0,0 +1,340 @@
+package com.lb_stuff.mcmodify.minecraft;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Converts whole Region Files from one compression scheme to another without decoding any NBT. The chunks of a region
+ * are recompressed in parallel on a <code>ForkJoinPool</code> with the pooled codecs of <code>CompressionScheme</code>,
+ * and chunks already in the target scheme are copied as they are. Chunks stored in external files, whose scheme id
+ * has the high bit set, are copied as they are too.
+ * <p>
+ * The converted region is written to a temporary file next to the output file and then moved over it, so a region
+ * can be converted in place and an interrupted conversion never leaves a partial Region File behind. Its chunks are
+ * packed in index order, and its timestamps are those of the source region. Where the file system has POSIX
+ * permissions, the converted region keeps those of the output file, or takes those of the source file if there is no
+ * output file yet.
+ */
+public final class RegionTranscoder
+{
+	/**
+	 * The compression scheme of the converted chunks.
+	 */
+	private final CompressionScheme target;
+	/**
+	 * How the converted chunks are compressed.
+	 */
+	private final CompressionSettings settings;
+	/**
+	 * The pool the chunks are converted on.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs a transcoder.
+	 * @param target The compression scheme of the converted chunks.
+	 * @param settings How the converted chunks are compressed. Unless these are the default settings, chunks already in the target scheme are compressed again too.
+	 * @param pool The pool the chunks are converted on.
+	 * @throws IllegalArgumentException if an argument is null or the target scheme is <code>None</code>, which has no id.
+	 */
+	public RegionTranscoder(CompressionScheme target, CompressionSettings settings, ForkJoinPool pool) throws IllegalArgumentException
+	{
+		if(target == null || settings == null || pool == null)
+		{
+			throw new IllegalArgumentException("Arguments cannot be null");
+		}
+		if(target == CompressionScheme.None)
+		{
+			throw new IllegalArgumentException("None has no id in region files, use Store for uncompressed chunks");
+		}
+		this.target = target;
+		this.settings = settings;
+		this.pool = pool;
+	}
+
+	/**
+	 * Converts a Region File.
+	 * @param from The Region File to convert.
+	 * @param to The Region File to write, which may be the same as <code>from</code>.
+	 * @return The number of chunks that were recompressed, as opposed to copied.
+	 * @throws IOException if an error occurs while reading or writing the Region Files, a chunk is corrupt or in an unknown scheme, or a converted chunk is larger than a region file can hold.
+	 */
+	public int transcode(File from, File to) throws IOException
+	{
+		final byte[] src = Files.readAllBytes(from.toPath());
+		if(src.length < Region.CHUNK_SECTORS_START)
+		{
+			throw new EOFException("Region file too short for its header: "+from);
+		}
+		final ByteBuffer header = ByteBuffer.wrap(src);
+		final Span[] chunks = new Span[Region.MAX_CHUNKS];
+		int recompressed = 0;
+		for(int i = 0; i < Region.MAX_CHUNKS; ++i)
+		{
+			final int loc = header.getInt((int)Region.LOCATIONS_SECTOR_START + i*4);
+			final long offset = (loc >>> 8)*Region.SECTOR_BYTES;
+			if(offset == 0 || (loc & 0xFF) == 0)
+			{
+				continue;
+			}
+			if(offset + 5 > src.length)
+			{
+				throw new EOFException("Chunk "+i+" starts past the end of "+from);
+			}
+			final int length = header.getInt((int)offset);
+			final byte id = src[(int)offset + 4];
+			if(length < 1 || length - 1 > src.length - offset - 5)
+			{
+				throw new EOFException("Chunk "+i+" runs past the end of "+from);
+			}
+			final CompressionScheme scheme = CompressionScheme.fromId(id);
+			chunks[i] = new Span((int)offset + 5, length - 1, id);
+			if((id & 0x80) == 0)
+			{
+				if(scheme == null)
+				{
+					throw new IOException("Chunk "+i+" has unknown compression scheme id "+id+" in "+from);
+				}
+				if(scheme != target || !settings.equals(CompressionSettings.DEFAULT))
+				{
+					chunks[i].task = new Recompress(src, chunks[i].off, chunks[i].len, scheme);
+					pool.execute(chunks[i].task);
+					++recompressed;
+				}
+			}
+		}
+
+		final Path out = to.getAbsoluteFile().toPath();
+		final Path temp = Files.createTempFile(out.getParent(), out.getFileName().toString(), ".tmp");
+		try
+		{
+			copyPermissions(Files.exists(out) ? out : from.toPath(), temp);
+			write(temp, src, chunks);
+			try
+			{
+				Files.move(temp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e)
+			{
+				Files.move(temp, out, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+		return recompressed;
+	}
+	/**
+	 * Writes the converted region, waiting for each chunk to be converted in turn.
+	 * @param file The file to write.
+	 * @param src The source Region File.
+	 * @param chunks The chunks of the source region, null where there is none.
+	 * @throws IOException if an error occurs while writing the file, a chunk could not be converted, or a converted chunk does not fit in a region file.
+	 */
+	private void write(Path file, byte[] src, Span[] chunks) throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate((int)Region.CHUNK_SECTORS_START);
+		System.arraycopy(src, (int)Region.TIMESTAMPS_SECTOR_START, header.array(), (int)Region.TIMESTAMPS_SECTOR_START, (int)Region.SECTOR_BYTES);
+		final ByteBuffer padding = ByteBuffer.allocate((int)Region.SECTOR_BYTES);
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			long offset = Region.CHUNK_SECTORS_START;
+			for(int i = 0; i < Region.MAX_CHUNKS; ++i)
+			{
+				final Span c = chunks[i];
+				if(c == null)
+				{
+					continue;
+				}
+				final ByteBuffer data;
+				final byte id;
+				if(c.task != null)
+				{
+					data = ByteBuffer.wrap(join(c.task, i));
+					id = target.getId();
+				}
+				else
+				{
+					data = ByteBuffer.wrap(src, c.off, c.len);
+					id = c.id;
+				}
+				final ByteBuffer prefix = ByteBuffer.allocate(5).putInt(data.remaining() + 1).put(id);
+				prefix.flip();
+				final long size = 5 + data.remaining();
+				if(size > Byte.MAX_VALUE*Region.SECTOR_BYTES)
+				{
+					throw new IOException("Chunk "+i+" is "+size+" bytes once converted, more than the "+Byte.MAX_VALUE+" sectors a region file can hold");
+				}
+				final Region.LocationPair loc;
+				try
+				{
+					loc = new Region.LocationPair(offset, size);
+				}
+				catch(IllegalArgumentException e)
+				{
+					throw new IOException("Chunk "+i+" would start past the last sector a region file can address", e);
+				}
+				padding.clear().limit((int)((Region.SECTOR_BYTES - size % Region.SECTOR_BYTES) % Region.SECTOR_BYTES));
+				writeFully(ch, offset, prefix, data, padding);
+				header.putInt((int)Region.LOCATIONS_SECTOR_START + i*4, loc.toInt());
+				offset += size + padding.limit();
+			}
+			header.clear();
+			writeFully(ch, 0, header);
+		}
+	}
+	/**
+	 * Waits for a chunk to be converted.
+	 * @param task The conversion of the chunk.
+	 * @param index The index of the chunk, for the error message.
+	 * @return The converted chunk.
+	 * @throws IOException if the chunk could not be converted.
+	 */
+	private static byte[] join(Recompress task, int index) throws IOException
+	{
+		try
+		{
+			return task.join();
+		}
+		catch(UncheckedIOException e)
+		{
+			throw new IOException("Chunk "+index+" could not be converted", e.getCause());
+		}
+	}
+	/**
+	 * Gives a file the POSIX permissions of another, since temporary files are created readable by their owner only.
+	 * Does nothing where the file system has no POSIX permissions.
+	 * @param source The file whose permissions to copy.
+	 * @param file The file to give them to.
+	 * @throws IOException if an error occurs while reading or setting the permissions.
+	 */
+	private static void copyPermissions(Path source, Path file) throws IOException
+	{
+		if(Files.getFileStore(file).supportsFileAttributeView(PosixFileAttributeView.class))
+		{
+			Files.setPosixFilePermissions(file, Files.getPosixFilePermissions(source));
+		}
+	}
+	/**
+	 * Writes buffers one after another at a position in a channel.
+	 * @param ch The channel.
+	 * @param position The position of the first byte.
+	 * @param buffers The buffers.
+	 * @throws IOException if an error occurs while writing.
+	 */
+	private static void writeFully(FileChannel ch, long position, ByteBuffer... buffers) throws IOException
+	{
+		for(ByteBuffer b : buffers)
+		{
+			while(b.hasRemaining())
+			{
+				position += ch.write(b, position);
+			}
+		}
+	}
+
+	/**
+	 * Where a chunk is in the source Region File, and its conversion if it needs one.
+	 */
+	private static final class Span
+	{
+		/**
+		 * The index in the source Region File of the first byte of the compressed chunk.
+		 */
+		final int off;
+		/**
+		 * The length of the compressed chunk.
+		 */
+		final int len;
+		/**
+		 * The compression scheme id of the chunk.
+		 */
+		final byte id;
+		/**
+		 * The conversion of the chunk, or null if it is copied as it is.
+		 */
+		Recompress task;
+
+		/**
+		 * Constructs the location of a chunk.
+		 * @param off The index in the source Region File of the first byte of the compressed chunk.
+		 * @param len The length of the compressed chunk.
+		 * @param id The compression scheme id of the chunk.
+		 */
+		Span(int off, int len, byte id)
+		{
+			this.off = off;
+			this.len = len;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Decompresses a chunk and compresses it with the target scheme.
+	 */
+	private final class Recompress extends RecursiveTask<byte[]>
+	{
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The source Region File.
+		 */
+		private final byte[] src;
+		/**
+		 * The index of the first byte of the compressed chunk.
+		 */
+		private final int off;
+		/**
+		 * The length of the compressed chunk.
+		 */
+		private final int len;
+		/**
+		 * The compression scheme of the chunk.
+		 */
+		private final CompressionScheme scheme;
+
+		/**
+		 * Constructs the conversion of a chunk.
+		 * @param src The source Region File.
+		 * @param off The index of the first byte of the compressed chunk.
+		 * @param len The length of the compressed chunk.
+		 * @param scheme The compression scheme of the chunk.
+		 */
+		Recompress(byte[] src, int off, int len, CompressionScheme scheme)
+		{
+			this.src = src;
+			this.off = off;
+			this.len = len;
+			this.scheme = scheme;
+		}
+
+		/**
+		 * Converts the chunk.
+		 * @return The chunk compressed with the target scheme.
+		 */
+		@Override protected byte[] compute()
+		{
+			try
+			{
+				final byte[] nbt = scheme.decompress(src, off, len);
+				return target.compressParallel(nbt, 0, nbt.length, settings, pool);
+			}
+			catch(IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package com.lb_stuff.mcmodify.minecraft;
 
 import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
 import com.lb_stuff.mcmodify.nbt.Tag;
 
+import java.io.IOException;
+
 /**
  * The Tile Entity class.
  */
@@ -67,6 +70,34 @@ public abstract class TileEntity
 									  new Tag.Int("y", y),
 									  new Tag.Int("z", z));
 	}
+	/**
+	 * Writes the tag for this tile entity to the given writer, producing the same bytes as the tag from
+	 * <code>ToNBT(String)</code>.
+	 * @param w The writer to write to.
+	 * @param name The name the compound tag should have, or null if it is written into a list.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void ToNBT(NbtWriter w, String name) throws IOException
+	{
+		w.name(name).beginCompound();
+		WriteNBTFields(w);
+		w.endCompound();
+	}
+	/**
+	 * Writes the fields of the tag for this tile entity, in the same order as <code>ToNBT(String)</code> adds them.
+	 * <p>
+	 * Classes that extend this class and override <code>ToNBT(String)</code> must override this too, calling it on
+	 * the superclass first, or their fields are missing from the tags written by <code>ToNBT(NbtWriter, String)</code>.
+	 * @param w The writer to write to, inside the compound tag for this tile entity.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	protected void WriteNBTFields(NbtWriter w) throws IOException
+	{
+		w.name("id").writeString(getClass().getSimpleName());
+		w.name("x").writeInt(x);
+		w.name("y").writeInt(y);
+		w.name("z").writeInt(z);
+	}
 
 	/**
 	 * The tile entity for furnaces to store their items and smelting state.
@@ -182,6 +213,22 @@ public abstract class TileEntity
 														   result.ToNBT(null)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Furnace tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Furnace tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("BurnTime").writeShort(burntime);
+			w.name("CookTime").writeShort(cooktime);
+			w.name("Items").beginList(Tag.Type.COMPOUND, 3);
+			smelting.ToNBT(w, null);
+			fuel.ToNBT(w, null);
+			result.ToNBT(w, null);
+			w.endList();
+		}
 	}
 	/**
 	 * The tile entity for signs to store their text.
@@ -257,6 +304,19 @@ public abstract class TileEntity
 				  new Tag.String("Text4", text4));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Sign tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Sign tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Text1").writeString(text1);
+			w.name("Text2").writeString(text2);
+			w.name("Text3").writeString(text3);
+			w.name("Text4").writeString(text4);
+		}
 	}
 	/**
 	 * The tile entity used by Monster Spawners to store which mob they spawn and how many ticks there are until the next spawn.
@@ -296,12 +356,10 @@ public abstract class TileEntity
 			String eid = ((Tag.String)mobspawner.find(Tag.Type.STRING, "EntityId")).v;
 			entityid = Mob.ClassFromID(eid);
 			spawndata = new Tag.Compound(null);
-			try
-			{
-				spawndata.addAll((Tag.Compound)mobspawner.find(Tag.Type.COMPOUND, "SpawnData"));
-			}
-			catch(FormatException e)
+			Tag.Compound sd = mobspawner.getCompoundOrNull("SpawnData");
+			if(sd != null)
 			{
+				spawndata.addAll(sd);
 			}
 			delay = ((Tag.Short)mobspawner.find(Tag.Type.SHORT, "Delay")).v;
 			minspawndelay = ((Tag.Short)mobspawner.find(Tag.Type.SHORT, "MinSpawnDelay")).v;
@@ -427,6 +485,21 @@ public abstract class TileEntity
 			sd.addAll(spawndata);
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Mob Spawner tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Mob Spawner tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("EntityId").writeString(entityid.getSimpleName());
+			w.name("SpawnData").writeTag(spawndata);
+			w.name("Delay").writeShort(delay);
+			w.name("MinSpawnDelay").writeShort(minspawndelay);
+			w.name("MaxSpawnDelay").writeShort(maxspawndelay);
+			w.name("SpawnCount").writeShort(spawncount);
+		}
 	}
 	/**
 	 * The tile entity used by Chests to store their items.
@@ -492,6 +565,16 @@ public abstract class TileEntity
 			t.add(items.ToNBT("Items"));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Chest tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Chest tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			items.ToNBT(w, "Items");
+		}
 	}
 	/**
 	 * The tile entity used by Note Blocks to store which note they play.
@@ -545,6 +628,16 @@ public abstract class TileEntity
 			t.add(new Tag.Byte("note", note));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Music tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Music tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("note").writeByte(note);
+		}
 	}
 	/**
 	 * The tile entity used by Dispensers to store the items they contain.
@@ -599,6 +692,16 @@ public abstract class TileEntity
 			t.add(items.ToNBT("Items"));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Trap tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Trap tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			items.ToNBT(w, "Items");
+		}
 	}
 	/**
 	 * The tile entity used by Jukeboxes to store the record/item ID they contain.
@@ -652,6 +755,16 @@ public abstract class TileEntity
 			t.add(new Tag.Int("Record", record));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Record Player tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Record Player tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("Record").writeInt(record);
+		}
 	}
 	/**
 	 * The tile entity used by block 36, the block being moved by a piston.
@@ -823,6 +936,20 @@ public abstract class TileEntity
 				  new Tag.Byte("extending", (byte)(extending?1:0)));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Piston tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Piston tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			w.name("blockId").writeInt(blockid);
+			w.name("blockData").writeInt(blockdata);
+			w.name("facing").writeInt(facing.ordinal());
+			w.name("progress").writeFloat(progress);
+			w.name("extending").writeByte((byte)(extending?1:0));
+		}
 	}
 	/**
 	 * The tile entity used by Brewing Stands to store their items and brewing progress.
@@ -931,6 +1058,17 @@ public abstract class TileEntity
 				  new Tag.Int("BrewTime", brewtime));
 			return t;
 		}
+		/**
+		 * Writes the fields of the tag for this Cauldron tile entity.
+		 * @param w The writer to write to, inside the compound tag for this Cauldron tile entity.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void WriteNBTFields(NbtWriter w) throws IOException
+		{
+			super.WriteNBTFields(w);
+			items.ToNBT(w, "Items");
+			w.name("BrewTime").writeInt(brewtime);
+		}
 	}
 	/**
 	 * The tile entity used by Enchantment Tables to keep track of their rotation and opening/closing, only used at runtime.
@@ -143,7 +143,7 @@ public final class World
 	}
 
 	/**
-	 * Get a {@link FileRegion} instance tied to this world.
+	 * Get a {@link FileRegion} instance tied to this world. The region keeps its file open until it is closed.
 	 * @param d The dimension of the region.
 	 * @param pos The location of the region.
 	 * @return a {@link FileRegion} instance tied to this world.
@@ -0,0 +1,332 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A 64-bit content hash of NBT data. The hash of a tag covers its type, its name and its payload as it would be
+ * serialized, except that the payload of a compound is the sum of the hashes of its tags, so that it does not depend on
+ * their order. A tag tree and its serialized form have the same hash, so a chunk that was read can later be compared to
+ * a new version without keeping either tree around.
+ * <p>
+ * This is not a cryptographic hash. Equal hashes mean the content is equal with very high probability; use
+ * <code>Tag.contentEquals</code> when certainty is needed.
+ * @see Tag#contentHash()
+ */
+public final class ContentHash
+{
+	/**
+	 * The multiplier used to mix each word into the state.
+	 */
+	private static final long M1 = 0x9E3779B97F4A7C15L;
+	/**
+	 * The multiplier applied to the state after each word.
+	 */
+	private static final long M2 = 0xBF58476D1CE4E5B9L;
+	/**
+	 * The hash state.
+	 */
+	private long h = 0x632BE59BD9B4E019L;
+	/**
+	 * The bytes of the current, incomplete word.
+	 */
+	private long word = 0;
+	/**
+	 * The number of bytes in <code>word</code>.
+	 */
+	private int n = 0;
+	/**
+	 * The total number of bytes hashed.
+	 */
+	private long length = 0;
+
+	/**
+	 * Constructs an empty hash.
+	 */
+	/*default*/ ContentHash()
+	{
+	}
+
+	/**
+	 * Returns the content hash of a tag.
+	 * @param t The tag.
+	 * @return The content hash of the tag.
+	 */
+	public static long of(Tag t)
+	{
+		return t.contentHash();
+	}
+	/**
+	 * Returns the content hash of the serialized named tag starting at the position of the given buffer, without
+	 * building a tag tree. The buffer's position is moved to the end of the tag.
+	 * @param bb The buffer holding the serialized tag.
+	 * @return The content hash, equal to the <code>contentHash()</code> of the deserialized tag.
+	 * @throws IOException if the data ends early.
+	 * @throws FormatException if the data is not valid NBT.
+	 */
+	public static long of(ByteBuffer bb) throws IOException
+	{
+		try(NbtInput in = new NbtInput(bb))
+		{
+			return named(bb.hasArray() ? in.lazy() : in);
+		}
+	}
+	/**
+	 * Hashes the named tag at the current position of the decode context.
+	 * @param in The decode context.
+	 * @return The content hash of the tag.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private static long named(NbtInput in) throws IOException
+	{
+		final Tag.Type type = NbtReader.readType(in);
+		ContentHash h = new ContentHash();
+		h.putByte(type.ordinal());
+		if(type != Tag.Type.END)
+		{
+			h.putString(in.readName());
+			h.payload(in, type);
+		}
+		return h.finish();
+	}
+	/**
+	 * Hashes the payload of a tag of the given type at the current position of the decode context.
+	 * @param in The decode context.
+	 * @param type The type of the tag.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private void payload(NbtInput in, Tag.Type type) throws IOException
+	{
+		switch(type)
+		{
+			case END:       return;
+			case BYTE:      putByte(in.readByte()); return;
+			case SHORT:     putShort(in.readShort()); return;
+			case INT:
+			case FLOAT:     putInt(in.readInt()); return;
+			case LONG:
+			case DOUBLE:    putLong(in.readLong()); return;
+			case BYTEARRAY: array(in, 1); return;
+			case INTARRAY:  array(in, 4); return;
+			case LONGARRAY: array(in, 8); return;
+			case STRING:    putString(in.readString()); return;
+			case LIST:
+			{
+				final Tag.Type t = NbtReader.readType(in);
+				final int size = NbtReader.readListLength(in, t);
+				putByte(t.ordinal());
+				putInt(size);
+				in.enter();
+				for(int i = 0; i < size; ++i)
+				{
+					payload(in, t);
+				}
+				in.exit();
+			} return;
+			case COMPOUND:
+			{
+				long sum = 0;
+				int count = 0;
+				in.enter();
+				for(Tag.Type t; (t = NbtReader.readType(in)) != Tag.Type.END; ++count)
+				{
+					ContentHash child = new ContentHash();
+					child.putByte(t.ordinal());
+					child.putString(in.readName());
+					child.payload(in, t);
+					sum += child.finish();
+				}
+				in.exit();
+				putCompound(count, sum);
+			} return;
+			default: throw new IllegalStateException();
+		}
+	}
+	/**
+	 * Adds a serialized payload, hashing it the same way as the tag it encodes.
+	 * @param b The array holding the payload.
+	 * @param off The index of the first byte of the payload.
+	 * @param len The length of the payload.
+	 * @param type The type of the tag.
+	 * @throws IOException if the payload ends early.
+	 * @throws FormatException if the payload is not valid NBT.
+	 */
+	/*default*/ void putPayload(byte[] b, int off, int len, Tag.Type type) throws IOException
+	{
+		try(NbtInput in = new NbtInput(ByteBuffer.wrap(b, off, len)).lazy())
+		{
+			payload(in, type);
+		}
+	}
+	/**
+	 * Hashes an array payload, including its length. The elements are hashed in place when the source is a heap buffer.
+	 * @param in The decode context.
+	 * @param width The size in bytes of each element.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private void array(NbtInput in, int width) throws IOException
+	{
+		final int size = in.readLength("Array", width);
+		putInt(size);
+		if(in.isLazy())
+		{
+			final int start = in.offset();
+			in.skip((long)size*width);
+			putBytes(in.array(), start, size*width);
+			return;
+		}
+		byte[] b = new byte[(int)Math.min((long)size*width, 8192)];
+		for(long left = (long)size*width; left > 0; left -= b.length)
+		{
+			final int chunk = (int)Math.min(left, b.length);
+			in.readFully(b, 0, chunk);
+			putBytes(b, 0, chunk);
+		}
+	}
+
+	/**
+	 * Mixes a full word into the state.
+	 * @param w The word.
+	 */
+	private void round(long w)
+	{
+		h = Long.rotateLeft(h ^ (w * M1), 29) * M2;
+	}
+	/**
+	 * Adds a byte.
+	 * @param b The byte, in the low 8 bits.
+	 */
+	/*default*/ void putByte(int b)
+	{
+		word = (word << 8) | (b & 0xFF);
+		++length;
+		if(++n == 8)
+		{
+			round(word);
+			word = 0;
+			n = 0;
+		}
+	}
+	/**
+	 * Adds a big-endian short.
+	 * @param v The short, in the low 16 bits.
+	 */
+	/*default*/ void putShort(int v)
+	{
+		putByte(v >>> 8);
+		putByte(v);
+	}
+	/**
+	 * Adds a big-endian int.
+	 * @param v The int.
+	 */
+	/*default*/ void putInt(int v)
+	{
+		if(n > 4)
+		{
+			putShort(v >>> 16);
+			putShort(v);
+			return;
+		}
+		word = (word << 32) | (v & 0xFFFFFFFFL);
+		length += 4;
+		if((n += 4) == 8)
+		{
+			round(word);
+			word = 0;
+			n = 0;
+		}
+	}
+	/**
+	 * Adds a big-endian long.
+	 * @param v The long.
+	 */
+	/*default*/ void putLong(long v)
+	{
+		if(n != 0)
+		{
+			putInt((int)(v >>> 32));
+			putInt((int)v);
+			return;
+		}
+		round(v);
+		length += 8;
+	}
+	/**
+	 * Adds bytes.
+	 * @param b The array holding the bytes.
+	 * @param off The index of the first byte.
+	 * @param len The number of bytes.
+	 */
+	/*default*/ void putBytes(byte[] b, int off, int len)
+	{
+		final int end = off + len;
+		while(off < end && n != 0)
+		{
+			putByte(b[off++]);
+		}
+		for(; end - off >= 8; off += 8)
+		{
+			round(((long)(b[off] & 0xFF) << 56) | ((long)(b[off+1] & 0xFF) << 48) | ((long)(b[off+2] & 0xFF) << 40) | ((long)(b[off+3] & 0xFF) << 32)
+			    | ((long)(b[off+4] & 0xFF) << 24) | ((b[off+5] & 0xFF) << 16) | ((b[off+6] & 0xFF) << 8) | (b[off+7] & 0xFF));
+			length += 8;
+		}
+		while(off < end)
+		{
+			putByte(b[off++]);
+		}
+	}
+	/**
+	 * Adds a string as it is serialized: its UTF-8 length followed by its UTF-8 bytes. ASCII strings are added without encoding them.
+	 * @param s The string.
+	 */
+	/*default*/ void putString(String s)
+	{
+		final int length = s.length();
+		int i = 0;
+		while(i < length && s.charAt(i) < 0x80)
+		{
+			++i;
+		}
+		if(i == length)
+		{
+			putShort(length);
+			for(i = 0; i < length; ++i)
+			{
+				putByte(s.charAt(i));
+			}
+			return;
+		}
+		final byte[] b = s.getBytes(Tag.UTF8);
+		putShort(b.length);
+		putBytes(b, 0, b.length);
+	}
+	/**
+	 * Adds the payload of a compound.
+	 * @param count The number of tags in the compound.
+	 * @param sum The sum of the content hashes of the tags.
+	 */
+	/*default*/ void putCompound(int count, long sum)
+	{
+		putInt(count);
+		putLong(sum);
+	}
+	/**
+	 * Returns the hash of everything added so far.
+	 * @return The hash.
+	 */
+	/*default*/ long finish()
+	{
+		if(n > 0)
+		{
+			round(word);
+		}
+		long x = h ^ length;
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+}
@@ -0,0 +1,643 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A structural difference between two tag trees, which can be applied to the first tree to produce the second and
+ * serialized in a compact binary form. Unchanged tags cost nothing: the difference is a sequence of operations on paths
+ * of compound names and list indices that put a tag, remove a tag, or overwrite a range of elements in a byte, int or
+ * long array.
+ * <p>
+ * Compounds are compared by name regardless of the order of their tags. Lists of compounds, lists and arrays are
+ * compared element by element, and elements are added or removed at the end; any other changed list is replaced whole.
+ * @see #between(Tag, Tag)
+ */
+public final class NbtDiff
+{
+	/**
+	 * The version of the binary form written by <code>serialize</code>.
+	 */
+	private static final int VERSION = 1;
+	/**
+	 * The estimated size in bytes of a range operation besides its elements, used to decide between ranges and replacing a whole array.
+	 */
+	private static final int RANGE_OVERHEAD = 16;
+	/**
+	 * The operation that puts a tag into a compound or list, replacing any tag already there, or replaces the root.
+	 */
+	private static final int PUT = 0;
+	/**
+	 * The operation that removes a tag from a compound or list.
+	 */
+	private static final int REMOVE = 1;
+	/**
+	 * The operation that overwrites a range of elements of an array.
+	 */
+	private static final int RANGE = 2;
+
+	/**
+	 * A single operation of a difference.
+	 */
+	private static final class Op
+	{
+		/**
+		 * One of <code>PUT</code>, <code>REMOVE</code> or <code>RANGE</code>.
+		 */
+		public final int kind;
+		/**
+		 * The path of the affected tag, as compound names (<code>String</code>) and list indices (<code>Integer</code>); empty for the root.
+		 */
+		public final Object[] path;
+		/**
+		 * The tag to put, or an array holding the elements of a range, or null.
+		 */
+		public final Tag tag;
+		/**
+		 * The index of the first element of a range.
+		 */
+		public final int offset;
+		/**
+		 * Constructs an operation.
+		 * @param k The kind of operation.
+		 * @param p The path of the affected tag.
+		 * @param t The tag to put or the elements of a range, or null.
+		 * @param off The index of the first element of a range.
+		 */
+		public Op(int k, Object[] p, Tag t, int off)
+		{
+			kind = k;
+			path = p;
+			tag = t;
+			offset = off;
+		}
+	}
+	/**
+	 * The operations in the order they are applied.
+	 */
+	private final List<Op> ops = new ArrayList<>();
+
+	/**
+	 * Constructs an empty difference.
+	 */
+	private NbtDiff()
+	{
+	}
+
+	/**
+	 * Computes the difference that turns one tag tree into another. The trees are not changed; tags of the second tree
+	 * that the difference needs are copied.
+	 * @param from The original tree.
+	 * @param to The changed tree.
+	 * @return The difference, which is empty if the trees have the same contents.
+	 */
+	public static NbtDiff between(Tag from, Tag to)
+	{
+		NbtDiff d = new NbtDiff();
+		if(from.getType() != to.getType() || !from.equals(to))
+		{
+			d.put(new ArrayList<>(), to);
+		}
+		else
+		{
+			d.diff(new ArrayList<>(), from, to);
+		}
+		return d;
+	}
+	/**
+	 * Adds an operation that puts a copy of the given tag at the given path.
+	 * @param path The path.
+	 * @param t The tag.
+	 */
+	private void put(ArrayList<Object> path, Tag t)
+	{
+		ops.add(new Op(PUT, path.toArray(), Tag.lazyCopy(t), 0));
+	}
+	/**
+	 * Adds the operations that turn one tag into another of the same type and name.
+	 * @param path The path of the tags.
+	 * @param a The original tag.
+	 * @param b The changed tag.
+	 */
+	private void diff(ArrayList<Object> path, Tag a, Tag b)
+	{
+		if(a instanceof Tag.Compound)
+		{
+			compound(path, (Tag.Compound)a, (Tag.Compound)b);
+		}
+		else if(a instanceof Tag.List)
+		{
+			list(path, (Tag.List)a, (Tag.List)b);
+		}
+		else if(a instanceof Tag.ByteArray || a instanceof Tag.IntArray || a instanceof Tag.LongArray)
+		{
+			array(path, a, b);
+		}
+		else if(!a.contentEquals(b))
+		{
+			put(path, b);
+		}
+	}
+	/**
+	 * Adds the operations that turn one compound into another.
+	 * @param path The path of the compounds.
+	 * @param a The original compound.
+	 * @param b The changed compound.
+	 */
+	private void compound(ArrayList<Object> path, Tag.Compound a, Tag.Compound b)
+	{
+		for(Tag t : a)
+		{
+			final Tag u = b.get(t.getName());
+			path.add(t.getName());
+			if(u == null)
+			{
+				ops.add(new Op(REMOVE, path.toArray(), null, 0));
+			}
+			else if(u.getType() != t.getType())
+			{
+				put(path, u);
+			}
+			else
+			{
+				diff(path, t, u);
+			}
+			path.remove(path.size()-1);
+		}
+		for(Tag u : b)
+		{
+			if(a.get(u.getName()) == null)
+			{
+				path.add(u.getName());
+				put(path, u);
+				path.remove(path.size()-1);
+			}
+		}
+	}
+	/**
+	 * Adds the operations that turn one list into another.
+	 * @param path The path of the lists.
+	 * @param a The original list.
+	 * @param b The changed list.
+	 */
+	private void list(ArrayList<Object> path, Tag.List a, Tag.List b)
+	{
+		final Tag.Type type = a.getContainedType();
+		if(type != b.getContainedType())
+		{
+			put(path, b);
+			return;
+		}
+		if(type != Tag.Type.COMPOUND && type != Tag.Type.LIST && type != Tag.Type.BYTEARRAY && type != Tag.Type.INTARRAY && type != Tag.Type.LONGARRAY)
+		{
+			if(!a.contentEquals(b))
+			{
+				put(path, b);
+			}
+			return;
+		}
+		final int common = Math.min(a.getSize(), b.getSize());
+		for(int i = 0; i < common; ++i)
+		{
+			path.add(i);
+			diff(path, a.get(i), b.get(i));
+			path.remove(path.size()-1);
+		}
+		for(int i = a.getSize()-1; i >= common; --i)
+		{
+			path.add(i);
+			ops.add(new Op(REMOVE, path.toArray(), null, 0));
+			path.remove(path.size()-1);
+		}
+		for(int i = common; i < b.getSize(); ++i)
+		{
+			path.add(i);
+			put(path, b.get(i));
+			path.remove(path.size()-1);
+		}
+	}
+	/**
+	 * Adds the operations that turn one array into another of the same type: ranges of changed elements, or the whole
+	 * array if the lengths differ or the ranges would not be smaller.
+	 * @param path The path of the arrays.
+	 * @param a The original array.
+	 * @param b The changed array.
+	 */
+	private void array(ArrayList<Object> path, Tag a, Tag b)
+	{
+		final int length = length(a);
+		if(length != length(b))
+		{
+			put(path, b);
+			return;
+		}
+		final int width = (a instanceof Tag.ByteArray ? 1 : a instanceof Tag.IntArray ? 4 : 8);
+		final int gap = Math.max(1, RANGE_OVERHEAD/width);
+		List<int[]> ranges = new ArrayList<>();
+		long cost = 0;
+		for(int i = 0; i < length; ++i)
+		{
+			if(same(a, b, i))
+			{
+				continue;
+			}
+			final int start = i;
+			int end = i + 1;
+			for(int j = end; j < length && j - end < gap; ++j)
+			{
+				if(!same(a, b, j))
+				{
+					end = j + 1;
+				}
+			}
+			ranges.add(new int[]{start, end});
+			cost += (long)(end - start)*width + RANGE_OVERHEAD;
+			i = end;
+		}
+		if(ranges.isEmpty())
+		{
+			return;
+		}
+		if(cost >= (long)length*width)
+		{
+			put(path, b);
+			return;
+		}
+		for(int[] r : ranges)
+		{
+			ops.add(new Op(RANGE, path.toArray(), slice(b, r[0], r[1]), r[0]));
+		}
+	}
+	/**
+	 * Returns the length of a byte, int or long array, without copying a view.
+	 * @param t The array.
+	 * @return The number of elements.
+	 */
+	private static int length(Tag t)
+	{
+		if(t instanceof Tag.ByteArray)
+		{
+			return ((Tag.ByteArray)t).length();
+		}
+		else if(t instanceof Tag.IntArray)
+		{
+			return ((Tag.IntArray)t).length();
+		}
+		return ((Tag.LongArray)t).length();
+	}
+	/**
+	 * Returns whether two arrays of the same type have the same element at the given index.
+	 * @param a The first array.
+	 * @param b The second array.
+	 * @param i The index.
+	 * @return Whether the elements are the same.
+	 */
+	private static boolean same(Tag a, Tag b, int i)
+	{
+		if(a instanceof Tag.ByteArray)
+		{
+			return ((Tag.ByteArray)a).get(i) == ((Tag.ByteArray)b).get(i);
+		}
+		else if(a instanceof Tag.IntArray)
+		{
+			return ((Tag.IntArray)a).get(i) == ((Tag.IntArray)b).get(i);
+		}
+		return ((Tag.LongArray)a).get(i) == ((Tag.LongArray)b).get(i);
+	}
+	/**
+	 * Copies a range of elements of an array into a new unnamed array of the same type.
+	 * @param t The array.
+	 * @param start The index of the first element.
+	 * @param end The index one past the last element.
+	 * @return The new array.
+	 */
+	private static Tag slice(Tag t, int start, int end)
+	{
+		if(t instanceof Tag.ByteArray)
+		{
+			byte[] v = new byte[end - start];
+			for(int i = start; i < end; ++i)
+			{
+				v[i - start] = ((Tag.ByteArray)t).get(i);
+			}
+			return new Tag.ByteArray(null, v);
+		}
+		else if(t instanceof Tag.IntArray)
+		{
+			int[] v = new int[end - start];
+			for(int i = start; i < end; ++i)
+			{
+				v[i - start] = ((Tag.IntArray)t).get(i);
+			}
+			return new Tag.IntArray(null, v);
+		}
+		long[] v = new long[end - start];
+		for(int i = start; i < end; ++i)
+		{
+			v[i - start] = ((Tag.LongArray)t).get(i);
+		}
+		return new Tag.LongArray(null, v);
+	}
+
+	/**
+	 * Returns whether this difference has no operations, meaning the trees had the same contents.
+	 * @return Whether this difference is empty.
+	 */
+	public boolean isEmpty()
+	{
+		return ops.isEmpty();
+	}
+	/**
+	 * Returns the number of operations in this difference.
+	 * @return The number of operations.
+	 */
+	public int size()
+	{
+		return ops.size();
+	}
+
+	/**
+	 * Applies this difference to a tree with the same contents as the original tree it was computed from. The tree is
+	 * changed in place where possible; the difference itself is not changed and can be applied again.
+	 * @param root The tree to change.
+	 * @return The changed tree, which is a new tag if the root itself was replaced.
+	 * @throws IllegalArgumentException if the tree does not have the tags this difference refers to.
+	 */
+	public Tag apply(Tag root) throws IllegalArgumentException
+	{
+		for(Op op : ops)
+		{
+			if(op.path.length == 0)
+			{
+				root = Tag.lazyCopy(op.tag);
+				continue;
+			}
+			Tag parent = root;
+			for(int i = 0; i < op.path.length-1; ++i)
+			{
+				parent = child(parent, op.path, i);
+			}
+			final Object last = op.path[op.path.length-1];
+			if(op.kind == RANGE)
+			{
+				range(child(parent, op.path, op.path.length-1), op);
+			}
+			else if(parent instanceof Tag.Compound && last instanceof String)
+			{
+				Tag.Compound c = (Tag.Compound)parent;
+				if(op.kind == PUT)
+				{
+					c.add(Tag.lazyCopy(op.tag));
+				}
+				else if(c.remove((String)last) == null)
+				{
+					throw new IllegalArgumentException("Cannot remove missing tag "+pathString(op.path, op.path.length));
+				}
+			}
+			else if(parent instanceof Tag.List && last instanceof Integer)
+			{
+				Tag.List l = (Tag.List)parent;
+				final int index = (Integer)last;
+				if(index < 0 || index > l.getSize() || (index == l.getSize() && op.kind == REMOVE))
+				{
+					throw new IllegalArgumentException("List index out of range: "+pathString(op.path, op.path.length));
+				}
+				if(op.kind == REMOVE)
+				{
+					l.remove(index);
+				}
+				else if(index == l.getSize())
+				{
+					l.add(Tag.lazyCopy(op.tag));
+				}
+				else
+				{
+					l.set(index, Tag.lazyCopy(op.tag));
+				}
+			}
+			else
+			{
+				throw new IllegalArgumentException("Path does not match the tree: "+pathString(op.path, op.path.length));
+			}
+		}
+		return root;
+	}
+	/**
+	 * Returns the tag at the given step of a path.
+	 * @param parent The compound or list containing the tag.
+	 * @param path The path.
+	 * @param i The index of the step in the path.
+	 * @return The tag.
+	 * @throws IllegalArgumentException if there is no such tag.
+	 */
+	private static Tag child(Tag parent, Object[] path, int i) throws IllegalArgumentException
+	{
+		Tag t = null;
+		if(parent instanceof Tag.Compound && path[i] instanceof String)
+		{
+			t = ((Tag.Compound)parent).get((String)path[i]);
+		}
+		else if(parent instanceof Tag.List && path[i] instanceof Integer)
+		{
+			Tag.List l = (Tag.List)parent;
+			final int index = (Integer)path[i];
+			if(index >= 0 && index < l.getSize())
+			{
+				t = l.get(index);
+			}
+		}
+		if(t == null)
+		{
+			throw new IllegalArgumentException("Path does not match the tree: "+pathString(path, i+1));
+		}
+		return t;
+	}
+	/**
+	 * Overwrites a range of elements of an array.
+	 * @param t The array.
+	 * @param op The range operation.
+	 * @throws IllegalArgumentException if the array has the wrong type or is too short.
+	 */
+	private static void range(Tag t, Op op) throws IllegalArgumentException
+	{
+		if(t.getType() != op.tag.getType() || op.offset < 0 || (long)op.offset + length(op.tag) > length(t))
+		{
+			throw new IllegalArgumentException("Range does not fit "+t.getType()+" at "+pathString(op.path, op.path.length));
+		}
+		if(t instanceof Tag.ByteArray)
+		{
+			final byte[] v = ((Tag.ByteArray)op.tag).array();
+			System.arraycopy(v, 0, ((Tag.ByteArray)t).array(), op.offset, v.length);
+		}
+		else if(t instanceof Tag.IntArray)
+		{
+			final int[] v = ((Tag.IntArray)op.tag).array();
+			System.arraycopy(v, 0, ((Tag.IntArray)t).array(), op.offset, v.length);
+		}
+		else
+		{
+			final long[] v = ((Tag.LongArray)op.tag).array();
+			System.arraycopy(v, 0, ((Tag.LongArray)t).array(), op.offset, v.length);
+		}
+	}
+	/**
+	 * Formats the first steps of a path for error messages, e.g. <code>/Level/Sections/3/Blocks</code>.
+	 * @param path The path.
+	 * @param n The number of steps to format.
+	 * @return The formatted path.
+	 */
+	private static String pathString(Object[] path, int n)
+	{
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < n; ++i)
+		{
+			sb.append('/').append(path[i]);
+		}
+		return sb.length() == 0 ? "/" : sb.toString();
+	}
+
+	/**
+	 * Serializes this difference in its binary form: a version byte and the number of operations, then for each
+	 * operation its kind, its path as typed steps (TAG_String names and TAG_Int indices), and its tag or range.
+	 * @param os The <code>OutputStream</code> to serialize to.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void serialize(OutputStream os) throws IOException
+	{
+		NbtOutput out = new NbtOutput(os);
+		out.writeByte(VERSION);
+		out.writeInt(ops.size());
+		for(Op op : ops)
+		{
+			out.writeByte(op.kind);
+			out.writeShort(op.path.length);
+			for(Object step : op.path)
+			{
+				if(step instanceof Integer)
+				{
+					out.writeByte(Tag.Type.INT.ordinal());
+					out.writeInt((Integer)step);
+				}
+				else
+				{
+					out.writeByte(Tag.Type.STRING.ordinal());
+					out.writeString((String)step);
+				}
+			}
+			if(op.kind == RANGE)
+			{
+				out.writeInt(op.offset);
+			}
+			if(op.kind != REMOVE)
+			{
+				out.writeByte(op.tag.getType().ordinal());
+				if(op.path.length == 0)
+				{
+					out.writeString(op.tag.getName() != null ? op.tag.getName() : "");
+				}
+				op.tag.serializePayload(out);
+			}
+		}
+		out.flush();
+	}
+	/**
+	 * Deserializes a difference written by <code>serialize</code>. Exactly the bytes of the difference are read, so the
+	 * stream can go on to be read for whatever follows it.
+	 * @param is The <code>InputStream</code> to deserialize from.
+	 * @return The difference.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the data is not a valid difference.
+	 */
+	public static NbtDiff deserialize(InputStream is) throws IOException, FormatException
+	{
+		NbtInput in = new NbtInput(is, true);
+		final int version = in.readUnsignedByte();
+		if(version != VERSION)
+		{
+			throw new FormatException("Unsupported NBT diff version: "+version);
+		}
+		final int count = in.readInt();
+		if(count < 0)
+		{
+			throw new FormatException("Operation count was negative: "+count);
+		}
+		NbtDiff d = new NbtDiff();
+		for(int i = 0; i < count; ++i)
+		{
+			final int kind = in.readUnsignedByte();
+			if(kind != PUT && kind != REMOVE && kind != RANGE)
+			{
+				throw new FormatException("Unknown NBT diff operation: "+kind);
+			}
+			Object[] path = new Object[in.readUnsignedShort()];
+			for(int j = 0; j < path.length; ++j)
+			{
+				final Tag.Type step = NbtReader.readType(in);
+				if(step == Tag.Type.INT)
+				{
+					path[j] = in.readInt();
+				}
+				else if(step == Tag.Type.STRING)
+				{
+					path[j] = in.readName();
+				}
+				else
+				{
+					throw new FormatException("Invalid path step type: "+step);
+				}
+			}
+			if(path.length == 0 && kind != PUT)
+			{
+				throw new FormatException("Only a put can apply to the root");
+			}
+			final int offset = (kind == RANGE ? in.readInt() : 0);
+			Tag t = null;
+			if(kind != REMOVE)
+			{
+				final Tag.Type type = NbtReader.readType(in);
+				if(type == Tag.Type.END || (kind == RANGE && type != Tag.Type.BYTEARRAY && type != Tag.Type.INTARRAY && type != Tag.Type.LONGARRAY))
+				{
+					throw new FormatException("Invalid tag type for operation "+kind+": "+type);
+				}
+				final String name;
+				if(path.length == 0)
+				{
+					name = in.readName();
+				}
+				else if(kind == PUT && path[path.length-1] instanceof String)
+				{
+					name = (String)path[path.length-1];
+				}
+				else
+				{
+					name = null;
+				}
+				t = Tag.deserializePayload(type, name, in);
+			}
+			d.ops.add(new Op(kind, path, t, offset));
+		}
+		return d;
+	}
+
+	/**
+	 * Gives a textual representation of the operations of this difference, one per line.
+	 * @return A textual representation of this difference.
+	 */
+	@Override public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for(Op op : ops)
+		{
+			sb.append(op.kind == PUT ? "put " : op.kind == REMOVE ? "remove " : "range ").append(pathString(op.path, op.path.length));
+			if(op.kind == RANGE)
+			{
+				sb.append(" [").append(op.offset).append(", ").append(op.offset + length(op.tag)).append(')');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
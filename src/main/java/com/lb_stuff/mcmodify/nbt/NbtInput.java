@@ -0,0 +1,713 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The decode context shared by every tag of a single NBT decode. It owns one buffer over the source stream, so decoding
+ * a whole tree needs no per-tag stream wrappers and reads from the source in large blocks.
+ * <p>
+ * The source may also be a <code>ByteBuffer</code>: heap buffers are decoded in place from their backing array, and
+ * direct buffers are bulk-copied through this context's buffer. The source buffer's position is updated to the end of
+ * the decoded data by <code>close()</code>.
+ * <p>
+ * A context may be reused for any number of decodes by calling <code>reset()</code> with a new source. Each decode
+ * is checked against the context's <code>NbtLimits</code>, which are kept across resets.
+ * @see Tag#deserialize(NbtInput)
+ */
+public final class NbtInput implements Closeable
+{
+	/**
+	 * The default buffer size in bytes.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * The buffer size used when the source must not be read past the end of the data.
+	 */
+	private static final int EXACT_BUFFER_SIZE = 64;
+	/**
+	 * The length in bytes of the longest name kept in the name table.
+	 */
+	private static final int MAX_NAME_LENGTH = 64;
+	/**
+	 * A direct-mapped table of recently decoded ASCII tag names, indexed by a hash of their bytes. Slots are read and
+	 * replaced without locking: strings are immutable, so a racing update only costs a later miss.
+	 */
+	private static final String[] NAME_TABLE = new String[2048];
+	/**
+	 * This context's own buffer, allocated when it is first needed.
+	 */
+	private byte[] own = null;
+	/**
+	 * The buffer holding bytes read from the source but not yet consumed; the backing array itself for heap buffers.
+	 */
+	private byte[] buf;
+	/**
+	 * The index of the next unconsumed byte in <code>buf</code>.
+	 */
+	private int pos = 0;
+	/**
+	 * The index one past the last valid byte in <code>buf</code>.
+	 */
+	private int limit = 0;
+	/**
+	 * The stream bytes are read from, or null.
+	 */
+	private InputStream source;
+	/**
+	 * The buffer bytes are read from, or null.
+	 */
+	private ByteBuffer buffer;
+	/**
+	 * The index in <code>buf</code> of position 0 of a heap <code>buffer</code>, or -1 if <code>buf</code> is this context's own buffer.
+	 */
+	private int base = -1;
+	/**
+	 * Whether compounds are decoded lazily, keeping references into the backing array of a heap buffer.
+	 */
+	private boolean lazy = false;
+	/**
+	 * Whether to never read more from the source than is consumed.
+	 */
+	private final boolean exact;
+	/**
+	 * The limits decodes are checked against.
+	 */
+	private NbtLimits limits = NbtLimits.DEFAULT;
+	/**
+	 * The number of compounds and lists currently entered.
+	 */
+	private int depth = 0;
+	/**
+	 * The number of bytes consumed from the source that are no longer in <code>buf</code>.
+	 */
+	private long discarded = 0;
+	/**
+	 * The index in <code>buf</code> at which decoding started.
+	 */
+	private int start = 0;
+
+	/**
+	 * Constructs a decode context with no source; call <code>reset()</code> before using it.
+	 */
+	public NbtInput()
+	{
+		this(null, false);
+	}
+	/**
+	 * Constructs a decode context over the given stream. The context may read ahead of the data it has decoded.
+	 * @param is The <code>InputStream</code> to decode from.
+	 */
+	public NbtInput(InputStream is)
+	{
+		this(is, false);
+	}
+	/**
+	 * Constructs a decode context over the given stream.
+	 * @param is The <code>InputStream</code> to decode from.
+	 * @param exactly Whether the context must never read past the data it decodes, e.g. when the caller continues to use the stream afterward.
+	 */
+	/*default*/ NbtInput(InputStream is, boolean exactly)
+	{
+		exact = exactly;
+		source = is;
+		buf = (is != null ? own() : null);
+	}
+	/**
+	 * Constructs a decode context over the given buffer, starting at its position.
+	 * @param bb The <code>ByteBuffer</code> to decode from.
+	 */
+	public NbtInput(ByteBuffer bb)
+	{
+		this(null, false);
+		reset(bb);
+	}
+
+	/**
+	 * Discards any buffered data and starts decoding from the given stream, reusing this context's buffer.
+	 * @param is The <code>InputStream</code> to decode from.
+	 * @return This decode context.
+	 */
+	public NbtInput reset(InputStream is)
+	{
+		source = is;
+		buffer = null;
+		buf = own();
+		base = -1;
+		lazy = false;
+		pos = limit = start = depth = 0;
+		discarded = 0;
+		return this;
+	}
+	/**
+	 * Discards any buffered data and starts decoding from the given buffer at its position. The source buffer's position
+	 * is not updated until <code>close()</code> is called.
+	 * @param bb The <code>ByteBuffer</code> to decode from.
+	 * @return This decode context.
+	 */
+	public NbtInput reset(ByteBuffer bb)
+	{
+		source = null;
+		buffer = bb;
+		lazy = false;
+		if(bb.hasArray())
+		{
+			buf = bb.array();
+			base = bb.arrayOffset();
+			pos = base + bb.position();
+			limit = base + bb.limit();
+		}
+		else
+		{
+			buf = own();
+			base = -1;
+			pos = limit = 0;
+		}
+		start = pos;
+		depth = 0;
+		discarded = 0;
+		return this;
+	}
+
+	/**
+	 * Returns this context's own buffer, allocating it if necessary.
+	 * @return This context's own buffer.
+	 */
+	private byte[] own()
+	{
+		if(own == null)
+		{
+			own = new byte[exact ? EXACT_BUFFER_SIZE : BUFFER_SIZE];
+		}
+		return own;
+	}
+
+	/**
+	 * Makes compounds decoded through this context lazy.
+	 * @return This decode context.
+	 * @throws IllegalStateException if the source is not a heap buffer.
+	 * @see Tag#deserializeLazy(ByteBuffer)
+	 */
+	/*default*/ NbtInput lazy()
+	{
+		if(base < 0)
+		{
+			throw new IllegalStateException("Lazy decoding requires a heap buffer");
+		}
+		lazy = true;
+		return this;
+	}
+	/**
+	 * Returns whether compounds decoded through this context should be lazy.
+	 * @return Whether compounds decoded through this context should be lazy.
+	 */
+	/*default*/ boolean isLazy()
+	{
+		return lazy;
+	}
+	/**
+	 * Sets the limits that this and later decodes through this context are checked against.
+	 * @param l The limits.
+	 * @return This decode context.
+	 */
+	public NbtInput limits(NbtLimits l)
+	{
+		if(l == null)
+		{
+			throw new IllegalArgumentException("The limits were null");
+		}
+		limits = l;
+		return this;
+	}
+	/**
+	 * Returns the limits decodes through this context are checked against.
+	 * @return The limits.
+	 */
+	public NbtLimits getLimits()
+	{
+		return limits;
+	}
+	/**
+	 * Returns the number of bytes consumed since decoding started.
+	 * @return The number of bytes consumed.
+	 */
+	/*default*/ long consumed()
+	{
+		return discarded + pos - start;
+	}
+	/**
+	 * Returns the number of bytes left in the source, or <code>Long.MAX_VALUE</code> if the source is a stream.
+	 * @return An upper bound on the number of bytes that can still be read.
+	 */
+	private long available()
+	{
+		if(buffer == null)
+		{
+			return java.lang.Long.MAX_VALUE;
+		}
+		return limit - pos + (base >= 0 ? 0 : buffer.remaining());
+	}
+	/**
+	 * Enters a compound or list, checking the nesting depth and the number of bytes consumed so far against the limits.
+	 * Every call must be matched by a call to <code>exit()</code> once the compound or list has been decoded.
+	 * @throws FormatException if the compound or list is nested too deeply or the document is too long.
+	 */
+	/*default*/ void enter() throws FormatException
+	{
+		if(++depth > limits.getMaxDepth())
+		{
+			throw new FormatException("NBT is nested deeper than "+limits.getMaxDepth()+" levels");
+		}
+		charge(0);
+	}
+	/**
+	 * Checks that the given number of bytes can still be consumed without the document exceeding the byte limit.
+	 * @param n The number of bytes about to be consumed.
+	 * @throws FormatException if the document would be too long.
+	 */
+	private void charge(long n) throws FormatException
+	{
+		if(n > limits.getMaxBytes() - consumed())
+		{
+			throw new FormatException("NBT document is longer than "+limits.getMaxBytes()+" bytes");
+		}
+	}
+	/**
+	 * Leaves the compound or list last entered with <code>enter()</code>.
+	 */
+	/*default*/ void exit()
+	{
+		--depth;
+	}
+	/**
+	 * Reads the length prefix of an array or list and checks it before anything is allocated for it: it must not be
+	 * negative or exceed the length limit, and its elements must fit both in the byte limit and in what is left of a
+	 * source buffer.
+	 * @param what What the length is for, used in the exception message.
+	 * @param width The smallest size in bytes of each element.
+	 * @return The length.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws EOFException if the elements would run past the end of the source buffer.
+	 * @throws FormatException if the length is negative or exceeds the limits.
+	 */
+	/*default*/ int readLength(String what, int width) throws IOException
+	{
+		final int size = readInt();
+		if(size < 0)
+		{
+			throw new FormatException(what+" size was negative: "+size);
+		}
+		if(size > limits.getMaxLength())
+		{
+			throw new FormatException(what+" size "+size+" exceeds the limit of "+limits.getMaxLength());
+		}
+		final long bytes = (long)size*width;
+		if(bytes > limits.getMaxBytes() - consumed())
+		{
+			throw new FormatException(what+" of "+size+" elements exceeds the limit of "+limits.getMaxBytes()+" bytes per document");
+		}
+		if(bytes > available())
+		{
+			throw new EOFException(what+" of "+size+" elements runs past the end of the data");
+		}
+		return size;
+	}
+	/**
+	 * Returns the backing array of the source heap buffer.
+	 * @return The backing array of the source heap buffer.
+	 */
+	/*default*/ byte[] array()
+	{
+		return buf;
+	}
+	/**
+	 * Returns the index in the backing array of the source heap buffer of the next byte to read.
+	 * @return The index of the next byte to read.
+	 */
+	/*default*/ int offset()
+	{
+		return pos;
+	}
+
+	/**
+	 * Reads up to <code>len</code> bytes from the source stream or direct buffer.
+	 * @param b The array to read into.
+	 * @param off The index in the array of the first byte to read.
+	 * @param len The maximum number of bytes to read.
+	 * @return The number of bytes read, or -1 if the source has ended.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private int fill(byte[] b, int off, int len) throws IOException
+	{
+		if(buffer == null)
+		{
+			return source.read(b, off, len);
+		}
+		if(base >= 0 || !buffer.hasRemaining())
+		{
+			return -1;
+		}
+		final int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	/**
+	 * Ensures that at least <code>n</code> bytes are buffered.
+	 * @param n The number of bytes required, at most the buffer size.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws EOFException if the source ends first.
+	 */
+	private void require(int n) throws IOException
+	{
+		if(limit - pos >= n)
+		{
+			return;
+		}
+		if(base >= 0)
+		{
+			throw new EOFException();
+		}
+		if(pos > 0)
+		{
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			discarded += pos - start;
+			limit -= pos;
+			pos = start = 0;
+		}
+		while(limit < n)
+		{
+			final int r = fill(buf, limit, (exact ? n : buf.length) - limit);
+			if(r < 0)
+			{
+				throw new EOFException();
+			}
+			limit += r;
+		}
+	}
+
+	/**
+	 * Reads a signed byte.
+	 * @return The byte.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public byte readByte() throws IOException
+	{
+		require(1);
+		return buf[pos++];
+	}
+	/**
+	 * Reads an unsigned byte.
+	 * @return The byte, from 0 to 255.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public int readUnsignedByte() throws IOException
+	{
+		require(1);
+		return buf[pos++] & 0xFF;
+	}
+	/**
+	 * Reads a big-endian signed short.
+	 * @return The short.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public short readShort() throws IOException
+	{
+		return (short)readUnsignedShort();
+	}
+	/**
+	 * Reads a big-endian unsigned short.
+	 * @return The short, from 0 to 65535.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public int readUnsignedShort() throws IOException
+	{
+		require(2);
+		final int v = ((buf[pos] & 0xFF) << 8) | (buf[pos+1] & 0xFF);
+		pos += 2;
+		return v;
+	}
+	/**
+	 * Reads a big-endian int.
+	 * @return The int.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public int readInt() throws IOException
+	{
+		require(4);
+		final int v = getInt(buf, pos);
+		pos += 4;
+		return v;
+	}
+	/**
+	 * Reads a big-endian long.
+	 * @return The long.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public long readLong() throws IOException
+	{
+		require(8);
+		final long v = ((long)getInt(buf, pos) << 32) | (getInt(buf, pos+4) & 0xFFFFFFFFL);
+		pos += 8;
+		return v;
+	}
+	/**
+	 * Reads a big-endian float.
+	 * @return The float.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public float readFloat() throws IOException
+	{
+		return java.lang.Float.intBitsToFloat(readInt());
+	}
+	/**
+	 * Reads a big-endian double.
+	 * @return The double.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public double readDouble() throws IOException
+	{
+		return java.lang.Double.longBitsToDouble(readLong());
+	}
+	/**
+	 * Decodes a big-endian int from an array.
+	 * @param b The array.
+	 * @param i The index of the first byte.
+	 * @return The int.
+	 */
+	private static int getInt(byte[] b, int i)
+	{
+		return (b[i] << 24) | ((b[i+1] & 0xFF) << 16) | ((b[i+2] & 0xFF) << 8) | (b[i+3] & 0xFF);
+	}
+
+	/**
+	 * Fills the given array completely.
+	 * @param b The array to fill.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws EOFException if the source ends first.
+	 */
+	public void readFully(byte[] b) throws IOException
+	{
+		readFully(b, 0, b.length);
+	}
+	/**
+	 * Reads exactly <code>len</code> bytes into the given array. Large reads bypass the buffer.
+	 * @param b The array to read into.
+	 * @param off The index in the array of the first byte to read.
+	 * @param len The number of bytes to read.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws EOFException if the source ends first.
+	 */
+	public void readFully(byte[] b, int off, int len) throws IOException
+	{
+		int n = Math.min(len, limit - pos);
+		System.arraycopy(buf, pos, b, off, n);
+		pos += n;
+		off += n;
+		len -= n;
+		while(len > 0)
+		{
+			if(len < buf.length && !exact)
+			{
+				require(len);
+				System.arraycopy(buf, pos, b, off, len);
+				pos += len;
+				return;
+			}
+			final int r = fill(b, off, len);
+			if(r < 0)
+			{
+				throw new EOFException();
+			}
+			discarded += r;
+			off += r;
+			len -= r;
+		}
+	}
+	/**
+	 * Fills the given array completely with big-endian ints.
+	 * @param v The array to fill.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws EOFException if the source ends first.
+	 */
+	public void readFully(int[] v) throws IOException
+	{
+		int i = 0;
+		while(i < v.length)
+		{
+			require(4);
+			final int n = Math.min(v.length - i, (limit - pos)/4);
+			for(final int end = i + n; i < end; ++i, pos += 4)
+			{
+				v[i] = getInt(buf, pos);
+			}
+		}
+	}
+	/**
+	 * Fills the given array completely with big-endian longs.
+	 * @param v The array to fill.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws EOFException if the source ends first.
+	 */
+	public void readFully(long[] v) throws IOException
+	{
+		int i = 0;
+		while(i < v.length)
+		{
+			require(8);
+			final int n = Math.min(v.length - i, (limit - pos)/8);
+			for(final int end = i + n; i < end; ++i, pos += 8)
+			{
+				v[i] = ((long)getInt(buf, pos) << 32) | (getInt(buf, pos+4) & 0xFFFFFFFFL);
+			}
+		}
+	}
+	/**
+	 * Skips exactly the given number of bytes.
+	 * @param n The number of bytes to skip.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws EOFException if the source ends first.
+	 * @throws FormatException if the document would exceed the byte limit.
+	 */
+	public void skip(long n) throws IOException
+	{
+		charge(n);
+		final int buffered = (int)Math.min(n, limit - pos);
+		pos += buffered;
+		n -= buffered;
+		if(n > 0 && buffer != null)
+		{
+			if(base >= 0 || buffer.remaining() < n)
+			{
+				throw new EOFException();
+			}
+			buffer.position(buffer.position() + (int)n);
+			discarded += n;
+			return;
+		}
+		while(n > 0)
+		{
+			long skipped = source.skip(n);
+			if(skipped <= 0)
+			{
+				if(source.read() < 0)
+				{
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			discarded += skipped;
+			n -= skipped;
+		}
+	}
+
+	/**
+	 * Reads a length-prefixed string as used for TAG_String payloads. The length is an unsigned short.
+	 * @return The string.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the string would make the document exceed the byte limit.
+	 */
+	public String readString() throws IOException
+	{
+		return readString(readUnsignedShort());
+	}
+	/**
+	 * Reads the bytes of a string whose length has already been read.
+	 * @param length The length of the string in bytes.
+	 * @return The string.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private String readString(int length) throws IOException
+	{
+		charge(length);
+		if(length <= buf.length)
+		{
+			require(length);
+			final String s = new String(buf, pos, length, Tag.UTF8);
+			pos += length;
+			return s;
+		}
+		final byte[] str = new byte[length];
+		readFully(str);
+		return new String(str, Tag.UTF8);
+	}
+	/**
+	 * Reads a length-prefixed tag name. Short ASCII names are looked up in a table shared by all decode contexts, so the
+	 * names that repeat throughout a world are neither decoded nor allocated again.
+	 * @return The name, possibly an instance shared with earlier decodes.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	/*default*/ String readName() throws IOException
+	{
+		final int length = readUnsignedShort();
+		if(length > MAX_NAME_LENGTH || length > buf.length)
+		{
+			return readString(length);
+		}
+		charge(length);
+		require(length);
+		int h = 0;
+		for(int i = pos, end = pos + length; i < end; ++i)
+		{
+			final byte b = buf[i];
+			if(b < 0)
+			{
+				return readString(length);
+			}
+			h = 31*h + b;
+		}
+		final int slot = (h ^ (h >>> 16)) & (NAME_TABLE.length - 1);
+		String s = NAME_TABLE[slot];
+		if(s == null || !matches(s, buf, pos, length))
+		{
+			s = new String(buf, pos, length, StandardCharsets.ISO_8859_1);
+			NAME_TABLE[slot] = s;
+		}
+		pos += length;
+		return s;
+	}
+	/**
+	 * Returns whether the given string consists of exactly the given ASCII bytes.
+	 * @param s The string.
+	 * @param b The array holding the bytes.
+	 * @param off The index of the first byte.
+	 * @param len The number of bytes.
+	 * @return Whether the string matches the bytes.
+	 */
+	private static boolean matches(String s, byte[] b, int off, int len)
+	{
+		if(s.length() != len)
+		{
+			return false;
+		}
+		for(int i = 0; i < len; ++i)
+		{
+			if(s.charAt(i) != b[off+i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the source stream, or moves the position of the source buffer to just past the decoded data.
+	 * @throws IOException if the source stream throws an exception when closed.
+	 */
+	@Override public void close() throws IOException
+	{
+		if(buffer != null)
+		{
+			buffer.position(base >= 0 ? pos - base : buffer.position() - (limit - pos));
+			pos = limit;
+		}
+		if(source != null)
+		{
+			source.close();
+		}
+	}
+}
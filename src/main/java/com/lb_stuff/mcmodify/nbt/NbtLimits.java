@@ -0,0 +1,86 @@
+package com.lb_stuff.mcmodify.nbt;
+
+/**
+ * The limits a decode context enforces on the NBT data it decodes, so that corrupt or hostile data fails with a
+ * <code>FormatException</code> instead of exhausting the stack or the heap. Every check is made in constant time: the
+ * depth when a compound or list is entered, and the byte limit whenever a length prefix, a string, a name or skipped
+ * data is read, so that every byte of the document counts against it. A length prefix is charged the smallest size its
+ * elements can have before anything is allocated for them.
+ * <p>
+ * Regardless of the limits, a length prefix is never trusted beyond the data that is actually left in a source buffer:
+ * a length that runs past the end of the buffer fails with an <code>EOFException</code> before anything is allocated.
+ * @see NbtInput#limits(NbtLimits)
+ */
+public final class NbtLimits
+{
+	/**
+	 * The limits used by decode contexts unless others are given: a nesting depth of 512, as Minecraft allows, and no
+	 * other limits.
+	 */
+	public static final NbtLimits DEFAULT = new NbtLimits(512, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+	/**
+	 * The greatest number of compounds and lists that may be nested inside each other.
+	 */
+	private final int maxDepth;
+	/**
+	 * The greatest number of elements in an array or list.
+	 */
+	private final int maxLength;
+	/**
+	 * The greatest number of bytes in a single document.
+	 */
+	private final long maxBytes;
+
+	/**
+	 * Constructs limits.
+	 * @param depth The greatest number of compounds and lists that may be nested inside each other; the root compound alone has depth 1.
+	 * @param length The greatest number of elements in a byte, int or long array or a list.
+	 * @param bytes The greatest number of bytes in a single document, counted from where the decode context starts.
+	 * @throws IllegalArgumentException if a limit is not positive.
+	 */
+	public NbtLimits(int depth, int length, long bytes) throws IllegalArgumentException
+	{
+		if(depth < 1 || length < 1 || bytes < 1)
+		{
+			throw new IllegalArgumentException("Limits must be positive: depth "+depth+", length "+length+", bytes "+bytes);
+		}
+		maxDepth = depth;
+		maxLength = length;
+		maxBytes = bytes;
+	}
+
+	/**
+	 * Returns the greatest number of compounds and lists that may be nested inside each other.
+	 * @return The greatest nesting depth.
+	 */
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+	/**
+	 * Returns the greatest number of elements in an array or list.
+	 * @return The greatest number of elements in an array or list.
+	 */
+	public int getMaxLength()
+	{
+		return maxLength;
+	}
+	/**
+	 * Returns the greatest number of bytes in a single document.
+	 * @return The greatest number of bytes in a single document.
+	 */
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * Returns a description of these limits.
+	 * @return A description of these limits.
+	 */
+	@Override public String toString()
+	{
+		return "NbtLimits(depth "+maxDepth+", length "+maxLength+", bytes "+maxBytes+")";
+	}
+}
@@ -0,0 +1,386 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The encode context shared by every tag of a single NBT serialization. It writes big-endian data either through one
+ * buffer to an <code>OutputStream</code>, or straight into a <code>ByteBuffer</code>: into the backing array of a heap
+ * buffer, or through a small staging buffer into a direct buffer.
+ * @see Tag#serialize(NbtOutput)
+ */
+public final class NbtOutput implements Closeable, Flushable
+{
+	/**
+	 * The buffer size in bytes used for streams and direct buffers.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * The length of the longest string <code>writeString</code> encodes directly into the buffer.
+	 */
+	private static final int MAX_ASCII_LENGTH = 256;
+	/**
+	 * The bytes being written; the backing array itself for heap buffers.
+	 */
+	private final byte[] buf;
+	/**
+	 * The index in <code>buf</code> of the next byte to write.
+	 */
+	private int pos;
+	/**
+	 * The index in <code>buf</code> one past the last writable byte.
+	 */
+	private final int limit;
+	/**
+	 * The stream being written to, or null.
+	 */
+	private final OutputStream sink;
+	/**
+	 * The buffer being written to, or null.
+	 */
+	private final ByteBuffer target;
+	/**
+	 * The index in <code>buf</code> of position 0 of a heap <code>target</code>, or -1 if <code>buf</code> is a staging buffer.
+	 */
+	private final int base;
+
+	/**
+	 * Constructs an encode context that writes to the given stream.
+	 * @param os The <code>OutputStream</code> to write to.
+	 */
+	public NbtOutput(OutputStream os)
+	{
+		sink = os;
+		target = null;
+		buf = new byte[BUFFER_SIZE];
+		pos = 0;
+		limit = buf.length;
+		base = -1;
+	}
+	/**
+	 * Constructs an encode context that writes into the given buffer starting at its position. The buffer's position is
+	 * advanced by <code>flush()</code>; writing more than the buffer's remaining space throws a <code>BufferOverflowException</code>.
+	 * @param bb The <code>ByteBuffer</code> to write to.
+	 */
+	public NbtOutput(ByteBuffer bb)
+	{
+		sink = null;
+		target = bb;
+		if(bb.hasArray() && !bb.isReadOnly())
+		{
+			buf = bb.array();
+			base = bb.arrayOffset();
+			pos = base + bb.position();
+			limit = base + bb.limit();
+		}
+		else
+		{
+			buf = new byte[BUFFER_SIZE];
+			base = -1;
+			pos = 0;
+			limit = buf.length;
+		}
+	}
+
+	/**
+	 * Ensures that at least <code>n</code> bytes can be written to <code>buf</code>.
+	 * @param n The number of bytes, at most the staging buffer size.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws BufferOverflowException if the target buffer is full.
+	 */
+	private void ensure(int n) throws IOException
+	{
+		if(limit - pos >= n)
+		{
+			return;
+		}
+		if(base >= 0)
+		{
+			throw new BufferOverflowException();
+		}
+		drain();
+	}
+	/**
+	 * Moves everything staged in <code>buf</code> to the stream or buffer, or updates the position of a heap buffer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private void drain() throws IOException
+	{
+		if(base >= 0)
+		{
+			target.position(pos - base);
+			return;
+		}
+		if(sink != null)
+		{
+			sink.write(buf, 0, pos);
+		}
+		else
+		{
+			target.put(buf, 0, pos);
+		}
+		pos = 0;
+	}
+
+	/**
+	 * Writes a byte.
+	 * @param v The byte, in the low 8 bits.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeByte(int v) throws IOException
+	{
+		ensure(1);
+		buf[pos++] = (byte)v;
+	}
+	/**
+	 * Writes a big-endian short.
+	 * @param v The short, in the low 16 bits.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeShort(int v) throws IOException
+	{
+		ensure(2);
+		buf[pos] = (byte)(v >>> 8);
+		buf[pos+1] = (byte)v;
+		pos += 2;
+	}
+	/**
+	 * Writes a big-endian int.
+	 * @param v The int.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeInt(int v) throws IOException
+	{
+		ensure(4);
+		putInt(buf, pos, v);
+		pos += 4;
+	}
+	/**
+	 * Writes a big-endian long.
+	 * @param v The long.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeLong(long v) throws IOException
+	{
+		ensure(8);
+		putInt(buf, pos, (int)(v >>> 32));
+		putInt(buf, pos+4, (int)v);
+		pos += 8;
+	}
+	/**
+	 * Writes a big-endian float.
+	 * @param v The float.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeFloat(float v) throws IOException
+	{
+		writeInt(java.lang.Float.floatToIntBits(v));
+	}
+	/**
+	 * Writes a big-endian double.
+	 * @param v The double.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeDouble(double v) throws IOException
+	{
+		writeLong(java.lang.Double.doubleToLongBits(v));
+	}
+	/**
+	 * Encodes a big-endian int into an array.
+	 * @param b The array.
+	 * @param i The index of the first byte.
+	 * @param v The int.
+	 */
+	private static void putInt(byte[] b, int i, int v)
+	{
+		b[i] = (byte)(v >>> 24);
+		b[i+1] = (byte)(v >>> 16);
+		b[i+2] = (byte)(v >>> 8);
+		b[i+3] = (byte)v;
+	}
+
+	/**
+	 * Writes all of the given bytes.
+	 * @param b The bytes.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void write(byte[] b) throws IOException
+	{
+		write(b, 0, b.length);
+	}
+	/**
+	 * Writes <code>len</code> bytes from the given array. Large writes to streams and direct buffers bypass the staging buffer.
+	 * @param b The array.
+	 * @param off The index of the first byte to write.
+	 * @param len The number of bytes to write.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if(limit - pos >= len)
+		{
+			System.arraycopy(b, off, buf, pos, len);
+			pos += len;
+			return;
+		}
+		if(base >= 0)
+		{
+			throw new BufferOverflowException();
+		}
+		drain();
+		if(len < buf.length)
+		{
+			System.arraycopy(b, off, buf, pos, len);
+			pos += len;
+		}
+		else if(sink != null)
+		{
+			sink.write(b, off, len);
+		}
+		else
+		{
+			target.put(b, off, len);
+		}
+	}
+	/**
+	 * Writes all of the given ints in big-endian order.
+	 * @param v The ints.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeInts(int[] v) throws IOException
+	{
+		int i = 0;
+		while(i < v.length)
+		{
+			ensure(4);
+			final int n = Math.min(v.length - i, (limit - pos)/4);
+			for(final int end = i + n; i < end; ++i, pos += 4)
+			{
+				putInt(buf, pos, v[i]);
+			}
+		}
+	}
+	/**
+	 * Writes all of the given longs in big-endian order.
+	 * @param v The longs.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public void writeLongs(long[] v) throws IOException
+	{
+		int i = 0;
+		while(i < v.length)
+		{
+			ensure(8);
+			final int n = Math.min(v.length - i, (limit - pos)/8);
+			for(final int end = i + n; i < end; ++i, pos += 8)
+			{
+				putInt(buf, pos, (int)(v[i] >>> 32));
+				putInt(buf, pos+4, (int)v[i]);
+			}
+		}
+	}
+	/**
+	 * Writes a length-prefixed string as used for tag names and TAG_String payloads. ASCII strings are copied into the
+	 * buffer without going through the charset encoder.
+	 * @param s The string.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws IllegalArgumentException if the encoded string is longer than 65535 bytes.
+	 */
+	public void writeString(String s) throws IOException
+	{
+		final int length = s.length();
+		if(length <= MAX_ASCII_LENGTH)
+		{
+			ensure(2 + length);
+			int i = 0;
+			for(; i < length; ++i)
+			{
+				final char c = s.charAt(i);
+				if(c >= 0x80)
+				{
+					break;
+				}
+				buf[pos+2+i] = (byte)c;
+			}
+			if(i == length)
+			{
+				buf[pos] = (byte)(length >>> 8);
+				buf[pos+1] = (byte)length;
+				pos += 2 + length;
+				return;
+			}
+		}
+		byte[] sarr = s.getBytes(Tag.UTF8);
+		if(sarr.length > 0xFFFF)
+		{
+			throw new IllegalArgumentException("String is too long to serialize: "+sarr.length+" bytes");
+		}
+		writeShort(sarr.length);
+		write(sarr);
+	}
+	/**
+	 * Returns the number of bytes <code>writeString</code> writes for the given string, including the length prefix.
+	 * @param s The string.
+	 * @return The serialized size of the string.
+	 */
+	/*default*/ static int stringSize(String s)
+	{
+		int n = 2;
+		final int length = s.length();
+		for(int i = 0; i < length; ++i)
+		{
+			final char c = s.charAt(i);
+			if(c < 0x80)
+			{
+				n += 1;
+			}
+			else if(c < 0x800)
+			{
+				n += 2;
+			}
+			else if(Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(s.charAt(i+1)))
+			{
+				n += 4;
+				++i;
+			}
+			else if(Character.isSurrogate(c))
+			{
+				n += 1; //unpaired surrogates are replaced with '?'
+			}
+			else
+			{
+				n += 3;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Moves all written bytes to the stream and flushes it, or advances the position of the target buffer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	@Override public void flush() throws IOException
+	{
+		drain();
+		if(sink != null)
+		{
+			sink.flush();
+		}
+	}
+	/**
+	 * Flushes this context and closes the stream, if any.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	@Override public void close() throws IOException
+	{
+		flush();
+		if(sink != null)
+		{
+			sink.close();
+		}
+	}
+}
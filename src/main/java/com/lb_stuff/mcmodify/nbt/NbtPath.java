@@ -0,0 +1,759 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled path query over NBT data, evaluated either against a <code>Tag</code> tree or directly against raw NBT
+ * data through an <code>NbtReader</code> without building the tree.
+ * <p>
+ * A path is a slash-separated list of steps relative to the tag it is evaluated against, such as
+ * <code>Level/Entities[*]/id</code> or <code>Level/TileEntities[id=="Chest"]/Items</code>. Each step is a child name, or
+ * <code>*</code> for every child of a compound, optionally followed by selectors:
+ * <ul>
+ * <li><code>[*]</code> selects every element of a list;</li>
+ * <li><code>[3]</code> selects the element of a list with the given index;</li>
+ * <li><code>[key]</code> selects the elements of a list, or the compound itself, having the tag <code>key</code>;</li>
+ * <li><code>[key==value]</code> and likewise <code>!=</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code>
+ * and <code>&gt;=</code> compare the tag <code>key</code> of the elements of a list, or of the compound itself, to a
+ * quoted string or a number.</li>
+ * </ul>
+ * The key of a predicate may itself be a slash-separated path of names, such as <code>[Items/id=="minecraft:stone"]</code>,
+ * which is satisfied if any tag found along it satisfies the comparison.
+ * As with <code>NbtReader.readFiltered</code>, a name step applied to a list of compounds is applied to each element of the
+ * list. Names that contain other characters than letters, digits, <code>_</code>, <code>-</code>, <code>.</code>,
+ * <code>:</code> and <code>+</code> are written as quoted strings.
+ * @see NbtReader#readFiltered(String...)
+ */
+public final class NbtPath
+{
+	/**
+	 * A selector that selects every element of a list.
+	 */
+	private static final int ALL = 0;
+	/**
+	 * A selector that selects one element of a list by index.
+	 */
+	private static final int INDEX = 1;
+	/**
+	 * A selector that selects the compounds satisfying a predicate.
+	 */
+	private static final int PREDICATE = 2;
+
+	/**
+	 * A selector applied to the tag selected by a step.
+	 */
+	private static final class Selector
+	{
+		/**
+		 * One of <code>ALL</code>, <code>INDEX</code> or <code>PREDICATE</code>.
+		 */
+		final int kind;
+		/**
+		 * The index of an <code>INDEX</code> selector.
+		 */
+		final int index;
+		/**
+		 * The names on the path of the key of a predicate.
+		 */
+		final String[] key;
+		/**
+		 * The key path of a predicate joined with slashes, as used by <code>readFiltered</code>.
+		 */
+		final String keyPath;
+		/**
+		 * The comparison operator of a predicate, or null to test only that the key exists.
+		 */
+		final String op;
+		/**
+		 * The value a predicate compares to: a <code>String</code>, a <code>Long</code> or a <code>Double</code>.
+		 */
+		final Object value;
+		/**
+		 * Constructs an <code>ALL</code> or <code>INDEX</code> selector.
+		 * @param k <code>ALL</code> or <code>INDEX</code>.
+		 * @param i The index of an <code>INDEX</code> selector; ignored for <code>ALL</code>.
+		 */
+		Selector(int k, int i)
+		{
+			kind = k;
+			index = i;
+			key = null;
+			keyPath = null;
+			op = null;
+			value = null;
+		}
+		/**
+		 * Constructs a <code>PREDICATE</code> selector.
+		 * @param k The names on the path of the key.
+		 * @param o The comparison operator, or null to test only that the key exists.
+		 * @param v The value to compare to, or null if there is no operator.
+		 */
+		Selector(String[] k, String o, Object v)
+		{
+			kind = PREDICATE;
+			index = 0;
+			key = k;
+			keyPath = String.join("/", k);
+			op = o;
+			value = v;
+		}
+	}
+	/**
+	 * A step of a path.
+	 */
+	private static final class Step
+	{
+		/**
+		 * The name of the selected child, or null to select every child.
+		 */
+		final String name;
+		/**
+		 * The selectors applied in order to the selected child.
+		 */
+		final Selector[] selectors;
+		/**
+		 * Constructs a step.
+		 * @param n The name of the selected child, or null to select every child.
+		 * @param s The selectors applied in order to the selected child.
+		 */
+		Step(String n, Selector[] s)
+		{
+			name = n;
+			selectors = s;
+		}
+	}
+	/**
+	 * The source text of this path.
+	 */
+	private final String text;
+	/**
+	 * The steps of this path.
+	 */
+	private final Step[] steps;
+
+	/**
+	 * Constructs a compiled path.
+	 * @param t The source text.
+	 * @param s The steps.
+	 */
+	private NbtPath(String t, Step[] s)
+	{
+		text = t;
+		steps = s;
+	}
+
+	/**
+	 * Compiles a path. The compiled path is immutable and can be evaluated any number of times, from any thread.
+	 * @param path The path, e.g. <code>Level/TileEntities[id=="Chest"]/Items</code>; an empty path selects the tag itself.
+	 * @return The compiled path.
+	 * @throws IllegalArgumentException if the path is not valid.
+	 */
+	public static NbtPath compile(String path) throws IllegalArgumentException
+	{
+		return new Parser(path).parse();
+	}
+
+	/**
+	 * Returns the tags the path selects, relative to the given tag.
+	 * @param root The tag to evaluate the path against.
+	 * @return The selected tags, in document order.
+	 */
+	public List<Tag> select(Tag root)
+	{
+		List<Tag> out = new ArrayList<>();
+		evaluate(root, 0, out);
+		return out;
+	}
+	/**
+	 * Returns the tags the path selects, relative to the named root tag of the given raw, uncompressed NBT data. Only
+	 * the selected tags, and the keys of predicates on the way to them, are materialized; everything else is skipped
+	 * without being decoded.
+	 * @param is The <code>InputStream</code> to read from.
+	 * @return The selected tags, in document order.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the data is not valid NBT.
+	 */
+	public List<Tag> select(InputStream is) throws IOException, FormatException
+	{
+		NbtReader r = new NbtReader(is);
+		List<Tag> out = new ArrayList<>();
+		if(r.nextTag() != Tag.Type.END)
+		{
+			stream(r, 0, out);
+		}
+		return out;
+	}
+	/**
+	 * Returns the tags the path selects, relative to the current tag of the given reader, and consumes the current tag.
+	 * Only the selected tags, and the keys of predicates on the way to them, are materialized.
+	 * @param r The reader, positioned on a tag whose payload has not been read.
+	 * @return The selected tags, in document order.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the data is not valid NBT.
+	 */
+	public List<Tag> select(NbtReader r) throws IOException, FormatException
+	{
+		List<Tag> out = new ArrayList<>();
+		stream(r, 0, out);
+		return out;
+	}
+
+	/**
+	 * Evaluates the steps from the given one against a tag.
+	 * @param t The tag selected by the previous steps.
+	 * @param step The index of the next step.
+	 * @param out The list of selected tags.
+	 */
+	private void evaluate(Tag t, int step, List<Tag> out)
+	{
+		if(step == steps.length)
+		{
+			out.add(t);
+			return;
+		}
+		final Step s = steps[step];
+		if(t instanceof Tag.Compound)
+		{
+			Tag.Compound c = (Tag.Compound)t;
+			if(s.name != null)
+			{
+				Tag child = c.get(s.name);
+				if(child != null)
+				{
+					evaluate(child, step, 0, out);
+				}
+				return;
+			}
+			for(Tag child : c)
+			{
+				evaluate(child, step, 0, out);
+			}
+		}
+		else if(t instanceof Tag.List && isContainer(((Tag.List)t).getContainedType()))
+		{
+			for(Tag e : (Tag.List)t)
+			{
+				evaluate(e, step, out);
+			}
+		}
+	}
+	/**
+	 * Applies the selectors of a step from the given one to a tag, then evaluates the remaining steps.
+	 * @param t The tag selected so far.
+	 * @param step The index of the step.
+	 * @param sel The index of the next selector of the step.
+	 * @param out The list of selected tags.
+	 */
+	private void evaluate(Tag t, int step, int sel, List<Tag> out)
+	{
+		final Selector[] selectors = steps[step].selectors;
+		if(sel == selectors.length)
+		{
+			evaluate(t, step+1, out);
+			return;
+		}
+		final Selector x = selectors[sel];
+		if(x.kind == PREDICATE && !(t instanceof Tag.List))
+		{
+			if(matches(t, x))
+			{
+				evaluate(t, step, sel+1, out);
+			}
+			return;
+		}
+		if(!(t instanceof Tag.List))
+		{
+			return;
+		}
+		Tag.List l = (Tag.List)t;
+		if(x.kind == INDEX)
+		{
+			if(x.index < l.getSize())
+			{
+				evaluate(l.get(x.index), step, sel+1, out);
+			}
+			return;
+		}
+		for(Tag e : l)
+		{
+			if(x.kind == ALL || matches(e, x))
+			{
+				evaluate(e, step, sel+1, out);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the steps from the given one against the current tag of a reader, consuming it.
+	 * @param r The reader, positioned on the tag selected by the previous steps.
+	 * @param step The index of the next step.
+	 * @param out The list of selected tags.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private void stream(NbtReader r, int step, List<Tag> out) throws IOException
+	{
+		if(step == steps.length)
+		{
+			out.add(r.readTag());
+			return;
+		}
+		final Step s = steps[step];
+		if(r.type() == Tag.Type.COMPOUND)
+		{
+			r.beginCompound();
+			while(r.nextTag() != Tag.Type.END)
+			{
+				if(s.name == null || s.name.equals(r.name()))
+				{
+					stream(r, step, 0, out);
+				}
+			}
+		}
+		else if(r.type() == Tag.Type.LIST)
+		{
+			r.beginList();
+			if(!isContainer(r.listType()))
+			{
+				while(r.nextTag() != Tag.Type.END)
+				{
+				}
+				return;
+			}
+			while(r.nextTag() != Tag.Type.END)
+			{
+				stream(r, step, out);
+			}
+		}
+		else
+		{
+			r.skip();
+		}
+	}
+	/**
+	 * Applies the selectors of a step from the given one to the current tag of a reader, then evaluates the remaining
+	 * steps. A predicate materializes only its key and what the rest of the path needs, then continues on that tree.
+	 * @param r The reader, positioned on the tag selected so far.
+	 * @param step The index of the step.
+	 * @param sel The index of the next selector of the step.
+	 * @param out The list of selected tags.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private void stream(NbtReader r, int step, int sel, List<Tag> out) throws IOException
+	{
+		final Selector[] selectors = steps[step].selectors;
+		if(sel == selectors.length)
+		{
+			stream(r, step+1, out);
+			return;
+		}
+		final Selector x = selectors[sel];
+		if(x.kind == PREDICATE && r.type() != Tag.Type.LIST)
+		{
+			candidate(r, step, sel, out);
+			return;
+		}
+		if(r.type() != Tag.Type.LIST)
+		{
+			r.skip();
+			return;
+		}
+		r.beginList();
+		for(int i = 0; r.nextTag() != Tag.Type.END; ++i)
+		{
+			if(x.kind == ALL || (x.kind == INDEX && i == x.index))
+			{
+				stream(r, step, sel+1, out);
+			}
+			else if(x.kind == PREDICATE)
+			{
+				candidate(r, step, sel, out);
+			}
+		}
+	}
+	/**
+	 * Materializes the parts of the current compound of a reader that a predicate and the rest of the path need, and
+	 * evaluates the rest of the path on them if the predicate is satisfied.
+	 * @param r The reader, positioned on the candidate tag.
+	 * @param step The index of the step.
+	 * @param sel The index of the predicate in the step.
+	 * @param out The list of selected tags.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private void candidate(NbtReader r, int step, int sel, List<Tag> out) throws IOException
+	{
+		if(r.type() != Tag.Type.COMPOUND)
+		{
+			r.skip();
+			return;
+		}
+		final Selector x = steps[step].selectors[sel];
+		final Tag t;
+		if(sel+1 == steps[step].selectors.length && step+1 < steps.length && steps[step+1].name != null)
+		{
+			t = r.readFiltered(x.keyPath, steps[step+1].name);
+		}
+		else
+		{
+			t = r.readTag();
+		}
+		if(matches(t, x))
+		{
+			evaluate(t, step, sel+1, out);
+		}
+	}
+
+	/**
+	 * Returns whether the given element type can contain tags that later steps select.
+	 * @param t The element type of a list.
+	 * @return Whether the type is TAG_Compound or TAG_List.
+	 */
+	private static boolean isContainer(Tag.Type t)
+	{
+		return t == Tag.Type.COMPOUND || t == Tag.Type.LIST;
+	}
+	/**
+	 * Returns whether a tag satisfies a predicate. The key is looked up through compounds and, like the other steps of a
+	 * path, through each element of lists of compounds; the predicate is satisfied if any tag found this way satisfies it.
+	 * @param t The tag.
+	 * @param x The predicate.
+	 * @return Whether the tag satisfies the predicate.
+	 */
+	private static boolean matches(Tag t, Selector x)
+	{
+		return matches(t, x, 0);
+	}
+	/**
+	 * Returns whether a tag satisfies a predicate after the given number of names of its key have been looked up.
+	 * @param t The tag.
+	 * @param x The predicate.
+	 * @param depth The number of names of the key already looked up.
+	 * @return Whether the tag satisfies the predicate.
+	 */
+	private static boolean matches(Tag t, Selector x, int depth)
+	{
+		if(depth < x.key.length)
+		{
+			if(t instanceof Tag.Compound)
+			{
+				Tag child = ((Tag.Compound)t).get(x.key[depth]);
+				return child != null && matches(child, x, depth+1);
+			}
+			else if(t instanceof Tag.List && isContainer(((Tag.List)t).getContainedType()))
+			{
+				for(Tag e : (Tag.List)t)
+				{
+					if(matches(e, x, depth))
+					{
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		return compare(t, x);
+	}
+	/**
+	 * Returns whether the key found for a predicate satisfies its comparison.
+	 * @param t The tag found for the key.
+	 * @param x The predicate.
+	 * @return Whether the tag satisfies the comparison, or true if the predicate only tests that the key exists.
+	 */
+	private static boolean compare(Tag t, Selector x)
+	{
+		if(x.op == null)
+		{
+			return true;
+		}
+		final int c;
+		if(x.value instanceof String)
+		{
+			if(!(t instanceof Tag.String))
+			{
+				return false;
+			}
+			c = ((Tag.String)t).v.compareTo((String)x.value);
+		}
+		else if(x.value instanceof Long && integral(t) != null)
+		{
+			c = Long.compare(integral(t), (Long)x.value);
+		}
+		else if(integral(t) != null || t instanceof Tag.Float || t instanceof Tag.Double)
+		{
+			final double v = (t instanceof Tag.Float ? ((Tag.Float)t).v : t instanceof Tag.Double ? ((Tag.Double)t).v : integral(t));
+			final double w = ((Number)x.value).doubleValue();
+			if(Double.isNaN(v) || Double.isNaN(w))
+			{
+				return x.op.equals("!=");
+			}
+			c = Double.compare(v, w);
+		}
+		else
+		{
+			return false;
+		}
+		switch(x.op)
+		{
+			case "==": return c == 0;
+			case "!=": return c != 0;
+			case "<":  return c < 0;
+			case "<=": return c <= 0;
+			case ">":  return c > 0;
+			case ">=": return c >= 0;
+			default: throw new IllegalStateException();
+		}
+	}
+	/**
+	 * Returns the value of an integral tag.
+	 * @param t The tag.
+	 * @return The value of a TAG_Byte, TAG_Short, TAG_Int or TAG_Long, or null for any other tag.
+	 */
+	private static Long integral(Tag t)
+	{
+		if(t instanceof Tag.Byte)
+		{
+			return (long)((Tag.Byte)t).v;
+		}
+		else if(t instanceof Tag.Short)
+		{
+			return (long)((Tag.Short)t).v;
+		}
+		else if(t instanceof Tag.Int)
+		{
+			return (long)((Tag.Int)t).v;
+		}
+		else if(t instanceof Tag.Long)
+		{
+			return ((Tag.Long)t).v;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the source text of this path.
+	 * @return The path as it was compiled.
+	 */
+	@Override public String toString()
+	{
+		return text;
+	}
+
+	/**
+	 * The recursive-descent parser for paths.
+	 */
+	private static final class Parser
+	{
+		/**
+		 * The path being parsed.
+		 */
+		private final String s;
+		/**
+		 * The index of the next character.
+		 */
+		private int pos = 0;
+		/**
+		 * Constructs a parser.
+		 * @param path The path to parse.
+		 */
+		Parser(String path)
+		{
+			s = path;
+		}
+		/**
+		 * Parses the whole path.
+		 * @return The compiled path.
+		 * @throws IllegalArgumentException if the path is not valid.
+		 */
+		NbtPath parse() throws IllegalArgumentException
+		{
+			List<Step> steps = new ArrayList<>();
+			while(pos < s.length())
+			{
+				if(!steps.isEmpty())
+				{
+					expect('/');
+				}
+				String name;
+				if(peek() == '*')
+				{
+					++pos;
+					name = null;
+				}
+				else
+				{
+					name = name();
+				}
+				List<Selector> selectors = new ArrayList<>();
+				while(peek() == '[')
+				{
+					++pos;
+					selectors.add(selector());
+					expect(']');
+				}
+				steps.add(new Step(name, selectors.toArray(new Selector[selectors.size()])));
+			}
+			return new NbtPath(s, steps.toArray(new Step[steps.size()]));
+		}
+		/**
+		 * Parses the inside of a selector.
+		 * @return The selector.
+		 * @throws IllegalArgumentException if the selector is not valid.
+		 */
+		private Selector selector() throws IllegalArgumentException
+		{
+			if(peek() == '*')
+			{
+				++pos;
+				return new Selector(ALL, 0);
+			}
+			if(Character.isDigit(peek()))
+			{
+				final int start = pos;
+				while(Character.isDigit(peek()))
+				{
+					++pos;
+				}
+				try
+				{
+					return new Selector(INDEX, Integer.parseInt(s.substring(start, pos)));
+				}
+				catch(NumberFormatException e)
+				{
+					throw error("Index out of range");
+				}
+			}
+			List<String> key = new ArrayList<>();
+			key.add(name());
+			while(peek() == '/')
+			{
+				++pos;
+				key.add(name());
+			}
+			final String[] k = key.toArray(new String[key.size()]);
+			for(String op : new String[]{"==", "!=", "<=", ">=", "<", ">"})
+			{
+				if(s.startsWith(op, pos))
+				{
+					pos += op.length();
+					return new Selector(k, op, literal());
+				}
+			}
+			return new Selector(k, null, null);
+		}
+		/**
+		 * Parses a bare or quoted name.
+		 * @return The name.
+		 * @throws IllegalArgumentException if there is no name.
+		 */
+		private String name() throws IllegalArgumentException
+		{
+			if(peek() == '"')
+			{
+				return quoted();
+			}
+			final int start = pos;
+			while(pos < s.length() && isNameChar(s.charAt(pos)))
+			{
+				++pos;
+			}
+			if(start == pos)
+			{
+				throw error("Expected a name");
+			}
+			return s.substring(start, pos);
+		}
+		/**
+		 * Parses a quoted string literal or a number.
+		 * @return A <code>String</code>, a <code>Long</code> or a <code>Double</code>.
+		 * @throws IllegalArgumentException if there is no valid literal.
+		 */
+		private Object literal() throws IllegalArgumentException
+		{
+			if(peek() == '"')
+			{
+				return quoted();
+			}
+			final int start = pos;
+			while(pos < s.length() && "+-.0123456789eE".indexOf(s.charAt(pos)) >= 0)
+			{
+				++pos;
+			}
+			final String n = s.substring(start, pos);
+			try
+			{
+				if(n.matches("[+-]?\\d+"))
+				{
+					return Long.parseLong(n);
+				}
+				return Double.parseDouble(n);
+			}
+			catch(NumberFormatException e)
+			{
+				pos = start;
+				throw error("Expected a quoted string or a number");
+			}
+		}
+		/**
+		 * Parses a double-quoted string in which <code>\"</code> and <code>\\</code> are escapes.
+		 * @return The string.
+		 * @throws IllegalArgumentException if the string is not terminated.
+		 */
+		private String quoted() throws IllegalArgumentException
+		{
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while(pos < s.length() && s.charAt(pos) != '"')
+			{
+				char c = s.charAt(pos++);
+				if(c == '\\' && pos < s.length())
+				{
+					c = s.charAt(pos++);
+				}
+				sb.append(c);
+			}
+			expect('"');
+			return sb.toString();
+		}
+		/**
+		 * Returns whether a character may appear in a bare name.
+		 * @param c The character.
+		 * @return Whether the character may appear in a bare name.
+		 */
+		private static boolean isNameChar(char c)
+		{
+			return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':' || c == '+';
+		}
+		/**
+		 * Returns the next character without consuming it.
+		 * @return The next character, or 0 at the end of the path.
+		 */
+		private char peek()
+		{
+			return pos < s.length() ? s.charAt(pos) : 0;
+		}
+		/**
+		 * Consumes the given character.
+		 * @param c The expected character.
+		 * @throws IllegalArgumentException if the next character is different.
+		 */
+		private void expect(char c) throws IllegalArgumentException
+		{
+			if(peek() != c)
+			{
+				throw error("Expected '"+c+"'");
+			}
+			++pos;
+		}
+		/**
+		 * Creates the exception for a syntax error at the current position.
+		 * @param message The description of the error.
+		 * @return The exception.
+		 */
+		private IllegalArgumentException error(String message)
+		{
+			return new IllegalArgumentException(message+" at index "+pos+" of NBT path: "+s);
+		}
+	}
+}
@@ -0,0 +1,627 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * A pull-style reader that walks raw, uncompressed NBT data one tag at a time without building <code>Tag</code> objects.
+ * <p>
+ * Call <code>nextTag()</code> to advance to the next tag, then either read its payload with the matching
+ * <code>read</code> method, enter it with <code>beginCompound()</code> or <code>beginList()</code>, or
+ * <code>skip()</code> it. Payloads that are left unread are skipped automatically by the next call to
+ * <code>nextTag()</code>. When the end of a compound or list is reached, <code>nextTag()</code> returns
+ * <code>Type.END</code> and the reader moves back out to the enclosing tag.
+ * @see Tag#deserialize(InputStream)
+ */
+public class NbtReader implements Closeable
+{
+	/**
+	 * The decode context the NBT data is read from.
+	 */
+	private final NbtInput in;
+	/**
+	 * A compound or list that has been entered.
+	 */
+	private static final class Frame
+	{
+		/**
+		 * The element type for lists, or null for compounds.
+		 */
+		final Tag.Type elements;
+		/**
+		 * The number of list elements that have not been visited yet.
+		 */
+		int remaining;
+		Frame(Tag.Type e, int r)
+		{
+			elements = e;
+			remaining = r;
+		}
+	}
+	/**
+	 * The compounds and lists that have been entered, innermost first.
+	 */
+	private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+	/**
+	 * The type of the current tag.
+	 */
+	private Tag.Type type;
+	/**
+	 * The name of the current tag, or null if it is a list element or TAG_End.
+	 */
+	private String name;
+	/**
+	 * Whether the payload of the current tag has not been consumed yet.
+	 */
+	private boolean pending = false;
+	/**
+	 * Whether the root tag has been read.
+	 */
+	private boolean started = false;
+
+	/**
+	 * Constructs a reader over raw, uncompressed NBT data. The reader never reads past the end of the root tag, so the
+	 * stream can go on to be read for whatever follows it; construct it over <code>new NbtInput(is)</code> to read a
+	 * stream that holds nothing else in large blocks.
+	 * @param is The <code>InputStream</code> to read from.
+	 */
+	public NbtReader(InputStream is)
+	{
+		this(new NbtInput(is, true));
+	}
+	/**
+	 * Constructs a reader over raw, uncompressed NBT data read through the given decode context.
+	 * @param input The decode context to read from.
+	 */
+	public NbtReader(NbtInput input)
+	{
+		in = input;
+	}
+
+	/**
+	 * Advances to the next tag, skipping the payload of the current tag if it was not consumed.
+	 * @return The type of the new current tag, or <code>Type.END</code> if the enclosing compound or list (or the document) has ended.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if an unknown tag type is encountered.
+	 */
+	public Tag.Type nextTag() throws IOException, FormatException
+	{
+		if(pending)
+		{
+			skip();
+		}
+		name = null;
+		Frame f = frames.peek();
+		if(f == null)
+		{
+			if(started)
+			{
+				return type = Tag.Type.END;
+			}
+			started = true;
+			return readHeader();
+		}
+		if(f.elements == null)
+		{
+			if(readHeader() == Tag.Type.END)
+			{
+				frames.pop();
+				in.exit();
+			}
+			return type;
+		}
+		if(f.remaining > 0)
+		{
+			--f.remaining;
+			pending = true;
+			return type = f.elements;
+		}
+		frames.pop();
+		in.exit();
+		return type = Tag.Type.END;
+	}
+	/**
+	 * Reads the type and, unless it is TAG_End, the name of a named tag.
+	 * @return The type that was read.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private Tag.Type readHeader() throws IOException
+	{
+		type = readType(in);
+		if(type != Tag.Type.END)
+		{
+			name = in.readName();
+			pending = true;
+		}
+		return type;
+	}
+	/**
+	 * Reads a tag type ID.
+	 * @param in The decode context to read from.
+	 * @return The type corresponding to the ID that was read.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the ID is not a known tag type.
+	 */
+	/*default*/ static Tag.Type readType(NbtInput in) throws IOException, FormatException
+	{
+		final int id = in.readByte();
+		final Tag.Type t = Tag.Type.fromId(id);
+		if(t == null)
+		{
+			throw new FormatException("Unknown tag type: "+id);
+		}
+		return t;
+	}
+
+	/**
+	 * Returns the type of the current tag.
+	 * @return The type of the current tag, or null if <code>nextTag()</code> has not been called yet.
+	 */
+	public Tag.Type type()
+	{
+		return type;
+	}
+	/**
+	 * Returns the name of the current tag.
+	 * @return The name of the current tag, or null if it is a list element or TAG_End.
+	 */
+	public String name()
+	{
+		return name;
+	}
+	/**
+	 * Returns the number of compounds and lists that have been entered and not yet ended.
+	 * @return The current nesting depth, 0 at the root.
+	 */
+	public int depth()
+	{
+		return frames.size();
+	}
+	/**
+	 * Returns the element type of the innermost entered list.
+	 * @return The element type of the innermost entered list, or null if the innermost entered tag is a compound or nothing has been entered.
+	 */
+	public Tag.Type listType()
+	{
+		Frame f = frames.peek();
+		return (f == null ? null : f.elements);
+	}
+
+	/**
+	 * Ensures the current tag is of the given type and has an unconsumed payload, then marks it consumed.
+	 * @param t The required type.
+	 * @throws FormatException if the current tag is of a different type or its payload was already consumed.
+	 */
+	private void consume(Tag.Type t) throws FormatException
+	{
+		if(!pending)
+		{
+			throw new FormatException("There is no unread "+t+" payload at the current position");
+		}
+		if(type != t)
+		{
+			throw new FormatException("Current tag"+(name != null ? " \""+name+"\"" : "")+" is "+type+" instead of "+t);
+		}
+		pending = false;
+	}
+
+	/**
+	 * Enters the current compound tag; subsequent calls to <code>nextTag()</code> visit its children.
+	 * @throws FormatException if the current tag is not an unread compound, or it exceeds the limits of the decode context.
+	 */
+	public void beginCompound() throws FormatException
+	{
+		consume(Tag.Type.COMPOUND);
+		in.enter();
+		frames.push(new Frame(null, 0));
+	}
+	/**
+	 * Enters the current list tag; subsequent calls to <code>nextTag()</code> visit its elements.
+	 * @return The number of elements in the list.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the current tag is not an unread list, the list header is invalid, or the list exceeds the limits of the decode context.
+	 */
+	public int beginList() throws IOException, FormatException
+	{
+		consume(Tag.Type.LIST);
+		final Tag.Type elements = readType(in);
+		final int size = readListLength(in, elements);
+		in.enter();
+		frames.push(new Frame(elements, size));
+		return size;
+	}
+
+	/**
+	 * Reads the payload of the current TAG_Byte.
+	 * @return The value of the byte.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public byte readByte() throws IOException
+	{
+		consume(Tag.Type.BYTE);
+		return in.readByte();
+	}
+	/**
+	 * Reads the payload of the current TAG_Short.
+	 * @return The value of the short.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public short readShort() throws IOException
+	{
+		consume(Tag.Type.SHORT);
+		return in.readShort();
+	}
+	/**
+	 * Reads the payload of the current TAG_Int.
+	 * @return The value of the integer.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public int readInt() throws IOException
+	{
+		consume(Tag.Type.INT);
+		return in.readInt();
+	}
+	/**
+	 * Reads the payload of the current TAG_Long.
+	 * @return The value of the long.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public long readLong() throws IOException
+	{
+		consume(Tag.Type.LONG);
+		return in.readLong();
+	}
+	/**
+	 * Reads the payload of the current TAG_Float.
+	 * @return The value of the float.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public float readFloat() throws IOException
+	{
+		consume(Tag.Type.FLOAT);
+		return in.readFloat();
+	}
+	/**
+	 * Reads the payload of the current TAG_Double.
+	 * @return The value of the double.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public double readDouble() throws IOException
+	{
+		consume(Tag.Type.DOUBLE);
+		return in.readDouble();
+	}
+	/**
+	 * Reads the payload of the current TAG_Byte_Array.
+	 * @return The byte array.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the array size is negative or exceeds the limits of the decode context.
+	 */
+	public byte[] readByteArray() throws IOException, FormatException
+	{
+		consume(Tag.Type.BYTEARRAY);
+		final int size = in.readLength("Byte Array", 1);
+		final byte[] v = new byte[size];
+		in.readFully(v);
+		return v;
+	}
+	/**
+	 * Reads the payload of the current TAG_Int_Array.
+	 * @return The integer array.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the array size is negative or exceeds the limits of the decode context.
+	 */
+	public int[] readIntArray() throws IOException, FormatException
+	{
+		consume(Tag.Type.INTARRAY);
+		final int size = in.readLength("Integer Array", 4);
+		final int[] v = new int[size];
+		in.readFully(v);
+		return v;
+	}
+	/**
+	 * Reads the payload of the current TAG_Long_Array.
+	 * @return The long array.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the array size is negative or exceeds the limits of the decode context.
+	 */
+	public long[] readLongArray() throws IOException, FormatException
+	{
+		consume(Tag.Type.LONGARRAY);
+		final int size = in.readLength("Long Array", 8);
+		final long[] v = new long[size];
+		in.readFully(v);
+		return v;
+	}
+	/**
+	 * Reads the payload of the current TAG_String.
+	 * @return The string.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public String readString() throws IOException
+	{
+		consume(Tag.Type.STRING);
+		return in.readString();
+	}
+	/**
+	 * Materializes the current tag, including all of its children, as a <code>Tag</code>.
+	 * @return The current tag, named with the current name.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public Tag readTag() throws IOException
+	{
+		consume(type);
+		return Tag.deserializePayload(type, name, in);
+	}
+
+	/**
+	 * A tree of tag names built from slash-separated paths, used to select which parts of a tag to materialize.
+	 */
+	private static final class PathFilter
+	{
+		/**
+		 * The filters for the selected children, by name.
+		 */
+		final HashMap<String, PathFilter> children = new HashMap<>();
+		/**
+		 * Whether the whole tag is selected.
+		 */
+		boolean all = false;
+
+		/**
+		 * Builds a filter from the given paths.
+		 * @param paths The slash-separated paths, relative to the tag the filter is applied to.
+		 * @return The filter.
+		 */
+		static PathFilter of(String... paths)
+		{
+			PathFilter root = new PathFilter();
+			for(String path : paths)
+			{
+				PathFilter f = root;
+				for(String n : path.split("/"))
+				{
+					PathFilter c = f.children.get(n);
+					if(c == null)
+					{
+						f.children.put(n, c = new PathFilter());
+					}
+					f = c;
+				}
+				f.all = true;
+			}
+			return root;
+		}
+	}
+	/**
+	 * Materializes only the parts of the current tag selected by the given paths, skipping everything else without decoding it.
+	 * <p>
+	 * Each path is a slash-separated list of child names relative to the current tag, such as <code>"Level/Sections"</code>;
+	 * the tag at the end of a path is materialized with all of its children. Compounds along the way contain only the
+	 * selected children, and a path that passes through a list of compounds is applied to each element of the list.
+	 * <p>
+	 * A current tag that is neither a compound nor a list has no children to select, so it is materialized whole. A
+	 * list whose elements are neither compounds nor lists has no children the paths can select either; it is skipped
+	 * and null is returned, rather than a tag of another type.
+	 * @param paths The paths to materialize.
+	 * @return The filtered tag, named with the current name, or null if the current tag is a list the paths cannot select anything in.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public Tag readFiltered(String... paths) throws IOException
+	{
+		if(!pending)
+		{
+			throw new FormatException("There is no unread payload at the current position");
+		}
+		if(type != Tag.Type.COMPOUND && type != Tag.Type.LIST)
+		{
+			return readTag();
+		}
+		return filter(PathFilter.of(paths));
+	}
+	/**
+	 * Materializes the parts of the current tag selected by the given filter.
+	 * @param f The filter for the current tag.
+	 * @return The filtered tag, or null if the current tag has no children the filter could select.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	private Tag filter(PathFilter f) throws IOException
+	{
+		if(f.all)
+		{
+			return readTag();
+		}
+		switch(type)
+		{
+			case COMPOUND:
+			{
+				Tag.Compound c = new Tag.Compound(name);
+				beginCompound();
+				while(nextTag() != Tag.Type.END)
+				{
+					PathFilter child = f.children.get(name);
+					if(child != null)
+					{
+						Tag t = filter(child);
+						if(t != null)
+						{
+							c.add(t);
+						}
+					}
+				}
+				return c;
+			}
+			case LIST:
+			{
+				final String n = name;
+				beginList();
+				final Tag.Type elements = listType();
+				if(elements != Tag.Type.COMPOUND && elements != Tag.Type.LIST)
+				{
+					while(nextTag() != Tag.Type.END)
+					{
+					}
+					return null;
+				}
+				Tag.List l = new Tag.List(n, elements);
+				while(nextTag() != Tag.Type.END)
+				{
+					Tag t = filter(f);
+					if(t != null)
+					{
+						l.add(t);
+					}
+				}
+				return l;
+			}
+			default:
+			{
+				skip();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Skips the payload of the current tag, including all of its children, without decoding it.
+	 * Does nothing if the payload was already consumed.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public void skip() throws IOException
+	{
+		if(pending)
+		{
+			pending = false;
+			skipPayload(in, type);
+		}
+	}
+	/**
+	 * Skips a payload of the given type by reading only the lengths it contains.
+	 * @param in The decode context to read from.
+	 * @param t The type of the payload.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if a length is negative, an unknown tag type is encountered, or the payload exceeds the limits of the decode context.
+	 */
+	/*default*/ static void skipPayload(NbtInput in, Tag.Type t) throws IOException, FormatException
+	{
+		switch(t)
+		{
+			case END:       return;
+			case BYTE:      in.skip(1); return;
+			case SHORT:     in.skip(2); return;
+			case INT:       in.skip(4); return;
+			case LONG:      in.skip(8); return;
+			case FLOAT:     in.skip(4); return;
+			case DOUBLE:    in.skip(8); return;
+			case BYTEARRAY: in.skip(in.readLength("Byte Array", 1)); return;
+			case STRING:    in.skip(in.readUnsignedShort()); return;
+			case INTARRAY:  in.skip(in.readLength("Integer Array", 4)*4L); return;
+			case LONGARRAY: in.skip(in.readLength("Long Array", 8)*8L); return;
+			case LIST:
+			{
+				final Tag.Type elements = readType(in);
+				final int width = fixedWidth(elements);
+				final int size = readListLength(in, elements);
+				in.enter();
+				if(width >= 0)
+				{
+					in.skip((long)width*size);
+				}
+				else
+				{
+					for(int i = 0; i < size; ++i)
+					{
+						skipPayload(in, elements);
+					}
+				}
+				in.exit();
+				return;
+			}
+			case COMPOUND:
+			{
+				in.enter();
+				Tag.Type child;
+				while((child = readType(in)) != Tag.Type.END)
+				{
+					in.skip(in.readUnsignedShort());
+					skipPayload(in, child);
+				}
+				in.exit();
+				return;
+			}
+			default: throw new IllegalStateException();
+		}
+	}
+	/**
+	 * Returns the payload size in bytes for types whose payloads are always the same size.
+	 * @param t The tag type.
+	 * @return The payload size, or -1 if the payload size varies.
+	 */
+	/*default*/ static int fixedWidth(Tag.Type t)
+	{
+		switch(t)
+		{
+			case END:    return 0;
+			case BYTE:   return 1;
+			case SHORT:  return 2;
+			case INT:    return 4;
+			case LONG:   return 8;
+			case FLOAT:  return 4;
+			case DOUBLE: return 8;
+			default:     return -1;
+		}
+	}
+	/**
+	 * Reads and checks the length of a list whose element type has been read.
+	 * @param in The decode context to read from.
+	 * @param elements The element type of the list.
+	 * @return The length.
+	 * @throws IOException if the input operation generates an exception.
+	 * @throws FormatException if the length is negative or exceeds the limits of the decode context, or the list is a non-empty list of End.
+	 */
+	/*default*/ static int readListLength(NbtInput in, Tag.Type elements) throws IOException, FormatException
+	{
+		final int size = in.readLength("List", minWidth(elements));
+		if(elements == Tag.Type.END && size > 0)
+		{
+			throw new FormatException("List of End has non-zero size: "+size);
+		}
+		return size;
+	}
+	/**
+	 * Returns the smallest payload size in bytes of the given type, which a length prefix is charged for each element.
+	 * @param t The tag type.
+	 * @return The smallest payload size, at least 1.
+	 */
+	/*default*/ static int minWidth(Tag.Type t)
+	{
+		switch(t)
+		{
+			case END:       return 1;
+			case BYTE:      return 1;
+			case SHORT:     return 2;
+			case INT:       return 4;
+			case LONG:      return 8;
+			case FLOAT:     return 4;
+			case DOUBLE:    return 8;
+			case BYTEARRAY: return 4;
+			case STRING:    return 2;
+			case LIST:      return 5;
+			case COMPOUND:  return 1;
+			case INTARRAY:  return 4;
+			case LONGARRAY: return 4;
+			default: throw new IllegalStateException();
+		}
+	}
+	/**
+	 * Closes the underlying decode context and its source stream.
+	 * @throws IOException if the source stream throws an exception when closed.
+	 */
+	@Override public void close() throws IOException
+	{
+		in.close();
+	}
+}
@@ -0,0 +1,414 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A streaming writer that serializes raw, uncompressed NBT data directly without building <code>Tag</code> objects.
+ * <p>
+ * Inside a compound every value must be preceded by a call to <code>name()</code>; inside a list values must not be
+ * named, must be of the list's element type, and there must be exactly as many as were declared in
+ * <code>beginList()</code>. The root tag must be named (usually with the empty string). Violations of this structure
+ * throw an <code>IllegalStateException</code> before anything invalid is written.
+ * <p>
+ * The output is flushed to the underlying stream or buffer once the root tag is complete.
+ * @see Tag#serialize(OutputStream)
+ */
+public class NbtWriter implements Closeable, Flushable
+{
+	/**
+	 * The encode context the NBT data is written to.
+	 */
+	private final NbtOutput out;
+	/**
+	 * A compound or list that has been begun.
+	 */
+	private static final class Frame
+	{
+		/**
+		 * The element type for lists, or null for compounds.
+		 */
+		final Tag.Type elements;
+		/**
+		 * The number of list elements that have not been written yet.
+		 */
+		int remaining;
+		Frame(Tag.Type e, int r)
+		{
+			elements = e;
+			remaining = r;
+		}
+	}
+	/**
+	 * The compounds and lists that have been begun, innermost first.
+	 */
+	private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+	/**
+	 * The name for the next value, or null if no name was given.
+	 */
+	private String name = null;
+	/**
+	 * Whether the root tag has been completely written.
+	 */
+	private boolean complete = false;
+
+	/**
+	 * Constructs a writer that serializes to the given stream.
+	 * @param os The <code>OutputStream</code> to serialize to.
+	 */
+	public NbtWriter(OutputStream os)
+	{
+		this(new NbtOutput(os));
+	}
+	/**
+	 * Constructs a writer that serializes into the given buffer starting at its position.
+	 * @param bb The <code>ByteBuffer</code> to serialize to.
+	 */
+	public NbtWriter(ByteBuffer bb)
+	{
+		this(new NbtOutput(bb));
+	}
+	/**
+	 * Constructs a writer that serializes using the given encode context.
+	 * @param o The encode context to serialize to.
+	 */
+	public NbtWriter(NbtOutput o)
+	{
+		out = o;
+	}
+
+	/**
+	 * Sets the name for the next value written into a compound or as the root.
+	 * @param n The name of the next value, or null when writing list elements.
+	 * @return This writer.
+	 * @throws IllegalStateException if a name is given inside a list.
+	 */
+	public NbtWriter name(String n)
+	{
+		Frame f = frames.peek();
+		if(n != null && f != null && f.elements != null)
+		{
+			throw new IllegalStateException("Tags in Lists must have null names; given name: \""+n+"\"");
+		}
+		name = n;
+		return this;
+	}
+	/**
+	 * Validates that a value of the given type may be written at the current position, and writes its type and name if needed.
+	 * @param t The type of the value.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws IllegalStateException if a value of the given type cannot be written here.
+	 */
+	private void header(Tag.Type t) throws IOException
+	{
+		if(complete)
+		{
+			throw new IllegalStateException("The root tag has already been written");
+		}
+		Frame f = frames.peek();
+		if(f != null && f.elements != null)
+		{
+			if(t != f.elements)
+			{
+				throw new IllegalStateException(f.elements+" required, given "+t);
+			}
+			if(f.remaining == 0)
+			{
+				throw new IllegalStateException("More elements written than declared for list of "+f.elements);
+			}
+			--f.remaining;
+			return;
+		}
+		if(name == null)
+		{
+			throw new IllegalStateException("Tag names cannot be null");
+		}
+		out.writeByte(t.ordinal());
+		out.writeString(name);
+		name = null;
+	}
+	/**
+	 * Completes the root tag if the value just written was the root.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private void written() throws IOException
+	{
+		if(frames.isEmpty())
+		{
+			finish();
+		}
+	}
+	/**
+	 * Marks the root tag as complete and flushes it to the underlying stream.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private void finish() throws IOException
+	{
+		complete = true;
+		out.flush();
+	}
+	/**
+	 * Ends the innermost compound or list and completes the root tag if it was the outermost.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private void pop() throws IOException
+	{
+		frames.pop();
+		written();
+	}
+
+	/**
+	 * Begins a compound tag; its children are written until <code>endCompound()</code> is called.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter beginCompound() throws IOException
+	{
+		header(Tag.Type.COMPOUND);
+		frames.push(new Frame(null, 0));
+		return this;
+	}
+	/**
+	 * Ends the current compound tag.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws IllegalStateException if the innermost begun tag is not a compound.
+	 */
+	public NbtWriter endCompound() throws IOException
+	{
+		Frame f = frames.peek();
+		if(f == null || f.elements != null)
+		{
+			throw new IllegalStateException("There is no compound to end");
+		}
+		out.writeByte(Tag.Type.END.ordinal());
+		name = null;
+		pop();
+		return this;
+	}
+	/**
+	 * Begins a list tag; exactly <code>size</code> unnamed elements must be written before <code>endList()</code> is called.
+	 * @param elements The tag type of the elements.
+	 * @param size The number of elements that will be written.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws IllegalArgumentException if the size is negative, or the element type is null or TAG_End with a non-zero size.
+	 */
+	public NbtWriter beginList(Tag.Type elements, int size) throws IOException
+	{
+		if(elements == null)
+		{
+			throw new IllegalArgumentException("The tag type was null");
+		}
+		if(size < 0 || (elements == Tag.Type.END && size != 0))
+		{
+			throw new IllegalArgumentException("Invalid size for list of "+elements+": "+size);
+		}
+		header(Tag.Type.LIST);
+		out.writeByte(elements.ordinal());
+		out.writeInt(size);
+		frames.push(new Frame(elements, size));
+		return this;
+	}
+	/**
+	 * Ends the current list tag.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws IllegalStateException if the innermost begun tag is not a list or fewer elements were written than declared.
+	 */
+	public NbtWriter endList() throws IOException
+	{
+		Frame f = frames.peek();
+		if(f == null || f.elements == null)
+		{
+			throw new IllegalStateException("There is no list to end");
+		}
+		if(f.remaining != 0)
+		{
+			throw new IllegalStateException(f.remaining+" elements are still missing from list of "+f.elements);
+		}
+		pop();
+		return this;
+	}
+
+	/**
+	 * Writes a TAG_Byte.
+	 * @param v The value of the byte.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeByte(byte v) throws IOException
+	{
+		header(Tag.Type.BYTE);
+		out.writeByte(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Short.
+	 * @param v The value of the short.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeShort(short v) throws IOException
+	{
+		header(Tag.Type.SHORT);
+		out.writeShort(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Int.
+	 * @param v The value of the integer.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeInt(int v) throws IOException
+	{
+		header(Tag.Type.INT);
+		out.writeInt(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Long.
+	 * @param v The value of the long.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeLong(long v) throws IOException
+	{
+		header(Tag.Type.LONG);
+		out.writeLong(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Float.
+	 * @param v The value of the float.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeFloat(float v) throws IOException
+	{
+		header(Tag.Type.FLOAT);
+		out.writeFloat(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Double.
+	 * @param v The value of the double.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeDouble(double v) throws IOException
+	{
+		header(Tag.Type.DOUBLE);
+		out.writeDouble(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Byte_Array straight from the given array without copying it.
+	 * @param v The byte array.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeByteArray(byte[] v) throws IOException
+	{
+		header(Tag.Type.BYTEARRAY);
+		out.writeInt(v.length);
+		out.write(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Int_Array straight from the given array without copying it.
+	 * @param v The integer array.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeIntArray(int[] v) throws IOException
+	{
+		header(Tag.Type.INTARRAY);
+		out.writeInt(v.length);
+		out.writeInts(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_Long_Array straight from the given array without copying it.
+	 * @param v The long array.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeLongArray(long[] v) throws IOException
+	{
+		header(Tag.Type.LONGARRAY);
+		out.writeInt(v.length);
+		out.writeLongs(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes a TAG_String.
+	 * @param v The string.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public NbtWriter writeString(String v) throws IOException
+	{
+		header(Tag.Type.STRING);
+		out.writeString(v);
+		written();
+		return this;
+	}
+	/**
+	 * Writes an existing tag and all of its children. The name given to <code>name()</code> is used instead of the tag's own name.
+	 * @param t The tag to write.
+	 * @return This writer.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws IllegalArgumentException if the tag is a TAG_End.
+	 */
+	public NbtWriter writeTag(Tag t) throws IOException
+	{
+		if(t.getType() == Tag.Type.END)
+		{
+			throw new IllegalArgumentException("Cannot manually write a TAG_End!");
+		}
+		header(t.getType());
+		t.serializePayload(out);
+		written();
+		return this;
+	}
+
+	/**
+	 * Returns whether the root tag has been completely written.
+	 * @return Whether the root tag has been completely written.
+	 */
+	public boolean isComplete()
+	{
+		return complete;
+	}
+	/**
+	 * Flushes buffered output to the underlying stream.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	@Override public void flush() throws IOException
+	{
+		out.flush();
+	}
+	/**
+	 * Flushes buffered output and closes the underlying stream.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	@Override public void close() throws IOException
+	{
+		out.close();
+	}
+}
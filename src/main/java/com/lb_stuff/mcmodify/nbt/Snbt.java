@@ -0,0 +1,837 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Stringified NBT: a compact text form of tags that can be parsed back, such as
+ * <code>{id:"Chest",x:12,Items:[{Slot:0b,Count:3b}]}</code>.
+ * <p>
+ * Bytes, shorts, longs, floats and doubles are written with the suffixes <code>b</code>, <code>s</code>, <code>L</code>,
+ * <code>f</code> and <code>d</code>; ints have no suffix. Arrays are written as <code>[B;1b,2b]</code>,
+ * <code>[I;1,2]</code> and <code>[L;1L,2L]</code>. Strings are always written in double quotes, and names are quoted when
+ * they contain other characters than letters, digits, <code>_</code>, <code>-</code>, <code>.</code> and <code>+</code>.
+ * The parser also accepts single quotes, unquoted strings, whitespace between tokens, upper-case suffixes, doubles
+ * without a suffix and <code>true</code>/<code>false</code> for bytes.
+ * <p>
+ * The text of a tag does not include its own name, and an empty list does not keep its element type, so it is parsed
+ * back as a list of TAG_End. Everything else round-trips exactly, including the NaN and infinite floating point values,
+ * which are written as <code>NaNd</code>, <code>Infinityf</code> and so on.
+ * <p>
+ * Like the binary decoder, the parser enforces the nesting depth and the list and array lengths of an
+ * {@link NbtLimits}, so that hostile text fails with a <code>FormatException</code> instead of exhausting the stack.
+ * @see <a href="http://minecraft.gamepedia.com/Commands#Data_tags">Data tags</a> on the Minecraft Wiki
+ */
+public final class Snbt
+{
+	/**
+	 * Not instantiable.
+	 */
+	private Snbt()
+	{
+	}
+
+	/**
+	 * Returns the SNBT text of a tag.
+	 * @param t The tag.
+	 * @return The SNBT text of the tag, without its name.
+	 */
+	public static String toString(Tag t)
+	{
+		StringBuilder sb = new StringBuilder();
+		try
+		{
+			write(t, sb);
+		}
+		catch(IOException e)
+		{
+			throw new IllegalStateException(e); //StringBuilder does not throw
+		}
+		return sb.toString();
+	}
+	/**
+	 * Writes the SNBT text of a tag. The text is written in a single pass, in time linear in its length.
+	 * @param t The tag.
+	 * @param out Where to write the text, without the name of the tag.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public static void write(Tag t, Appendable out) throws IOException
+	{
+		switch(t.getType())
+		{
+			case BYTE:   integer(((Tag.Byte)t).v, out).append('b'); return;
+			case SHORT:  integer(((Tag.Short)t).v, out).append('s'); return;
+			case INT:    integer(((Tag.Int)t).v, out); return;
+			case LONG:   integer(((Tag.Long)t).v, out).append('L'); return;
+			case FLOAT:  out.append(Float.toString(((Tag.Float)t).v)).append('f'); return;
+			case DOUBLE: out.append(Double.toString(((Tag.Double)t).v)).append('d'); return;
+			case STRING: quote(((Tag.String)t).v, out); return;
+			case END:    throw new IllegalArgumentException("TAG_End has no SNBT form");
+		}
+		if(t instanceof Tag.ByteArray)
+		{
+			Tag.ByteArray a = (Tag.ByteArray)t;
+			out.append("[B;");
+			for(int i = 0; i < a.length(); ++i)
+			{
+				if(i != 0)
+				{
+					out.append(',');
+				}
+				integer(a.get(i), out).append('b');
+			}
+			out.append(']');
+		}
+		else if(t instanceof Tag.IntArray)
+		{
+			Tag.IntArray a = (Tag.IntArray)t;
+			out.append("[I;");
+			for(int i = 0; i < a.length(); ++i)
+			{
+				if(i != 0)
+				{
+					out.append(',');
+				}
+				integer(a.get(i), out);
+			}
+			out.append(']');
+		}
+		else if(t instanceof Tag.LongArray)
+		{
+			Tag.LongArray a = (Tag.LongArray)t;
+			out.append("[L;");
+			for(int i = 0; i < a.length(); ++i)
+			{
+				if(i != 0)
+				{
+					out.append(',');
+				}
+				integer(a.get(i), out).append('L');
+			}
+			out.append(']');
+		}
+		else if(t instanceof Tag.List)
+		{
+			writeList((Tag.List)t, out);
+		}
+		else
+		{
+			out.append('{');
+			boolean first = true;
+			for(Tag c : (Tag.Compound)t)
+			{
+				if(!first)
+				{
+					out.append(',');
+				}
+				first = false;
+				name(c.getName(), out);
+				out.append(':');
+				write(c, out);
+			}
+			out.append('}');
+		}
+	}
+	/**
+	 * Writes the SNBT text of a list. Lists kept in primitive form are written without boxing their elements.
+	 * @param l The list.
+	 * @param out Where to write the text.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private static void writeList(Tag.List l, Appendable out) throws IOException
+	{
+		out.append('[');
+		final int size = l.getSize();
+		final boolean primitive = l.isPrimitive();
+		for(int i = 0; i < size; ++i)
+		{
+			if(i != 0)
+			{
+				out.append(',');
+			}
+			if(!primitive)
+			{
+				write(l.get(i), out);
+			}
+			else if(l.getContainedType() == Tag.Type.DOUBLE)
+			{
+				out.append(Double.toString(l.getDouble(i))).append('d');
+			}
+			else if(l.getContainedType() == Tag.Type.FLOAT)
+			{
+				out.append(Float.toString(l.getFloat(i))).append('f');
+			}
+			else
+			{
+				integer(l.getInt(i), out);
+			}
+		}
+		out.append(']');
+	}
+	/**
+	 * Writes an integer, directly into the builder when the output is a <code>StringBuilder</code>.
+	 * @param v The integer.
+	 * @param out Where to write the integer.
+	 * @return <code>out</code>.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private static Appendable integer(long v, Appendable out) throws IOException
+	{
+		if(out instanceof StringBuilder)
+		{
+			return ((StringBuilder)out).append(v);
+		}
+		return out.append(Long.toString(v));
+	}
+	/**
+	 * Writes a name, quoting it only if it is not a valid bare word.
+	 * @param n The name.
+	 * @param out Where to write the name.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private static void name(String n, Appendable out) throws IOException
+	{
+		boolean bare = !n.isEmpty();
+		for(int i = 0; bare && i < n.length(); ++i)
+		{
+			bare = isBare(n.charAt(i));
+		}
+		if(bare)
+		{
+			out.append(n);
+		}
+		else
+		{
+			quote(n, out);
+		}
+	}
+	/**
+	 * Writes a string in double quotes, escaping backslashes, double quotes and line breaks.
+	 * @param s The string.
+	 * @param out Where to write the string.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	private static void quote(String s, Appendable out) throws IOException
+	{
+		out.append('"');
+		int start = 0;
+		for(int i = 0; i < s.length(); ++i)
+		{
+			final char c = s.charAt(i);
+			final String escape = c == '"' ? "\\\"" : c == '\\' ? "\\\\" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : c == '\t' ? "\\t" : null;
+			if(escape != null)
+			{
+				out.append(s, start, i).append(escape);
+				start = i + 1;
+			}
+		}
+		out.append(s, start, s.length()).append('"');
+	}
+	/**
+	 * Returns whether a character may appear in a bare word.
+	 * @param c The character.
+	 * @return Whether the character may appear in a bare word.
+	 */
+	private static boolean isBare(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '.' || c == '+';
+	}
+
+	/**
+	 * Parses SNBT text into a tag, within the default limits.
+	 * @param name The name to give the tag.
+	 * @param snbt The text of a single tag, optionally surrounded by whitespace.
+	 * @return The tag.
+	 * @throws FormatException if the text is not valid SNBT or exceeds {@link NbtLimits#DEFAULT}.
+	 */
+	public static Tag parse(String name, CharSequence snbt) throws FormatException
+	{
+		return parse(name, snbt, NbtLimits.DEFAULT);
+	}
+	/**
+	 * Parses SNBT text into a tag. The byte limit does not apply to text.
+	 * @param name The name to give the tag.
+	 * @param snbt The text of a single tag, optionally surrounded by whitespace.
+	 * @param limits The greatest nesting depth and list and array length to accept.
+	 * @return The tag.
+	 * @throws FormatException if the text is not valid SNBT or exceeds the limits.
+	 * @throws IllegalArgumentException if <code>limits</code> is null.
+	 */
+	public static Tag parse(String name, CharSequence snbt, NbtLimits limits) throws FormatException, IllegalArgumentException
+	{
+		if(limits == null)
+		{
+			throw new IllegalArgumentException("Limits cannot be null");
+		}
+		Parser p = new Parser(snbt, limits);
+		Tag t = p.value(name);
+		p.skipWhitespace();
+		if(p.pos != snbt.length())
+		{
+			throw p.error("Unexpected trailing text");
+		}
+		return t;
+	}
+
+	/**
+	 * A recursive descent parser over SNBT text.
+	 */
+	private static final class Parser
+	{
+		/**
+		 * The text being parsed.
+		 */
+		private final CharSequence s;
+		/**
+		 * The index of the next character.
+		 */
+		private int pos = 0;
+		/**
+		 * Reused to collect the characters of quoted strings.
+		 */
+		private final StringBuilder sb = new StringBuilder();
+		/**
+		 * The limits on nesting and length.
+		 */
+		private final NbtLimits limits;
+		/**
+		 * The number of compounds and lists the parser is inside of.
+		 */
+		private int depth = 0;
+		/**
+		 * Constructs a parser.
+		 * @param text The text to parse.
+		 * @param limits The limits on nesting and length.
+		 */
+		Parser(CharSequence text, NbtLimits limits)
+		{
+			s = text;
+			this.limits = limits;
+		}
+		/**
+		 * Enters a compound or list, checking the nesting depth against the limits.
+		 * @throws FormatException if the compound or list is nested too deeply.
+		 */
+		private void enter() throws FormatException
+		{
+			if(++depth > limits.getMaxDepth())
+			{
+				throw error("SNBT is nested deeper than "+limits.getMaxDepth()+" levels");
+			}
+		}
+		/**
+		 * Checks the number of elements of a list or array against the limits.
+		 * @param n The number of elements.
+		 * @throws FormatException if there are too many elements.
+		 */
+		private void checkLength(int n) throws FormatException
+		{
+			if(n > limits.getMaxLength())
+			{
+				throw error("SNBT list or array is longer than "+limits.getMaxLength()+" elements");
+			}
+		}
+		/**
+		 * Parses a tag.
+		 * @param name The name to give the tag.
+		 * @return The tag.
+		 * @throws FormatException if there is no valid tag.
+		 */
+		Tag value(String name) throws FormatException
+		{
+			final char c = peek();
+			if(c == '{')
+			{
+				return compound(name);
+			}
+			if(c == '[')
+			{
+				return list(name);
+			}
+			if(c == '"' || c == '\'')
+			{
+				return new Tag.String(name, quoted());
+			}
+			final String word = bare();
+			if(word.isEmpty())
+			{
+				throw error("Expected a value");
+			}
+			Tag t = scalar(name, word);
+			if(t == null)
+			{
+				return new Tag.String(name, word);
+			}
+			return t;
+		}
+		/**
+		 * Parses a compound after skipping whitespace.
+		 * @param name The name to give the compound.
+		 * @return The compound.
+		 * @throws FormatException if there is no valid compound.
+		 */
+		private Tag.Compound compound(String name) throws FormatException
+		{
+			expect('{');
+			enter();
+			Tag.Compound c = new Tag.Compound(name);
+			if(peek() == '}')
+			{
+				++pos;
+				--depth;
+				return c;
+			}
+			do
+			{
+				final int start = pos;
+				final char q = peek();
+				final String key = q == '"' || q == '\'' ? quoted() : bare();
+				if(key.isEmpty())
+				{
+					throw error("Expected a name");
+				}
+				expect(':');
+				if(c.get(key) != null)
+				{
+					pos = start;
+					throw error("Duplicate name \""+key+"\"");
+				}
+				c.add(value(key));
+			}
+			while(comma());
+			expect('}');
+			--depth;
+			return c;
+		}
+		/**
+		 * Parses a list or an array after skipping whitespace.
+		 * @param name The name to give the tag.
+		 * @return The list or array.
+		 * @throws FormatException if there is no valid list or array.
+		 */
+		private Tag list(String name) throws FormatException
+		{
+			expect('[');
+			if(pos + 1 < s.length() && s.charAt(pos + 1) == ';')
+			{
+				final char kind = s.charAt(pos);
+				pos += 2;
+				if(kind == 'B')
+				{
+					return new Tag.ByteArray(name, bytes());
+				}
+				if(kind == 'I')
+				{
+					return new Tag.IntArray(name, ints());
+				}
+				if(kind == 'L')
+				{
+					return new Tag.LongArray(name, longs());
+				}
+				pos -= 2;
+				throw error("Unknown array type '"+kind+"'");
+			}
+			enter();
+			if(peek() == ']')
+			{
+				++pos;
+				--depth;
+				return new Tag.List(name, Tag.Type.END);
+			}
+			ArrayList<Tag> elements = new ArrayList<>();
+			Tag.Type type = null;
+			do
+			{
+				final int start = pos;
+				Tag t = value(null);
+				if(type == null)
+				{
+					type = t.getType();
+				}
+				else if(t.getType() != type)
+				{
+					pos = start;
+					throw error("List of "+type+" cannot hold "+t.getType());
+				}
+				elements.add(t);
+				checkLength(elements.size());
+			}
+			while(comma());
+			expect(']');
+			--depth;
+			return new Tag.List(name, type, elements.toArray(new Tag[elements.size()]));
+		}
+		/**
+		 * Parses the elements of a byte array up to the closing bracket.
+		 * @return The elements.
+		 * @throws FormatException if an element is not a byte.
+		 */
+		private byte[] bytes() throws FormatException
+		{
+			byte[] a = new byte[16];
+			int n = 0;
+			if(peek() != ']')
+			{
+				do
+				{
+					checkLength(n + 1);
+					if(n == a.length)
+					{
+						a = Arrays.copyOf(a, n*2);
+					}
+					a[n++] = (byte)number(Tag.Type.BYTE, 'b', Byte.MIN_VALUE, Byte.MAX_VALUE);
+				}
+				while(comma());
+			}
+			expect(']');
+			return Arrays.copyOf(a, n);
+		}
+		/**
+		 * Parses the elements of an int array up to the closing bracket.
+		 * @return The elements.
+		 * @throws FormatException if an element is not an int.
+		 */
+		private int[] ints() throws FormatException
+		{
+			int[] a = new int[16];
+			int n = 0;
+			if(peek() != ']')
+			{
+				do
+				{
+					checkLength(n + 1);
+					if(n == a.length)
+					{
+						a = Arrays.copyOf(a, n*2);
+					}
+					a[n++] = (int)number(Tag.Type.INT, '\0', Integer.MIN_VALUE, Integer.MAX_VALUE);
+				}
+				while(comma());
+			}
+			expect(']');
+			return Arrays.copyOf(a, n);
+		}
+		/**
+		 * Parses the elements of a long array up to the closing bracket.
+		 * @return The elements.
+		 * @throws FormatException if an element is not a long.
+		 */
+		private long[] longs() throws FormatException
+		{
+			long[] a = new long[16];
+			int n = 0;
+			if(peek() != ']')
+			{
+				do
+				{
+					checkLength(n + 1);
+					if(n == a.length)
+					{
+						a = Arrays.copyOf(a, n*2);
+					}
+					a[n++] = number(Tag.Type.LONG, 'l', Long.MIN_VALUE, Long.MAX_VALUE);
+				}
+				while(comma());
+			}
+			expect(']');
+			return Arrays.copyOf(a, n);
+		}
+		/**
+		 * Parses an array element, scanning plain decimal integers directly and falling back to <code>element</code>
+		 * for anything else.
+		 * @param type The required type.
+		 * @param suffix The lower-case suffix the type requires, or <code>'\0'</code> if it has none.
+		 * @param min The smallest value of the type.
+		 * @param max The largest value of the type.
+		 * @return The value of the element.
+		 * @throws FormatException if there is no number of the given type.
+		 */
+		private long number(Tag.Type type, char suffix, long min, long max) throws FormatException
+		{
+			skipWhitespace();
+			int i = pos;
+			final boolean negative = i < s.length() && s.charAt(i) == '-';
+			if(negative || (i < s.length() && s.charAt(i) == '+'))
+			{
+				++i;
+			}
+			final int first = i;
+			long v = 0;
+			for(char c; i < s.length() && i - first < 18 && (c = s.charAt(i)) >= '0' && c <= '9'; ++i)
+			{
+				v = v*10 + (c - '0');
+			}
+			if(i > first && suffix != '\0' && i < s.length() && Character.toLowerCase(s.charAt(i)) == suffix)
+			{
+				++i;
+			}
+			else if(suffix != '\0')
+			{
+				i = first;
+			}
+			v = negative ? -v : v;
+			if(i > first && (i == s.length() || !isBare(s.charAt(i))) && v >= min && v <= max)
+			{
+				pos = i;
+				return v;
+			}
+			Tag t = element(type);
+			if(t instanceof Tag.Byte)
+			{
+				return ((Tag.Byte)t).v;
+			}
+			if(t instanceof Tag.Int)
+			{
+				return ((Tag.Int)t).v;
+			}
+			return ((Tag.Long)t).v;
+		}
+		/**
+		 * Parses a bare number of the given type.
+		 * @param type The required type.
+		 * @return The number.
+		 * @throws FormatException if there is no number of the given type.
+		 */
+		private Tag element(Tag.Type type) throws FormatException
+		{
+			skipWhitespace();
+			final int start = pos;
+			Tag t = scalar(null, bare());
+			if(t == null || t.getType() != type)
+			{
+				pos = start;
+				throw error("Expected a "+type);
+			}
+			return t;
+		}
+		/**
+		 * Interprets a bare word as a number or a boolean.
+		 * @param name The name to give the tag.
+		 * @param w The word.
+		 * @return The tag, or null if the word is not a number or a boolean and so is a string.
+		 */
+		private static Tag scalar(String name, String w)
+		{
+			if(w.equals("true") || w.equals("false"))
+			{
+				return new Tag.Byte(name, (byte)(w.equals("true") ? 1 : 0));
+			}
+			final char suffix = Character.toLowerCase(w.charAt(w.length() - 1));
+			final String body = w.substring(0, w.length() - 1);
+			try
+			{
+				if(suffix == 'b' && isInteger(body))
+				{
+					return new Tag.Byte(name, Byte.parseByte(body));
+				}
+				if(suffix == 's' && isInteger(body))
+				{
+					return new Tag.Short(name, Short.parseShort(body));
+				}
+				if(suffix == 'l' && isInteger(body))
+				{
+					return new Tag.Long(name, Long.parseLong(body));
+				}
+				if(suffix == 'f' && (isDecimal(body) || isSpecial(body)))
+				{
+					return new Tag.Float(name, Float.parseFloat(body));
+				}
+				if(suffix == 'd' && (isDecimal(body) || isSpecial(body)))
+				{
+					return new Tag.Double(name, Double.parseDouble(body));
+				}
+				if(isInteger(w))
+				{
+					return new Tag.Int(name, Integer.parseInt(w));
+				}
+				if(isDecimal(w))
+				{
+					return new Tag.Double(name, Double.parseDouble(w));
+				}
+			}
+			catch(NumberFormatException e)
+			{
+				//out of range, so it is a string
+			}
+			return null;
+		}
+		/**
+		 * Returns whether a word is an optionally signed sequence of decimal digits.
+		 * @param w The word.
+		 * @return Whether the word is an integer.
+		 */
+		private static boolean isInteger(String w)
+		{
+			final int start = w.startsWith("-") || w.startsWith("+") ? 1 : 0;
+			return w.length() > start && digits(w, start) == w.length();
+		}
+		/**
+		 * Returns whether a word is an optionally signed decimal number with an optional fraction and exponent.
+		 * @param w The word.
+		 * @return Whether the word is a decimal number.
+		 */
+		private static boolean isDecimal(String w)
+		{
+			int i = w.startsWith("-") || w.startsWith("+") ? 1 : 0;
+			int end = digits(w, i);
+			boolean any = end > i;
+			i = end;
+			if(i < w.length() && w.charAt(i) == '.')
+			{
+				end = digits(w, ++i);
+				any |= end > i;
+				i = end;
+			}
+			if(any && i < w.length() && (w.charAt(i) == 'e' || w.charAt(i) == 'E'))
+			{
+				++i;
+				if(i < w.length() && (w.charAt(i) == '-' || w.charAt(i) == '+'))
+				{
+					++i;
+				}
+				end = digits(w, i);
+				if(end == i)
+				{
+					return false;
+				}
+				i = end;
+			}
+			return any && i == w.length();
+		}
+		/**
+		 * Returns whether a word is NaN or an optionally signed infinity.
+		 * @param w The word.
+		 * @return Whether the word is a special floating point value.
+		 */
+		private static boolean isSpecial(String w)
+		{
+			return w.equals("NaN") || w.equals("Infinity") || w.equals("-Infinity") || w.equals("+Infinity");
+		}
+		/**
+		 * Returns the index of the first character at or after the given index that is not a decimal digit.
+		 * @param w The word.
+		 * @param i The index to start at.
+		 * @return The index after the digits.
+		 */
+		private static int digits(String w, int i)
+		{
+			while(i < w.length() && w.charAt(i) >= '0' && w.charAt(i) <= '9')
+			{
+				++i;
+			}
+			return i;
+		}
+		/**
+		 * Parses a bare word after skipping whitespace.
+		 * @return The word, which is empty if there is none.
+		 */
+		private String bare()
+		{
+			skipWhitespace();
+			final int start = pos;
+			while(pos < s.length() && isBare(s.charAt(pos)))
+			{
+				++pos;
+			}
+			return s.subSequence(start, pos).toString();
+		}
+		/**
+		 * Parses a single or double quoted string after skipping whitespace. Backslash escapes the quote, the
+		 * backslash and the letters <code>n</code>, <code>r</code> and <code>t</code>.
+		 * @return The string.
+		 * @throws FormatException if the string is not terminated or has an unknown escape.
+		 */
+		private String quoted() throws FormatException
+		{
+			skipWhitespace();
+			final char q = s.charAt(pos++);
+			sb.setLength(0);
+			while(pos < s.length())
+			{
+				char c = s.charAt(pos++);
+				if(c == q)
+				{
+					return sb.toString();
+				}
+				if(c == '\\' && pos < s.length())
+				{
+					c = s.charAt(pos++);
+					if(c == 'n')
+					{
+						c = '\n';
+					}
+					else if(c == 'r')
+					{
+						c = '\r';
+					}
+					else if(c == 't')
+					{
+						c = '\t';
+					}
+					else if(c != '\\' && c != '"' && c != '\'')
+					{
+						--pos;
+						throw error("Unknown escape '\\"+c+"'");
+					}
+				}
+				sb.append(c);
+			}
+			throw error("Unterminated string");
+		}
+		/**
+		 * Consumes a comma if the next character is one.
+		 * @return Whether there was a comma.
+		 */
+		private boolean comma()
+		{
+			if(peek() == ',')
+			{
+				++pos;
+				return true;
+			}
+			return false;
+		}
+		/**
+		 * Skips whitespace.
+		 */
+		void skipWhitespace()
+		{
+			while(pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+			{
+				++pos;
+			}
+		}
+		/**
+		 * Returns the next character after skipping whitespace, without consuming it.
+		 * @return The next character, or 0 at the end of the text.
+		 */
+		private char peek()
+		{
+			skipWhitespace();
+			return pos < s.length() ? s.charAt(pos) : 0;
+		}
+		/**
+		 * Consumes the given character after skipping whitespace.
+		 * @param c The expected character.
+		 * @throws FormatException if the next character is different.
+		 */
+		private void expect(char c) throws FormatException
+		{
+			if(peek() != c)
+			{
+				throw error("Expected '"+c+"'");
+			}
+			++pos;
+		}
+		/**
+		 * Creates the exception for a syntax error at the current position.
+		 * @param message The description of the error.
+		 * @return The exception.
+		 */
+		FormatException error(String message)
+		{
+			return new FormatException(message+" at index "+pos+" of SNBT text");
+		}
+	}
+}
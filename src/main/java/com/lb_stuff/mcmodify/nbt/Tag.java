@@ -1,18 +1,15 @@
 package com.lb_stuff.mcmodify.nbt;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
-
-import java.lang.reflect.InvocationTargetException;
+import java.util.Optional;
 
 /**
  * The main class used by this NBT package, its static subclasses extend and implement it. The equals() and hashCode() methods are based entirely on the name of the tag.
@@ -34,41 +31,131 @@ public abstract class Tag implements Cloneable
 		name = _name;
 	}
 
+	/**
+	 * Deserializes a single named tag, including its type and name, from raw uncompressed NBT data.
+	 * <p>
+	 * Exactly the bytes of the tag are read, so the stream can go on to be read for whatever follows it. When the
+	 * stream holds nothing else, <code>deserialize(new NbtInput(is))</code> reads it faster, in large blocks.
+	 * @param is The <code>InputStream</code> to deserialize from.
+	 * @return The deserialized tag, or an End tag if the type read was TAG_End.
+	 * @throws IOException if the input operation generates an exception.
+	 * @see #deserialize(NbtInput)
+	 */
 	public static Tag deserialize(InputStream is) throws IOException
 	{
-		DataInputStream dis = new DataInputStream(is);
-		final Type type = Type.fromId(dis.readByte());
+		return deserialize(new NbtInput(is, true));
+	}
+	/**
+	 * Deserializes a single named tag, including its type and name, from raw uncompressed NBT data in the given buffer,
+	 * e.g. a memory-mapped region sector. Heap buffers are decoded in place without copying; afterward the buffer's
+	 * position is just past the end of the tag.
+	 * @param bb The <code>ByteBuffer</code> to deserialize from.
+	 * @return The deserialized tag, or an End tag if the type read was TAG_End.
+	 * @throws IOException if the input operation generates an exception, including an <code>EOFException</code> if the buffer ends before the tag does.
+	 */
+	public static Tag deserialize(ByteBuffer bb) throws IOException
+	{
+		try(NbtInput in = new NbtInput(bb))
+		{
+			return deserialize(in);
+		}
+	}
+	/**
+	 * Deserializes a single named tag like <code>deserialize(ByteBuffer)</code>, but decodes compounds lazily: a compound
+	 * keeps a reference to its raw payload in the buffer, indexes the offsets of its children the first time one is
+	 * asked for, and decodes only the children that are asked for. A lazy compound that is serialized without having
+	 * been changed copies its raw payload. Iterating over or changing a lazy compound decodes all of its children.
+	 * Byte and integer arrays are views of the buffer, which are copied only when changed or asked for with <code>array()</code>.
+	 * <p>
+	 * The tags reference the buffer's backing array, which must not be changed while they are in use. Direct and
+	 * read-only buffers are copied to a heap buffer first. Unlike eagerly decoded tags, lazy compounds are not safe to
+	 * read from several threads at once.
+	 * @param bb The <code>ByteBuffer</code> to deserialize from.
+	 * @return The deserialized tag, or an End tag if the type read was TAG_End.
+	 * @throws IOException if the input operation generates an exception, including an <code>EOFException</code> if the buffer ends before the tag does.
+	 */
+	public static Tag deserializeLazy(ByteBuffer bb) throws IOException
+	{
+		if(!bb.hasArray())
+		{
+			ByteBuffer copy = ByteBuffer.allocate(bb.remaining());
+			copy.put(bb.duplicate()).flip();
+			Tag t = deserializeLazy(copy);
+			bb.position(bb.position() + copy.position());
+			return t;
+		}
+		try(NbtInput in = new NbtInput(bb).lazy())
+		{
+			return deserialize(in);
+		}
+	}
+	/**
+	 * Deserializes a single named tag, including its type and name, using the given decode context. A context
+	 * constructed over a stream reads it in large blocks and so may read ahead of the end of the tag.
+	 * @param in The decode context to deserialize from.
+	 * @return The deserialized tag, or an End tag if the type read was TAG_End.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	public static Tag deserialize(NbtInput in) throws IOException
+	{
+		final int id = in.readByte();
+		final Type type = Type.fromId(id);
+		if(type == null)
+		{
+			throw new FormatException("Unknown tag type: "+id);
+		}
 		if(type == Type.END)
 		{
 			return new End();
 		}
-		final java.lang.String name = readString(dis);
-		switch(type)
+		return deserializePayload(type, in.readName(), in);
+	}
+	/**
+	 * Deserializes a single named tag, materializing only the parts selected by the given paths and skipping the rest without decoding it.
+	 * <p>
+	 * Paths are slash-separated and relative to the deserialized tag, e.g. <code>"Level/xPos"</code> or <code>"Level/Sections"</code>.
+	 * Exactly the bytes of the tag are read from the stream.
+	 * @param is The <code>InputStream</code> to deserialize from.
+	 * @param paths The paths to materialize.
+	 * @return The filtered tag, an End tag if the type read was TAG_End, or null if the tag is a list the paths cannot select anything in.
+	 * @throws IOException if the input operation generates an exception.
+	 * @see NbtReader#readFiltered(java.lang.String...)
+	 */
+	public static Tag deserialize(InputStream is, java.lang.String... paths) throws IOException
+	{
+		NbtReader r = new NbtReader(is);
+		if(r.nextTag() == Type.END)
 		{
-			case BYTE:      return new Byte(name, is);
-			case SHORT:     return new Short(name, is);
-			case INT:       return new Int(name, is);
-			case LONG:      return new Long(name, is);
-			case FLOAT:     return new Float(name, is);
-			case DOUBLE:    return new Double(name, is);
-			case BYTEARRAY: return new ByteArray(name, is);
-			case STRING:    return new String(name, is);
-			case LIST:      return new List(name, is);
-			case COMPOUND:  return new Compound(name, is);
-			case INTARRAY:  return new IntArray(name, is);
-			default: throw new IllegalStateException();
+			return new End();
 		}
+		return r.readFiltered(paths);
 	}
-	private static java.lang.String readString(DataInputStream dis) throws IOException
+	/**
+	 * Deserializes the payload of a tag whose type and name have already been read. This is the single type dispatch used for named tags and list elements alike.
+	 * @param type The type of the tag.
+	 * @param name The name of the tag, or null if it is in a list.
+	 * @param in The decode context to deserialize the payload from.
+	 * @return The deserialized tag.
+	 * @throws IOException if the input operation generates an exception.
+	 */
+	/*default*/ static Tag deserializePayload(Type type, java.lang.String name, NbtInput in) throws IOException
 	{
-		short length = dis.readShort();
-		if(length < 0)
+		switch(type)
 		{
-			throw new FormatException("String length was negative: "+length);
+			case BYTE:      return new Byte(name, in);
+			case SHORT:     return new Short(name, in);
+			case INT:       return new Int(name, in);
+			case LONG:      return new Long(name, in);
+			case FLOAT:     return new Float(name, in);
+			case DOUBLE:    return new Double(name, in);
+			case BYTEARRAY: return new ByteArray(name, in);
+			case STRING:    return new String(name, in);
+			case LIST:      return new List(name, in);
+			case COMPOUND:  return in.isLazy() ? new Compound(name, in, -1) : new Compound(name, in);
+			case INTARRAY:  return new IntArray(name, in);
+			case LONGARRAY: return new LongArray(name, in);
+			default: throw new IllegalStateException();
 		}
-		byte[] str = new byte[length];
-		dis.readFully(str);
-		return new java.lang.String(str, UTF8);
 	}
 
 	/**
@@ -92,7 +179,8 @@ public abstract class Tag implements Cloneable
 		STRING,
 		LIST,
 		COMPOUND,
-		INTARRAY;
+		INTARRAY,
+		LONGARRAY;
 
 		/**
 		 * Converts an integer ordinal to a tag type.
@@ -116,6 +204,7 @@ public abstract class Tag implements Cloneable
 				case 9:  return LIST;
 				case 10: return COMPOUND;
 				case 11: return INTARRAY;
+				case 12: return LONGARRAY;
 				default: return null;
 			}
 		}
@@ -139,6 +228,7 @@ public abstract class Tag implements Cloneable
 				case LIST:      return List.class;
 				case COMPOUND:  return Compound.class;
 				case INTARRAY:  return IntArray.class;
+				case LONGARRAY: return LongArray.class;
 				default: throw new IllegalStateException();
 			}
 		}
@@ -153,6 +243,7 @@ public abstract class Tag implements Cloneable
 			{
 				case BYTEARRAY: return"Byte Array";
 				case INTARRAY: return"Int Array";
+				case LONGARRAY: return"Long Array";
 				default: return getImplementingClass().getSimpleName();
 			}
 		}
@@ -170,15 +261,99 @@ public abstract class Tag implements Cloneable
 	 */
 	public final void serialize(OutputStream os) throws IOException
 	{
-		preSerialize(os);
-		serializePayload(os);
+		NbtOutput out = new NbtOutput(os);
+		serialize(out);
+		out.flush();
+	}
+	/**
+	 * Serializes raw, uncompressed NBT data into the given buffer starting at its position, and advances the position
+	 * past the written data. Heap buffers are written in place; use <code>serializedSize()</code> to allocate a buffer of
+	 * the right size.
+	 * @param bb The <code>ByteBuffer</code> to serialize to.
+	 * @throws IOException if the output operation generates an exception.
+	 * @throws java.nio.BufferOverflowException if the tag does not fit in the buffer's remaining space.
+	 */
+	public final void serialize(ByteBuffer bb) throws IOException
+	{
+		NbtOutput out = new NbtOutput(bb);
+		serialize(out);
+		out.flush();
+	}
+	/**
+	 * Serializes raw, uncompressed NBT data using the given encode context. The data may remain buffered in the context until it is flushed.
+	 * @param out The encode context to serialize to.
+	 * @throws IOException if the output operation generates an exception.
+	 */
+	public final void serialize(NbtOutput out) throws IOException
+	{
+		preSerialize(out);
+		serializePayload(out);
 	}
 	/**
 	 * The polymorphic method used to serialize only the tag's payload.
-	 * @param os The <code>OutputStream</code> to serialize to.
+	 * @param o The encode context to serialize to.
 	 * @throws IOException if the output operation generates an exception.
 	 */
-	protected abstract void serializePayload(OutputStream os) throws IOException;
+	protected abstract void serializePayload(NbtOutput o) throws IOException;
+	/**
+	 * Returns the exact number of bytes <code>serialize()</code> writes for this tag, including its type and name, without serializing it.
+	 * @return The serialized size of this tag in bytes.
+	 */
+	public final int serializedSize()
+	{
+		return 1 + (name != null ? NbtOutput.stringSize(name) : 0) + payloadSize();
+	}
+	/**
+	 * The polymorphic method used to compute the serialized size of only the tag's payload.
+	 * @return The serialized size of the payload in bytes.
+	 */
+	protected abstract int payloadSize();
+	/**
+	 * Returns the content hash of this tag, which covers its type, name and payload but not the order of the tags in
+	 * compounds. It is equal to the content hash of the serialized tag, so it can be compared to one computed while reading.
+	 * @return The content hash of this tag.
+	 * @see ContentHash
+	 */
+	public final long contentHash()
+	{
+		ContentHash h = new ContentHash();
+		h.putByte(getType().ordinal());
+		if(name != null)
+		{
+			h.putString(name);
+		}
+		hashPayload(h);
+		return h.finish();
+	}
+	/**
+	 * The polymorphic method used to add only the tag's payload to a content hash.
+	 * @param h The content hash to add the payload to.
+	 */
+	protected abstract void hashPayload(ContentHash h);
+	/**
+	 * Returns whether the given tag has the same type, name and contents as this tag, comparing the tags in compounds by name regardless of their order.
+	 * Unlike <code>equals</code>, which only compares names, this compares the whole tree.
+	 * @param t The tag to compare to.
+	 * @return Whether the given tag has the same type, name and contents.
+	 */
+	public final boolean contentEquals(Tag t)
+	{
+		if(t == this)
+		{
+			return true;
+		}
+		if(t == null || t.getType() != getType() || !(name == null ? t.name == null : name.equals(t.name)))
+		{
+			return false;
+		}
+		return payloadEquals(t);
+	}
+	/**
+	 * The polymorphic method used to compare only the tag's payload.
+	 * @param t The tag to compare to, which is of the same type as this tag.
+	 * @return Whether the given tag has the same payload.
+	 */
+	protected abstract boolean payloadEquals(Tag t);
 	/**
 	 * Represents the UTF-8 <code>Charset</code>.
 	 */
@@ -200,15 +375,15 @@ public abstract class Tag implements Cloneable
 	}
 	/**
 	 * The method used to serialize the type and name of a tag.
-	 * @param os The <code>OutputStream</code> to serialize to.
+	 * @param out The encode context to serialize to.
 	 * @throws IOException if the output operation generates an exception.
 	 */
-	private void preSerialize(OutputStream os) throws IOException
+	private void preSerialize(NbtOutput out) throws IOException
 	{
-		os.write((byte)getType().ordinal());
+		out.writeByte(getType().ordinal());
 		if(name != null)
 		{
-			new String(null, name).serializePayload(os);
+			out.writeString(name);
 		}
 	}
 
@@ -217,6 +392,45 @@ public abstract class Tag implements Cloneable
 	 * @return A visual, text-based representation of this tag.
 	 */
 	@Override public abstract java.lang.String toString();
+	/**
+	 * Appends the same text as <code>toString()</code> to the given builder, with every line after the first indented by
+	 * the given number of tabs. Lists and compounds override this to append their tags in place, so that the text of a
+	 * deeply nested tree is built in a single pass.
+	 * @param sb The builder to append to.
+	 * @param depth The number of tabs to indent every line after the first with.
+	 */
+	/*default*/ void appendTo(StringBuilder sb, int depth)
+	{
+		appendIndented(sb, toString(), depth);
+	}
+	/**
+	 * Appends a string to the given builder, following each line break in it with the given number of tabs.
+	 * @param sb The builder to append to.
+	 * @param s The string to append.
+	 * @param depth The number of tabs to follow each line break with.
+	 */
+	/*default*/ static void appendIndented(StringBuilder sb, java.lang.String s, int depth)
+	{
+		int start = 0;
+		for(int end; (end = s.indexOf('\n', start)) >= 0; start = end + 1)
+		{
+			sb.append(s, start, end + 1);
+			appendTabs(sb, depth);
+		}
+		sb.append(s, start, s.length());
+	}
+	/**
+	 * Appends the given number of tabs to the given builder.
+	 * @param sb The builder to append to.
+	 * @param depth The number of tabs.
+	 */
+	/*default*/ static void appendTabs(StringBuilder sb, int depth)
+	{
+		for(int i = 0; i < depth; ++i)
+		{
+			sb.append('\t');
+		}
+	}
 	/**
 	 * A utility method for either quoting the tag's name or returning nothing if the name is <code>null</code>.
 	 * @return A space followed by the quoted name of the tag, or nothing if the name is null.
@@ -310,6 +524,23 @@ public abstract class Tag implements Cloneable
 		}
 		return t;
 	}
+	/**
+	 * Returns a copy of the given tag for a container that stops sharing its children: a lazy clone of a compound or list, and an ordinary clone of any other tag.
+	 * @param t The tag to copy.
+	 * @return The copy.
+	 */
+	/*default*/ static Tag lazyCopy(Tag t)
+	{
+		if(t instanceof Compound)
+		{
+			return ((Compound)t).lazyClone();
+		}
+		else if(t instanceof List)
+		{
+			return ((List)t).lazyClone();
+		}
+		return t.clone();
+	}
 
 	/**
 	 * TAG_End
@@ -335,11 +566,35 @@ public abstract class Tag implements Cloneable
 
 		/**
 		 * Does nothing, but prevents this class from being abstract.
-		 * @param o The <code>OutputStream</code> to serialize to.
+		 * @param o The encode context to serialize to.
 		 * @throws IOException when pigs fly.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+		}
+		/**
+		 * Returns 0, as End tags have no payload.
+		 * @return 0, as End tags have no payload.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 0;
+		}
+		/**
+		 * Does nothing, as TAG_End has no payload.
+		 * @param h The content hash.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+		}
+		/**
+		 * Returns true, as TAG_End has no payload.
+		 * @param t The End tag to compare to.
+		 * @return <code>true</code>
+		 */
+		@Override protected boolean payloadEquals(Tag t)
 		{
+			return true;
 		}
 
 		/**
@@ -389,7 +644,17 @@ public abstract class Tag implements Cloneable
 		 */
 		public Byte(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
 		{
-			this(name, (byte)i.read());
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this byte.
+		 * @param in The decode context to deserialize the byte from.
+		 * @throws IOException if the input operation generates an exception.
+		 */
+		/*default*/ Byte(java.lang.String name, NbtInput in) throws IOException
+		{
+			this(name, in.readByte());
 		}
 		/**
 		 * Returns the tag type corresponding to TAG_Byte.
@@ -400,13 +665,38 @@ public abstract class Tag implements Cloneable
 			return Type.BYTE;
 		}
 		/**
-		 * Serializes the byte to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize the byte to.
+		 * Serializes the byte to the encode context.
+		 * @param o The encode context to serialize the byte to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
 		{
-			o.write(v);
+			o.writeByte(v);
+		}
+		/**
+		 * Returns the size of a byte.
+		 * @return The size of a byte.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 1;
+		}
+		/**
+		 * Adds the byte to the content hash.
+		 * @param h The content hash to add the byte to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putByte(v);
+		}
+		/**
+		 * Returns whether the given byte has the same contents.
+		 * @param t The byte to compare to.
+		 * @return Whether the given byte has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			return ((Byte)t).v == v;
 		}
 		/**
 		 * Gives a textual representation of this byte in base-10.
@@ -446,7 +736,17 @@ public abstract class Tag implements Cloneable
 		 */
 		public Short(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
 		{
-			this(name, new DataInputStream(i).readShort());
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this short.
+		 * @param in The decode context to deserialize the short from.
+		 * @throws IOException if the input operation generates an exception.
+		 */
+		/*default*/ Short(java.lang.String name, NbtInput in) throws IOException
+		{
+			this(name, in.readShort());
 		}
 		/**
 		 * returns the tag type corresponding to TAG_Short.
@@ -457,13 +757,38 @@ public abstract class Tag implements Cloneable
 			return Type.SHORT;
 		}
 		/**
-		 * Serializes the short to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize the short to.
+		 * Serializes the short to the encode context.
+		 * @param o The encode context to serialize the short to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			o.writeShort(v);
+		}
+		/**
+		 * Returns the size of a short.
+		 * @return The size of a short.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 2;
+		}
+		/**
+		 * Adds the short to the content hash.
+		 * @param h The content hash to add the short to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putShort(v);
+		}
+		/**
+		 * Returns whether the given short has the same contents.
+		 * @param t The short to compare to.
+		 * @return Whether the given short has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
 		{
-			new DataOutputStream(o).writeShort(v);
+			return ((Short)t).v == v;
 		}
 		/**
 		 * Gives a textual representation of this short in base-10.
@@ -503,7 +828,17 @@ public abstract class Tag implements Cloneable
 		 */
 		public Int(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
 		{
-			this(name, new DataInputStream(i).readInt());
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this integer.
+		 * @param in The decode context to deserialize the integer from.
+		 * @throws IOException if the input operation generates an exception.
+		 */
+		/*default*/ Int(java.lang.String name, NbtInput in) throws IOException
+		{
+			this(name, in.readInt());
 		}
 		/**
 		 * Returns the tag type corresponding to TAG_Int.
@@ -514,13 +849,38 @@ public abstract class Tag implements Cloneable
 			return Type.INT;
 		}
 		/**
-		 * Serializes the integer to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize the integer to.
+		 * Serializes the integer to the encode context.
+		 * @param o The encode context to serialize the integer to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			o.writeInt(v);
+		}
+		/**
+		 * Returns the size of a integer.
+		 * @return The size of a integer.
+		 */
+		@Override protected int payloadSize()
 		{
-			new DataOutputStream(o).writeInt(v);
+			return 4;
+		}
+		/**
+		 * Adds the integer to the content hash.
+		 * @param h The content hash to add the integer to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putInt(v);
+		}
+		/**
+		 * Returns whether the given integer has the same contents.
+		 * @param t The integer to compare to.
+		 * @return Whether the given integer has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			return ((Int)t).v == v;
 		}
 		/**
 		 * Gives a textual representation of this integer in base-10.
@@ -560,7 +920,17 @@ public abstract class Tag implements Cloneable
 		 */
 		public Long(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
 		{
-			this(name, new DataInputStream(i).readLong());
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this long.
+		 * @param in The decode context to deserialize the long from.
+		 * @throws IOException if the input operation generates an exception.
+		 */
+		/*default*/ Long(java.lang.String name, NbtInput in) throws IOException
+		{
+			this(name, in.readLong());
 		}
 		/**
 		 * Returns the tag type corresponding to TAG_Long.
@@ -571,13 +941,38 @@ public abstract class Tag implements Cloneable
 			return Type.LONG;
 		}
 		/**
-		 * Serializes the long to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize the long to.
+		 * Serializes the long to the encode context.
+		 * @param o The encode context to serialize the long to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			o.writeLong(v);
+		}
+		/**
+		 * Returns the size of a long.
+		 * @return The size of a long.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 8;
+		}
+		/**
+		 * Adds the long to the content hash.
+		 * @param h The content hash to add the long to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putLong(v);
+		}
+		/**
+		 * Returns whether the given long has the same contents.
+		 * @param t The long to compare to.
+		 * @return Whether the given long has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
 		{
-			new DataOutputStream(o).writeLong(v);
+			return ((Long)t).v == v;
 		}
 		/**
 		 * Gives a textual representation of this long in base-10.
@@ -617,7 +1012,17 @@ public abstract class Tag implements Cloneable
 		 */
 		public Float(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
 		{
-			this(name, new DataInputStream(i).readFloat());
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this float.
+		 * @param in The decode context to deserialize the float from.
+		 * @throws IOException if the input operation generates an exception.
+		 */
+		/*default*/ Float(java.lang.String name, NbtInput in) throws IOException
+		{
+			this(name, in.readFloat());
 		}
 		/**
 		 * Returns the tag type corresponding to TAG_Float.
@@ -628,13 +1033,38 @@ public abstract class Tag implements Cloneable
 			return Type.FLOAT;
 		}
 		/**
-		 * Serializes this float to the <code>OutputStream</code>
-		 * @param o The <code>OutputStream</code> to serialize this long to.
+		 * Serializes this float to the encode context
+		 * @param o The encode context to serialize this long to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
 		{
-			new DataOutputStream(o).writeFloat(v);
+			o.writeFloat(v);
+		}
+		/**
+		 * Returns the size of a float.
+		 * @return The size of a float.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 4;
+		}
+		/**
+		 * Adds the float to the content hash.
+		 * @param h The content hash to add the float to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putInt(java.lang.Float.floatToIntBits(v));
+		}
+		/**
+		 * Returns whether the given float has the same contents.
+		 * @param t The float to compare to.
+		 * @return Whether the given float has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			return java.lang.Float.floatToIntBits(((Float)t).v) == java.lang.Float.floatToIntBits(v);
 		}
 		/**
 		 * Gives a textual representation of this float in base-10.
@@ -674,7 +1104,17 @@ public abstract class Tag implements Cloneable
 		 */
 		public Double(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
 		{
-			this(name, new DataInputStream(i).readDouble());
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this double.
+		 * @param in The decode context to deserialize the double from.
+		 * @throws IOException if the input operation generates an exception.
+		 */
+		/*default*/ Double(java.lang.String name, NbtInput in) throws IOException
+		{
+			this(name, in.readDouble());
 		}
 		/**
 		 * Returns the tag type corresponding to TAG_Double.
@@ -685,13 +1125,38 @@ public abstract class Tag implements Cloneable
 			return Type.DOUBLE;
 		}
 		/**
-		 * Serializes the double to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize this double to.
+		 * Serializes the double to the encode context.
+		 * @param o The encode context to serialize this double to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			o.writeDouble(v);
+		}
+		/**
+		 * Returns the size of a double.
+		 * @return The size of a double.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 8;
+		}
+		/**
+		 * Adds the double to the content hash.
+		 * @param h The content hash to add the double to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putLong(java.lang.Double.doubleToLongBits(v));
+		}
+		/**
+		 * Returns whether the given double has the same contents.
+		 * @param t The double to compare to.
+		 * @return Whether the given double has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
 		{
-			new DataOutputStream(o).writeDouble(v);
+			return java.lang.Double.doubleToLongBits(((Double)t).v) == java.lang.Double.doubleToLongBits(v);
 		}
 		/**
 		 * Gives a textual representation of this double in base-10.
@@ -709,9 +1174,21 @@ public abstract class Tag implements Cloneable
 	public static final class ByteArray extends Tag
 	{
 		/**
-		 * The byte array in raw form.
+		 * The byte array in raw form, or null while this tag is a view of a decode buffer. Use <code>array()</code> to get it in either case.
 		 */
 		public byte[] v;
+		/**
+		 * The buffer this tag is a view of, or null.
+		 */
+		private byte[] view = null;
+		/**
+		 * The index in <code>view</code> of the first byte.
+		 */
+		private int viewOffset;
+		/**
+		 * The number of bytes in <code>view</code>.
+		 */
+		private int viewLength;
 		/**
 		 * The normal constructor.
 		 * @param name The name of this byte array.
@@ -730,62 +1207,189 @@ public abstract class Tag implements Cloneable
 		 * @throws FormatException if the byte array size is negative.
 		 */
 		public ByteArray(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
+		{
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this byte array.
+		 * @param in The decode context to deserialize the byte array from.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws FormatException if the byte array size is negative or exceeds the limits of the decode context.
+		 */
+		/*default*/ ByteArray(java.lang.String name, NbtInput in) throws IOException, FormatException
 		{
 			this(name, (byte[])null);
-			DataInputStream dis = new DataInputStream(i);
-			int size = dis.readInt();
-			if(size < 0)
+			final int size = in.readLength("Byte Array", 1);
+			if(in.isLazy())
 			{
-				throw new FormatException("Byte Array size was negative: "+size);
+				view = in.array();
+				viewOffset = in.offset();
+				viewLength = size;
+				in.skip(size);
+				return;
 			}
 			v = new byte[size];
-			dis.readFully(v);
+			in.readFully(v);
 		}
 		/**
-		 * Returns the tag type that corresponds to TAG_Byte_Array.
-		 * @return <code>Type.BYTEARRAY</code>.
+		 * Returns the byte array, first copying it out of the decode buffer if this tag is a view. The returned array belongs to this tag and changes to it are serialized.
+		 * @return The byte array.
 		 */
-		@Override public Type getType()
+		public byte[] array()
 		{
-			return Type.BYTEARRAY;
+			if(v == null && view != null)
+			{
+				v = Arrays.copyOfRange(view, viewOffset, viewOffset + viewLength);
+				view = null;
+			}
+			return v;
 		}
 		/**
-		 * Serializes the byte array to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize this byte array to.
-		 * @throws IOException if the output operation generates an exception.
+		 * Returns whether this tag is a view of a decode buffer that has not been copied yet.
+		 * @return Whether this tag is a view of a decode buffer.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		public boolean isView()
 		{
-			DataOutputStream dos = new DataOutputStream(o);
-			dos.writeInt(v.length);
-			dos.write(v);
+			return v == null && view != null;
 		}
 		/**
-		 * Gives a textual representation of this byte array with each byte in base-10.
-		 * @return A textual representation of this byte array with each byte in base-10.
+		 * Returns the number of bytes, without copying a view.
+		 * @return The number of bytes.
 		 */
-		@Override public java.lang.String toString()
+		public int length()
+		{
+			return v != null ? v.length : viewLength;
+		}
+		/**
+		 * Returns the byte at the given index, without copying a view.
+		 * @param i The index of the byte.
+		 * @return The byte.
+		 * @throws ArrayIndexOutOfBoundsException if the index is out of range.
+		 */
+		public byte get(int i)
 		{
-			java.lang.String s = "";
-			for(byte b : v)
+			if(v != null)
 			{
-				if(s.length() != 0)
-				{
-					s += ", ";
-				}
-				s += b;
+				return v[i];
+			}
+			if(i < 0 || i >= viewLength)
+			{
+				throw new ArrayIndexOutOfBoundsException(i);
 			}
-			return"Byte Array"+quoteName()+": ["+s+"]";
+			return view[viewOffset + i];
 		}
-
 		/**
-		 * Returns an independent clone of this Byte Array.
-		 * @return An independent clone of this Byte Array.
+		 * Sets the byte at the given index, first copying the byte array out of the decode buffer if this tag is a view.
+		 * @param i The index of the byte.
+		 * @param b The new value of the byte.
+		 * @throws ArrayIndexOutOfBoundsException if the index is out of range.
 		 */
-		@Override public ByteArray clone()
+		public void set(int i, byte b)
 		{
-			ByteArray ba = (ByteArray)super.clone();
-			ba.v = Arrays.copyOf(v, v.length);
+			array()[i] = b;
+		}
+		/**
+		 * Returns the tag type that corresponds to TAG_Byte_Array.
+		 * @return <code>Type.BYTEARRAY</code>.
+		 */
+		@Override public Type getType()
+		{
+			return Type.BYTEARRAY;
+		}
+		/**
+		 * Serializes the byte array to the encode context.
+		 * @param o The encode context to serialize this byte array to.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			if(v == null)
+			{
+				o.writeInt(viewLength);
+				o.write(view, viewOffset, viewLength);
+				return;
+			}
+			o.writeInt(v.length);
+			o.write(v);
+		}
+		/**
+		 * Returns the size of the length and the bytes.
+		 * @return The size of the length and the bytes.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 4 + length();
+		}
+		/**
+		 * Adds the length and the bytes, without copying a view, to the content hash.
+		 * @param h The content hash to add the length and the bytes, without copying a view, to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putInt(length());
+			if(v == null)
+			{
+				h.putBytes(view, viewOffset, viewLength);
+				return;
+			}
+			h.putBytes(v, 0, v.length);
+		}
+		/**
+		 * Returns whether the given byte array has the same contents.
+		 * @param t The byte array to compare to.
+		 * @return Whether the given byte array has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			ByteArray ba = (ByteArray)t;
+			if(v != null && ba.v != null)
+			{
+				return Arrays.equals(v, ba.v);
+			}
+			if(ba.length() != length())
+			{
+				return false;
+			}
+			for(int i = 0; i < length(); ++i)
+			{
+				if(ba.get(i) != get(i))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		/**
+		 * Gives a textual representation of this byte array with each byte in base-10.
+		 * @return A textual representation of this byte array with each byte in base-10.
+		 */
+		@Override public java.lang.String toString()
+		{
+			StringBuilder sb = new StringBuilder("Byte Array").append(quoteName()).append(": [");
+			for(int i = 0; i < length(); ++i)
+			{
+				if(i != 0)
+				{
+					sb.append(", ");
+				}
+				sb.append(get(i));
+			}
+			return sb.append(']').toString();
+		}
+
+		/**
+		 * Returns an independent clone of this Byte Array. A clone of a view shares the decode buffer, which is never changed.
+		 * @return An independent clone of this Byte Array.
+		 */
+		@Override public ByteArray clone()
+		{
+			ByteArray ba = (ByteArray)super.clone();
+			if(v != null)
+			{
+				ba.v = Arrays.copyOf(v, v.length);
+				ba.view = null;
+			}
 			return ba;
 		}
 	}
@@ -820,7 +1424,17 @@ public abstract class Tag implements Cloneable
 		 */
 		public String(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
 		{
-			this(name, readString(new DataInputStream(i)));
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this string.
+		 * @param in The decode context to deserialize the string from.
+		 * @throws IOException if the input operation generates an exception.
+		 */
+		/*default*/ String(java.lang.String name, NbtInput in) throws IOException
+		{
+			this(name, in.readString());
 		}
 		/**
 		 * Returns the tag type that corresponds to TAG_String.
@@ -831,15 +1445,38 @@ public abstract class Tag implements Cloneable
 			return Type.STRING;
 		}
 		/**
-		 * Serializes this string to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize this string to.
+		 * Serializes this string to the encode context.
+		 * @param o The encode context to serialize this string to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			o.writeString(v);
+		}
+		/**
+		 * Returns the size of the length and the UTF-8 encoded string.
+		 * @return The size of the length and the UTF-8 encoded string.
+		 */
+		@Override protected int payloadSize()
+		{
+			return NbtOutput.stringSize(v);
+		}
+		/**
+		 * Adds the string to the content hash.
+		 * @param h The content hash to add the string to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putString(v);
+		}
+		/**
+		 * Returns whether the given string has the same contents.
+		 * @param t The string to compare to.
+		 * @return Whether the given string has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
 		{
-			byte[] sarr = v.getBytes(UTF8);
-			new DataOutputStream(o).writeShort((short)sarr.length);
-			o.write(sarr);
+			return ((String)t).v.equals(v);
 		}
 		/**
 		 * Gives a textual representation of this string.
@@ -852,18 +1489,39 @@ public abstract class Tag implements Cloneable
 	}
 
 	/**
-	 * TAG_List
+	 * TAG_List. Lists of doubles, floats and ints are kept as primitive arrays while they are only accessed through the
+	 * primitive accessors such as <code>getDouble</code>; any access to the element tags boxes them for good.
 	 */
 	public static final class List extends Tag implements Iterable<Tag>
 	{
+		/**
+		 * The maximum number of primitive elements allocated before they have actually been read.
+		 */
+		private static final int INITIAL_CAPACITY = 1024;
 		/**
 		 * The tag type this tags supports.
 		 */
 		private final Type type;
 		/**
-		 * The list of tags in this list.
+		 * The list of tags in this list, or null while the elements are kept in a primitive array.
 		 */
-		private java.util.List<Tag> list = new ArrayList<>();
+		private java.util.List<Tag> list;
+		/**
+		 * The elements of a list of doubles kept in primitive form, or null.
+		 */
+		private double[] doubles = null;
+		/**
+		 * The elements of a list of floats kept in primitive form, or null.
+		 */
+		private float[] floats = null;
+		/**
+		 * The elements of a list of ints kept in primitive form, or null.
+		 */
+		private int[] ints = null;
+		/**
+		 * Whether the elements may also be referenced by a lazy clone, so they must be copied before they are changed or handed out.
+		 */
+		private boolean shared = false;
 		/**
 		 * The normal constructor.
 		 * @param name The name of the tags.
@@ -879,6 +1537,7 @@ public abstract class Tag implements Cloneable
 				throw new IllegalArgumentException("The tag type was null");
 			}
 			type = _type;
+			list = new ArrayList<>();
 			if(type != Type.END)
 			{
 				for(Tag t : tags)
@@ -898,6 +1557,53 @@ public abstract class Tag implements Cloneable
 				}
 			}
 		}
+		/**
+		 * Constructs an empty list in primitive form; the caller sets exactly one of the primitive arrays.
+		 * @param name The name of the tags.
+		 * @param _type The tag type this tags supports.
+		 */
+		private List(java.lang.String name, Type _type)
+		{
+			super(name);
+			type = _type;
+			list = null;
+		}
+		/**
+		 * Creates a list of doubles that keeps the given values in primitive form.
+		 * @param name The name of the list.
+		 * @param v The values; the array is copied.
+		 * @return The new list.
+		 */
+		public static List ofDoubles(java.lang.String name, double... v)
+		{
+			List l = new List(name, Type.DOUBLE);
+			l.doubles = Arrays.copyOf(v, v.length);
+			return l;
+		}
+		/**
+		 * Creates a list of floats that keeps the given values in primitive form.
+		 * @param name The name of the list.
+		 * @param v The values; the array is copied.
+		 * @return The new list.
+		 */
+		public static List ofFloats(java.lang.String name, float... v)
+		{
+			List l = new List(name, Type.FLOAT);
+			l.floats = Arrays.copyOf(v, v.length);
+			return l;
+		}
+		/**
+		 * Creates a list of ints that keeps the given values in primitive form.
+		 * @param name The name of the list.
+		 * @param v The values; the array is copied.
+		 * @return The new list.
+		 */
+		public static List ofInts(java.lang.String name, int... v)
+		{
+			List l = new List(name, Type.INT);
+			l.ints = Arrays.copyOf(v, v.length);
+			return l;
+		}
 		/**
 		 * The DeserializePayload constructor.
 		 * @param name The name of the tags.
@@ -906,26 +1612,84 @@ public abstract class Tag implements Cloneable
 		 * @throws FormatException if the tag type is TAG_End, the tags size is negative, or some other exception is thrown while deserializing the tags.
 		 */
 		public List(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
+		{
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context. Lists of doubles, floats and ints are
+		 * decoded straight into primitive arrays.
+		 * @param name The name of this tags.
+		 * @param in The decode context to deserialize the tags from.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws FormatException if the tag type is unknown, or the tags size is negative or exceeds the limits of the decode context.
+		 */
+		/*default*/ List(java.lang.String name, NbtInput in) throws IOException, FormatException
 		{
 			super(name);
-			type = Type.fromId(i.read());
-			int size = new DataInputStream(i).readInt();
-			if(size < 0)
+			final int id = in.readByte();
+			type = Type.fromId(id);
+			if(type == null)
 			{
-				throw new FormatException("List size is negative: "+size);
+				throw new FormatException("Unknown list element type: "+id);
 			}
-			try
+			final int size = NbtReader.readListLength(in, type);
+			in.enter();
+			if(type == Type.DOUBLE)
+			{
+				doubles = new double[Math.min(size, INITIAL_CAPACITY)];
+				for(int j = 0; j < size; ++j)
+				{
+					if(j == doubles.length)
+					{
+						doubles = Arrays.copyOf(doubles, grow(j, size));
+					}
+					doubles[j] = in.readDouble();
+				}
+			}
+			else if(type == Type.FLOAT)
+			{
+				floats = new float[Math.min(size, INITIAL_CAPACITY)];
+				for(int j = 0; j < size; ++j)
+				{
+					if(j == floats.length)
+					{
+						floats = Arrays.copyOf(floats, grow(j, size));
+					}
+					floats[j] = in.readFloat();
+				}
+			}
+			else if(type == Type.INT)
 			{
-				java.lang.reflect.Constructor<? extends Tag> c = type.getImplementingClass().getConstructor(java.lang.String.class, InputStream.class);
+				ints = new int[Math.min(size, INITIAL_CAPACITY)];
 				for(int j = 0; j < size; ++j)
 				{
-					list.add(c.newInstance(null, i));
+					if(j == ints.length)
+					{
+						ints = Arrays.copyOf(ints, grow(j, size));
+					}
+					ints[j] = in.readInt();
 				}
 			}
-			catch(NoSuchMethodException|SecurityException|InstantiationException|IllegalAccessException|IllegalArgumentException|InvocationTargetException e)
+			else
 			{
-				throw new FormatException(e);
+				list = new ArrayList<>(Math.min(size, INITIAL_CAPACITY));
+				for(int j = 0; j < size; ++j)
+				{
+					list.add(deserializePayload(type, null, in));
+				}
 			}
+			in.exit();
+		}
+		/**
+		 * Returns the next capacity of a primitive array being decoded, which is never more than the declared size so
+		 * that the array ends up exactly as long as the list.
+		 * @param length The current capacity.
+		 * @param size The declared size of the list.
+		 * @return The next capacity.
+		 */
+		private static int grow(int length, int size)
+		{
+			return (int)Math.min(size, 2L*length);
 		}
 		/**
 		 * Returns the tag type that corresponds to TAG_List.
@@ -936,18 +1700,127 @@ public abstract class Tag implements Cloneable
 			return Type.LIST;
 		}
 		/**
-		 * Serializes this tags to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize this tags to.
+		 * Serializes this tags to the encode context.
+		 * @param o The encode context to serialize this tags to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			o.writeByte(type.ordinal());
+			o.writeInt(getSize());
+			if(ints != null)
+			{
+				o.writeInts(ints);
+			}
+			else if(doubles != null)
+			{
+				for(double d : doubles)
+				{
+					o.writeDouble(d);
+				}
+			}
+			else if(floats != null)
+			{
+				for(float f : floats)
+				{
+					o.writeFloat(f);
+				}
+			}
+			else
+			{
+				for(int i = 0; i < list.size(); ++i)
+				{
+					list.get(i).serializePayload(o);
+				}
+			}
+		}
+		/**
+		 * Returns the size of the element type, the length and the element payloads.
+		 * @return The size of the element type, the length and the element payloads.
+		 */
+		@Override protected int payloadSize()
 		{
-			o.write((byte)type.ordinal());
-			new DataOutputStream(o).writeInt(list.size());
+			int n = 1 + 4;
+			if(list == null)
+			{
+				return n + getSize()*(type == Type.DOUBLE ? 8 : 4);
+			}
 			for(int i = 0; i < list.size(); ++i)
 			{
-				list.get(i).serializePayload(o);
+				n += list.get(i).payloadSize();
+			}
+			return n;
+		}
+		/**
+		 * Adds the element type, the length and the element payloads to the content hash, without boxing primitive elements.
+		 * @param h The content hash to add this list to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putByte(type.ordinal());
+			h.putInt(getSize());
+			if(ints != null)
+			{
+				for(int i : ints)
+				{
+					h.putInt(i);
+				}
+			}
+			else if(doubles != null)
+			{
+				for(double d : doubles)
+				{
+					h.putLong(java.lang.Double.doubleToLongBits(d));
+				}
+			}
+			else if(floats != null)
+			{
+				for(float f : floats)
+				{
+					h.putInt(java.lang.Float.floatToIntBits(f));
+				}
+			}
+			else
+			{
+				for(int i = 0; i < list.size(); ++i)
+				{
+					list.get(i).hashPayload(h);
+				}
+			}
+		}
+		/**
+		 * Returns whether the given list has the same element type and equal elements in the same order, without boxing primitive elements.
+		 * @param t The list to compare to.
+		 * @return Whether the given list has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			List l = (List)t;
+			if(l.type != type || l.getSize() != getSize())
+			{
+				return false;
+			}
+			if(ints != null && l.ints != null)
+			{
+				return Arrays.equals(ints, l.ints);
+			}
+			else if(doubles != null && l.doubles != null)
+			{
+				return Arrays.equals(doubles, l.doubles);
+			}
+			else if(floats != null && l.floats != null)
+			{
+				return Arrays.equals(floats, l.floats);
+			}
+			for(int i = 0; i < getSize(); ++i)
+			{
+				final Tag a = (list != null ? list.get(i) : box(i));
+				if(!a.payloadEquals(l.list != null ? l.list.get(i) : l.box(i)))
+				{
+					return false;
+				}
 			}
+			return true;
 		}
 		/**
 		 * Gives a textual representation of this tags with nice indenting even with nesting.
@@ -955,16 +1828,98 @@ public abstract class Tag implements Cloneable
 		 */
 		@Override public java.lang.String toString()
 		{
-			java.lang.String s = "";
-			for(int i = 0; i < list.size(); ++i)
+			StringBuilder sb = new StringBuilder();
+			appendTo(sb, 0);
+			return sb.toString();
+		}
+		/**
+		 * Appends the text of this list, and of each of its tags in turn, to the given builder.
+		 * @param sb The builder to append to.
+		 * @param depth The number of tabs to indent every line after the first with.
+		 */
+		@Override /*default*/ void appendTo(StringBuilder sb, int depth)
+		{
+			appendIndented(sb, "List of "+type+quoteName()+": ", depth);
+			sb.append('\n');
+			appendTabs(sb, depth);
+			sb.append("[\n");
+			final int size = getSize();
+			for(int i = 0; i < size; ++i)
 			{
 				if(i != 0)
 				{
-					s += ",\n";
+					sb.append(",\n");
+				}
+				appendTabs(sb, depth + 1);
+				(list != null ? list.get(i) : box(i)).appendTo(sb, depth + 1);
+			}
+			if(size == 0)
+			{
+				appendTabs(sb, depth + 1);
+			}
+			sb.append('\n');
+			appendTabs(sb, depth);
+			sb.append(']');
+		}
+
+		/**
+		 * Returns whether the elements of this list are currently kept in a primitive array.
+		 * @return Whether the elements of this list are currently kept in a primitive array.
+		 */
+		public boolean isPrimitive()
+		{
+			return list == null;
+		}
+		/**
+		 * Creates a tag for the primitive element at the given index.
+		 * @param index The index of the element.
+		 * @return A new tag holding the element.
+		 */
+		private Tag box(int index)
+		{
+			if(doubles != null)
+			{
+				return new Double(null, doubles[index]);
+			}
+			else if(floats != null)
+			{
+				return new Float(null, floats[index]);
+			}
+			return new Int(null, ints[index]);
+		}
+		/**
+		 * Returns the list of tags, first boxing the elements if they are kept in a primitive array.
+		 * @return The list of tags.
+		 */
+		private java.util.List<Tag> tags()
+		{
+			unshare();
+			if(list == null)
+			{
+				final int size = getSize();
+				java.util.List<Tag> l = new ArrayList<>(size);
+				for(int i = 0; i < size; ++i)
+				{
+					l.add(box(i));
 				}
-				s += list.get(i);
+				list = l;
+				doubles = null;
+				floats = null;
+				ints = null;
+			}
+			return list;
+		}
+		/**
+		 * Checks that this list holds the given element type, for the primitive accessors.
+		 * @param t The element type the accessor works with.
+		 * @throws ClassCastException if this list holds a different element type.
+		 */
+		private void require(Type t)
+		{
+			if(type != t)
+			{
+				throw new ClassCastException("List of "+type+" is not a list of "+t);
 			}
-			return"List of "+type+""+quoteName()+": \n[\n"+Compound.preceedLinesWithTabs(s)+"\n]";
 		}
 
 		/**
@@ -983,7 +1938,7 @@ public abstract class Tag implements Cloneable
 				{
 					throw new IllegalArgumentException(type+" required, given "+t.getType());
 				}
-				list.add(t);
+				tags().add(t);
 			}
 		}
 		/**
@@ -996,9 +1951,9 @@ public abstract class Tag implements Cloneable
 			{
 				throw new IllegalArgumentException(type+" required, given list of "+l.getContainedType());
 			}
-			for(Tag t : l.list)
+			for(Tag t : l.tags())
 			{
-				list.add(t);
+				tags().add(t);
 			}
 		}
 		/**
@@ -1018,7 +1973,19 @@ public abstract class Tag implements Cloneable
 		 */
 		public int getSize()
 		{
-			return list.size();
+			if(list != null)
+			{
+				return list.size();
+			}
+			else if(doubles != null)
+			{
+				return doubles.length;
+			}
+			else if(floats != null)
+			{
+				return floats.length;
+			}
+			return ints.length;
 		}
 		/**
 		 * Sets the tag at the given index in the list to the given tag.
@@ -1031,7 +1998,7 @@ public abstract class Tag implements Cloneable
 			{
 				throw new IllegalArgumentException(type+" required, given "+t.getType());
 			}
-			list.set(index, t);
+			tags().set(index, t);
 		}
 		/**
 		 * Inserts the given tags to this list at the specified index.
@@ -1050,7 +2017,7 @@ public abstract class Tag implements Cloneable
 				{
 					throw new IllegalArgumentException(type+" required, given "+t.getType());
 				}
-				list.add(index++, t);
+				tags().add(index++, t);
 			}
 		}
 		/**
@@ -1064,9 +2031,9 @@ public abstract class Tag implements Cloneable
 			{
 				throw new IllegalArgumentException(type+" required, given list of "+l.getContainedType());
 			}
-			for(Tag t : l.list)
+			for(Tag t : l.tags())
 			{
-				list.add(index++, t);
+				tags().add(index++, t);
 			}
 		}
 		/**
@@ -1088,7 +2055,7 @@ public abstract class Tag implements Cloneable
 		 */
 		public Tag get(int index)
 		{
-			return list.get(index);
+			return tags().get(index);
 		}
 		/**
 		 * Removes the tag at the specified index from this list tag.
@@ -1097,41 +2064,187 @@ public abstract class Tag implements Cloneable
 		 */
 		public Tag remove(int index)
 		{
-			return list.remove(index);
+			return tags().remove(index);
 		}
 
 		/**
-		 * Returns the tag type supported by this tags.
-		 * @return The tag type supported by this tags.
+		 * Returns the double at the given index without boxing the list.
+		 * @param index The index of the element.
+		 * @return The double at the given index.
+		 * @throws ClassCastException if this is not a list of doubles.
 		 */
-		public Type getContainedType()
+		public double getDouble(int index)
 		{
-			return type;
+			require(Type.DOUBLE);
+			return doubles != null ? doubles[index] : ((Double)list.get(index)).v;
 		}
-
 		/**
-		 * Returns an iterator over this list tag.
-		 * @return An iterator over this list tag.
+		 * Returns the float at the given index without boxing the list.
+		 * @param index The index of the element.
+		 * @return The float at the given index.
+		 * @throws ClassCastException if this is not a list of floats.
 		 */
-		@Override public Iterator<Tag> iterator()
+		public float getFloat(int index)
 		{
-			return list.iterator();
+			require(Type.FLOAT);
+			return floats != null ? floats[index] : ((Float)list.get(index)).v;
 		}
-
 		/**
-		 * Returns an independent clone of this List tag.
-		 * @return An independent clone of this List tag.
+		 * Returns the int at the given index without boxing the list.
+		 * @param index The index of the element.
+		 * @return The int at the given index.
+		 * @throws ClassCastException if this is not a list of ints.
 		 */
-		@Override public List clone()
+		public int getInt(int index)
 		{
-			List li = (List)super.clone();
-			li.list = new ArrayList<>();
-			for(int i = 0; i < list.size(); ++i)
+			require(Type.INT);
+			return ints != null ? ints[index] : ((Int)list.get(index)).v;
+		}
+		/**
+		 * Sets the double at the given index without boxing the list.
+		 * @param index The index of the element.
+		 * @param v The new value.
+		 * @throws ClassCastException if this is not a list of doubles.
+		 */
+		public void setDouble(int index, double v)
+		{
+			require(Type.DOUBLE);
+			unshare();
+			if(doubles != null)
 			{
-				li.list.add(list.get(i).clone());
+				doubles[index] = v;
+			}
+			else
+			{
+				list.set(index, new Double(null, v));
+			}
+		}
+		/**
+		 * Sets the float at the given index without boxing the list.
+		 * @param index The index of the element.
+		 * @param v The new value.
+		 * @throws ClassCastException if this is not a list of floats.
+		 */
+		public void setFloat(int index, float v)
+		{
+			require(Type.FLOAT);
+			unshare();
+			if(floats != null)
+			{
+				floats[index] = v;
+			}
+			else
+			{
+				list.set(index, new Float(null, v));
+			}
+		}
+		/**
+		 * Sets the int at the given index without boxing the list.
+		 * @param index The index of the element.
+		 * @param v The new value.
+		 * @throws ClassCastException if this is not a list of ints.
+		 */
+		public void setInt(int index, int v)
+		{
+			require(Type.INT);
+			unshare();
+			if(ints != null)
+			{
+				ints[index] = v;
+			}
+			else
+			{
+				list.set(index, new Int(null, v));
+			}
+		}
+
+		/**
+		 * Returns the tag type supported by this tags.
+		 * @return The tag type supported by this tags.
+		 */
+		public Type getContainedType()
+		{
+			return type;
+		}
+
+		/**
+		 * Returns an iterator over this list tag. A list in primitive form is boxed first.
+		 * @return An iterator over this list tag.
+		 */
+		@Override public Iterator<Tag> iterator()
+		{
+			return tags().iterator();
+		}
+
+		/**
+		 * Returns an independent clone of this List tag.
+		 * @return An independent clone of this List tag.
+		 */
+		@Override public List clone()
+		{
+			List li = (List)super.clone();
+			li.shared = false;
+			if(list == null)
+			{
+				li.doubles = doubles != null ? Arrays.copyOf(doubles, doubles.length) : null;
+				li.floats = floats != null ? Arrays.copyOf(floats, floats.length) : null;
+				li.ints = ints != null ? Arrays.copyOf(ints, ints.length) : null;
+				return li;
+			}
+			li.list = new ArrayList<>();
+			for(int i = 0; i < list.size(); ++i)
+			{
+				li.list.add(list.get(i).clone());
 			}
 			return li;
 		}
+		/**
+		 * Returns a clone of this List tag that shares its elements with this list until either list is accessed through
+		 * its own methods; then that list copies its elements, lazily cloning nested lists and compounds in the same way.
+		 * This makes cloning a large template O(1), and later work proportional to the parts actually used.
+		 * <p>
+		 * Tags obtained from this list before the call must not be changed afterward, as they may still be shared with the clone.
+		 * @return A copy-on-write clone of this List tag.
+		 */
+		public List lazyClone()
+		{
+			List li = (List)super.clone();
+			shared = true;
+			li.shared = true;
+			return li;
+		}
+		/**
+		 * Copies the elements of this list if they may be shared with a lazy clone.
+		 */
+		private void unshare()
+		{
+			if(!shared)
+			{
+				return;
+			}
+			if(list != null)
+			{
+				java.util.List<Tag> l = new ArrayList<>(list.size());
+				for(int i = 0; i < list.size(); ++i)
+				{
+					l.add(lazyCopy(list.get(i)));
+				}
+				list = l;
+			}
+			else if(doubles != null)
+			{
+				doubles = Arrays.copyOf(doubles, doubles.length);
+			}
+			else if(floats != null)
+			{
+				floats = Arrays.copyOf(floats, floats.length);
+			}
+			else
+			{
+				ints = Arrays.copyOf(ints, ints.length);
+			}
+			shared = false;
+		}
 	}
 
 	/**
@@ -1140,9 +2253,29 @@ public abstract class Tag implements Cloneable
 	public static final class Compound extends Tag implements Iterable<Tag>
 	{
 		/**
-		 * The list of tags in this compound tag.
+		 * The tags in this compound tag in insertion order; for a lazy compound, a tag that has not been decoded yet is null once the payload has been indexed.
+		 */
+		private TagMap tags = new TagMap();
+		/**
+		 * The array holding the raw payload of a lazy compound, or null if every tag has been decoded.
+		 */
+		private byte[] raw = null;
+		/**
+		 * The index in <code>raw</code> of the first byte of the payload.
+		 */
+		private int rawStart;
+		/**
+		 * The index in <code>raw</code> one past the terminating TAG_End of the payload.
+		 */
+		private int rawEnd;
+		/**
+		 * The start and end indices in <code>raw</code> of each tag that has not been decoded yet, or null if the payload has not been indexed yet.
+		 */
+		private HashMap<java.lang.String, int[]> index = null;
+		/**
+		 * Whether <code>tags</code> and <code>index</code> may also be referenced by a lazy clone, so they must be copied before they are changed or their tags handed out.
 		 */
-		private HashMap<java.lang.String, Tag> tags = new HashMap<>();
+		private boolean shared = false;
 		/**
 		 * The normal constructor.
 		 * @param name The name of this compound tag.
@@ -1174,13 +2307,132 @@ public abstract class Tag implements Cloneable
 		 * @throws FormatException if some other exception is thrown while deserializing the compound tag.
 		 */
 		public Compound(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
+		{
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this compound tag.
+		 * @param in The decode context to deserialize the compound tag from.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws FormatException if an unknown tag type is encountered or the compound tag exceeds the limits of the decode context.
+		 */
+		/*default*/ Compound(java.lang.String name, NbtInput in) throws IOException, FormatException
 		{
 			this(name);
+			in.enter();
 			Tag t;
-			while(!((t = deserialize(i)) instanceof End))
+			while(!((t = deserialize(in)) instanceof End))
 			{
 				tags.put(t.getName(), t);
 			}
+			in.exit();
+		}
+		/**
+		 * The lazy DeserializePayload constructor, which skips over the payload and keeps a reference to it in the backing array of the decode context.
+		 * @param name The name of this compound tag.
+		 * @param in The lazy decode context to deserialize the compound tag from.
+		 * @param end The index in the backing array one past the end of the payload, or -1 if it is not known yet.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws FormatException if an unknown tag type or negative length is encountered.
+		 */
+		/*default*/ Compound(java.lang.String name, NbtInput in, int end) throws IOException, FormatException
+		{
+			this(name);
+			raw = in.array();
+			rawStart = in.offset();
+			if(end < 0)
+			{
+				NbtReader.skipPayload(in, Type.COMPOUND);
+			}
+			else
+			{
+				in.skip(end - rawStart);
+			}
+			rawEnd = in.offset();
+		}
+		/**
+		 * Indexes the start and end of each tag in the raw payload of a lazy compound, if that has not been done yet.
+		 * @throws IllegalStateException if the raw payload was changed after it was deserialized.
+		 */
+		private void index()
+		{
+			if(index != null)
+			{
+				return;
+			}
+			index = new HashMap<>();
+			try
+			{
+				NbtInput in = new NbtInput(ByteBuffer.wrap(raw, rawStart, rawEnd - rawStart));
+				Type t;
+				for(int start = in.offset(); (t = NbtReader.readType(in)) != Type.END; start = in.offset())
+				{
+					java.lang.String n = in.readName();
+					NbtReader.skipPayload(in, t);
+					index.put(n, new int[]{start, in.offset()});
+					if(tags.indexOf(n) < 0)
+					{
+						tags.put(n, null);
+					}
+				}
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException("The buffer of a lazily deserialized compound was changed", e);
+			}
+		}
+		/**
+		 * Decodes the tag with the given name from the raw payload of a lazy compound.
+		 * @param n The name of the tag.
+		 * @return The decoded tag, or null if there is no tag with the given name.
+		 * @throws IllegalStateException if the raw payload was changed after it was deserialized.
+		 */
+		private Tag load(java.lang.String n)
+		{
+			index();
+			final int[] span = index.remove(n);
+			if(span == null)
+			{
+				return null;
+			}
+			final Tag t;
+			try
+			{
+				NbtInput in = new NbtInput(ByteBuffer.wrap(raw, span[0], span[1] - span[0])).lazy();
+				final Type type = NbtReader.readType(in);
+				final java.lang.String name = in.readName();
+				t = (type == Type.COMPOUND ? new Compound(name, in, span[1]) : deserializePayload(type, name, in));
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException("The buffer of a lazily deserialized compound was changed", e);
+			}
+			tags.put(n, t);
+			if(index.isEmpty())
+			{
+				raw = null;
+				index = null;
+			}
+			return t;
+		}
+		/**
+		 * Decodes every tag that has not been decoded yet, so that this compound no longer references its raw payload.
+		 */
+		private void materialize()
+		{
+			unshare();
+			if(raw == null)
+			{
+				return;
+			}
+			index();
+			for(java.lang.String n : new ArrayList<>(index.keySet()))
+			{
+				load(n);
+			}
+			raw = null;
+			index = null;
 		}
 		/**
 		 * Returns the tag type that corresponds to TAG_Compound.
@@ -1191,43 +2443,154 @@ public abstract class Tag implements Cloneable
 			return Type.COMPOUND;
 		}
 		/**
-		 * Serializes this compound tag to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize this compound tag to.
+		 * Serializes this compound tag to the encode context.
+		 * @param o The encode context to serialize this compound tag to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
 		{
-			for(Tag t : tags.values())
+			if(raw != null && index == null)
 			{
-				t.serialize(o);
+				o.write(raw, rawStart, rawEnd - rawStart);
+				return;
 			}
-			new End().serialize(o);
+			for(int i = 0; i < tags.size(); ++i)
+			{
+				final Tag t = tags.valueAt(i);
+				if(t != null)
+				{
+					t.serialize(o);
+				}
+				else
+				{
+					final int[] span = index.get(tags.nameAt(i));
+					o.write(raw, span[0], span[1] - span[0]);
+				}
+			}
+			o.writeByte(Type.END.ordinal());
 		}
 		/**
-		 * Gives a textual representation of this compound tag with nice indenting even with nesting.
-		 * @return A textual representation of this compound tag with nice indenting even with nesting.
+		 * Returns the size of the named tags and the terminating End tag.
+		 * @return The size of the named tags and the terminating End tag.
 		 */
-		@Override public java.lang.String toString()
+		@Override protected int payloadSize()
 		{
-			java.lang.String s = "";
-			for(Tag t : tags.values())
+			if(raw != null && index == null)
+			{
+				return rawEnd - rawStart;
+			}
+			int n = 1;
+			for(int i = 0; i < tags.size(); ++i)
+			{
+				final Tag t = tags.valueAt(i);
+				if(t != null)
+				{
+					n += t.serializedSize();
+				}
+				else
+				{
+					final int[] span = index.get(tags.nameAt(i));
+					n += span[1] - span[0];
+				}
+			}
+			return n;
+		}
+		/**
+		 * Adds the number of tags and the sum of their content hashes to the content hash. Tags of a lazy compound that have not been decoded are hashed from the raw payload.
+		 * @param h The content hash to add this compound tag to.
+		 * @throws IllegalStateException if the raw payload was changed after it was deserialized.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			try
+			{
+				if(raw != null && index == null)
+				{
+					h.putPayload(raw, rawStart, rawEnd - rawStart, Type.COMPOUND);
+					return;
+				}
+				long sum = 0;
+				for(int i = 0; i < tags.size(); ++i)
+				{
+					final Tag t = tags.valueAt(i);
+					if(t != null)
+					{
+						sum += t.contentHash();
+					}
+					else
+					{
+						final int[] span = index.get(tags.nameAt(i));
+						sum += ContentHash.of(ByteBuffer.wrap(raw, span[0], span[1] - span[0]));
+					}
+				}
+				h.putCompound(tags.size(), sum);
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException("The buffer of a lazily deserialized compound was changed", e);
+			}
+		}
+		/**
+		 * Returns whether the given compound tag has tags with the same names and contents, in any order.
+		 * @param t The compound tag to compare to.
+		 * @return Whether the given compound tag has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			Compound c = (Compound)t;
+			if(c.getSize() != getSize())
+			{
+				return false;
+			}
+			for(int i = 0; i < getSize(); ++i)
 			{
-				if(s.length() != 0)
+				final java.lang.String n = tags.nameAt(i);
+				final Tag other = c.get(n);
+				if(other == null || !get(n).contentEquals(other))
 				{
-					s += ",\n";
+					return false;
 				}
-				s += t;
 			}
-			return"Compound"+quoteName()+":\n{\n"+preceedLinesWithTabs(s)+"\n}";
+			return true;
 		}
 		/**
-		 * Utility function used by this class and the List class for preceeding lines with tabs.
-		 * @param s The string for which each line should be prefixed with a tab.
-		 * @return The string with each line prefixed with an additional tab.
+		 * Gives a textual representation of this compound tag with nice indenting even with nesting.
+		 * @return A textual representation of this compound tag with nice indenting even with nesting.
 		 */
-		/*default*/ static java.lang.String preceedLinesWithTabs(java.lang.String s)
+		@Override public java.lang.String toString()
 		{
-			return"\t"+s.replaceAll("\n", "\n\t");
+			StringBuilder sb = new StringBuilder();
+			appendTo(sb, 0);
+			return sb.toString();
+		}
+		/**
+		 * Appends the text of this compound tag, and of each of its tags in turn, to the given builder.
+		 * @param sb The builder to append to.
+		 * @param depth The number of tabs to indent every line after the first with.
+		 */
+		@Override /*default*/ void appendTo(StringBuilder sb, int depth)
+		{
+			materialize();
+			appendIndented(sb, "Compound"+quoteName()+":", depth);
+			sb.append('\n');
+			appendTabs(sb, depth);
+			sb.append("{\n");
+			for(int i = 0; i < tags.size(); ++i)
+			{
+				if(i != 0)
+				{
+					sb.append(",\n");
+				}
+				appendTabs(sb, depth + 1);
+				tags.valueAt(i).appendTo(sb, depth + 1);
+			}
+			if(tags.size() == 0)
+			{
+				appendTabs(sb, depth + 1);
+			}
+			sb.append('\n');
+			appendTabs(sb, depth);
+			sb.append('}');
 		}
 
 		/**
@@ -1237,6 +2600,7 @@ public abstract class Tag implements Cloneable
 		 */
 		public void add(Tag... tags) throws IllegalArgumentException
 		{
+			unshare();
 			for(Tag t : tags)
 			{
 				java.lang.String n = t.getName();
@@ -1248,6 +2612,11 @@ public abstract class Tag implements Cloneable
 				{
 					throw new IllegalArgumentException("Cannot manually add a TAG_End!");
 				}
+				if(raw != null)
+				{
+					index();
+					index.remove(n);
+				}
 				this.tags.put(n, t);
 			}
 		}
@@ -1257,7 +2626,12 @@ public abstract class Tag implements Cloneable
 		 */
 		public void addAll(Tag.Compound c)
 		{
-			tags.putAll(c.tags);
+			c.materialize();
+			materialize();
+			for(int i = 0; i < c.tags.size(); ++i)
+			{
+				tags.put(c.tags.nameAt(i), c.tags.valueAt(i));
+			}
 		}
 		/**
 		 * Adds the tags from the given collection to this compound tag.
@@ -1277,6 +2651,10 @@ public abstract class Tag implements Cloneable
 		 */
 		public int getSize()
 		{
+			if(raw != null)
+			{
+				index();
+			}
 			return tags.size();
 		}
 
@@ -1287,7 +2665,13 @@ public abstract class Tag implements Cloneable
 		 */
 		public Tag get(java.lang.String name)
 		{
-			return tags.get(name);
+			unshare();
+			Tag t = tags.get(name);
+			if(t == null && raw != null)
+			{
+				t = load(name);
+			}
+			return t;
 		}
 		/**
 		 * Returns the tag with the given type and name or throws an exception.
@@ -1299,7 +2683,7 @@ public abstract class Tag implements Cloneable
 		@Deprecated
 		public Tag find(Type type, java.lang.String n) throws FormatException
 		{
-			Tag t = tags.get(n);
+			Tag t = get(n);
 			if(t == null)
 			{
 				throw new FormatException("No tag with the name \""+n+"\"", this);
@@ -1320,7 +2704,7 @@ public abstract class Tag implements Cloneable
 		@Deprecated
 		public List findList(java.lang.String n, Type type) throws FormatException
 		{
-			Tag t = tags.get(n);
+			Tag t = get(n);
 			if(t == null)
 			{
 				throw new FormatException("No List tag with the name \""+n+"\"", this);
@@ -1336,6 +2720,152 @@ public abstract class Tag implements Cloneable
 			}
 			return l;
 		}
+		/**
+		 * Returns the tag with the given type and name, or null if it doesn't exist or is of another type. This is the
+		 * non-throwing counterpart of <code>find</code> for optional tags.
+		 * @param type The type of tag.
+		 * @param n The name of the tag.
+		 * @return The tag, or null.
+		 */
+		public Tag get(Type type, java.lang.String n)
+		{
+			Tag t = get(n);
+			return t != null && t.getType() == type ? t : null;
+		}
+		/**
+		 * Returns the tag with the given name if it is an instance of the given class.
+		 * @param <T> The tag class.
+		 * @param c The tag class, e.g. <code>Tag.Long.class</code>.
+		 * @param n The name of the tag.
+		 * @return The tag, or an empty <code>Optional</code> if it doesn't exist or is of another type.
+		 */
+		public <T extends Tag> Optional<T> getOptional(Class<T> c, java.lang.String n)
+		{
+			Tag t = get(n);
+			return c.isInstance(t) ? Optional.of(c.cast(t)) : Optional.<T>empty();
+		}
+		/**
+		 * Returns the value of the Byte tag with the given name.
+		 * @param n The name of the tag.
+		 * @param def The value to return if the tag doesn't exist or is of another type.
+		 * @return The value of the tag, or <code>def</code>.
+		 */
+		public byte getByteOr(java.lang.String n, byte def)
+		{
+			Tag t = get(Type.BYTE, n);
+			return t != null ? ((Byte)t).v : def;
+		}
+		/**
+		 * Returns the value of the Short tag with the given name.
+		 * @param n The name of the tag.
+		 * @param def The value to return if the tag doesn't exist or is of another type.
+		 * @return The value of the tag, or <code>def</code>.
+		 */
+		public short getShortOr(java.lang.String n, short def)
+		{
+			Tag t = get(Type.SHORT, n);
+			return t != null ? ((Short)t).v : def;
+		}
+		/**
+		 * Returns the value of the Int tag with the given name.
+		 * @param n The name of the tag.
+		 * @param def The value to return if the tag doesn't exist or is of another type.
+		 * @return The value of the tag, or <code>def</code>.
+		 */
+		public int getIntOr(java.lang.String n, int def)
+		{
+			Tag t = get(Type.INT, n);
+			return t != null ? ((Int)t).v : def;
+		}
+		/**
+		 * Returns the value of the Long tag with the given name.
+		 * @param n The name of the tag.
+		 * @param def The value to return if the tag doesn't exist or is of another type.
+		 * @return The value of the tag, or <code>def</code>.
+		 */
+		public long getLongOr(java.lang.String n, long def)
+		{
+			Tag t = get(Type.LONG, n);
+			return t != null ? ((Long)t).v : def;
+		}
+		/**
+		 * Returns the value of the Float tag with the given name.
+		 * @param n The name of the tag.
+		 * @param def The value to return if the tag doesn't exist or is of another type.
+		 * @return The value of the tag, or <code>def</code>.
+		 */
+		public float getFloatOr(java.lang.String n, float def)
+		{
+			Tag t = get(Type.FLOAT, n);
+			return t != null ? ((Float)t).v : def;
+		}
+		/**
+		 * Returns the value of the Double tag with the given name.
+		 * @param n The name of the tag.
+		 * @param def The value to return if the tag doesn't exist or is of another type.
+		 * @return The value of the tag, or <code>def</code>.
+		 */
+		public double getDoubleOr(java.lang.String n, double def)
+		{
+			Tag t = get(Type.DOUBLE, n);
+			return t != null ? ((Double)t).v : def;
+		}
+		/**
+		 * Returns the value of the String tag with the given name.
+		 * @param n The name of the tag.
+		 * @param def The value to return if the tag doesn't exist or is of another type.
+		 * @return The value of the tag, or <code>def</code>.
+		 */
+		public java.lang.String getStringOr(java.lang.String n, java.lang.String def)
+		{
+			Tag t = get(Type.STRING, n);
+			return t != null ? ((String)t).v : def;
+		}
+		/**
+		 * Returns the Byte Array tag with the given name.
+		 * @param n The name of the tag.
+		 * @return The tag, or null if it doesn't exist or is of another type.
+		 */
+		public ByteArray getByteArrayOrNull(java.lang.String n)
+		{
+			return (ByteArray)get(Type.BYTEARRAY, n);
+		}
+		/**
+		 * Returns the Integer Array tag with the given name.
+		 * @param n The name of the tag.
+		 * @return The tag, or null if it doesn't exist or is of another type.
+		 */
+		public IntArray getIntArrayOrNull(java.lang.String n)
+		{
+			return (IntArray)get(Type.INTARRAY, n);
+		}
+		/**
+		 * Returns the Long Array tag with the given name.
+		 * @param n The name of the tag.
+		 * @return The tag, or null if it doesn't exist or is of another type.
+		 */
+		public LongArray getLongArrayOrNull(java.lang.String n)
+		{
+			return (LongArray)get(Type.LONGARRAY, n);
+		}
+		/**
+		 * Returns the List tag with the given name, whatever type it supports.
+		 * @param n The name of the tag.
+		 * @return The tag, or null if it doesn't exist or is of another type.
+		 */
+		public List getListOrNull(java.lang.String n)
+		{
+			return (List)get(Type.LIST, n);
+		}
+		/**
+		 * Returns the Compound tag with the given name.
+		 * @param n The name of the tag.
+		 * @return The tag, or null if it doesn't exist or is of another type.
+		 */
+		public Compound getCompoundOrNull(java.lang.String n)
+		{
+			return (Compound)get(Type.COMPOUND, n);
+		}
 		/**
 		 * Removes the tag with the given name.
 		 * @param n The name of the tag to remove.
@@ -1343,6 +2873,7 @@ public abstract class Tag implements Cloneable
 		 */
 		public Tag remove(java.lang.String n)
 		{
+			get(n);
 			return tags.remove(n);
 		}
 
@@ -1352,7 +2883,8 @@ public abstract class Tag implements Cloneable
 		 */
 		@Override public Iterator<Tag> iterator()
 		{
-			return tags.values().iterator();
+			materialize();
+			return tags.values();
 		}
 
 		/**
@@ -1361,14 +2893,55 @@ public abstract class Tag implements Cloneable
 		 */
 		@Override public Compound clone()
 		{
+			materialize();
 			Compound c = (Compound)super.clone();
-			c.tags = new HashMap<>();
-			for(Map.Entry<java.lang.String, Tag> e : tags.entrySet())
+			c.tags = new TagMap();
+			for(int i = 0; i < tags.size(); ++i)
 			{
-				c.tags.put(e.getKey(), e.getValue().clone());
+				c.tags.put(tags.nameAt(i), tags.valueAt(i).clone());
 			}
 			return c;
 		}
+		/**
+		 * Returns a clone of this Compound tag that shares its tags with this compound until either compound is accessed
+		 * through its own methods; then that compound copies its tags, lazily cloning nested compounds and lists in the same
+		 * way. This makes cloning a large template O(1), and later work proportional to the parts actually used. The raw
+		 * payload of a lazily deserialized compound is shared and never copied.
+		 * <p>
+		 * Tags obtained from this compound before the call must not be changed afterward, as they may still be shared with the clone.
+		 * @return A copy-on-write clone of this Compound tag.
+		 */
+		public Compound lazyClone()
+		{
+			Compound c = (Compound)super.clone();
+			shared = true;
+			c.shared = true;
+			return c;
+		}
+		/**
+		 * Copies the tags and index of this compound if they may be shared with a lazy clone.
+		 */
+		private void unshare()
+		{
+			if(!shared)
+			{
+				return;
+			}
+			tags = new TagMap(tags);
+			for(int i = 0; i < tags.size(); ++i)
+			{
+				final Tag t = tags.valueAt(i);
+				if(t != null)
+				{
+					tags.setValueAt(i, lazyCopy(t));
+				}
+			}
+			if(index != null)
+			{
+				index = new HashMap<>(index);
+			}
+			shared = false;
+		}
 	}
 
 	/**
@@ -1377,9 +2950,21 @@ public abstract class Tag implements Cloneable
 	public static final class IntArray extends Tag
 	{
 		/**
-		 * The integer array in raw form.
+		 * The integer array in raw form, or null while this tag is a view of a decode buffer. Use <code>array()</code> to get it in either case.
 		 */
 		public int[] v;
+		/**
+		 * The buffer holding the big-endian integers this tag is a view of, or null.
+		 */
+		private byte[] view = null;
+		/**
+		 * The index in <code>view</code> of the first byte of the first integer.
+		 */
+		private int viewOffset;
+		/**
+		 * The number of integers in <code>view</code>.
+		 */
+		private int viewLength;
 		/**
 		 * The normal constructor.
 		 * @param name The name of this integer array.
@@ -1398,19 +2983,93 @@ public abstract class Tag implements Cloneable
 		 * @throws FormatException if the integer array size is negative.
 		 */
 		public IntArray(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
+		{
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this integer array.
+		 * @param in The decode context to deserialize the integer array from.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws FormatException if the integer array size is negative or exceeds the limits of the decode context.
+		 */
+		/*default*/ IntArray(java.lang.String name, NbtInput in) throws IOException, FormatException
 		{
 			this(name, (int[])null);
-			DataInputStream dis = new DataInputStream(i);
-			int size = dis.readInt();
-			if(size < 0)
+			final int size = in.readLength("Integer Array", 4);
+			if(in.isLazy())
 			{
-				throw new FormatException("Integer Array size was negative: "+size);
+				view = in.array();
+				viewOffset = in.offset();
+				viewLength = size;
+				in.skip(size*4L);
+				return;
 			}
 			v = new int[size];
-			for(int j = 0; j < size; ++j)
+			in.readFully(v);
+		}
+		/**
+		 * Returns the integer array, first decoding it from the decode buffer if this tag is a view. The returned array belongs to this tag and changes to it are serialized.
+		 * @return The integer array.
+		 */
+		public int[] array()
+		{
+			if(v == null && view != null)
+			{
+				int[] a = new int[viewLength];
+				for(int i = 0; i < a.length; ++i)
+				{
+					a[i] = get(i);
+				}
+				v = a;
+				view = null;
+			}
+			return v;
+		}
+		/**
+		 * Returns whether this tag is a view of a decode buffer that has not been copied yet.
+		 * @return Whether this tag is a view of a decode buffer.
+		 */
+		public boolean isView()
+		{
+			return v == null && view != null;
+		}
+		/**
+		 * Returns the number of integers, without copying a view.
+		 * @return The number of integers.
+		 */
+		public int length()
+		{
+			return v != null ? v.length : viewLength;
+		}
+		/**
+		 * Returns the integer at the given index, without copying a view.
+		 * @param i The index of the integer.
+		 * @return The integer.
+		 * @throws ArrayIndexOutOfBoundsException if the index is out of range.
+		 */
+		public int get(int i)
+		{
+			if(v != null)
 			{
-				v[j] = dis.readInt();
+				return v[i];
 			}
+			if(i < 0 || i >= viewLength)
+			{
+				throw new ArrayIndexOutOfBoundsException(i);
+			}
+			final int b = viewOffset + i*4;
+			return (view[b] << 24) | ((view[b+1] & 0xFF) << 16) | ((view[b+2] & 0xFF) << 8) | (view[b+3] & 0xFF);
+		}
+		/**
+		 * Sets the integer at the given index, first copying the integer array out of the decode buffer if this tag is a view.
+		 * @param i The index of the integer.
+		 * @param n The new value of the integer.
+		 * @throws ArrayIndexOutOfBoundsException if the index is out of range.
+		 */
+		public void set(int i, int n)
+		{
+			array()[i] = n;
 		}
 		/**
 		 * Returns the tag type that corresponds to TAG_Int_Array (?).
@@ -1421,46 +3080,341 @@ public abstract class Tag implements Cloneable
 			return Type.INTARRAY;
 		}
 		/**
-		 * Serializes the integer array to the <code>OutputStream</code>.
-		 * @param o The <code>OutputStream</code> to serialize this integer array to.
+		 * Serializes the integer array to the encode context.
+		 * @param o The encode context to serialize this integer array to.
 		 * @throws IOException if the output operation generates an exception.
 		 */
-		@Override protected void serializePayload(OutputStream o) throws IOException
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			if(v == null)
+			{
+				o.writeInt(viewLength);
+				o.write(view, viewOffset, viewLength*4);
+				return;
+			}
+			o.writeInt(v.length);
+			o.writeInts(v);
+		}
+		/**
+		 * Returns the size of the length and the integers.
+		 * @return The size of the length and the integers.
+		 */
+		@Override protected int payloadSize()
 		{
-			DataOutputStream dos = new DataOutputStream(o);
-			dos.writeInt(v.length);
+			return 4 + 4*length();
+		}
+		/**
+		 * Adds the length and the integers, without copying a view, to the content hash.
+		 * @param h The content hash to add the length and the integers, without copying a view, to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putInt(length());
+			if(v == null)
+			{
+				h.putBytes(view, viewOffset, viewLength*4);
+				return;
+			}
 			for(int i : v)
 			{
-				dos.writeInt(i);
+				h.putInt(i);
 			}
 		}
+		/**
+		 * Returns whether the given integer array has the same contents.
+		 * @param t The integer array to compare to.
+		 * @return Whether the given integer array has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			IntArray ia = (IntArray)t;
+			if(v != null && ia.v != null)
+			{
+				return Arrays.equals(v, ia.v);
+			}
+			if(ia.length() != length())
+			{
+				return false;
+			}
+			for(int i = 0; i < length(); ++i)
+			{
+				if(ia.get(i) != get(i))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
 		/**
 		 * Gives a textual representation of this integer array with each integer in base-10.
 		 * @return A textual representation of this integer array with each integer in base-10.
 		 */
 		@Override public java.lang.String toString()
 		{
-			java.lang.String s = "";
-			for(int i : v)
+			StringBuilder sb = new StringBuilder("Int Array").append(quoteName()).append(": [");
+			for(int i = 0; i < length(); ++i)
 			{
-				if(s.length() != 0)
+				if(i != 0)
 				{
-					s += ", ";
+					sb.append(", ");
 				}
-				s += i;
+				sb.append(get(i));
 			}
-			return"Int Array"+quoteName()+": ["+s+"]";
+			return sb.append(']').toString();
 		}
 
 		/**
-		 * Returns an independent clone of this Integer Array.
+		 * Returns an independent clone of this Integer Array. A clone of a view shares the decode buffer, which is never changed.
 		 * @return An independent clone of this Integer Array.
 		 */
 		@Override public IntArray clone()
 		{
 			IntArray ia = (IntArray)super.clone();
-			ia.v = Arrays.copyOf(v, v.length);
+			if(v != null)
+			{
+				ia.v = Arrays.copyOf(v, v.length);
+				ia.view = null;
+			}
 			return ia;
 		}
 	}
+
+	/**
+	 * TAG_Long_Array
+	 */
+	public static final class LongArray extends Tag
+	{
+		/**
+		 * The long array in raw form, or null while this tag is a view of a decode buffer. Use <code>array()</code> to get it in either case.
+		 */
+		public long[] v;
+		/**
+		 * The buffer holding the big-endian longs this tag is a view of, or null.
+		 */
+		private byte[] view = null;
+		/**
+		 * The index in <code>view</code> of the first byte of the first long.
+		 */
+		private int viewOffset;
+		/**
+		 * The number of longs in <code>view</code>.
+		 */
+		private int viewLength;
+		/**
+		 * The normal constructor.
+		 * @param name The name of this long array.
+		 * @param l The initial long array.
+		 */
+		public LongArray(java.lang.String name, long[] l)
+		{
+			super(name);
+			v = l;
+		}
+		/**
+		 * The DeserializePayload constructor.
+		 * @param name The name of this long array.
+		 * @param i The <code>InputStream</code> to deserialize the long array from.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws FormatException if the long array size is negative.
+		 */
+		public LongArray(java.lang.String name, InputStream i) throws IOException, FormatException //DeserializePayload
+		{
+			this(name, new NbtInput(i, true));
+		}
+		/**
+		 * The DeserializePayload constructor used with a shared decode context.
+		 * @param name The name of this long array.
+		 * @param in The decode context to deserialize the long array from.
+		 * @throws IOException if the input operation generates an exception.
+		 * @throws FormatException if the long array size is negative or exceeds the limits of the decode context.
+		 */
+		/*default*/ LongArray(java.lang.String name, NbtInput in) throws IOException, FormatException
+		{
+			this(name, (long[])null);
+			final int size = in.readLength("Long Array", 8);
+			if(in.isLazy())
+			{
+				view = in.array();
+				viewOffset = in.offset();
+				viewLength = size;
+				in.skip(size*8L);
+				return;
+			}
+			v = new long[size];
+			in.readFully(v);
+		}
+		/**
+		 * Returns the long array, first decoding it from the decode buffer if this tag is a view. The returned array belongs to this tag and changes to it are serialized.
+		 * @return The long array.
+		 */
+		public long[] array()
+		{
+			if(v == null && view != null)
+			{
+				long[] a = new long[viewLength];
+				for(int i = 0; i < a.length; ++i)
+				{
+					a[i] = get(i);
+				}
+				v = a;
+				view = null;
+			}
+			return v;
+		}
+		/**
+		 * Returns whether this tag is a view of a decode buffer that has not been copied yet.
+		 * @return Whether this tag is a view of a decode buffer.
+		 */
+		public boolean isView()
+		{
+			return v == null && view != null;
+		}
+		/**
+		 * Returns the number of longs, without copying a view.
+		 * @return The number of longs.
+		 */
+		public int length()
+		{
+			return v != null ? v.length : viewLength;
+		}
+		/**
+		 * Returns the long at the given index, without copying a view.
+		 * @param i The index of the long.
+		 * @return The long.
+		 * @throws ArrayIndexOutOfBoundsException if the index is out of range.
+		 */
+		public long get(int i)
+		{
+			if(v != null)
+			{
+				return v[i];
+			}
+			if(i < 0 || i >= viewLength)
+			{
+				throw new ArrayIndexOutOfBoundsException(i);
+			}
+			long l = 0;
+			for(int b = viewOffset + i*8, end = b + 8; b < end; ++b)
+			{
+				l = (l << 8) | (view[b] & 0xFF);
+			}
+			return l;
+		}
+		/**
+		 * Sets the long at the given index, first copying the long array out of the decode buffer if this tag is a view.
+		 * @param i The index of the long.
+		 * @param n The new value of the long.
+		 * @throws ArrayIndexOutOfBoundsException if the index is out of range.
+		 */
+		public void set(int i, long n)
+		{
+			array()[i] = n;
+		}
+		/**
+		 * Returns the tag type that corresponds to TAG_Long_Array.
+		 * @return <code>Type.LONGARRAY</code>.
+		 */
+		@Override public Type getType()
+		{
+			return Type.LONGARRAY;
+		}
+		/**
+		 * Serializes the long array to the encode context.
+		 * @param o The encode context to serialize this long array to.
+		 * @throws IOException if the output operation generates an exception.
+		 */
+		@Override protected void serializePayload(NbtOutput o) throws IOException
+		{
+			if(v == null)
+			{
+				o.writeInt(viewLength);
+				o.write(view, viewOffset, viewLength*8);
+				return;
+			}
+			o.writeInt(v.length);
+			o.writeLongs(v);
+		}
+		/**
+		 * Returns the size of the length and the longs.
+		 * @return The size of the length and the longs.
+		 */
+		@Override protected int payloadSize()
+		{
+			return 4 + 8*length();
+		}
+		/**
+		 * Adds the length and the longs, without copying a view, to the content hash.
+		 * @param h The content hash to add the length and the longs, without copying a view, to.
+		 */
+		@Override protected void hashPayload(ContentHash h)
+		{
+			h.putInt(length());
+			if(v == null)
+			{
+				h.putBytes(view, viewOffset, viewLength*8);
+				return;
+			}
+			for(long l : v)
+			{
+				h.putLong(l);
+			}
+		}
+		/**
+		 * Returns whether the given long array has the same contents.
+		 * @param t The long array to compare to.
+		 * @return Whether the given long array has the same contents.
+		 */
+		@Override protected boolean payloadEquals(Tag t)
+		{
+			LongArray la = (LongArray)t;
+			if(v != null && la.v != null)
+			{
+				return Arrays.equals(v, la.v);
+			}
+			if(la.length() != length())
+			{
+				return false;
+			}
+			for(int i = 0; i < length(); ++i)
+			{
+				if(la.get(i) != get(i))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		/**
+		 * Gives a textual representation of this long array with each long in base-10.
+		 * @return A textual representation of this long array with each long in base-10.
+		 */
+		@Override public java.lang.String toString()
+		{
+			StringBuilder sb = new StringBuilder("Long Array").append(quoteName()).append(": [");
+			for(int i = 0; i < length(); ++i)
+			{
+				if(i != 0)
+				{
+					sb.append(", ");
+				}
+				sb.append(get(i));
+			}
+			return sb.append(']').toString();
+		}
+
+		/**
+		 * Returns an independent clone of this Long Array. A clone of a view shares the decode buffer, which is never changed.
+		 * @return An independent clone of this Long Array.
+		 */
+		@Override public LongArray clone()
+		{
+			LongArray la = (LongArray)super.clone();
+			if(v != null)
+			{
+				la.v = Arrays.copyOf(v, v.length);
+				la.view = null;
+			}
+			return la;
+		}
+	}
 }
@@ -0,0 +1,340 @@
+package com.lb_stuff.mcmodify.nbt;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The insertion-ordered map from names to tags used by <code>Tag.Compound</code>. Entries are kept in insertion order
+ * in three parallel arrays holding the names, the values and the hash codes of the names, so each entry costs two
+ * references and an int and compounds always serialize their tags in the same order. Lookups compare the hash codes
+ * linearly until there are more than <code>LINEAR_LIMIT</code> entries; larger maps also keep an open-addressed table of
+ * entry indices.
+ * <p>
+ * A value may be null; <code>Tag.Compound</code> uses null to hold the position of a tag that has not been decoded yet.
+ */
+/*default*/ final class TagMap
+{
+	/**
+	 * The largest number of entries that are looked up without the hash table.
+	 */
+	private static final int LINEAR_LIMIT = 8;
+	/**
+	 * An empty array shared by empty maps.
+	 */
+	private static final java.lang.String[] NO_NAMES = {};
+	/**
+	 * An empty array shared by empty maps.
+	 */
+	private static final Tag[] NO_TAGS = {};
+	/**
+	 * An empty array shared by empty maps.
+	 */
+	private static final int[] NO_HASHES = {};
+	/**
+	 * The names of the entries in insertion order; only the first <code>size</code> are used.
+	 */
+	private java.lang.String[] names = NO_NAMES;
+	/**
+	 * The values of the entries, parallel to <code>names</code>.
+	 */
+	private Tag[] values = NO_TAGS;
+	/**
+	 * The hash codes of the names, parallel to <code>names</code>, so that a scan does not have to visit each name.
+	 */
+	private int[] hashes = NO_HASHES;
+	/**
+	 * The number of entries.
+	 */
+	private int size = 0;
+	/**
+	 * The open-addressed hash table holding one plus the index of each entry, or null while the map is small. Its length is a power of two at least twice <code>size</code>.
+	 */
+	private int[] table = null;
+	/**
+	 * The number of structural changes, used to detect changes during iteration.
+	 */
+	private int modCount = 0;
+
+	/**
+	 * Constructs an empty map.
+	 */
+	/*default*/ TagMap()
+	{
+	}
+	/**
+	 * Constructs a copy of the given map that shares its values.
+	 * @param m The map to copy.
+	 */
+	/*default*/ TagMap(TagMap m)
+	{
+		size = m.size;
+		names = Arrays.copyOf(m.names, size);
+		values = Arrays.copyOf(m.values, size);
+		hashes = Arrays.copyOf(m.hashes, size);
+		table = (m.table != null ? m.table.clone() : null);
+	}
+
+	/**
+	 * Returns the number of entries.
+	 * @return The number of entries.
+	 */
+	/*default*/ int size()
+	{
+		return size;
+	}
+	/**
+	 * Returns the index of the entry with the given name.
+	 * @param name The name.
+	 * @return The index of the entry, or -1 if there is none.
+	 */
+	/*default*/ int indexOf(java.lang.String name)
+	{
+		if(table == null)
+		{
+			final int h = name.hashCode();
+			for(int i = 0; i < size; ++i)
+			{
+				if(hashes[i] == h && name.equals(names[i]))
+				{
+					return i;
+				}
+			}
+			return -1;
+		}
+		final int mask = table.length - 1;
+		final int h = name.hashCode();
+		for(int slot = hash(h) & mask; table[slot] != 0; slot = (slot + 1) & mask)
+		{
+			final int i = table[slot] - 1;
+			if(hashes[i] == h && name.equals(names[i]))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+	/**
+	 * Returns the value of the entry with the given name.
+	 * @param name The name.
+	 * @return The value, or null if there is no such entry.
+	 */
+	/*default*/ Tag get(java.lang.String name)
+	{
+		final int i = indexOf(name);
+		return i >= 0 ? values[i] : null;
+	}
+	/**
+	 * Returns the name of the entry at the given index.
+	 * @param i The index, in insertion order.
+	 * @return The name.
+	 */
+	/*default*/ java.lang.String nameAt(int i)
+	{
+		return names[i];
+	}
+	/**
+	 * Returns the value of the entry at the given index.
+	 * @param i The index, in insertion order.
+	 * @return The value.
+	 */
+	/*default*/ Tag valueAt(int i)
+	{
+		return values[i];
+	}
+	/**
+	 * Replaces the value of the entry at the given index, keeping its position.
+	 * @param i The index, in insertion order.
+	 * @param t The new value.
+	 */
+	/*default*/ void setValueAt(int i, Tag t)
+	{
+		values[i] = t;
+	}
+	/**
+	 * Sets the value of the entry with the given name. An existing entry keeps its position; a new one is appended.
+	 * @param name The name.
+	 * @param t The value.
+	 * @return The previous value, or null if there was no such entry.
+	 */
+	/*default*/ Tag put(java.lang.String name, Tag t)
+	{
+		final int i = indexOf(name);
+		if(i >= 0)
+		{
+			final Tag old = values[i];
+			values[i] = t;
+			return old;
+		}
+		if(size == names.length)
+		{
+			final int capacity = Math.max(4, size + (size >> 1));
+			names = Arrays.copyOf(names, capacity);
+			values = Arrays.copyOf(values, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		names[size] = name;
+		values[size] = t;
+		hashes[size] = name.hashCode();
+		++size;
+		++modCount;
+		if(table != null && size*2 <= table.length)
+		{
+			insert(size - 1);
+		}
+		else if(size > LINEAR_LIMIT)
+		{
+			rehash();
+		}
+		return null;
+	}
+	/**
+	 * Removes the entry with the given name, shifting later entries down.
+	 * @param name The name.
+	 * @return The removed value, or null if there was no such entry.
+	 */
+	/*default*/ Tag remove(java.lang.String name)
+	{
+		final int i = indexOf(name);
+		if(i < 0)
+		{
+			return null;
+		}
+		final Tag old = values[i];
+		removeAt(i);
+		return old;
+	}
+	/**
+	 * Removes the entry at the given index, shifting later entries down.
+	 * @param i The index, in insertion order.
+	 */
+	private void removeAt(int i)
+	{
+		System.arraycopy(names, i + 1, names, i, size - i - 1);
+		System.arraycopy(values, i + 1, values, i, size - i - 1);
+		System.arraycopy(hashes, i + 1, hashes, i, size - i - 1);
+		--size;
+		names[size] = null;
+		values[size] = null;
+		++modCount;
+		if(table != null)
+		{
+			if(size > LINEAR_LIMIT)
+			{
+				rehash();
+			}
+			else
+			{
+				table = null;
+			}
+		}
+	}
+
+	/**
+	 * Spreads the hash code of a name for use as a table index.
+	 * @param h The hash code.
+	 * @return The spread hash.
+	 */
+	private static int hash(int h)
+	{
+		return h ^ (h >>> 16);
+	}
+	/**
+	 * Adds the entry at the given index to the table.
+	 * @param i The index, in insertion order.
+	 */
+	private void insert(int i)
+	{
+		final int mask = table.length - 1;
+		int slot = hash(hashes[i]) & mask;
+		while(table[slot] != 0)
+		{
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = i + 1;
+	}
+	/**
+	 * Rebuilds the table for the current entries.
+	 */
+	private void rehash()
+	{
+		int capacity = 32;
+		while(capacity < size*2)
+		{
+			capacity <<= 1;
+		}
+		table = new int[capacity];
+		for(int i = 0; i < size; ++i)
+		{
+			insert(i);
+		}
+	}
+
+	/**
+	 * Returns an iterator over the values in insertion order that supports <code>remove()</code>. The map must not contain null values.
+	 * @return An iterator over the values.
+	 */
+	/*default*/ Iterator<Tag> values()
+	{
+		return new Iterator<Tag>()
+		{
+			/**
+			 * The index of the next value.
+			 */
+			private int next = 0;
+			/**
+			 * The index of the value last returned, or -1.
+			 */
+			private int last = -1;
+			/**
+			 * The expected number of structural changes.
+			 */
+			private int expected = modCount;
+
+			/**
+			 * Returns whether there are more values.
+			 * @return Whether there are more values.
+			 */
+			@Override public boolean hasNext()
+			{
+				return next < size;
+			}
+			/**
+			 * Returns the next value.
+			 * @return The next value.
+			 */
+			@Override public Tag next()
+			{
+				if(expected != modCount)
+				{
+					throw new ConcurrentModificationException();
+				}
+				if(next >= size)
+				{
+					throw new NoSuchElementException();
+				}
+				last = next++;
+				return values[last];
+			}
+			/**
+			 * Removes the value last returned from the map.
+			 */
+			@Override public void remove()
+			{
+				if(last < 0)
+				{
+					throw new IllegalStateException();
+				}
+				if(expected != modCount)
+				{
+					throw new ConcurrentModificationException();
+				}
+				removeAt(last);
+				next = last;
+				last = -1;
+				expected = modCount;
+			}
+		};
+	}
+}
@@ -0,0 +1,699 @@
+package com.lb_stuff.mcmodify.test.bench;
+
+import com.lb_stuff.mcmodify.location.LocChunkInRegion;
+import com.lb_stuff.mcmodify.minecraft.Chunk;
+import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
+import com.lb_stuff.mcmodify.minecraft.CompressionSettings;
+import com.lb_stuff.mcmodify.minecraft.FileRegion;
+import com.lb_stuff.mcmodify.minecraft.MappedRegion;
+import com.lb_stuff.mcmodify.minecraft.MemoryRegion;
+import com.lb_stuff.mcmodify.minecraft.RegionTranscoder;
+import com.lb_stuff.mcmodify.nbt.ContentHash;
+import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtInput;
+import com.lb_stuff.mcmodify.nbt.NbtPath;
+import com.lb_stuff.mcmodify.nbt.NbtReader;
+import com.lb_stuff.mcmodify.nbt.Snbt;
+import com.lb_stuff.mcmodify.nbt.Tag;
+import com.lb_stuff.mcmodify.test.TestingUtils;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * JMH benchmarks for NBT decoding. Run with
+ * <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main NbtBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NbtBenchmark
+{
+	/**
+	 * A list of 10000 doubles, like a large entity Pos/Motion dump.
+	 */
+	private byte[] doubles;
+	/**
+	 * A list of 2000 entity-like compounds.
+	 */
+	private byte[] compounds;
+	/**
+	 * The compressed chunks of the test region, r.0.0.mca.
+	 */
+	private final List<byte[]> chunks = new ArrayList<>();
+	/**
+	 * The compression schemes of the chunks in <code>chunks</code>.
+	 */
+	private final List<CompressionScheme> schemes = new ArrayList<>();
+	/**
+	 * The chunks of the test region compressed with LZ4, as a scratch region holds them.
+	 */
+	private final List<byte[]> lz4Chunks = new ArrayList<>();
+	/**
+	 * A dense chunk payload of 1 MiB, made of the uncompressed chunks of the test region one after another.
+	 */
+	private byte[] dense;
+	/**
+	 * The test region with its chunks in GZip, for the transcoding benchmarks.
+	 */
+	private File gzipRegion;
+	/**
+	 * The output of the transcoding benchmarks.
+	 */
+	private File transcoded;
+	/**
+	 * The pool of the parallel deflate benchmark.
+	 */
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	/**
+	 * The uncompressed chunks of the test region.
+	 */
+	private final List<byte[]> inflated = new ArrayList<>();
+	/**
+	 * The decoded Level compounds of the test region, whose sections predate the Add array.
+	 */
+	private final List<Tag.Compound> levels = new ArrayList<>();
+	/**
+	 * The content hashes of the compounds in <code>levels</code>, as a region records them when it reads its chunks.
+	 */
+	private final List<Long> levelHashes = new ArrayList<>();
+	/**
+	 * The SNBT text of the first few compounds in <code>levels</code>.
+	 */
+	private final List<String> levelTexts = new ArrayList<>();
+
+	private static byte[] bytesOf(Tag t) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		t.serialize(baos);
+		return baos.toByteArray();
+	}
+
+	@Setup
+	public void setup() throws IOException
+	{
+		Tag.List d = new Tag.List("Motion", Tag.Type.DOUBLE);
+		for(int i = 0; i < 10000; ++i)
+		{
+			d.add(new Tag.Double(null, i*0.5));
+		}
+		doubles = bytesOf(d);
+
+		Tag.List c = new Tag.List("Entities", Tag.Type.COMPOUND);
+		for(int i = 0; i < 2000; ++i)
+		{
+			c.add(new Tag.Compound(null, new Tag.String("id", "Pig"),
+										 new Tag.List("Pos", Tag.Type.DOUBLE, new Tag.Double(null, i),
+																			  new Tag.Double(null, 64),
+																			  new Tag.Double(null, -i)),
+										 new Tag.Short("Air", (short)300)));
+		}
+		compounds = bytesOf(c);
+
+		try(RandomAccessFile region = new RandomAccessFile(TestingUtils.getInputFile("r.0.0.mca"), "r"))
+		{
+			for(int i = 0; i < 1024; ++i)
+			{
+				region.seek(i*4);
+				final int loc = region.readInt();
+				if(loc == 0)
+				{
+					continue;
+				}
+				region.seek((loc>>>8)*4096L);
+				final int length = region.readInt();
+				schemes.add(CompressionScheme.fromId(region.readByte()));
+				byte[] chunk = new byte[length-1];
+				region.readFully(chunk);
+				chunks.add(chunk);
+				try(InputStream is = schemes.get(schemes.size()-1).getInputStream(new ByteArrayInputStream(chunk)))
+				{
+					inflated.add(IOUtils.toByteArray(is));
+				}
+				final byte[] nbt = inflated.get(inflated.size()-1);
+				lz4Chunks.add(CompressionScheme.LZ4.compress(nbt, 0, nbt.length));
+				levels.add((Tag.Compound)((Tag.Compound)Tag.deserialize(ByteBuffer.wrap(nbt))).get("Level"));
+				levelHashes.add(levels.get(levels.size()-1).contentHash());
+			}
+		}
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		for(byte[] nbt : inflated)
+		{
+			all.write(nbt);
+		}
+		dense = Arrays.copyOf(all.toByteArray(), 1024*1024);
+		gzipRegion = File.createTempFile("bench", ".mca");
+		gzipRegion.deleteOnExit();
+		transcoded = File.createTempFile("bench", ".mca");
+		transcoded.deleteOnExit();
+		new RegionTranscoder(CompressionScheme.GZip, CompressionSettings.DEFAULT, pool).transcode(TestingUtils.getInputFile("r.0.0.mca"), gzipRegion);
+		for(Tag.Compound level : levels.subList(0, DUMPED))
+		{
+			levelTexts.add(Snbt.toString(level));
+		}
+	}
+
+	/**
+	 * Decodes the elements of a list payload the way <code>Tag.List</code> used to: one reflective constructor call per element.
+	 * @param payload The serialized list, including its type and name.
+	 * @return The decoded elements.
+	 * @throws Exception if decoding fails.
+	 */
+	private static List<Tag> reflective(byte[] payload) throws Exception
+	{
+		InputStream i = new ByteArrayInputStream(payload);
+		DataInputStream dis = new DataInputStream(i);
+		dis.readByte();
+		dis.skipBytes(dis.readUnsignedShort());
+		Tag.Type type = Tag.Type.fromId(i.read());
+		int size = new DataInputStream(i).readInt();
+		List<Tag> list = new ArrayList<>();
+		Constructor<? extends Tag> c = type.getImplementingClass().getConstructor(String.class, InputStream.class);
+		for(int j = 0; j < size; ++j)
+		{
+			list.add(c.newInstance(null, i));
+		}
+		return list;
+	}
+
+	@Benchmark
+	public Object doubleListReflective() throws Exception
+	{
+		return reflective(doubles);
+	}
+	@Benchmark
+	public Object doubleListDispatch() throws IOException
+	{
+		return Tag.deserialize(new NbtInput(new ByteArrayInputStream(doubles)));
+	}
+	@Benchmark
+	public Object doubleListBuffer() throws IOException
+	{
+		return Tag.deserialize(ByteBuffer.wrap(doubles));
+	}
+	@Benchmark
+	public Object compoundListReflective() throws Exception
+	{
+		return reflective(compounds);
+	}
+	@Benchmark
+	public Object compoundListDispatch() throws IOException
+	{
+		return Tag.deserialize(new NbtInput(new ByteArrayInputStream(compounds)));
+	}
+
+	@Benchmark
+	public Object compoundListBuffer() throws IOException
+	{
+		return Tag.deserialize(ByteBuffer.wrap(compounds));
+	}
+
+	@Benchmark
+	public int regionDecode() throws IOException
+	{
+		int n = 0;
+		for(int i = 0; i < chunks.size(); ++i)
+		{
+			try(InputStream is = schemes.get(i).getInputStream(new ByteArrayInputStream(chunks.get(i))))
+			{
+				n += ((Tag.Compound)Tag.deserialize(new NbtInput(is))).getSize();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Counts the tile entities with the given ID in a chunk, like a read-only world audit.
+	 * @param chunk The root compound of the chunk.
+	 * @param id The tile entity ID to count.
+	 * @return The number of matching tile entities.
+	 */
+	private static int audit(Tag.Compound chunk, String id)
+	{
+		int n = 0;
+		for(Tag t : (Tag.List)((Tag.Compound)chunk.get("Level")).get("TileEntities"))
+		{
+			if(id.equals(((Tag.String)((Tag.Compound)t).get("id")).v))
+			{
+				++n;
+			}
+		}
+		return n;
+	}
+	@Benchmark
+	public int regionAudit() throws IOException
+	{
+		int n = 0;
+		for(int i = 0; i < chunks.size(); ++i)
+		{
+			try(InputStream is = schemes.get(i).getInputStream(new ByteArrayInputStream(chunks.get(i))))
+			{
+				n += audit((Tag.Compound)Tag.deserialize(new NbtInput(is)), "Chest");
+			}
+		}
+		return n;
+	}
+	@Benchmark
+	public int regionAuditLazy() throws IOException
+	{
+		int n = 0;
+		for(int i = 0; i < chunks.size(); ++i)
+		{
+			try(InputStream is = schemes.get(i).getInputStream(new ByteArrayInputStream(chunks.get(i))))
+			{
+				n += audit((Tag.Compound)Tag.deserializeLazy(ByteBuffer.wrap(IOUtils.toByteArray(is))), "Chest");
+			}
+		}
+		return n;
+	}
+
+	@Benchmark
+	public int inflatedAudit() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			n += audit((Tag.Compound)Tag.deserialize(ByteBuffer.wrap(chunk)), "Chest");
+		}
+		return n;
+	}
+	@Benchmark
+	public int inflatedAuditLazy() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			n += audit((Tag.Compound)Tag.deserializeLazy(ByteBuffer.wrap(chunk)), "Chest");
+		}
+		return n;
+	}
+
+	@Benchmark
+	public int inflatedChunks() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			n += new Chunk((Tag.Compound)Tag.deserialize(ByteBuffer.wrap(chunk))).BlockID(0, 0, 0);
+		}
+		return n;
+	}
+	@Benchmark
+	public int inflatedChunksLazy() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			n += new Chunk((Tag.Compound)Tag.deserializeLazy(ByteBuffer.wrap(chunk))).BlockID(0, 0, 0);
+		}
+		return n;
+	}
+
+	/**
+	 * Looks up the optional InhabitedTime and per-section Add tags the way the chunk decoder used to, treating the
+	 * <code>FormatException</code> thrown by <code>find</code> as absence.
+	 * @return The number of tags found.
+	 */
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public int optionalFind()
+	{
+		int n = 0;
+		for(Tag.Compound level : levels)
+		{
+			try
+			{
+				n += (int)((Tag.Long)level.find(Tag.Type.LONG, "InhabitedTime")).v;
+			}
+			catch(FormatException e)
+			{
+			}
+			for(Tag t : (Tag.List)level.get("Sections"))
+			{
+				try
+				{
+					n += ((Tag.ByteArray)((Tag.Compound)t).find(Tag.Type.BYTEARRAY, "Add")).length();
+				}
+				catch(FormatException e)
+				{
+				}
+			}
+		}
+		return n;
+	}
+	@Benchmark
+	public int optionalGet()
+	{
+		int n = 0;
+		for(Tag.Compound level : levels)
+		{
+			n += (int)level.getLongOr("InhabitedTime", 0);
+			for(Tag t : (Tag.List)level.get("Sections"))
+			{
+				Tag.ByteArray add = ((Tag.Compound)t).getByteArrayOrNull("Add");
+				n += (add != null ? add.length() : 0);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Stamps a copy of every chunk of the test region with new coordinates, like a template-stamping job.
+	 * @param lazy Whether to use copy-on-write clones.
+	 * @return A value depending on the copies.
+	 */
+	private int stamp(boolean lazy)
+	{
+		int n = 0;
+		for(Tag.Compound level : levels)
+		{
+			Tag.Compound c = (lazy ? level.lazyClone() : level.clone());
+			((Tag.Int)c.get("xPos")).v = n;
+			n += c.getSize();
+		}
+		return n;
+	}
+	@Benchmark
+	public int templateClone()
+	{
+		return stamp(false);
+	}
+	@Benchmark
+	public int templateLazyClone()
+	{
+		return stamp(true);
+	}
+
+	/**
+	 * Writes back every chunk of the test region after a bulk edit that changed none of them.
+	 * @param skipUnchanged Whether to skip compressing chunks whose content hash did not change.
+	 * @return The number of compressed bytes produced.
+	 * @throws IOException if serializing fails.
+	 */
+	private int rewrite(boolean skipUnchanged) throws IOException
+	{
+		int n = 0;
+		for(int i = 0; i < levels.size(); ++i)
+		{
+			final byte[] nbt = bytesOf(levels.get(i));
+			if(skipUnchanged && ContentHash.of(ByteBuffer.wrap(nbt)) == levelHashes.get(i))
+			{
+				continue;
+			}
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try(OutputStream os = CompressionScheme.Zlib.getOutputStream(baos))
+			{
+				os.write(nbt);
+			}
+			n += baos.size();
+		}
+		return n;
+	}
+	@Benchmark
+	public int rewriteRecompress() throws IOException
+	{
+		return rewrite(false);
+	}
+	@Benchmark
+	public int rewriteSkipUnchanged() throws IOException
+	{
+		return rewrite(true);
+	}
+
+	/**
+	 * The query used by the path benchmarks, which has to look at every tile entity.
+	 */
+	private static final NbtPath CHESTS = NbtPath.compile("Level/TileEntities[id==\"Chest\"]/Items");
+	@Benchmark
+	public int pathTree() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			n += CHESTS.select(Tag.deserialize(ByteBuffer.wrap(chunk))).size();
+		}
+		return n;
+	}
+	@Benchmark
+	public int pathStream() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			NbtReader r = new NbtReader(new NbtInput(ByteBuffer.wrap(chunk)));
+			r.nextTag();
+			n += CHESTS.select(r).size();
+		}
+		return n;
+	}
+
+	/**
+	 * The number of chunks the text benchmarks print or parse.
+	 */
+	private static final int DUMPED = 8;
+	@Benchmark
+	public int dumpToString()
+	{
+		int n = 0;
+		for(Tag.Compound level : levels.subList(0, DUMPED))
+		{
+			n += level.toString().length();
+		}
+		return n;
+	}
+	@Benchmark
+	public int snbtWrite()
+	{
+		int n = 0;
+		for(Tag.Compound level : levels.subList(0, DUMPED))
+		{
+			n += Snbt.toString(level).length();
+		}
+		return n;
+	}
+	@Benchmark
+	public int snbtParse() throws IOException
+	{
+		int n = 0;
+		for(String text : levelTexts)
+		{
+			n += ((Tag.Compound)Snbt.parse("Level", text)).getSize();
+		}
+		return n;
+	}
+
+	@Benchmark
+	public int inflateJdkStreams() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : chunks)
+		{
+			try(InputStream is = new InflaterInputStream(new ByteArrayInputStream(chunk)))
+			{
+				n += IOUtils.toByteArray(is).length;
+			}
+		}
+		return n;
+	}
+	@Benchmark
+	public int inflatePooled() throws IOException
+	{
+		int n = 0;
+		for(int i = 0; i < chunks.size(); ++i)
+		{
+			n += schemes.get(i).decompress(chunks.get(i), 0, chunks.get(i).length).length;
+		}
+		return n;
+	}
+	@Benchmark
+	public int inflateLz4() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : lz4Chunks)
+		{
+			n += CompressionScheme.LZ4.decompress(chunk, 0, chunk.length).length;
+		}
+		return n;
+	}
+	@Benchmark
+	public int deflateLz4() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			n += CompressionScheme.LZ4.compress(chunk, 0, chunk.length).length;
+		}
+		return n;
+	}
+	@Benchmark
+	public int deflateJdkStreams() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated.subList(0, 64))
+		{
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try(OutputStream os = new DeflaterOutputStream(baos))
+			{
+				os.write(chunk);
+			}
+			n += baos.size();
+		}
+		return n;
+	}
+	@Benchmark
+	public int deflatePooled() throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated.subList(0, 64))
+		{
+			n += CompressionScheme.Zlib.compress(chunk, 0, chunk.length).length;
+		}
+		return n;
+	}
+
+	/**
+	 * The compression settings compared by <code>deflateSettings</code>.
+	 */
+	@State(Scope.Benchmark)
+	public static class Settings
+	{
+		/**
+		 * The deflate level.
+		 */
+		@Param({"0", "1", "3", "6", "9"})
+		public int level;
+		/**
+		 * The deflate strategy.
+		 */
+		@Param({"0", "1", "2"})
+		public int strategy;
+		/**
+		 * The settings made of the parameters.
+		 */
+		public CompressionSettings settings;
+
+		/**
+		 * Makes the settings once the parameters are set.
+		 */
+		@Setup
+		public void setup()
+		{
+			settings = new CompressionSettings(level, strategy, 8192);
+		}
+	}
+	@Benchmark
+	public int deflateSettings(Settings s) throws IOException
+	{
+		int n = 0;
+		for(byte[] chunk : inflated)
+		{
+			n += CompressionScheme.Zlib.compress(chunk, 0, chunk.length, s.settings).length;
+		}
+		return n;
+	}
+	@Benchmark
+	public int deflateDenseSerial() throws IOException
+	{
+		return CompressionScheme.Zlib.compress(dense, 0, dense.length).length;
+	}
+	@Benchmark
+	public int deflateDenseParallel() throws IOException
+	{
+		return CompressionScheme.Zlib.compressParallel(dense, 0, dense.length, CompressionSettings.DEFAULT, pool).length;
+	}
+	@Benchmark
+	public long transcodeMemoryRegion() throws IOException
+	{
+		new MemoryRegion(gzipRegion, CompressionScheme.Zlib).saveToFile(transcoded, CompressionScheme.Zlib);
+		return transcoded.length();
+	}
+	@Benchmark
+	public long transcodeRegionTranscoder() throws IOException
+	{
+		new RegionTranscoder(CompressionScheme.Zlib, CompressionSettings.DEFAULT, pool).transcode(gzipRegion, transcoded);
+		return transcoded.length();
+	}
+	@Benchmark
+	public long fileRegionTimestamps() throws IOException
+	{
+		long n = 0;
+		try(FileRegion region = new FileRegion(TestingUtils.getInputFile("r.0.0.mca")))
+		{
+			for(int x = 0; x < 32; ++x)
+			{
+				for(int z = 0; z < 32; ++z)
+				{
+					n += region.getTimestamp(new LocChunkInRegion(x, z));
+				}
+			}
+		}
+		return n;
+	}
+	@Benchmark
+	public int scanFileRegion() throws IOException
+	{
+		int n = 0;
+		try(FileRegion region = new FileRegion(TestingUtils.getInputFile("r.0.0.mca")))
+		{
+			for(int x = 0; x < 32; ++x)
+			{
+				for(int z = 0; z < 32; ++z)
+				{
+					if(region.getChunk(new LocChunkInRegion(x, z)) != null)
+					{
+						++n;
+					}
+				}
+			}
+		}
+		return n;
+	}
+	@Benchmark
+	public int scanMappedRegion() throws IOException
+	{
+		int n = 0;
+		MappedRegion region = new MappedRegion(TestingUtils.getInputFile("r.0.0.mca"));
+		for(int x = 0; x < 32; ++x)
+		{
+			for(int z = 0; z < 32; ++z)
+			{
+				if(region.getChunk(new LocChunkInRegion(x, z)) != null)
+				{
+					++n;
+				}
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,270 @@
+package com.lb_stuff.mcmodify.test.minecraft;
+
+import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
+import com.lb_stuff.mcmodify.minecraft.CompressionSettings;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionSchemeTest
+{
+	private static byte[] sample()
+	{
+		byte[] data = new byte[100000];
+		Random r = new Random(42);
+		for(int i = 0; i < data.length; ++i)
+		{
+			data[i] = (byte)(i % 97 < 60 ? i % 7 : r.nextInt());
+		}
+		return data;
+	}
+
+	@Test
+	public void matchesJdkStreams() throws Throwable
+	{
+		final byte[] data = sample();
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		try(OutputStream os = new GZIPOutputStream(gz))
+		{
+			os.write(data);
+		}
+		ByteArrayOutputStream zl = new ByteArrayOutputStream();
+		try(OutputStream os = new DeflaterOutputStream(zl))
+		{
+			os.write(data);
+		}
+		for(int pass = 0; pass < 3; ++pass) //later passes reuse pooled codecs
+		{
+			assertArrayEquals(gz.toByteArray(), CompressionScheme.GZip.compress(data, 0, data.length));
+			assertArrayEquals(zl.toByteArray(), CompressionScheme.Zlib.compress(data, 0, data.length));
+			assertArrayEquals(data, CompressionScheme.GZip.decompress(gz.toByteArray(), 0, gz.size()));
+			assertArrayEquals(data, CompressionScheme.Zlib.decompress(zl.toByteArray(), 0, zl.size()));
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try(OutputStream os = CompressionScheme.GZip.getOutputStream(baos))
+			{
+				os.write(data, 0, 1000);
+				os.write(data[1000]);
+				os.write(data, 1001, data.length - 1001);
+			}
+			assertArrayEquals(data, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+			baos.reset();
+			try(OutputStream os = CompressionScheme.Zlib.getOutputStream(baos))
+			{
+				os.write(data);
+			}
+			assertArrayEquals(data, IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+		}
+	}
+
+	@Test
+	public void gzipFraming() throws Throwable
+	{
+		final byte[] data = sample();
+		final byte[] gz = CompressionScheme.GZip.compress(data, 0, data.length);
+		ByteArrayOutputStream named = new ByteArrayOutputStream();
+		named.write(gz, 0, 3);
+		named.write(8); //FNAME
+		named.write(gz, 4, 6);
+		named.write("chunk.nbt\0".getBytes("US-ASCII"));
+		named.write(gz, 10, gz.length - 10);
+		try(InputStream is = CompressionScheme.GZip.getInputStream(new ByteArrayInputStream(named.toByteArray())))
+		{
+			assertArrayEquals(data, IOUtils.toByteArray(is));
+		}
+
+		byte[] corrupt = gz.clone();
+		corrupt[corrupt.length - 5] ^= 1; //CRC32
+		try
+		{
+			CompressionScheme.GZip.decompress(corrupt, 0, corrupt.length);
+			fail("Accepted a corrupt GZip trailer");
+		}
+		catch(IOException e)
+		{
+		}
+		try
+		{
+			CompressionScheme.GZip.decompress(data, 0, 100);
+			fail("Accepted data without a GZip header");
+		}
+		catch(IOException e)
+		{
+		}
+		assertArrayEquals(data, CompressionScheme.GZip.decompress(gz, 0, gz.length)); //the pool survived the failures
+	}
+
+	@Test
+	public void settings() throws Throwable
+	{
+		final byte[] data = sample();
+		final CompressionSettings[] all = {CompressionSettings.SMALLEST, CompressionSettings.STORED, CompressionSettings.FASTEST,
+			new CompressionSettings(6, Deflater.HUFFMAN_ONLY, 100), new CompressionSettings(6, Deflater.FILTERED, 1), CompressionSettings.DEFAULT};
+		for(CompressionSettings settings : all) //each one reuses the deflaters the one before it changed
+		{
+			Deflater def = new Deflater(settings.getLevel());
+			def.setStrategy(settings.getStrategy());
+			def.setInput(data);
+			def.finish();
+			byte[] zl = new byte[data.length*2];
+			int n = 0;
+			while(!def.finished())
+			{
+				n += def.deflate(zl, n, zl.length - n);
+			}
+			zl = Arrays.copyOf(zl, n);
+			def.end();
+			assertArrayEquals(settings.toString(), zl, CompressionScheme.Zlib.compress(data, 0, data.length, settings));
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try(OutputStream os = CompressionScheme.GZip.getOutputStream(baos, settings))
+			{
+				os.write(data);
+			}
+			assertArrayEquals(settings.toString(), data, CompressionScheme.GZip.decompress(baos.toByteArray(), 0, baos.size()));
+		}
+		final int smallest = CompressionScheme.Zlib.compress(data, 0, data.length, CompressionSettings.SMALLEST).length;
+		final int fastest = CompressionScheme.Zlib.compress(data, 0, data.length, CompressionSettings.FASTEST).length;
+		final int stored = CompressionScheme.Zlib.compress(data, 0, data.length, CompressionSettings.STORED).length;
+		assertTrue(smallest <= fastest && fastest < data.length && data.length < stored);
+
+		try
+		{
+			new CompressionSettings(10, Deflater.DEFAULT_STRATEGY, 8192);
+			fail("Accepted deflate level 10");
+		}
+		catch(IllegalArgumentException e)
+		{
+		}
+		try
+		{
+			new CompressionSettings(6, 3, 8192);
+			fail("Accepted an unknown deflate strategy");
+		}
+		catch(IllegalArgumentException e)
+		{
+		}
+	}
+
+	@Test
+	public void lz4AndStore() throws Throwable
+	{
+		final byte[] data = sample();
+		final byte[] noise = new byte[70000];
+		new Random(7).nextBytes(noise);
+		for(byte[] d : new byte[][]{data, noise, new byte[0], Arrays.copyOf(data, 13)})
+		{
+			for(CompressionScheme scheme : new CompressionScheme[]{CompressionScheme.LZ4, CompressionScheme.Store})
+			{
+				assertEquals(scheme, CompressionScheme.fromId(scheme.getId()));
+				final byte[] c = scheme.compress(d, 0, d.length);
+				assertArrayEquals(d, scheme.decompress(c, 0, c.length));
+
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				try(OutputStream os = scheme.getOutputStream(baos))
+				{
+					for(int i = 0; i < d.length; i += 1000)
+					{
+						os.write(d, i, Math.min(1000, d.length - i));
+					}
+				}
+				assertArrayEquals(c, baos.toByteArray());
+				try(InputStream is = scheme.getInputStream(new ByteArrayInputStream(c)))
+				{
+					assertArrayEquals(d, IOUtils.toByteArray(is));
+				}
+			}
+		}
+		final byte[] lz4 = CompressionScheme.LZ4.compress(data, 0, data.length);
+		assertTrue(lz4.length < data.length/2);
+		//an empty stream is only the end block, as lz4-java writes it
+		assertArrayEquals(new byte[]{'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k', 0x16, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
+			CompressionScheme.LZ4.compress(data, 0, 0));
+
+		for(int i = 8; i < lz4.length; i += 997)
+		{
+			byte[] corrupt = lz4.clone();
+			corrupt[i] ^= 0x40;
+			try
+			{
+				CompressionScheme.LZ4.decompress(corrupt, 0, corrupt.length);
+				fail("Accepted corrupt LZ4 data at "+i);
+			}
+			catch(IOException e)
+			{
+			}
+		}
+		try
+		{
+			CompressionScheme.LZ4.decompress(lz4, 0, lz4.length - 1);
+			fail("Accepted LZ4 data without an end block");
+		}
+		catch(IOException e)
+		{
+		}
+	}
+
+	@Test
+	public void parallel() throws Throwable
+	{
+		final byte[] data = new byte[1000000];
+		Random r = new Random(3);
+		for(int i = 0; i < data.length; ++i)
+		{
+			data[i] = (byte)(i % 113 < 80 ? (i/113) % 11 : r.nextInt(4));
+		}
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			for(CompressionSettings settings : new CompressionSettings[]{CompressionSettings.DEFAULT, CompressionSettings.FASTEST, CompressionSettings.STORED})
+			{
+				final byte[] serial = CompressionScheme.Zlib.compress(data, 1, data.length - 1, settings);
+				final byte[] zl = CompressionScheme.Zlib.compressParallel(data, 1, data.length - 1, settings, pool);
+				assertEquals(serial[0], zl[0]); //same zlib header as zlib writes
+				assertEquals(serial[1], zl[1]);
+				assertTrue(zl.length < serial.length*1.02 + 100);
+				assertArrayEquals(Arrays.copyOfRange(data, 1, data.length), IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(zl))));
+
+				final byte[] gz = CompressionScheme.GZip.compressParallel(data, 1, data.length - 1, settings, pool);
+				assertArrayEquals(Arrays.copyOfRange(data, 1, data.length), IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gz))));
+			}
+			final byte[] nested = pool.submit(new Callable<byte[]>() //from a thread of the pool itself
+			{
+				/**
+				 * Compresses the data from a thread of the pool.
+				 * @return The compressed data.
+				 * @throws IOException never.
+				 */
+				@Override public byte[] call() throws IOException
+				{
+					return CompressionScheme.GZip.compressParallel(data, 0, data.length, CompressionSettings.DEFAULT, pool);
+				}
+			}).get();
+			assertArrayEquals(data, CompressionScheme.GZip.decompress(nested, 0, nested.length));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.lb_stuff.mcmodify.test.minecraft;
 import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
 import com.lb_stuff.mcmodify.minecraft.Inventory;
 import com.lb_stuff.mcmodify.minecraft.Level;
+import com.lb_stuff.mcmodify.nbt.NbtInput;
 import com.lb_stuff.mcmodify.nbt.Tag;
 import com.lb_stuff.mcmodify.test.TestingUtils;
 
@@ -21,7 +22,7 @@ public class LevelTest
 		final Level level;
 		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
 		{
-			level = new Level((Tag.Compound)Tag.deserialize(CompressionScheme.GZip.getInputStream(fis)));
+			level = new Level((Tag.Compound)Tag.deserialize(new NbtInput(CompressionScheme.GZip.getInputStream(fis))));
 		}
 
 		Level.Player player = level.Player();
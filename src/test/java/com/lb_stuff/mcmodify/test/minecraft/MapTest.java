@@ -2,6 +2,7 @@ package com.lb_stuff.mcmodify.test.minecraft;
 
 import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
 import com.lb_stuff.mcmodify.minecraft.Map;
+import com.lb_stuff.mcmodify.nbt.NbtInput;
 import com.lb_stuff.mcmodify.nbt.Tag;
 import com.lb_stuff.mcmodify.test.TestingUtils;
 
@@ -23,7 +24,7 @@ public class MapTest
 		Tag.Compound idcounts;
 		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("idcounts.dat")))
 		{
-			idcounts = (Tag.Compound)Tag.deserialize(CompressionScheme.None.getInputStream(fis));
+			idcounts = (Tag.Compound)Tag.deserialize(new NbtInput(CompressionScheme.None.getInputStream(fis)));
 		}
 		System.out.println("Last created map number: "+((Tag.Short)idcounts.find(Tag.Type.SHORT, "map")).v);
 	}
@@ -33,7 +34,7 @@ public class MapTest
 		final Map map;
 		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("map.dat")))
 		{
-			map = new Map((Tag.Compound)Tag.deserialize(CompressionScheme.GZip.getInputStream(fis)));
+			map = new Map((Tag.Compound)Tag.deserialize(new NbtInput(CompressionScheme.GZip.getInputStream(fis))));
 		}
 
 		BufferedImage mapimage = map.Image();
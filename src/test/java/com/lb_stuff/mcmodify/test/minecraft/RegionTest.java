@@ -2,31 +2,244 @@ package com.lb_stuff.mcmodify.test.minecraft;
 
 import com.lb_stuff.mcmodify.location.LocChunkInRegion;
 import com.lb_stuff.mcmodify.minecraft.Chunk;
+import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
+import com.lb_stuff.mcmodify.minecraft.CompressionSettings;
 import com.lb_stuff.mcmodify.minecraft.FileRegion;
+import com.lb_stuff.mcmodify.minecraft.MappedRegion;
+import com.lb_stuff.mcmodify.minecraft.MemoryRegion;
+import com.lb_stuff.mcmodify.minecraft.RegionTranscoder;
 import com.lb_stuff.mcmodify.minecraft.Mob;
+import com.lb_stuff.mcmodify.nbt.Tag;
 import com.lb_stuff.mcmodify.test.TestingUtils;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ForkJoinPool;
+
 
 public class RegionTest
 {
 	@Test
 	public void modifyEveryChunk() throws Throwable
 	{
-		FileRegion region = new FileRegion(TestingUtils.getInputFile("r.0.0.mca"));
-		FileRegion newregion = new FileRegion(TestingUtils.getOutputFile("r.0.0.mca"));
-		for(int x = 0; x < 31; ++x)
+		try(FileRegion region = new FileRegion(TestingUtils.getInputFile("r.0.0.mca"));
+			FileRegion newregion = new FileRegion(TestingUtils.getOutputFile("r.0.0.mca")))
+		{
+			for(int x = 0; x < 31; ++x)
+			{
+				for(int z = 0; z < 31; ++z)
+				{
+					Chunk chunk = region.getChunk(new LocChunkInRegion(x, z));
+					if(chunk != null)
+					{
+						chunk.Entities().add(new Mob.EnderDragon(x*16+8, 96, z*16+8));
+					}
+					newregion.setChunk(new LocChunkInRegion(x, z), chunk);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void reopen() throws Throwable
+	{
+		final File out = TestingUtils.getOutputFile("r.0.0.reopen.mca");
+		Files.deleteIfExists(out.toPath());
+		final LocChunkInRegion pos = new LocChunkInRegion(3, 7);
+		Chunk c;
+		try(FileRegion in = new FileRegion(TestingUtils.getInputFile("r.0.0.mca"));
+			FileRegion region = new FileRegion(out))
+		{
+			c = in.getChunk(pos);
+			assertNull(region.getChunk(pos));
+			region.setChunk(pos, c);
+			region.setTimestamp(pos, 12345);
+		}
+		FileRegion region = new FileRegion(out);
+		try
+		{
+			assertEquals(12345, region.getTimestamp(pos));
+			assertTrue(c.ToNBT("").contentEquals(region.getChunk(pos).ToNBT("")));
+		}
+		finally
+		{
+			region.close();
+		}
+		try
+		{
+			region.getTimestamp(pos);
+			throw new AssertionError("Closed region was read");
+		}
+		catch(IOException e)
+		{
+		}
+		try
+		{
+			region.getChunk(new LocChunkInRegion(0, 0)); //no chunk is stored there
+			throw new AssertionError("Closed region was read");
+		}
+		catch(IOException e)
+		{
+		}
+	}
+
+	@Test
+	public void scratchRoundTrip() throws Throwable
+	{
+		final File in = TestingUtils.getInputFile("r.0.0.mca");
+		final File scratch = TestingUtils.getOutputFile("r.0.0.lz4.mca");
+		final File game = TestingUtils.getOutputFile("r.0.0.zlib.mca");
+		new MemoryRegion(in, CompressionScheme.LZ4).saveToFile(scratch, CompressionScheme.LZ4);
+		MemoryRegion.convertForGame(scratch, game);
+		int chunks = 0;
+		try(FileRegion original = new FileRegion(in);
+			FileRegion lz4 = new FileRegion(scratch);
+			FileRegion zlib = new FileRegion(game))
+		{
+			for(int x = 0; x < 32; ++x)
+			{
+				for(int z = 0; z < 32; ++z)
+				{
+					LocChunkInRegion pos = new LocChunkInRegion(x, z);
+					Chunk c = original.getChunk(pos);
+					if(c != null)
+					{
+						assertTrue(c.ToNBT("").contentEquals(lz4.getChunk(pos).ToNBT("")));
+						assertTrue(c.ToNBT("").contentEquals(zlib.getChunk(pos).ToNBT("")));
+						++chunks;
+					}
+					assertEquals(original.getTimestamp(pos), zlib.getTimestamp(pos));
+				}
+			}
+		}
+		assertEquals(625, chunks);
+	}
+
+	@Test
+	public void transcode() throws Throwable
+	{
+		final File in = TestingUtils.getInputFile("r.0.0.mca");
+		final File gz = TestingUtils.getOutputFile("r.0.0.gz.mca");
+		final File zl = TestingUtils.getOutputFile("r.0.0.zl.mca");
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try
+		{
+			assertEquals(625, new RegionTranscoder(CompressionScheme.GZip, CompressionSettings.DEFAULT, pool).transcode(in, gz));
+			final RegionTranscoder toZlib = new RegionTranscoder(CompressionScheme.Zlib, CompressionSettings.DEFAULT, pool);
+			assertEquals(625, toZlib.transcode(gz, zl));
+			final byte[] once = Files.readAllBytes(zl.toPath());
+			assertEquals(0, toZlib.transcode(zl, zl)); //in place, with every chunk already in Zlib
+			assertArrayEquals(once, Files.readAllBytes(zl.toPath()));
+			if(Files.getFileStore(zl.toPath()).supportsFileAttributeView(PosixFileAttributeView.class))
+			{
+				Files.setPosixFilePermissions(zl.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+				toZlib.transcode(zl, zl);
+				assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(zl.toPath())));
+				final File copy = TestingUtils.getOutputFile("r.0.0.copy.mca");
+				Files.deleteIfExists(copy.toPath());
+				toZlib.transcode(zl, copy);
+				assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(copy.toPath())));
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		try(FileRegion original = new FileRegion(in);
+			FileRegion gzip = new FileRegion(gz);
+			FileRegion zlib = new FileRegion(zl))
+		{
+			for(int x = 0; x < 32; ++x)
+			{
+				for(int z = 0; z < 32; ++z)
+				{
+					LocChunkInRegion pos = new LocChunkInRegion(x, z);
+					Chunk c = original.getChunk(pos);
+					if(c != null)
+					{
+						assertTrue(c.ToNBT("").contentEquals(gzip.getChunk(pos).ToNBT("")));
+						assertTrue(c.ToNBT("").contentEquals(zlib.getChunk(pos).ToNBT("")));
+					}
+					assertEquals(original.getTimestamp(pos), gzip.getTimestamp(pos));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void mapped() throws Throwable
+	{
+		final File in = TestingUtils.getInputFile("r.0.0.mca");
+		final File store = TestingUtils.getOutputFile("r.0.0.store.mca");
+		final File lz4 = TestingUtils.getOutputFile("r.0.0.mapped.lz4.mca");
+		new RegionTranscoder(CompressionScheme.Store, CompressionSettings.DEFAULT, ForkJoinPool.commonPool()).transcode(in, store);
+		new RegionTranscoder(CompressionScheme.LZ4, CompressionSettings.DEFAULT, ForkJoinPool.commonPool()).transcode(in, lz4);
+		final MappedRegion[] mapped = {new MappedRegion(in), new MappedRegion(store), new MappedRegion(lz4)};
+		int chunks = 0;
+		try(FileRegion original = new FileRegion(in))
 		{
-			for(int z = 0; z < 31; ++z)
+			for(int x = 0; x < 32; ++x)
 			{
-				Chunk chunk = region.getChunk(new LocChunkInRegion(x, z));
-				if(chunk != null)
+				for(int z = 0; z < 32; ++z)
 				{
-					chunk.Entities().add(new Mob.EnderDragon(x*16+8, 96, z*16+8));
+					LocChunkInRegion pos = new LocChunkInRegion(x, z);
+					Chunk c = original.getChunk(pos);
+					for(MappedRegion m : mapped)
+					{
+						if(c == null)
+						{
+							assertNull(m.getChunk(pos));
+						}
+						else
+						{
+							assertTrue(c.ToNBT("").contentEquals(m.getChunk(pos).ToNBT("")));
+						}
+						assertEquals(original.getTimestamp(pos), m.getTimestamp(pos));
+					}
+					if(c != null)
+					{
+						++chunks;
+					}
 				}
-				newregion.setChunk(new LocChunkInRegion(x, z), chunk);
 			}
 		}
+		assertEquals(625, chunks);
+	}
+
+	@Test
+	public void transcodeOversized() throws Throwable
+	{
+		final ByteArrayOutputStream nbt = new ByteArrayOutputStream();
+		new Tag.Compound("", new Tag.ByteArray("Blocks", new byte[600000])).serialize(nbt);
+		final byte[] zlib = CompressionScheme.Zlib.compress(nbt.toByteArray(), 0, nbt.size());
+		final ByteBuffer file = ByteBuffer.allocate(8192 + (5 + zlib.length + 4095)/4096*4096);
+		file.putInt(7*4, (2 << 8) | ((5 + zlib.length + 4095)/4096));
+		file.position(8192);
+		file.putInt(zlib.length + 1).put(CompressionScheme.Zlib.getId()).put(zlib);
+		final File in = TestingUtils.getOutputFile("r.oversized.mca");
+		final File out = TestingUtils.getOutputFile("r.oversized.store.mca");
+		Files.write(in.toPath(), file.array());
+		try
+		{
+			new RegionTranscoder(CompressionScheme.Store, CompressionSettings.DEFAULT, ForkJoinPool.commonPool()).transcode(in, out);
+			fail("A chunk larger than 127 sectors was stored");
+		}
+		catch(IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Chunk 7 "));
+		}
 	}
 }
@@ -0,0 +1,163 @@
+package com.lb_stuff.mcmodify.test.nbt;
+
+import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
+import com.lb_stuff.mcmodify.nbt.ContentHash;
+import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtReader;
+import com.lb_stuff.mcmodify.nbt.Tag;
+import com.lb_stuff.mcmodify.test.TestingUtils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+
+public class NbtReaderTest
+{
+	private static byte[] bytesOf(Tag t) throws Throwable
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		t.serialize(baos);
+		return baos.toByteArray();
+	}
+
+	@Test
+	public void walkAndSkip() throws Throwable
+	{
+		Tag.Compound root = new Tag.Compound("", new Tag.Compound("Level",
+			new Tag.List("Entities", Tag.Type.COMPOUND, new Tag.Compound(null, new Tag.String("id", "Pig"))),
+			new Tag.ByteArray("Blocks", new byte[]{1, 2, 3}),
+			new Tag.Int("xPos", 7),
+			new Tag.List("Pos", Tag.Type.DOUBLE, new Tag.Double(null, 1.5), new Tag.Double(null, 2.5))));
+
+		int xpos = -1;
+		byte[] blocks = null;
+		double sum = 0;
+		try(NbtReader r = new NbtReader(new ByteArrayInputStream(bytesOf(root))))
+		{
+			assertEquals(Tag.Type.COMPOUND, r.nextTag());
+			assertEquals("", r.name());
+			r.beginCompound();
+			assertEquals(Tag.Type.COMPOUND, r.nextTag());
+			r.beginCompound();
+			while(r.nextTag() != Tag.Type.END)
+			{
+				switch(r.name())
+				{
+				case "xPos":   xpos = r.readInt(); break;
+				case "Blocks": blocks = r.readByteArray(); break;
+				case "Pos":
+					assertEquals(2, r.beginList());
+					while(r.nextTag() != Tag.Type.END)
+					{
+						assertNull(r.name());
+						sum += r.readDouble();
+					}
+					break;
+				default: r.skip(); break;
+				}
+			}
+			assertEquals(1, r.depth());
+			assertEquals(Tag.Type.END, r.nextTag());
+			assertEquals(0, r.depth());
+			assertEquals(Tag.Type.END, r.nextTag());
+		}
+		assertEquals(7, xpos);
+		assertArrayEquals(new byte[]{1, 2, 3}, blocks);
+		assertEquals(4.0, sum, 0.0);
+	}
+
+	@Test
+	public void skipWholeLevel() throws Throwable
+	{
+		try(NbtReader r = new NbtReader(CompressionScheme.GZip.getInputStream(new FileInputStream(TestingUtils.getInputFile("level.dat")))))
+		{
+			assertEquals(Tag.Type.COMPOUND, r.nextTag());
+			r.skip();
+			assertEquals(Tag.Type.END, r.nextTag());
+		}
+	}
+
+	@Test
+	public void filteredDeserialize() throws Throwable
+	{
+		final Tag.Compound level;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			level = (Tag.Compound)Tag.deserialize(CompressionScheme.GZip.getInputStream(fis), "Data/LevelName", "Data/Player/Inventory/id");
+		}
+		assertEquals(1, level.getSize());
+		Tag.Compound data = (Tag.Compound)level.get("Data");
+		assertEquals(2, data.getSize());
+		assertEquals(Tag.Type.STRING, data.get("LevelName").getType());
+		Tag.List inventory = (Tag.List)((Tag.Compound)data.get("Player")).get("Inventory");
+		for(Tag item : inventory)
+		{
+			assertEquals(1, ((Tag.Compound)item).getSize());
+		}
+	}
+
+	@Test
+	public void nonEmptyListOfEnd() throws Throwable
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeByte(Tag.Type.COMPOUND.ordinal());
+		out.writeUTF("");
+		out.writeByte(Tag.Type.LIST.ordinal());
+		out.writeUTF("l");
+		out.writeByte(Tag.Type.END.ordinal());
+		out.writeInt(3);
+		out.write(new byte[4]); //three Ends for the list, one for the compound
+		final byte[] bad = baos.toByteArray();
+		try(NbtReader r = new NbtReader(new ByteArrayInputStream(bad)))
+		{
+			r.nextTag();
+			r.beginCompound();
+			assertEquals(Tag.Type.LIST, r.nextTag());
+			r.beginList();
+			fail("Entered a non-empty list of End");
+		}
+		catch(FormatException e)
+		{
+		}
+		try(NbtReader r = new NbtReader(new ByteArrayInputStream(bad)))
+		{
+			r.nextTag();
+			r.skip();
+			fail("Skipped a non-empty list of End");
+		}
+		catch(FormatException e)
+		{
+		}
+		try
+		{
+			ContentHash.of(ByteBuffer.wrap(bad));
+			fail("Hashed a non-empty list of End");
+		}
+		catch(FormatException e)
+		{
+		}
+	}
+
+	@Test
+	public void filterWithoutChildren() throws Throwable
+	{
+		Tag t = Tag.deserialize(new ByteArrayInputStream(bytesOf(new Tag.Int("xPos", 7))), "Level/xPos");
+		assertEquals(Tag.Type.INT, t.getType());
+		assertEquals(7, ((Tag.Int)t).v);
+		assertNull(Tag.deserialize(new ByteArrayInputStream(bytesOf(Tag.List.ofDoubles("Pos", 1.0, 2.0))), "x"));
+		Tag.Compound c = (Tag.Compound)Tag.deserialize(new ByteArrayInputStream(bytesOf(new Tag.Compound("",
+			Tag.List.ofDoubles("Pos", 1.0, 2.0), new Tag.Int("xPos", 7)))), "Pos/x", "xPos");
+		assertEquals(1, c.getSize());
+		assertEquals(Tag.Type.INT, c.get("xPos").getType());
+	}
+}
@@ -0,0 +1,157 @@
+package com.lb_stuff.mcmodify.test.nbt;
+
+import com.lb_stuff.mcmodify.location.LocChunkInRegion;
+import com.lb_stuff.mcmodify.minecraft.Chunk;
+import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
+import com.lb_stuff.mcmodify.minecraft.Entity;
+import com.lb_stuff.mcmodify.minecraft.FileRegion;
+import com.lb_stuff.mcmodify.minecraft.IDs;
+import com.lb_stuff.mcmodify.minecraft.Inventory;
+import com.lb_stuff.mcmodify.minecraft.Level;
+import com.lb_stuff.mcmodify.minecraft.Mob;
+import com.lb_stuff.mcmodify.minecraft.TileEntity;
+import com.lb_stuff.mcmodify.nbt.NbtInput;
+import com.lb_stuff.mcmodify.nbt.NbtWriter;
+import com.lb_stuff.mcmodify.nbt.Snbt;
+import com.lb_stuff.mcmodify.nbt.Tag;
+import com.lb_stuff.mcmodify.test.TestingUtils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+
+public class NbtWriterTest
+{
+	@Test
+	public void writeAndRead() throws Throwable
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		NbtWriter w = new NbtWriter(baos);
+		w.name("").beginCompound();
+		w.name("xPos").writeInt(3);
+		w.name("Blocks").writeByteArray(new byte[]{4, 5});
+		w.name("Pos").beginList(Tag.Type.DOUBLE, 2).writeDouble(1.0).writeDouble(2.0).endList();
+		w.endCompound();
+		assertTrue(w.isComplete());
+
+		Tag.Compound root = (Tag.Compound)Tag.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals(3, ((Tag.Int)root.get("xPos")).v);
+		assertArrayEquals(new byte[]{4, 5}, ((Tag.ByteArray)root.get("Blocks")).v);
+		assertEquals(2, ((Tag.List)root.get("Pos")).getSize());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unnamedInCompound() throws Throwable
+	{
+		NbtWriter w = new NbtWriter(new ByteArrayOutputStream());
+		w.name("").beginCompound();
+		w.writeInt(1);
+	}
+	@Test(expected = IllegalStateException.class)
+	public void wrongListType() throws Throwable
+	{
+		NbtWriter w = new NbtWriter(new ByteArrayOutputStream());
+		w.name("").beginList(Tag.Type.INT, 1);
+		w.writeLong(1L);
+	}
+	@Test(expected = IllegalStateException.class)
+	public void shortList() throws Throwable
+	{
+		NbtWriter w = new NbtWriter(new ByteArrayOutputStream());
+		w.name("").beginList(Tag.Type.INT, 2);
+		w.writeInt(1);
+		w.endList();
+	}
+
+	private static void assertSameBytes(Chunk chunk) throws Throwable
+	{
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		chunk.ToNBT(new NbtWriter(streamed), "");
+		ByteArrayOutputStream tree = new ByteArrayOutputStream();
+		chunk.ToNBT("").serialize(tree);
+		assertArrayEquals(tree.toByteArray(), streamed.toByteArray());
+	}
+	private static void assertSameBytes(Level level) throws Throwable
+	{
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		level.ToNBT(new NbtWriter(streamed), "");
+		ByteArrayOutputStream tree = new ByteArrayOutputStream();
+		level.ToNBT("").serialize(tree);
+		assertArrayEquals(tree.toByteArray(), streamed.toByteArray());
+	}
+
+	@Test
+	public void chunkRoundTrip() throws Throwable
+	{
+		int chunks = 0;
+		Chunk last = null;
+		try(FileRegion region = new FileRegion(TestingUtils.getInputFile("r.0.0.mca")))
+		{
+			for(int x = 0; x < 32; ++x)
+			{
+				for(int z = 0; z < 32; ++z)
+				{
+					Chunk chunk = region.getChunk(new LocChunkInRegion(x, z));
+					if(chunk != null)
+					{
+						assertSameBytes(chunk);
+						last = chunk;
+						++chunks;
+					}
+				}
+			}
+		}
+		assertEquals(625, chunks);
+		last.Entities().add(new Entity.Boat(1.5, 64, 2.5));
+		last.Entities().add(new Entity.XPOrb(1.5, 65, 2.5));
+		last.Entities().add(new Entity.Projectile.Arrow(1.5, 66, 2.5));
+		last.Entities().add(new Entity.Projectile.Snowball(1.5, 67, 2.5));
+		last.Entities().add(new Mob.EnderDragon(1.5, 68, 2.5));
+		Entity.Minecart.Chest cart = new Entity.Minecart.Chest(1.5, 69, 2.5);
+		cart.Item(3, new Inventory.Item(IDs.WrittenBook, 0, 1));
+		last.Entities().add(new Entity.Minecart(1.5, 69, 2.5));
+		last.Entities().add(cart);
+		last.Entities().add(new Entity.Minecart.Furnace(1.5, 69, 2.5));
+		Mob.Wolf wolf = new Mob.Wolf(1.5, 70, 2.5);
+		wolf.Leash(new Mob.Leash.Fence(1, 70, 2));
+		wolf.CustomName("Rex");
+		last.Entities().add(wolf);
+		last.Entities().add(new Mob.Creeper(1.5, 71, 2.5));
+		last.Entities().add(new Mob.Pig(1.5, 72, 2.5));
+		last.Entities().add(new Mob.Villager(1.5, 73, 2.5));
+		final String item = "{id:1s,Damage:0s,Count:1b}";
+		last.TileEntities().add(new TileEntity.Furnace((Tag.Compound)Snbt.parse("", "{id:Furnace,x:1,y:2,z:3,BurnTime:5s,CookTime:6s,Items:["+item+","+item+","+item+"]}")));
+		last.TileEntities().add(new TileEntity.Sign((Tag.Compound)Snbt.parse("", "{id:Sign,x:1,y:2,z:3,Text1:a,Text2:b,Text3:c,Text4:d}")));
+		last.TileEntities().add(new TileEntity.Music((Tag.Compound)Snbt.parse("", "{id:Music,x:1,y:2,z:3,note:4b}")));
+		last.TileEntities().add(new TileEntity.Trap((Tag.Compound)Snbt.parse("", "{id:Trap,x:1,y:2,z:3,Items:[{Slot:2b,id:1s,Damage:0s,Count:1b}]}")));
+		last.TileEntities().add(new TileEntity.RecordPlayer((Tag.Compound)Snbt.parse("", "{id:RecordPlayer,x:1,y:2,z:3,Record:2256}")));
+		last.TileEntities().add(new TileEntity.Piston((Tag.Compound)Snbt.parse("", "{id:Piston,x:1,y:2,z:3,blockId:1,blockData:0,facing:2,progress:0.5f,extending:1b}")));
+		last.TileEntities().add(new TileEntity.Cauldron((Tag.Compound)Snbt.parse("", "{id:Cauldron,x:1,y:2,z:3,Items:[{Slot:0b,id:1s,Damage:0s,Count:1b}],BrewTime:7}")));
+		last.TileEntities().add(new TileEntity.EnchantTable((Tag.Compound)Snbt.parse("", "{id:EnchantTable,x:1,y:2,z:3}")));
+		assertSameBytes(last);
+	}
+	@Test
+	public void levelRoundTrip() throws Throwable
+	{
+		final Level level;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			level = new Level((Tag.Compound)Tag.deserialize(new NbtInput(CompressionScheme.GZip.getInputStream(fis))));
+		}
+		assertSameBytes(level);
+		Inventory.Item book = new Inventory.Item(IDs.WrittenBook, 0, 1);
+		book.Title("Title");
+		book.Author("Author");
+		book.Pages().add("Page");
+		book.EnchantLevel(Inventory.Item.Enchantment.FireAspect, (short)2);
+		level.Player().Inventory().Item(7, book);
+		level.Player().Leash(new Mob.Leash.UUID(1, 2));
+		assertSameBytes(level);
+	}
+}
@@ -1,12 +1,35 @@
 package com.lb_stuff.mcmodify.test.nbt;
 
 import com.lb_stuff.mcmodify.minecraft.CompressionScheme;
+import com.lb_stuff.mcmodify.nbt.ContentHash;
+import com.lb_stuff.mcmodify.nbt.FormatException;
+import com.lb_stuff.mcmodify.nbt.NbtDiff;
+import com.lb_stuff.mcmodify.nbt.NbtInput;
+import com.lb_stuff.mcmodify.nbt.NbtLimits;
+import com.lb_stuff.mcmodify.nbt.NbtPath;
+import com.lb_stuff.mcmodify.nbt.Snbt;
 import com.lb_stuff.mcmodify.nbt.Tag;
+import com.lb_stuff.mcmodify.test.TestingUtils;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class TagTests
 {
@@ -30,4 +53,543 @@ public class TagTests
 			level.serialize(CompressionScheme.GZip.getOutputStream(fos));
 		}
 	}
+
+	@Test
+	public void byteBufferRoundTrip() throws Throwable
+	{
+		final Tag.Compound level;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			level = (Tag.Compound)Tag.deserialize(CompressionScheme.GZip.getInputStream(fis));
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		level.serialize(baos);
+		final byte[] expected = baos.toByteArray();
+		assertEquals(expected.length, level.serializedSize());
+
+		for(ByteBuffer bb : new ByteBuffer[]{ByteBuffer.allocate(expected.length+3), ByteBuffer.allocateDirect(expected.length+3)})
+		{
+			bb.put((byte)7);
+			level.serialize(bb);
+			assertEquals(1+expected.length, bb.position());
+			bb.put(new byte[]{1, 2});
+			bb.flip();
+
+			final byte[] actual = new byte[expected.length];
+			bb.position(1);
+			bb.get(actual);
+			assertArrayEquals(expected, actual);
+
+			bb.position(1);
+			assertEquals(level.toString(), Tag.deserialize(bb).toString());
+			assertEquals(1+expected.length, bb.position());
+		}
+	}
+
+	@Test
+	public void lazyCompound() throws Throwable
+	{
+		final Tag.Compound level;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			level = (Tag.Compound)Tag.deserialize(CompressionScheme.GZip.getInputStream(fis));
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		level.serialize(baos);
+		final byte[] expected = baos.toByteArray();
+
+		ByteBuffer bb = ByteBuffer.wrap(expected);
+		Tag.Compound lazy = (Tag.Compound)Tag.deserializeLazy(bb);
+		assertEquals(expected.length, bb.position());
+		baos.reset();
+		lazy.serialize(baos);
+		assertArrayEquals(expected, baos.toByteArray());
+
+		Tag.Compound data = (Tag.Compound)lazy.get("Data");
+		Tag.Compound eager = (Tag.Compound)level.get("Data");
+		assertEquals(eager.getSize(), data.getSize());
+		assertEquals(eager.get("LevelName").toString(), data.get("LevelName").toString());
+		assertEquals(eager.get("Player").toString(), data.get("Player").toString());
+		assertNull(data.get("NoSuchTag"));
+
+		((Tag.Long)data.get("Time")).v = 0L;
+		((Tag.Long)eager.get("Time")).v = 0L;
+		data.remove("LevelName");
+		eager.remove("LevelName");
+		assertEquals(level.serializedSize(), lazy.serializedSize());
+		baos.reset();
+		lazy.serialize(baos);
+		Tag.Compound reread = (Tag.Compound)((Tag.Compound)Tag.deserialize(new ByteArrayInputStream(baos.toByteArray()))).get("Data");
+		assertEquals(eager.getSize(), reread.getSize());
+		assertNull(reread.get("LevelName"));
+		assertEquals(0L, ((Tag.Long)reread.get("Time")).v);
+		assertEquals(eager.get("Player").toString(), reread.get("Player").toString());
+	}
+
+	@Test
+	public void arrayViews() throws Throwable
+	{
+		ByteBuffer bb = ByteBuffer.allocate(64);
+		new Tag.Compound("", new Tag.ByteArray("b", new byte[]{1, 2, 3}), new Tag.IntArray("i", new int[]{-1, 256})).serialize(bb);
+		bb.flip();
+		final byte[] before = Arrays.copyOf(bb.array(), bb.limit());
+
+		Tag.Compound root = (Tag.Compound)Tag.deserializeLazy(bb);
+		Tag.ByteArray b = (Tag.ByteArray)root.get("b");
+		Tag.IntArray i = (Tag.IntArray)root.get("i");
+		assertTrue(b.isView());
+		assertTrue(i.isView());
+		assertEquals(3, b.length());
+		assertEquals(3, b.get(2));
+		assertEquals(-1, i.get(0));
+		assertEquals(256, i.get(1));
+
+		b.set(0, (byte)9);
+		i.set(1, 7);
+		assertFalse(b.isView());
+		assertFalse(i.isView());
+		assertArrayEquals(before, Arrays.copyOf(bb.array(), bb.limit()));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		root.serialize(baos);
+		Tag.Compound reread = (Tag.Compound)Tag.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+		assertArrayEquals(new byte[]{9, 2, 3}, ((Tag.ByteArray)reread.get("b")).v);
+		assertArrayEquals(new int[]{-1, 7}, ((Tag.IntArray)reread.get("i")).v);
+	}
+
+	@Test
+	public void longArrayAndPrimitiveLists() throws Throwable
+	{
+		Tag.List motion = new Tag.List("Motion", Tag.Type.DOUBLE, new Tag.Double(null, 0.5), new Tag.Double(null, -2.0));
+		Tag.Compound root = new Tag.Compound("", new Tag.LongArray("l", new long[]{java.lang.Long.MIN_VALUE, 1L << 40}),
+		                                         Tag.List.ofDoubles("Pos", 1.5, 64.0, -3.25),
+		                                         Tag.List.ofFloats("Rotation", 90.0f, -10.0f),
+		                                         motion);
+		assertEquals(-2.0, motion.getDouble(1), 0.0);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		root.serialize(baos);
+		assertEquals(baos.size(), root.serializedSize());
+
+		Tag.Compound reread = (Tag.Compound)Tag.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+		assertArrayEquals(new long[]{java.lang.Long.MIN_VALUE, 1L << 40}, ((Tag.LongArray)reread.get("l")).array());
+		Tag.List pos = (Tag.List)reread.get("Pos");
+		assertTrue(pos.isPrimitive());
+		assertEquals(3, pos.getSize());
+		assertEquals(-3.25, pos.getDouble(2), 0.0);
+		pos.setDouble(0, 8.0);
+		assertTrue(pos.isPrimitive());
+		assertEquals(-10.0f, ((Tag.List)reread.get("Rotation")).getFloat(1), 0.0f);
+		assertEquals(0.5, ((Tag.Double)((Tag.List)reread.get("Motion")).get(0)).v, 0.0);
+
+		assertEquals(8.0, ((Tag.Double)pos.get(0)).v, 0.0);
+		assertFalse(pos.isPrimitive());
+		assertEquals(64.0, pos.getDouble(1), 0.0);
+	}
+
+	@Test
+	public void namesAndLongStrings() throws Throwable
+	{
+		char[] c = new char[40000];
+		Arrays.fill(c, 'x');
+		final String big = new String(c);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new Tag.Compound("", new Tag.Compound("a", new Tag.Int("id", 1)),
+		                     new Tag.Compound("b", new Tag.Int("id", 2)),
+		                     new Tag.String("big", big),
+		                     new Tag.String("\u00e9t\u00e9", "\u00e9")).serialize(baos);
+		Tag.Compound root = (Tag.Compound)Tag.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+		assertSame(((Tag.Compound)root.get("a")).get("id").getName(), ((Tag.Compound)root.get("b")).get("id").getName());
+		assertEquals(big, ((Tag.String)root.get("big")).v);
+		assertEquals("\u00e9", ((Tag.String)root.get("\u00e9t\u00e9")).v);
+
+		c = new char[70000];
+		Arrays.fill(c, 'x');
+		try
+		{
+			new Tag.String("huge", new String(c)).serialize(new ByteArrayOutputStream());
+			fail("A string longer than 65535 bytes was serialized");
+		}
+		catch(IllegalArgumentException e)
+		{
+		}
+	}
+
+	@Test
+	public void optionalAccessors() throws Throwable
+	{
+		Tag.Compound c = new Tag.Compound("", new Tag.Int("i", 5), new Tag.Short("s", (short)2), new Tag.ByteArray("b", new byte[3]));
+		assertEquals(5, c.getIntOr("i", -1));
+		assertEquals(-1, c.getIntOr("s", -1));
+		assertEquals(-1, c.getIntOr("missing", -1));
+		assertEquals(3, c.getByteArrayOrNull("b").length());
+		assertNull(c.getByteArrayOrNull("i"));
+		assertNull(c.getCompoundOrNull("missing"));
+		assertEquals(5, c.getOptional(Tag.Int.class, "i").get().v);
+		assertFalse(c.getOptional(Tag.Long.class, "i").isPresent());
+	}
+
+	@Test
+	public void lazyClones() throws Throwable
+	{
+		Tag.Compound template = new Tag.Compound("", new Tag.Compound("Level", new Tag.Int("xPos", 0),
+		                                                                      new Tag.List("Sections", Tag.Type.COMPOUND, new Tag.Compound(null, new Tag.Byte("Y", (byte)0)))));
+		ByteArrayOutputStream before = new ByteArrayOutputStream();
+		template.serialize(before);
+
+		Tag.Compound a = template.lazyClone(), b = template.lazyClone();
+		Tag.Compound level = (Tag.Compound)a.get("Level");
+		((Tag.Int)level.get("xPos")).v = 5;
+		((Tag.Byte)((Tag.Compound)((Tag.List)level.get("Sections")).get(0)).get("Y")).v = 3;
+		b.add(new Tag.Int("extra", 1));
+
+		ByteArrayOutputStream after = new ByteArrayOutputStream();
+		template.serialize(after);
+		assertArrayEquals(before.toByteArray(), after.toByteArray());
+		assertEquals(0, ((Tag.Int)((Tag.Compound)b.get("Level")).get("xPos")).v);
+		assertNull(a.get("extra"));
+		assertEquals(5, ((Tag.Int)((Tag.Compound)a.get("Level")).get("xPos")).v);
+		assertEquals(3, ((Tag.Byte)((Tag.Compound)((Tag.List)((Tag.Compound)a.get("Level")).get("Sections")).get(0)).get("Y")).v);
+		assertEquals(1, template.getSize());
+	}
+
+	@Test
+	public void stableOrder() throws Throwable
+	{
+		final byte[] raw;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			raw = IOUtils.toByteArray(CompressionScheme.GZip.getInputStream(fis));
+		}
+		ByteArrayOutputStream eager = new ByteArrayOutputStream();
+		Tag.deserialize(new ByteArrayInputStream(raw)).serialize(eager);
+		assertArrayEquals(raw, eager.toByteArray());
+
+		Tag.Compound root = (Tag.Compound)Tag.deserializeLazy(ByteBuffer.wrap(raw));
+		Tag.Compound data = (Tag.Compound)root.get("Data");
+		Tag.Long time = (Tag.Long)data.get("Time");
+		data.add(new Tag.Long("Time", time.v));
+		ByteArrayOutputStream lazy = new ByteArrayOutputStream();
+		root.serialize(lazy);
+		assertArrayEquals(raw, lazy.toByteArray());
+	}
+	@Test
+	public void exactStreamReads() throws Throwable
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new Tag.Compound("first", new Tag.Int("i", 1), Tag.List.ofDoubles("Pos", 1.0, 2.0)).serialize(baos);
+		new Tag.String("second", "after").serialize(baos);
+		baos.write(42);
+		ByteArrayInputStream is = new ByteArrayInputStream(baos.toByteArray());
+		assertEquals("first", Tag.deserialize(is).getName());
+		assertEquals("after", ((Tag.String)Tag.deserialize(is, "x")).v);
+		assertEquals(42, is.read());
+		assertEquals(-1, is.read());
+	}
+	@Test
+	public void contentHash() throws Throwable
+	{
+		final byte[] raw;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			raw = IOUtils.toByteArray(CompressionScheme.GZip.getInputStream(fis));
+		}
+		final long streamed = ContentHash.of(ByteBuffer.wrap(raw));
+		Tag.Compound eager = (Tag.Compound)Tag.deserialize(ByteBuffer.wrap(raw));
+		Tag.Compound lazy = (Tag.Compound)Tag.deserializeLazy(ByteBuffer.wrap(raw));
+		assertEquals(streamed, eager.contentHash());
+		assertEquals(streamed, lazy.contentHash());
+		assertTrue(lazy.contentEquals(eager));
+		assertTrue(eager.contentEquals(lazy));
+
+		Tag.Compound reversed = new Tag.Compound("", new Tag.Int("b", 2), new Tag.Int("a", 1));
+		Tag.Compound ordered = new Tag.Compound("", new Tag.Int("a", 1), new Tag.Int("b", 2));
+		assertEquals(ordered.contentHash(), reversed.contentHash());
+		assertTrue(ordered.contentEquals(reversed));
+
+		Tag.List primitive = Tag.List.ofDoubles("Pos", 1.0, 2.0, 3.0);
+		Tag.List boxed = new Tag.List("Pos", Tag.Type.DOUBLE, new Tag.Double(null, 1.0), new Tag.Double(null, 2.0), new Tag.Double(null, 3.0));
+		assertEquals(boxed.contentHash(), primitive.contentHash());
+		assertTrue(primitive.contentEquals(boxed));
+
+		Tag.Compound data = (Tag.Compound)lazy.get("Data");
+		((Tag.Long)data.get("Time")).v += 1;
+		assertFalse(streamed == lazy.contentHash());
+		assertFalse(lazy.contentEquals(eager));
+		assertFalse(ordered.contentEquals(new Tag.Compound("", new Tag.Int("a", 1), new Tag.Long("b", 2))));
+	}
+	@Test
+	public void diffAndPatch() throws Throwable
+	{
+		final byte[] raw;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			raw = IOUtils.toByteArray(CompressionScheme.GZip.getInputStream(fis));
+		}
+		Tag.Compound from = (Tag.Compound)Tag.deserialize(ByteBuffer.wrap(raw));
+		from.add(new Tag.ByteArray("Blocks", new byte[4096]), new Tag.List("Sections", Tag.Type.COMPOUND, new Tag.Compound(null, new Tag.Byte("Y", (byte)0))));
+		assertTrue(NbtDiff.between(from, from.clone()).isEmpty());
+
+		Tag.Compound to = from.clone();
+		Tag.Compound data = (Tag.Compound)to.get("Data");
+		((Tag.Long)data.get("Time")).v += 1000;
+		data.remove("RandomSeed");
+		data.add(new Tag.String("Note", "patched"));
+		((Tag.ByteArray)to.get("Blocks")).set(100, (byte)1);
+		((Tag.ByteArray)to.get("Blocks")).set(3000, (byte)2);
+		((Tag.List)to.get("Sections")).add(new Tag.Compound(null, new Tag.Byte("Y", (byte)1)));
+
+		NbtDiff diff = NbtDiff.between(from, to);
+		ByteArrayOutputStream patch = new ByteArrayOutputStream();
+		diff.serialize(patch);
+		assertTrue(patch.size() < 200);
+		NbtDiff read = NbtDiff.deserialize(new ByteArrayInputStream(patch.toByteArray()));
+		assertEquals(diff.size(), read.size());
+		assertTrue(to.contentEquals(read.apply(from.clone())));
+		assertTrue(from.contentEquals(NbtDiff.between(to, from).apply(to.clone())));
+		try
+		{
+			read.apply(new Tag.Compound(""));
+			fail("Applied a diff to the wrong tree");
+		}
+		catch(IllegalArgumentException e)
+		{
+		}
+	}
+	@Test
+	public void pathQueries() throws Throwable
+	{
+		Tag.Compound root = new Tag.Compound("", new Tag.Compound("Level",
+			new Tag.List("TileEntities", Tag.Type.COMPOUND,
+				new Tag.Compound(null, new Tag.String("id", "Chest"), new Tag.List("Items", Tag.Type.COMPOUND, new Tag.Compound(null, new Tag.Byte("Count", (byte)3)))),
+				new Tag.Compound(null, new Tag.String("id", "Furnace"), new Tag.Short("BurnTime", (short)0)),
+				new Tag.Compound(null, new Tag.List("Items", Tag.Type.COMPOUND), new Tag.String("id", "Chest"))),
+			new Tag.List("Entities", Tag.Type.COMPOUND,
+				new Tag.Compound(null, new Tag.String("id", "Pig"), new Tag.Float("Health", 10)),
+				new Tag.Compound(null, new Tag.String("id", "Cow"), new Tag.Float("Health", 4.5f)))));
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		root.serialize(raw);
+
+		String[][] queries =
+		{
+			{"Level/Entities[*]/id", "Pig", "Cow"},
+			{"Level/Entities/id", "Pig", "Cow"},
+			{"Level/Entities[1]/id", "Cow"},
+			{"Level/Entities[Health<5]/id", "Cow"},
+			{"Level/TileEntities[id==\"Chest\"]/id", "Chest", "Chest"},
+			{"Level/TileEntities[id!=\"Chest\"]/id", "Furnace"},
+			{"Level/TileEntities[BurnTime==0]/id", "Furnace"},
+			{"Level/TileEntities[Items/Count>=3]/id", "Chest"},
+			{"Level/*[id==\"Pig\"]/id", "Pig"},
+		};
+		for(String[] q : queries)
+		{
+			NbtPath path = NbtPath.compile(q[0]);
+			for(java.util.List<Tag> found : Arrays.asList(path.select(root), path.select(new ByteArrayInputStream(raw.toByteArray()))))
+			{
+				assertEquals(q[0], q.length-1, found.size());
+				for(int i = 1; i < q.length; ++i)
+				{
+					assertEquals(q[0], q[i], ((Tag.String)found.get(i-1)).v);
+				}
+			}
+		}
+		assertEquals(2, NbtPath.compile("Level/TileEntities[id==\"Chest\"]/Items").select(new ByteArrayInputStream(raw.toByteArray())).size());
+		try
+		{
+			NbtPath.compile("Level/Entities[id==]");
+			fail("Compiled an invalid path");
+		}
+		catch(IllegalArgumentException e)
+		{
+		}
+	}
+	@Test
+	public void snbt() throws Throwable
+	{
+		final byte[] raw;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			raw = IOUtils.toByteArray(CompressionScheme.GZip.getInputStream(fis));
+		}
+		Tag.Compound level = (Tag.Compound)Tag.deserialize(ByteBuffer.wrap(raw));
+		((Tag.Compound)((Tag.Compound)level.get("Data")).get("Player")).remove("EnderItems"); //empty, so its element type is not kept
+		level.add(new Tag.ByteArray("Blocks", new byte[]{-128, 0, 127}), new Tag.IntArray("Heights", new int[]{Integer.MIN_VALUE, 64}),
+			new Tag.LongArray("States", new long[]{Long.MAX_VALUE}), Tag.List.ofDoubles("Pos", 0.5, -1e300, Double.NaN),
+			Tag.List.ofFloats("Rotation", Float.NEGATIVE_INFINITY, 1.25f), new Tag.String("odd \"name\"", "line\n\t\"quoted\" \\ 'single'"));
+		final String text = Snbt.toString(level);
+		Tag back = Snbt.parse("", text);
+		assertTrue(level.contentEquals(back));
+		assertEquals(text, Snbt.toString(back));
+
+		Tag.Compound parsed = (Tag.Compound)Snbt.parse("x", " { id : \"minecraft:chest\" , 'Custom Name':'It\\'s', Count:3B, Lock:true, d:1.5, e:-2e3, i:[I; 1, -2 ], l:[], s:[\"a\",b] } ");
+		assertEquals("x", parsed.getName());
+		assertEquals("minecraft:chest", parsed.getStringOr("id", null));
+		assertEquals("It's", parsed.getStringOr("Custom Name", null));
+		assertEquals(3, parsed.getByteOr("Count", (byte)0));
+		assertEquals(1, parsed.getByteOr("Lock", (byte)0));
+		assertEquals(1.5, parsed.getDoubleOr("d", 0), 0);
+		assertEquals(-2000, parsed.getDoubleOr("e", 0), 0);
+		assertArrayEquals(new int[]{1, -2}, parsed.getIntArrayOrNull("i").array());
+		assertEquals(Tag.Type.END, parsed.getListOrNull("l").getContainedType());
+		assertEquals(Tag.Type.STRING, parsed.getListOrNull("s").getContainedType());
+		for(String bad : new String[]{"{a:1", "{a:1,a:2}", "[1,2b]", "[B;1,2]", "\"open", "{a:1} b", "[X;1]"})
+		{
+			try
+			{
+				Snbt.parse("", bad);
+				fail("Parsed invalid SNBT: "+bad);
+			}
+			catch(FormatException e)
+			{
+			}
+		}
+	}
+	@Test
+	public void snbtLimits() throws Throwable
+	{
+		StringBuilder deep = new StringBuilder();
+		for(int i = 0; i < 200000; ++i)
+		{
+			deep.append(i % 2 == 0 ? "[" : "[{a:");
+		}
+		try
+		{
+			Snbt.parse("", deep);
+			fail("Parsed SNBT nested 200000 levels deep");
+		}
+		catch(FormatException e)
+		{
+		}
+		StringBuilder ok = new StringBuilder();
+		for(int i = 0; i < 512; ++i)
+		{
+			ok.append('[');
+		}
+		for(int i = 0; i < 512; ++i)
+		{
+			ok.append(']');
+		}
+		assertEquals(Tag.Type.LIST, Snbt.parse("", ok).getType());
+		try
+		{
+			Snbt.parse("", "[" + ok + "]");
+			fail("Parsed SNBT nested 513 levels deep");
+		}
+		catch(FormatException e)
+		{
+		}
+		final NbtLimits limits = new NbtLimits(4, 3, 1);
+		assertEquals(2, ((Tag.Compound)Snbt.parse("", "{a:[1,2,3],b:[I;1,2,3]}", limits)).getSize());
+		for(String bad : new String[]{"[1,2,3,4]", "[B;1b,2b,3b,4b]", "[L;1L,2L,3L,4L]", "{a:{b:{c:{d:{}}}}}"})
+		{
+			try
+			{
+				Snbt.parse("", bad, limits);
+				fail("Parsed SNBT beyond "+limits+": "+bad);
+			}
+			catch(FormatException e)
+			{
+			}
+		}
+	}
+	@Test
+	public void decodeLimits() throws Throwable
+	{
+		ByteArrayOutputStream deep = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(deep);
+		out.writeByte(Tag.Type.COMPOUND.ordinal());
+		out.writeUTF("");
+		for(int i = 0; i < 100000; ++i)
+		{
+			out.writeByte(Tag.Type.COMPOUND.ordinal());
+			out.writeUTF("a");
+		}
+		out.write(new byte[100001]);
+		try
+		{
+			Tag.deserialize(ByteBuffer.wrap(deep.toByteArray()));
+			fail("Decoded 100000 nested compounds");
+		}
+		catch(FormatException e)
+		{
+		}
+
+		ByteArrayOutputStream huge = new ByteArrayOutputStream();
+		out = new DataOutputStream(huge);
+		out.writeByte(Tag.Type.BYTEARRAY.ordinal());
+		out.writeUTF("Blocks");
+		out.writeInt(Integer.MAX_VALUE - 8);
+		out.write(new byte[16]);
+		try
+		{
+			Tag.deserialize(ByteBuffer.wrap(huge.toByteArray()));
+			fail("Decoded an array longer than its buffer");
+		}
+		catch(EOFException e)
+		{
+		}
+		try
+		{
+			Tag.deserialize(new NbtInput(new ByteArrayInputStream(huge.toByteArray())).limits(new NbtLimits(512, 1 << 20, 1 << 20)));
+			fail("Decoded an array longer than the limit");
+		}
+		catch(FormatException e)
+		{
+		}
+
+		final byte[] raw;
+		try(FileInputStream fis = new FileInputStream(TestingUtils.getInputFile("level.dat")))
+		{
+			raw = IOUtils.toByteArray(CompressionScheme.GZip.getInputStream(fis));
+		}
+		Tag level = Tag.deserialize(new NbtInput(new ByteArrayInputStream(raw)).limits(new NbtLimits(8, 64, raw.length)));
+		assertEquals(ContentHash.of(ByteBuffer.wrap(raw)), level.contentHash());
+		for(NbtLimits tight : new NbtLimits[]{new NbtLimits(2, 64, raw.length), new NbtLimits(8, 2, raw.length), new NbtLimits(8, 64, raw.length/2)})
+		{
+			try
+			{
+				Tag.deserialize(new NbtInput(new ByteArrayInputStream(raw)).limits(tight));
+				fail("Decoded level.dat within "+tight);
+			}
+			catch(FormatException e)
+			{
+			}
+		}
+	}
+
+	@Test
+	public void limitsCountStrings() throws Throwable
+	{
+		final NbtLimits limits = new NbtLimits(512, 1 << 20, 4096);
+		char[] x = new char[1000];
+		Arrays.fill(x, 'x');
+		Tag[] named = new Tag[200];
+		Tag[] unnamed = new Tag[200];
+		for(int i = 0; i < named.length; ++i)
+		{
+			named[i] = new Tag.String("s"+i, new String(x));
+			unnamed[i] = new Tag.String(null, new String(x));
+		}
+		ByteArrayOutputStream flat = new ByteArrayOutputStream();
+		new Tag.Compound("", named).serialize(flat);
+		ByteArrayOutputStream list = new ByteArrayOutputStream();
+		new Tag.Compound("", new Tag.List("l", Tag.Type.STRING, unnamed)).serialize(list);
+		ByteArrayOutputStream claimed = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(claimed);
+		out.writeByte(Tag.Type.LIST.ordinal());
+		out.writeUTF("l");
+		out.writeByte(Tag.Type.STRING.ordinal());
+		out.writeInt(3000);
+		for(ByteArrayOutputStream doc : new ByteArrayOutputStream[]{flat, list, claimed})
+		{
+			try
+			{
+				Tag.deserialize(new NbtInput(new ByteArrayInputStream(doc.toByteArray())).limits(limits));
+				fail("Decoded "+doc.size()+" bytes within "+limits);
+			}
+			catch(FormatException e)
+			{
+			}
+		}
+	}
 }